@@ -0,0 +1,213 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.http.filter.throttling;
+
+import static java.lang.String.format;
+import static org.forgerock.http.filter.throttling.ShardedTokenBucketStore.fingerprint;
+import static org.forgerock.http.filter.throttling.ShardedTokenBucketStore.index;
+import static org.forgerock.util.Reject.checkNotNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.util.Reject;
+import org.forgerock.util.time.TimeService;
+
+/**
+ * A {@link TokenBucketBackend} sharing its buckets through a memory-mapped file, so that all the gateways running on
+ * the same machine enforce the same rates. This is mainly a stand-in for a real distributed backend, allowing to test
+ * cluster-wide throttling on a single machine.
+ *
+ * <p>The file holds a fixed number of slots; when a partition key cannot find room, the least recently refilled
+ * bucket of its neighbourhood is evicted. Every lease locks the whole file.
+ */
+public class FileTokenBucketBackend implements TokenBucketBackend, Closeable {
+
+    /** Default number of buckets held in the file. */
+    public static final int DEFAULT_SIZE = 10000;
+
+    /** Identifies the files created by this class ("OIGTKBKT"). */
+    private static final long MAGIC = 0x4f4947544b424b54L;
+
+    private static final int HEADER_SIZE = 16;
+
+    /** A slot holds the key fingerprint, capacity, duration, last refill timestamp and remaining tokens. */
+    private static final int SLOT_SIZE = 40;
+    private static final int CAPACITY = 8;
+    private static final int DURATION = 16;
+    private static final int TIMESTAMP = 24;
+    private static final int TOKENS = 32;
+
+    /** Number of slots where a partition key can be stored. */
+    private static final int PROBES = 8;
+
+    /** Largest number of buckets that can be held in a file. */
+    private static final int MAX_SIZE = (Integer.MAX_VALUE - HEADER_SIZE) / SLOT_SIZE;
+
+    /**
+     * File locks are held on behalf of the whole JVM: backends sharing a file in the same JVM also have to
+     * synchronize on a common monitor.
+     */
+    private static final ConcurrentMap<File, Object> MONITORS = new ConcurrentHashMap<>();
+
+    private final TimeService time;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int slots;
+    private final Object monitor;
+
+    /**
+     * Opens (or creates) the given file.
+     *
+     * @param time
+     *         the time service (must not be {@code null}).
+     * @param file
+     *         the file holding the buckets (must not be {@code null}).
+     * @param size
+     *         the number of buckets to hold when the file is created (must be at least 8, and less than 53 millions);
+     *         an existing file keeps its own size.
+     * @throws IOException
+     *         if the file cannot be opened or has not been created by this class
+     */
+    public FileTokenBucketBackend(final TimeService time, final File file, final int size) throws IOException {
+        Reject.ifTrue(size < PROBES || size > MAX_SIZE, format("The size has to be in the range [%d, %d].",
+                                                               PROBES, MAX_SIZE));
+        this.time = checkNotNull(time);
+        this.monitor = monitor(file.getCanonicalFile());
+        this.channel = new RandomAccessFile(file, "rw").getChannel();
+        try {
+            synchronized (monitor) {
+                try (FileLock lock = channel.lock()) {
+                    if (channel.size() < HEADER_SIZE) {
+                        slots = size;
+                        buffer = map();
+                        buffer.putLong(0, MAGIC);
+                        buffer.putInt(8, slots);
+                    } else {
+                        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+                        if (header.getLong(0) != MAGIC) {
+                            throw new IOException(format("'%s' is not a token bucket file", file));
+                        }
+                        slots = header.getInt(8);
+                        buffer = map();
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private MappedByteBuffer map() throws IOException {
+        return channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) slots * SLOT_SIZE);
+    }
+
+    private static Object monitor(final File file) {
+        Object monitor = new Object();
+        Object previous = MONITORS.putIfAbsent(file, monitor);
+        return (previous != null) ? previous : monitor;
+    }
+
+    @Override
+    public TokenLease lease(final String partitionKey, final ThrottlingRate rate, final int tokens)
+            throws IOException {
+        long fingerprint = fingerprint(partitionKey);
+        int capacity = rate.getNumberOfRequests();
+        long duration = rate.getDuration().to(TimeUnit.MILLISECONDS);
+        synchronized (monitor) {
+            try (FileLock lock = channel.lock()) {
+                long now = time.now();
+                int slot = select(fingerprint, now);
+                if (buffer.getLong(slot) != fingerprint
+                        || buffer.getLong(slot + CAPACITY) != capacity
+                        || buffer.getLong(slot + DURATION) != duration) {
+                    // New bucket, or the rate definition has changed: start at full capacity
+                    buffer.putLong(slot, fingerprint);
+                    buffer.putLong(slot + CAPACITY, capacity);
+                    buffer.putLong(slot + DURATION, duration);
+                    buffer.putLong(slot + TIMESTAMP, now);
+                    buffer.putLong(slot + TOKENS, capacity);
+                }
+                return take(slot, capacity, duration, tokens, now);
+            }
+        }
+    }
+
+    /**
+     * Refills the bucket held by the given slot, then takes up to {@code requested} tokens, following the same
+     * algorithm as {@link TokenBucket#tryConsume()}.
+     */
+    private TokenLease take(final int slot, final int capacity, final long duration, final int requested,
+                            final long now) {
+        final float millisToWaitForNextToken = duration / (float) capacity;
+        long timestampLastRefill = buffer.getLong(slot + TIMESTAMP);
+        long counter = buffer.getLong(slot + TOKENS);
+        long elapsedTime = Math.min(duration, now - timestampLastRefill);
+        long newTokens = (long) (elapsedTime / millisToWaitForNextToken);
+        if (newTokens > 0) {
+            buffer.putLong(slot + TIMESTAMP, now);
+            counter = Math.min(capacity, counter + newTokens);
+        }
+        if (counter <= 0) {
+            long delayForNextRetryInMillis = (timestampLastRefill + (long) millisToWaitForNextToken) - now;
+            // Return at least 1ms to indicate we did not grant a token
+            return TokenLease.denied(Math.max(delayForNextRetryInMillis, 1));
+        }
+        int granted = (int) Math.min(counter, requested);
+        buffer.putLong(slot + TOKENS, counter - granted);
+        return TokenLease.granted(granted);
+    }
+
+    /**
+     * Returns the offset of the slot holding (or that will hold) the bucket with the given fingerprint.
+     */
+    private int select(final long fingerprint, final long now) {
+        int home = index(fingerprint, slots);
+        int free = -1;
+        int oldest = -1;
+        long oldestTimestamp = Long.MAX_VALUE;
+        for (int probe = 0; probe < PROBES; probe++) {
+            int slot = HEADER_SIZE + ((home + probe) % slots) * SLOT_SIZE;
+            long key = buffer.getLong(slot);
+            if (key == fingerprint) {
+                return slot;
+            }
+            if (key == 0L) {
+                if (free < 0) {
+                    free = slot;
+                }
+            } else if (buffer.getLong(slot + TIMESTAMP) < oldestTimestamp) {
+                oldestTimestamp = buffer.getLong(slot + TIMESTAMP);
+                oldest = slot;
+            }
+        }
+        return (free >= 0) ? free : oldest;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.http.filter.throttling;
+
+import static org.forgerock.util.Reject.checkNotNull;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.util.Reject;
+import org.forgerock.util.time.TimeService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link TokenBucketStore} enforcing the rates cluster-wide, through a shared {@link TokenBucketBackend}.
+ *
+ * <p>To avoid a round trip to the backend per request, tokens are borrowed by batches of {@code leaseSize} tokens
+ * (never more than the bucket's capacity) and consumed locally. Leased tokens that have not been consumed within the
+ * rate's duration are dropped. When the backend denies a lease, requests for the same partition key are rejected
+ * locally until the delay it returned has elapsed.
+ *
+ * <p>If the backend cannot be reached, the rates are enforced locally (per gateway) until it is back.
+ */
+public class LeasingTokenBucketStore implements TokenBucketStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LeasingTokenBucketStore.class);
+
+    private final TimeService time;
+    private final TokenBucketBackend backend;
+    private final int leaseSize;
+    private final ConcurrentMap<String, Lease> leases = new ConcurrentHashMap<>();
+    private final TokenBucketStore fallback;
+
+    /**
+     * Constructs a new store.
+     *
+     * @param time
+     *         the time service (must not be {@code null}).
+     * @param backend
+     *         the backend holding the shared buckets (must not be {@code null}).
+     * @param leaseSize
+     *         the number of tokens to borrow at once from the backend (must be greater than 0).
+     */
+    public LeasingTokenBucketStore(final TimeService time, final TokenBucketBackend backend, final int leaseSize) {
+        Reject.ifTrue(leaseSize <= 0, "The lease size has to be greater than 0.");
+        this.time = checkNotNull(time);
+        this.backend = checkNotNull(backend);
+        this.leaseSize = leaseSize;
+        this.fallback = new MapTokenBucketStore(time, new ConcurrentHashMap<String, TokenBucket>());
+    }
+
+    @Override
+    public long tryConsume(final String partitionKey, final ThrottlingRate rate) {
+        Lease lease = leases.get(partitionKey);
+        if (lease == null) {
+            Lease created = new Lease();
+            lease = leases.putIfAbsent(partitionKey, created);
+            if (lease == null) {
+                lease = created;
+            }
+        }
+        return lease.tryConsume(partitionKey, rate);
+    }
+
+    @Override
+    public void clean() {
+        long now = time.now();
+        Iterator<Lease> iterator = leases.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isExpired(now)) {
+                iterator.remove();
+            }
+        }
+        fallback.clean();
+    }
+
+    /**
+     * The tokens leased for a partition key. Only one request at a time per partition key borrows tokens from the
+     * backend, without holding the lock: meanwhile, the concurrent requests consume the tokens left, if any, or are
+     * throttled locally instead of waiting for the backend.
+     */
+    private final class Lease {
+        private ThrottlingRate rate;
+        private int tokens;
+        private long expiry;
+        private long retryAt;
+        private boolean renewing;
+
+        long tryConsume(final String partitionKey, final ThrottlingRate rate) {
+            synchronized (this) {
+                long now = time.now();
+                if (!rate.equals(this.rate) || now >= expiry) {
+                    // Leased tokens are only valid for the rate they have been taken for, and during its duration
+                    this.rate = rate;
+                    tokens = 0;
+                }
+                if (tokens > 0) {
+                    tokens--;
+                    return 0;
+                }
+                if (now < retryAt) {
+                    return retryAt - now;
+                }
+                if (renewing) {
+                    return fallback.tryConsume(partitionKey, rate);
+                }
+                renewing = true;
+            }
+
+            TokenLease lease = null;
+            try {
+                lease = backend.lease(partitionKey, rate, Math.min(leaseSize, rate.getNumberOfRequests()));
+            } catch (IOException e) {
+                LOGGER.warn("Cannot lease tokens for the partition {}, throttling locally", partitionKey, e);
+            } finally {
+                if (lease == null) {
+                    synchronized (this) {
+                        renewing = false;
+                    }
+                }
+            }
+            if (lease == null) {
+                return fallback.tryConsume(partitionKey, rate);
+            }
+            return renewed(rate, lease);
+        }
+
+        private synchronized long renewed(final ThrottlingRate rate, final TokenLease lease) {
+            renewing = false;
+            long now = time.now();
+            if (lease.getTokens() > 0) {
+                this.rate = rate;
+                tokens = lease.getTokens() - 1;
+                expiry = now + rate.getDuration().to(TimeUnit.MILLISECONDS);
+                return 0;
+            }
+            retryAt = now + lease.getDelay();
+            return lease.getDelay();
+        }
+
+        synchronized boolean isExpired(final long now) {
+            // A lease being renewed is kept: the renewal would otherwise be lost
+            return !renewing && now >= expiry && now >= retryAt;
+        }
+    }
+}
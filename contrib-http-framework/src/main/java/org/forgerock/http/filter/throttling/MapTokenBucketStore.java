@@ -0,0 +1,90 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.http.filter.throttling;
+
+import static org.forgerock.util.Reject.checkNotNull;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import org.forgerock.util.time.TimeService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Default {@link TokenBucketStore}, keeping one {@link TokenBucket} per partition key in a {@link ConcurrentMap}.
+ * The number of buckets is not bounded.
+ */
+class MapTokenBucketStore implements TokenBucketStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MapTokenBucketStore.class);
+
+    private final TimeService time;
+    private final ConcurrentMap<String, TokenBucket> buckets;
+
+    MapTokenBucketStore(final TimeService time, final ConcurrentMap<String, TokenBucket> buckets) {
+        this.time = checkNotNull(time);
+        this.buckets = checkNotNull(buckets);
+    }
+
+    @Override
+    public long tryConsume(final String partitionKey, final ThrottlingRate rate) {
+        TokenBucket bucket = selectTokenBucket(partitionKey, rate);
+        LOGGER.trace("Applying rate {} requests per {} ms ({} remaining tokens)",
+                     bucket.getCapacity(),
+                     bucket.getDurationInMillis(),
+                     bucket.getRemainingTokensCount());
+        return bucket.tryConsume();
+    }
+
+    /**
+     * Select the {@code TokenBucket} to use : either a new one or an existing one if there was already a "session"
+     * in progress.
+     */
+    private TokenBucket selectTokenBucket(final String partitionKey, final ThrottlingRate rate) {
+        TokenBucket tokenBucket = new TokenBucket(time, rate);
+        for (;;) {
+            TokenBucket previous = buckets.putIfAbsent(partitionKey, tokenBucket);
+            if (previous == null) {
+                // There was no previous TokenBucket, so go on with that freshly created one
+                return tokenBucket;
+            } else if (previous.isEquivalent(tokenBucket)) {
+                // Let's continue with the previous one as it may already be processing some requests
+                return previous;
+            } else if (buckets.replace(partitionKey, previous, tokenBucket)) {
+                // The rate definition has changed so try to assign this new TokenBucket
+                return tokenBucket;
+            } else {
+                // The rate definition was not the same but has already been updated,
+                // let's loop once more to see if we get more chance.
+            }
+        }
+    }
+
+    @Override
+    public void clean() {
+        Iterator<Map.Entry<String, TokenBucket>> iterator = buckets.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, TokenBucket> entry = iterator.next();
+            TokenBucket tokenBucket = entry.getValue();
+            if (tokenBucket.isExpired()) {
+                iterator.remove();
+                LOGGER.trace("Cleaned the partition {}", entry.getKey());
+            }
+        }
+    }
+}
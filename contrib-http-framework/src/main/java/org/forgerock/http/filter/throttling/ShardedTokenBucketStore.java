@@ -0,0 +1,365 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.http.filter.throttling;
+
+import static org.forgerock.util.Reject.checkNotNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.forgerock.util.Reject;
+import org.forgerock.util.time.TimeService;
+
+/**
+ * A {@link TokenBucketStore} using a fixed amount of memory, whatever the number of partition keys.
+ *
+ * <p>Buckets are kept in open-addressed tables of primitive {@code long}s, split in shards. Each bucket is identified
+ * by a 64-bit fingerprint of its partition key, and its state (remaining tokens and last refill time) is packed in a
+ * single {@code long} so that consuming a token is a lock-free compare-and-set. Only inserting a new partition key
+ * locks its shard.
+ *
+ * <p>A partition key can only be stored in a small window of slots. When this window is full, the bucket that has not
+ * been refilled for the longest time is evicted (an approximation of LRU), unless the store is <em>approximate</em>:
+ * in that case, live buckets are kept and the requests of the extra partition keys are throttled by a count-min
+ * sketch of shared token buckets. The sketch never lets more requests through than the rate allows, but a partition
+ * key colliding with busy keys may be throttled early.
+ *
+ * <p>Rates cannot exceed {@link #MAX_CAPACITY} requests, nor last more than {@link #MAX_DURATION} milliseconds.
+ */
+public final class ShardedTokenBucketStore implements TokenBucketStore {
+
+    /** Largest supported number of requests per rate duration. */
+    public static final int MAX_CAPACITY = (1 << 24) - 1;
+
+    /** Largest supported rate duration, in milliseconds. */
+    public static final long MAX_DURATION = (1L << 39) - 1;
+
+    /** Number of bits holding the remaining tokens in a packed state. */
+    private static final int COUNTER_BITS = 24;
+
+    /** State of a bucket that has never been consumed. */
+    private static final long FRESH = -1L;
+
+    /** Fingerprint of a free slot. */
+    private static final long EMPTY = 0L;
+
+    /** Number of slots where a partition key can be stored. */
+    private static final int PROBES = 8;
+
+    /** Number of rows of the count-min sketch. */
+    private static final int SKETCH_DEPTH = 4;
+
+    private final TimeService time;
+    private final long origin;
+    private final Shard[] shards;
+    private final AtomicLongArray sketch;
+    private final int sketchWidth;
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong overflows = new AtomicLong();
+
+    /**
+     * Constructs a new store.
+     *
+     * @param time
+     *         the time service (must not be {@code null}).
+     * @param maxBuckets
+     *         the maximum number of buckets kept in memory (must be greater than 0).
+     * @param approximate
+     *         {@code true} to throttle the partition keys exceeding {@code maxBuckets} with a count-min sketch,
+     *         {@code false} to evict the least recently refilled buckets instead.
+     */
+    public ShardedTokenBucketStore(final TimeService time, final int maxBuckets, final boolean approximate) {
+        Reject.ifTrue(maxBuckets <= 0, "The maximum number of buckets has to be greater than 0.");
+        this.time = checkNotNull(time);
+        this.origin = time.now();
+
+        int shardCount = Math.min(Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4),
+                                  Math.max(1, Integer.highestOneBit(maxBuckets / PROBES)));
+        int slots = Math.max(PROBES, maxBuckets / shardCount);
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(slots);
+        }
+
+        if (approximate) {
+            sketchWidth = Math.max(1, maxBuckets / SKETCH_DEPTH);
+            sketch = new AtomicLongArray(sketchWidth * SKETCH_DEPTH);
+            for (int i = 0; i < sketch.length(); i++) {
+                sketch.set(i, FRESH);
+            }
+        } else {
+            sketchWidth = 0;
+            sketch = null;
+        }
+    }
+
+    @Override
+    public long tryConsume(final String partitionKey, final ThrottlingRate rate) {
+        int capacity = rate.getNumberOfRequests();
+        long duration = rate.getDuration().to(TimeUnit.MILLISECONDS);
+        Reject.ifTrue(capacity > MAX_CAPACITY, "The bucket's capacity is too large.");
+        Reject.ifTrue(duration > MAX_DURATION, "The bucket's duration is too long.");
+
+        long fingerprint = fingerprint(partitionKey);
+        long signature = (duration << COUNTER_BITS) | capacity;
+        Shard shard = shards[(int) (fingerprint >>> 40) & (shards.length - 1)];
+        return shard.tryConsume(fingerprint, signature, capacity, duration, now());
+    }
+
+    @Override
+    public void clean() {
+        long now = now();
+        for (Shard shard : shards) {
+            shard.clean(now);
+        }
+    }
+
+    /**
+     * Returns the number of buckets currently stored.
+     *
+     * @return the number of buckets currently stored
+     */
+    public int getSize() {
+        int size = 0;
+        for (Shard shard : shards) {
+            for (int i = 0; i < shard.keys.length(); i++) {
+                if (shard.keys.get(i) != EMPTY) {
+                    size++;
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of live buckets evicted to make room for other partition keys.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the number of requests throttled by the count-min sketch because their partition key could not be
+     * stored.
+     *
+     * @return the number of requests throttled by the count-min sketch
+     */
+    public long getOverflowCount() {
+        return overflows.get();
+    }
+
+    private long now() {
+        return Math.max(0L, time.now() - origin);
+    }
+
+    private long trySketch(final long fingerprint, final int capacity, final long duration, final long now) {
+        overflows.incrementAndGet();
+        // Each cell under-estimates the tokens left to the partition key: one cell with tokens left is enough
+        boolean consumed = false;
+        long delay = Long.MAX_VALUE;
+        for (int row = 0; row < SKETCH_DEPTH; row++) {
+            int cell = row * sketchWidth + index(mix(fingerprint + row * 0x9e3779b97f4a7c15L), sketchWidth);
+            long cellDelay = consume(sketch, cell, capacity, duration, now);
+            if (cellDelay <= 0) {
+                consumed = true;
+            } else {
+                delay = Math.min(delay, cellDelay);
+            }
+        }
+        return consumed ? 0 : delay;
+    }
+
+    /**
+     * Consumes a token from the packed bucket state stored at the given index, following the same algorithm as
+     * {@link TokenBucket#tryConsume()}.
+     */
+    private static long consume(final AtomicLongArray states,
+                                final int index,
+                                final int capacity,
+                                final long duration,
+                                final long now) {
+        final float millisToWaitForNextToken = duration / (float) capacity;
+        do {
+            final long current = states.get(index);
+            final long next;
+            if (current == FRESH) {
+                // First time, start at full capacity minus the current call.
+                next = pack(now, capacity - 1);
+            } else {
+                long timestampLastRefill = timestamp(current);
+                long counter = current & MAX_CAPACITY;
+                long elapsedTime = Math.min(duration, now - timestampLastRefill);
+                long newTokens = (long) (elapsedTime / millisToWaitForNextToken);
+                // Refill the bucket as much as possible
+                if (newTokens > 0) {
+                    timestampLastRefill = now;
+                    counter = Math.min(capacity, counter + newTokens);
+                }
+
+                if (counter <= 0) {
+                    long delayForNextRetryInMillis =
+                            (timestamp(current) + (long) millisToWaitForNextToken) - now;
+                    // Return at least 1ms to indicate we did not consume a token
+                    return Math.max(delayForNextRetryInMillis, 1);
+                }
+                next = pack(timestampLastRefill, counter - 1);
+            }
+            if (states.compareAndSet(index, current, next)) {
+                return 0;
+            }
+            // Someone else updated the bucket's state before us, let's try again.
+        } while (true);
+    }
+
+    private static long pack(final long timestamp, final long counter) {
+        return (timestamp << COUNTER_BITS) | counter;
+    }
+
+    private static long timestamp(final long state) {
+        return state >>> COUNTER_BITS;
+    }
+
+    private static boolean isExpired(final long state, final long signature, final long now) {
+        return state != FRESH && (now - timestamp(state)) > (signature >>> COUNTER_BITS);
+    }
+
+    static long fingerprint(final String partitionKey) {
+        // FNV-1a, followed by a final mix to spread the bits used for shard and slot selection
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < partitionKey.length(); i++) {
+            hash ^= partitionKey.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash = mix(hash);
+        return (hash == EMPTY) ? 1L : hash;
+    }
+
+    private static long mix(final long value) {
+        long z = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /** Maps the low 32 bits of the given hash to [0, size[. */
+    static int index(final long hash, final int size) {
+        return (int) (((hash & 0xffffffffL) * size) >>> 32);
+    }
+
+    /**
+     * A fixed-size table of buckets. Lookups and token consumption are lock-free, inserting a new partition key
+     * synchronizes on the shard.
+     */
+    private final class Shard {
+        private final AtomicLongArray keys;
+        private final AtomicLongArray signatures;
+        private final AtomicLongArray states;
+
+        Shard(final int slots) {
+            keys = new AtomicLongArray(slots);
+            signatures = new AtomicLongArray(slots);
+            states = new AtomicLongArray(slots);
+        }
+
+        long tryConsume(final long fingerprint,
+                        final long signature,
+                        final int capacity,
+                        final long duration,
+                        final long now) {
+            int home = index(fingerprint, keys.length());
+            for (int probe = 0; probe < PROBES; probe++) {
+                int slot = slot(home, probe);
+                if (keys.get(slot) == fingerprint && signatures.get(slot) == signature) {
+                    return consume(states, slot, capacity, duration, now);
+                }
+            }
+            return insert(fingerprint, signature, capacity, duration, now);
+        }
+
+        private synchronized long insert(final long fingerprint,
+                                         final long signature,
+                                         final int capacity,
+                                         final long duration,
+                                         final long now) {
+            int home = index(fingerprint, keys.length());
+            int free = -1;
+            int victim = -1;
+            long victimAge = -1L;
+            for (int probe = 0; probe < PROBES; probe++) {
+                int slot = slot(home, probe);
+                long key = keys.get(slot);
+                if (key == fingerprint) {
+                    if (signatures.get(slot) != signature) {
+                        // The rate definition has changed: start again with a new bucket
+                        claim(slot, fingerprint, signature);
+                    }
+                    return consume(states, slot, capacity, duration, now);
+                }
+                if (key == EMPTY) {
+                    if (free < 0) {
+                        free = slot;
+                    }
+                    continue;
+                }
+                long state = states.get(slot);
+                long age = (state == FRESH) ? 0L : now - timestamp(state);
+                if (age > victimAge) {
+                    victimAge = age;
+                    victim = slot;
+                }
+            }
+
+            if (free < 0) {
+                if (!isExpired(states.get(victim), signatures.get(victim), now)) {
+                    if (sketch != null) {
+                        return trySketch(fingerprint, capacity, duration, now);
+                    }
+                    evictions.incrementAndGet();
+                }
+                free = victim;
+            }
+            claim(free, fingerprint, signature);
+            return consume(states, free, capacity, duration, now);
+        }
+
+        /** Assigns a new bucket to the given slot; the fingerprint is published last. */
+        private void claim(final int slot, final long fingerprint, final long signature) {
+            keys.set(slot, EMPTY);
+            states.set(slot, FRESH);
+            signatures.set(slot, signature);
+            keys.set(slot, fingerprint);
+        }
+
+        void clean(final long now) {
+            for (int slot = 0; slot < keys.length(); slot++) {
+                if (keys.get(slot) != EMPTY && isExpired(states.get(slot), signatures.get(slot), now)) {
+                    synchronized (this) {
+                        if (isExpired(states.get(slot), signatures.get(slot), now)) {
+                            keys.set(slot, EMPTY);
+                        }
+                    }
+                }
+            }
+        }
+
+        private int slot(final int home, final int probe) {
+            int slot = home + probe;
+            return (slot >= keys.length()) ? slot - keys.length() : slot;
+        }
+    }
+}
@@ -24,8 +24,6 @@ import static org.forgerock.util.Reject.checkNotNull;
 import static org.forgerock.util.promise.Promises.newResultPromise;
 import static org.forgerock.util.time.Duration.duration;
 
-import java.util.Iterator;
-import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
@@ -61,26 +59,16 @@ public class ThrottlingFilter implements Filter {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ThrottlingFilter.class);
 
-    private final TimeService time;
     private final AsyncFunction<ContextAndRequest, String, Exception> requestGroupingPolicy;
     private final ThrottlingPolicy throttlingRatePolicy;
-    private final ConcurrentMap<String, TokenBucket> buckets;
+    private final TokenBucketStore buckets;
     private final ScheduledFuture<?> cleaningFuture;
 
     private class CleaningThread implements Runnable {
 
         @Override
         public void run() {
-            final ConcurrentMap<String, TokenBucket> buckets = ThrottlingFilter.this.buckets;
-            Iterator<Map.Entry<String, TokenBucket>> iterator = buckets.entrySet().iterator();
-            while (iterator.hasNext()) {
-                Map.Entry<String, TokenBucket> entry = iterator.next();
-                TokenBucket tokenBucket = entry.getValue();
-                if (tokenBucket.isExpired()) {
-                    iterator.remove();
-                    ThrottlingFilter.LOGGER.trace("Cleaned the partition {}", entry.getKey());
-                }
-            }
+            buckets.clean();
         }
 
     }
@@ -120,7 +108,33 @@ public class ThrottlingFilter implements Filter {
                      AsyncFunction<ContextAndRequest, String, Exception> requestGroupingPolicy,
                      ThrottlingPolicy throttlingRatePolicy,
                      ConcurrentMap<String, TokenBucket> buckets) {
-        this.time = checkNotNull(time);
+        this(scheduledExecutor,
+             cleaningInterval,
+             requestGroupingPolicy,
+             throttlingRatePolicy,
+             new MapTokenBucketStore(time, buckets));
+    }
+
+    /**
+     * Constructs a ThrottlingFilter.
+     *
+     * @param scheduledExecutor
+     *         the scheduled executor service used to schedule house cleaning tasks (must not be {@code null}).
+     * @param cleaningInterval
+     *         the interval to wait for cleaning outdated buckets (must not be {@code null} and in the range
+     *         ]0, 1 day]).
+     * @param requestGroupingPolicy
+     *         the key used to identify the token bucket (must not be {@code null}).
+     * @param throttlingRatePolicy
+     *         the datasource where to lookup for the rate to apply (must not be {@code null}).
+     * @param buckets
+     *         the store holding the token buckets (must not be {@code null}).
+     */
+    public ThrottlingFilter(ScheduledExecutorService scheduledExecutor,
+                            Duration cleaningInterval,
+                            AsyncFunction<ContextAndRequest, String, Exception> requestGroupingPolicy,
+                            ThrottlingPolicy throttlingRatePolicy,
+                            TokenBucketStore buckets) {
         this.requestGroupingPolicy = checkNotNull(requestGroupingPolicy);
         this.throttlingRatePolicy = checkNotNull(throttlingRatePolicy);
         this.buckets = checkNotNull(buckets);
@@ -171,48 +185,15 @@ public class ThrottlingFilter implements Filter {
                                 return next.handle(context, request);
                             }
 
-                            return throttle(selectTokenBucket(partitionKey, throttlingRate));
+                            return throttle(partitionKey, throttlingRate);
                         } catch (ExecutionException | InterruptedException | IllegalArgumentException e) {
                             return newResponsePromise(newInternalServerError(e));
                         }
                     }
 
-                    /**
-                     * Select the {@code TokenBucket} to use : either the one passed as parameter or an
-                     * existing one if there was
-                     * already a "session" in progress.
-                     * If {@code requestGroupingPolicy} is null, then {@literal null} is returned.
-                     */
-                    private TokenBucket selectTokenBucket(String partitionKey, ThrottlingRate rate) {
-                        TokenBucket tokenBucket = new TokenBucket(time, rate);
-                        for (;;) {
-                            TokenBucket previous = buckets.putIfAbsent(partitionKey, tokenBucket);
-                            if (previous == null) {
-                                // There was no previous TokenBucket, so go on with that freshly created one
-                                return tokenBucket;
-                            } else if (previous.isEquivalent(tokenBucket)) {
-                                // Let's continue with the previous one as it may already be processing some requests
-                                return previous;
-                            } else if (buckets.replace(partitionKey, previous, tokenBucket)) {
-                                // The rate definition has changed so try to assign this new TokenBucket
-                                return tokenBucket;
-                            } else {
-                                // The rate definition was not the same but has already been updated,
-                                // let's loop once more to see if we get more chance.
-                            }
-                        }
-                    }
-
-                    private Promise<Response, NeverThrowsException> throttle(TokenBucket bucket) {
-                        if (bucket == null) {
-                            LOGGER.error("No token bucket to use");
-                            return newResponsePromise(newInternalServerError());
-                        }
-                        LOGGER.trace("Applying rate {} requests per {} ms ({} remaining tokens)",
-                                     bucket.getCapacity(),
-                                     bucket.getDurationInMillis(),
-                                     bucket.getRemainingTokensCount());
-                        final long delay = bucket.tryConsume();
+                    private Promise<Response, NeverThrowsException> throttle(String partitionKey,
+                                                                             ThrottlingRate rate) {
+                        final long delay = buckets.tryConsume(partitionKey, rate);
                         if (delay <= 0) {
                             return next.handle(context, request);
                         } else {
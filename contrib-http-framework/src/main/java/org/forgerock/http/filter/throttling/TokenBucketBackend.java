@@ -0,0 +1,46 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.http.filter.throttling;
+
+import java.io.IOException;
+
+/**
+ * Holds token buckets shared by several gateways (typically the nodes of a cluster), so that a throttling rate is
+ * enforced cluster-wide instead of per gateway.
+ *
+ * <p>Since a backend is usually remote, tokens are not consumed one by one: each gateway borrows a few of them at
+ * once and consumes them locally (see {@link LeasingTokenBucketStore}).
+ *
+ * <p>Implementations have to be thread-safe.
+ */
+public interface TokenBucketBackend {
+
+    /**
+     * Atomically takes up to {@code tokens} tokens from the shared bucket identified by the given partition key,
+     * creating (or re-creating, when the rate has changed) the bucket as needed.
+     *
+     * @param partitionKey
+     *         the partition key identifying the bucket (never {@code null})
+     * @param rate
+     *         the rate applied on the bucket (never {@code null})
+     * @param tokens
+     *         the maximum number of tokens to take (greater than 0)
+     * @return the granted tokens, or the delay to wait if no token is available
+     * @throws IOException
+     *         if the backend cannot be reached
+     */
+    TokenLease lease(String partitionKey, ThrottlingRate rate, int tokens) throws IOException;
+}
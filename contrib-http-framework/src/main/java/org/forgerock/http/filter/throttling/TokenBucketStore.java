@@ -0,0 +1,43 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.http.filter.throttling;
+
+/**
+ * Stores the token buckets used by a {@link ThrottlingFilter}, one per partition key.
+ *
+ * <p>Implementations have to be thread-safe.
+ */
+public interface TokenBucketStore {
+
+    /**
+     * Consumes a token from the bucket identified by the given partition key, creating (or re-creating, when the
+     * rate has changed) the bucket as needed.
+     *
+     * @param partitionKey
+     *         the partition key identifying the bucket (never {@code null})
+     * @param rate
+     *         the rate applied on the bucket (never {@code null})
+     * @return the delay to wait before a next token can be consumed. If it is less than or equal to 0, that means a
+     *         token has been consumed from the bucket, if it is greater than 0, that means the delay to wait, in
+     *         milliseconds, for having an opportunity to consume a token.
+     */
+    long tryConsume(String partitionKey, ThrottlingRate rate);
+
+    /**
+     * Removes the expired buckets. This method is called periodically by the {@link ThrottlingFilter}.
+     */
+    void clean();
+}
@@ -0,0 +1,76 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.http.filter.throttling;
+
+import org.forgerock.util.Reject;
+
+/**
+ * The outcome of a {@link TokenBucketBackend#lease(String, ThrottlingRate, int)} call: either some tokens have been
+ * granted, or none and the delay to wait before a next token becomes available.
+ */
+public final class TokenLease {
+
+    private final int tokens;
+    private final long delay;
+
+    private TokenLease(final int tokens, final long delay) {
+        this.tokens = tokens;
+        this.delay = delay;
+    }
+
+    /**
+     * Returns a lease granting the given number of tokens.
+     *
+     * @param tokens
+     *         the number of granted tokens (must be greater than 0).
+     * @return a lease granting the given number of tokens
+     */
+    public static TokenLease granted(final int tokens) {
+        Reject.ifTrue(tokens <= 0, "The number of granted tokens has to be greater than 0.");
+        return new TokenLease(tokens, 0L);
+    }
+
+    /**
+     * Returns a lease granting no token.
+     *
+     * @param delay
+     *         the delay to wait, in milliseconds, before a next token becomes available (must be greater than 0).
+     * @return a lease granting no token
+     */
+    public static TokenLease denied(final long delay) {
+        Reject.ifTrue(delay <= 0, "The delay has to be greater than 0.");
+        return new TokenLease(0, delay);
+    }
+
+    /**
+     * Returns the number of granted tokens, {@literal 0} if the lease has been denied.
+     *
+     * @return the number of granted tokens
+     */
+    public int getTokens() {
+        return tokens;
+    }
+
+    /**
+     * Returns the delay to wait, in milliseconds, before a next token becomes available, {@literal 0} if some tokens
+     * have been granted.
+     *
+     * @return the delay to wait before a next token becomes available
+     */
+    public long getDelay() {
+        return delay;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.http.filter.throttling;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.util.time.Duration.duration;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.forgerock.util.FakeTimeService;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class FileTokenBucketBackendTest {
+
+    private static final ThrottlingRate THREE_PER_SECOND = new ThrottlingRate(3, duration("1 second"));
+
+    private File file;
+    private FakeTimeService time;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        file = File.createTempFile("buckets", ".bin");
+        file.delete();
+        time = new FakeTimeService(0);
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+    @Test
+    public void shouldShareBucketsThroughTheFile() throws Exception {
+        try (FileTokenBucketBackend node1 = new FileTokenBucketBackend(time, file, 100);
+             FileTokenBucketBackend node2 = new FileTokenBucketBackend(time, file, 100)) {
+            assertThat(node1.lease("foo", THREE_PER_SECOND, 2).getTokens()).isEqualTo(2);
+            assertThat(node2.lease("foo", THREE_PER_SECOND, 2).getTokens()).isEqualTo(1);
+
+            TokenLease denied = node1.lease("foo", THREE_PER_SECOND, 2);
+            assertThat(denied.getTokens()).isEqualTo(0);
+            assertThat(denied.getDelay()).isEqualTo(333);
+
+            // Other partitions are not affected
+            assertThat(node2.lease("bar", THREE_PER_SECOND, 2).getTokens()).isEqualTo(2);
+
+            time.advance(1000);
+            assertThat(node2.lease("foo", THREE_PER_SECOND, 5).getTokens()).isEqualTo(3);
+        }
+    }
+
+    @Test
+    public void shouldKeepTheSizeOfExistingFiles() throws Exception {
+        new FileTokenBucketBackend(time, file, 100).close();
+        long length = file.length();
+
+        new FileTokenBucketBackend(time, file, 1000).close();
+        assertThat(file.length()).isEqualTo(length);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void shouldRejectUnknownFiles() throws Exception {
+        try (FileWriter writer = new FileWriter(file)) {
+            writer.write("This is not a token bucket file");
+        }
+        new FileTokenBucketBackend(time, file, 100);
+    }
+}
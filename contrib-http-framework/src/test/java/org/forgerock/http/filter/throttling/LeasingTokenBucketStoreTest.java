@@ -0,0 +1,145 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.http.filter.throttling;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.util.time.Duration.duration;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.forgerock.util.FakeTimeService;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class LeasingTokenBucketStoreTest {
+
+    private static final ThrottlingRate RATE = new ThrottlingRate(100, duration("1 second"));
+
+    private FakeTimeService time;
+    private TokenBucketBackend backend;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        time = new FakeTimeService(0);
+        backend = mock(TokenBucketBackend.class);
+    }
+
+    @Test
+    public void shouldConsumeLeasedTokensLocally() throws Exception {
+        when(backend.lease("foo", RATE, 10)).thenReturn(TokenLease.granted(10));
+        LeasingTokenBucketStore store = new LeasingTokenBucketStore(time, backend, 10);
+
+        for (int i = 0; i < 20; i++) {
+            assertThat(store.tryConsume("foo", RATE)).isEqualTo(0);
+        }
+        verify(backend, times(2)).lease("foo", RATE, 10);
+    }
+
+    @Test
+    public void shouldNotLeaseMoreThanTheBucketCapacity() throws Exception {
+        ThrottlingRate rate = new ThrottlingRate(3, duration("1 second"));
+        when(backend.lease("foo", rate, 3)).thenReturn(TokenLease.granted(3));
+        LeasingTokenBucketStore store = new LeasingTokenBucketStore(time, backend, 10);
+
+        assertThat(store.tryConsume("foo", rate)).isEqualTo(0);
+        verify(backend).lease("foo", rate, 3);
+    }
+
+    @Test
+    public void shouldDropLeasedTokensOnceExpired() throws Exception {
+        when(backend.lease("foo", RATE, 10)).thenReturn(TokenLease.granted(10));
+        LeasingTokenBucketStore store = new LeasingTokenBucketStore(time, backend, 10);
+
+        store.tryConsume("foo", RATE);
+        time.advance(1000);
+        store.tryConsume("foo", RATE);
+        verify(backend, times(2)).lease("foo", RATE, 10);
+    }
+
+    @Test
+    public void shouldNotCallTheBackendUntilTheDelayHasElapsed() throws Exception {
+        when(backend.lease("foo", RATE, 10)).thenReturn(TokenLease.denied(50), TokenLease.granted(10));
+        LeasingTokenBucketStore store = new LeasingTokenBucketStore(time, backend, 10);
+
+        assertThat(store.tryConsume("foo", RATE)).isEqualTo(50);
+        time.advance(20);
+        assertThat(store.tryConsume("foo", RATE)).isEqualTo(30);
+        verify(backend).lease("foo", RATE, 10);
+
+        time.advance(30);
+        assertThat(store.tryConsume("foo", RATE)).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldThrottleLocallyWhenTheBackendIsUnavailable() throws Exception {
+        ThrottlingRate rate = new ThrottlingRate(1, duration("1 second"));
+        when(backend.lease(anyString(), eq(rate), anyInt())).thenThrow(new IOException("Unreachable"));
+        LeasingTokenBucketStore store = new LeasingTokenBucketStore(time, backend, 10);
+
+        assertThat(store.tryConsume("foo", rate)).isEqualTo(0);
+        assertThat(store.tryConsume("foo", rate)).isGreaterThan(0);
+    }
+
+    @Test
+    public void shouldNotWaitForAnotherRequestRenewingTheLease() throws Exception {
+        final CountDownLatch leasing = new CountDownLatch(1);
+        final CountDownLatch granted = new CountDownLatch(1);
+        when(backend.lease("foo", RATE, 10)).thenAnswer(new Answer<TokenLease>() {
+            @Override
+            public TokenLease answer(final InvocationOnMock invocation) throws Throwable {
+                leasing.countDown();
+                granted.await();
+                return TokenLease.granted(10);
+            }
+        });
+        final LeasingTokenBucketStore store = new LeasingTokenBucketStore(time, backend, 10);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Long> renewal = executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    return store.tryConsume("foo", RATE);
+                }
+            });
+            leasing.await();
+
+            // Throttled locally while the lease is renewed, and the lease is not cleaned
+            assertThat(store.tryConsume("foo", RATE)).isEqualTo(0);
+            store.clean();
+
+            granted.countDown();
+            assertThat(renewal.get()).isEqualTo(0);
+            assertThat(store.tryConsume("foo", RATE)).isEqualTo(0);
+            verify(backend).lease("foo", RATE, 10);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
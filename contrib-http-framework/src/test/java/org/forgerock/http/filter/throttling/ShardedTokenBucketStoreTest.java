@@ -0,0 +1,104 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.http.filter.throttling;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.util.time.Duration.duration;
+
+import org.forgerock.util.FakeTimeService;
+import org.testng.annotations.Test;
+
+public class ShardedTokenBucketStoreTest {
+
+    private static final ThrottlingRate THREE_PER_SECOND = new ThrottlingRate(3, duration("1 second"));
+
+    @Test
+    public void shouldThrottleLikeATokenBucket() throws Exception {
+        FakeTimeService time = new FakeTimeService(0);
+        ShardedTokenBucketStore store = new ShardedTokenBucketStore(time, 100, false);
+
+        assertThat(store.tryConsume("foo", THREE_PER_SECOND)).isEqualTo(0);
+        time.advance(1);
+        assertThat(store.tryConsume("foo", THREE_PER_SECOND)).isEqualTo(0);
+        time.advance(1);
+        assertThat(store.tryConsume("foo", THREE_PER_SECOND)).isEqualTo(0);
+        time.advance(1);
+        assertThat(store.tryConsume("foo", THREE_PER_SECOND)).isEqualTo(330);
+
+        // Other partitions are not affected
+        assertThat(store.tryConsume("bar", THREE_PER_SECOND)).isEqualTo(0);
+
+        time.advance(331);
+        assertThat(store.tryConsume("foo", THREE_PER_SECOND)).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldStartAgainWhenTheRateChanges() throws Exception {
+        FakeTimeService time = new FakeTimeService(0);
+        ShardedTokenBucketStore store = new ShardedTokenBucketStore(time, 100, false);
+        ThrottlingRate onePerSecond = new ThrottlingRate(1, duration("1 second"));
+
+        assertThat(store.tryConsume("foo", onePerSecond)).isEqualTo(0);
+        assertThat(store.tryConsume("foo", onePerSecond)).isGreaterThan(0);
+        assertThat(store.tryConsume("foo", THREE_PER_SECOND)).isEqualTo(0);
+        assertThat(store.getSize()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNeverExceedTheMaximumNumberOfBuckets() throws Exception {
+        FakeTimeService time = new FakeTimeService(0);
+        ShardedTokenBucketStore store = new ShardedTokenBucketStore(time, 64, false);
+
+        for (int i = 0; i < 10000; i++) {
+            assertThat(store.tryConsume("client-" + i, THREE_PER_SECOND)).isEqualTo(0);
+        }
+        assertThat(store.getSize()).isLessThanOrEqualTo(64);
+        assertThat(store.getEvictionCount()).isGreaterThanOrEqualTo(10000 - 64);
+        assertThat(store.getOverflowCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldRemoveExpiredBuckets() throws Exception {
+        FakeTimeService time = new FakeTimeService(0);
+        ShardedTokenBucketStore store = new ShardedTokenBucketStore(time, 100, false);
+        store.tryConsume("foo", THREE_PER_SECOND);
+
+        store.clean();
+        assertThat(store.getSize()).isEqualTo(1);
+
+        time.advance(1001);
+        store.clean();
+        assertThat(store.getSize()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldThrottleOverflowingPartitionsWithTheSketch() throws Exception {
+        FakeTimeService time = new FakeTimeService(0);
+        ShardedTokenBucketStore store = new ShardedTokenBucketStore(time, 8, true);
+        ThrottlingRate onePerSecond = new ThrottlingRate(1, duration("1 second"));
+
+        // Fill the store with live buckets
+        int i = 0;
+        while (store.getOverflowCount() == 0) {
+            store.tryConsume("client-" + i++, onePerSecond);
+        }
+        assertThat(store.getEvictionCount()).isEqualTo(0);
+
+        // The sketch never lets an overflowing partition go beyond its rate
+        String overflowing = "client-" + (i - 1);
+        assertThat(store.tryConsume(overflowing, onePerSecond)).isGreaterThan(0);
+    }
+}
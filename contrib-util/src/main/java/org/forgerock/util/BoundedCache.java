@@ -0,0 +1,801 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+
+package org.forgerock.util;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.forgerock.util.Reject.checkNotNull;
+import static org.forgerock.util.time.Duration.duration;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.forgerock.util.promise.ExceptionHandler;
+import org.forgerock.util.promise.NeverThrowsException;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.PromiseImpl;
+import org.forgerock.util.promise.Promises;
+import org.forgerock.util.promise.ResultHandler;
+import org.forgerock.util.promise.RuntimeExceptionHandler;
+import org.forgerock.util.time.Duration;
+import org.forgerock.util.time.TimeService;
+
+/**
+ * A bounded, thread-safe, asynchronous write-through cache.
+ * <p>
+ * Values are loaded with an {@link AsyncFunction}: the loader is invoked once per key, and concurrent callers
+ * looking for the same key are given the same (in-flight) {@link Promise}, without blocking. Failed loads are
+ * never cached.
+ * <p>
+ * The cache is bounded by a maximum number of entries and, optionally, by a maximum total weight (computed for each
+ * loaded value by a weigher function). When a bound is exceeded, entries are evicted following a segmented LRU
+ * policy: new entries enter a probationary segment and are only promoted to the protected segment when they are
+ * read again, so that a burst of one-time keys cannot flush the frequently used ones.
+ * <p>
+ * Each loaded value has a time-to-live, given by a timeout function (by default, 1 minute for every value) and
+ * optionally capped by a maximum timeout. Expired entries are never returned; they are reclaimed by a hashed timer
+ * wheel which is advanced as a side effect of the cache operations, or explicitly with {@link #cleanUp()} (see
+ * {@link #scheduleCleanUp(ScheduledExecutorService)}). When a refresh-ahead ratio is configured, a read occurring
+ * after that fraction of the time-to-live triggers a background reload while the current value is still returned.
+ * <p>
+ * Bookkeeping of the access order is best effort: a read that cannot immediately acquire the cache lock does not
+ * update it, so that reads never wait for each other.
+ *
+ * @param <K>
+ *            Type of the key
+ * @param <V>
+ *            Type of the value
+ * @param <E>
+ *            Type of the exception thrown by the loader
+ */
+public class BoundedCache<K, V, E extends Exception> {
+
+    /** Default maximum number of entries. */
+    public static final int DEFAULT_MAXIMUM_SIZE = 10000;
+
+    /** Duration of one tick of the timer wheel (in milliseconds). */
+    static final long TICK = 1000L;
+
+    private static final int WHEEL_SIZE = 256;
+    private static final Duration DEFAULT_TIMEOUT = duration(1L, TimeUnit.MINUTES);
+    private static final double PROTECTED_RATIO = 0.8;
+
+    private final ConcurrentMap<K, Node<K, V, E>> map = new ConcurrentHashMap<>();
+    private final TimeService time;
+
+    /** Guards the access order, the timer wheel and the weights. */
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Node<K, V, E> probation = Node.sentinel();
+    private final Node<K, V, E> protect = Node.sentinel();
+    private final Node<K, V, E>[] wheel;
+    private long currentTick;
+    private int protectedSize;
+    private long protectedWeight;
+    private long totalWeight;
+
+    private volatile int maximumSize = DEFAULT_MAXIMUM_SIZE;
+    private volatile long maximumWeight;
+    private volatile Function<V, Integer, NeverThrowsException> weigher;
+    private volatile Function<V, Duration, Exception> defaultTimeoutFunction;
+    private volatile Duration maxTimeout;
+    private volatile double refreshAheadRatio;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong loadFailures = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+
+    /**
+     * Builds a new {@link BoundedCache} using the given time service.
+     *
+     * @param time
+     *            time service used to compute the expiration of the entries
+     */
+    @SuppressWarnings("unchecked")
+    public BoundedCache(final TimeService time) {
+        this.time = checkNotNull(time);
+        this.wheel = new Node[WHEEL_SIZE];
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = Node.sentinel();
+        }
+        this.currentTick = time.now() / TICK;
+        setDefaultTimeout(DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Sets the maximum number of entries (including the ones being loaded). Notice that a smaller value is only
+     * enforced on the next cache write.
+     *
+     * @param maximumSize
+     *            maximum number of entries (must be strictly positive)
+     */
+    public void setMaximumSize(final int maximumSize) {
+        Reject.ifTrue(maximumSize <= 0, "maximumSize must be strictly positive");
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * Bounds the total weight of the cached values. The weight of each value is computed once, when it is loaded.
+     *
+     * @param maximumWeight
+     *            maximum total weight (must be strictly positive)
+     * @param weigher
+     *            function computing the weight of a value (must not be {@literal null})
+     */
+    public void setMaximumWeight(final long maximumWeight, final Function<V, Integer, NeverThrowsException> weigher) {
+        Reject.ifTrue(maximumWeight <= 0, "maximumWeight must be strictly positive");
+        this.weigher = checkNotNull(weigher);
+        this.maximumWeight = maximumWeight;
+    }
+
+    /**
+     * Sets the default cache entry expiration delay, if none provided in the caller. Notice that this will impact
+     * only new cache entries.
+     *
+     * @param defaultTimeout
+     *            new cache entry timeout
+     */
+    public void setDefaultTimeout(final Duration defaultTimeout) {
+        setDefaultTimeoutFunction(new Function<V, Duration, Exception>() {
+            @Override
+            public Duration apply(final V value) {
+                return defaultTimeout;
+            }
+        });
+    }
+
+    /**
+     * Sets the function that will be applied on each loaded value to compute its timeout, if none provided in the
+     * caller. A {@literal null} or zero timeout (or an exception) means that the value is not cached. Notice that
+     * this will impact only new cache entries.
+     *
+     * @param timeoutFunction
+     *            the function that will compute the cache entry timeout (must not be {@literal null})
+     */
+    public void setDefaultTimeoutFunction(final Function<V, Duration, Exception> timeoutFunction) {
+        this.defaultTimeoutFunction = checkNotNull(timeoutFunction);
+    }
+
+    /**
+     * Gets the maximum timeout (can be {@literal null}).
+     *
+     * @return the maximum timeout
+     */
+    public Duration getMaxTimeout() {
+        return maxTimeout;
+    }
+
+    /**
+     * Sets the maximum timeout. If the timeout returned by the timeout function is greater than this specified
+     * maximum timeout, then the maximum timeout is used instead of the returned one to cache the entry.
+     *
+     * @param maxTimeout
+     *            the maximum timeout to use.
+     */
+    public void setMaxTimeout(final Duration maxTimeout) {
+        this.maxTimeout = maxTimeout;
+    }
+
+    /**
+     * Sets the fraction of the time-to-live after which a read of the entry triggers a background reload. The
+     * current value keeps being served until the reload completes; a failed reload leaves the entry untouched until
+     * it expires.
+     *
+     * @param ratio
+     *            a value between {@literal 0} (exclusive) and {@literal 1} (exclusive), or {@literal 0} to disable
+     *            refresh-ahead (the default)
+     */
+    public void setRefreshAheadRatio(final double ratio) {
+        Reject.ifTrue(ratio < 0 || ratio >= 1, "ratio must be between 0 and 1");
+        this.refreshAheadRatio = ratio;
+    }
+
+    /**
+     * Returns the value associated to the given key, loading it if absent. Concurrent calls for a key being loaded
+     * share the same {@link Promise}, this method never blocks on the loader.
+     *
+     * @param key
+     *            entry key
+     * @param loader
+     *            cached value factory, invoked with the key
+     * @return a promise of the cached value
+     */
+    public Promise<V, E> getValue(final K key, final AsyncFunction<K, V, E> loader) {
+        return getValue(key, loader, defaultTimeoutFunction);
+    }
+
+    /**
+     * Returns the value associated to the given key, loading it if absent. Concurrent calls for a key being loaded
+     * share the same {@link Promise}, this method never blocks on the loader.
+     *
+     * @param key
+     *            entry key
+     * @param loader
+     *            cached value factory, invoked with the key
+     * @param expire
+     *            function to override the global cache's timeout
+     * @return a promise of the cached value
+     */
+    public Promise<V, E> getValue(final K key,
+                                  final AsyncFunction<K, V, E> loader,
+                                  final Function<V, Duration, Exception> expire) {
+        long now = time.now();
+        Node<K, V, E> node = map.get(key);
+        if (node == null || node.isExpired(now)) {
+            PromiseImpl<V, E> promise = null;
+            lock.lock();
+            try {
+                node = map.get(key);
+                if (node == null || node.isExpired(now)) {
+                    if (node != null) {
+                        expirations.incrementAndGet();
+                        remove(node);
+                    }
+                    promise = PromiseImpl.create();
+                    node = new Node<>(key, promise);
+                    map.put(key, node);
+                    link(probation, node);
+                    advance(now);
+                    evict();
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (promise != null) {
+                // Load outside of the lock: concurrent callers are given the in-flight promise meanwhile
+                misses.incrementAndGet();
+                load(node, promise, loader, expire);
+                return promise;
+            }
+        }
+        hits.incrementAndGet();
+        if (lock.tryLock()) {
+            try {
+                onAccess(node);
+                advance(now);
+            } finally {
+                lock.unlock();
+            }
+        }
+        if (now >= node.refreshAt && node.refreshing.compareAndSet(false, true)) {
+            refreshes.incrementAndGet();
+            refresh(node, loader, expire);
+        }
+        return node.promise;
+    }
+
+    /**
+     * Caches the given (already available) value if there is no live entry for the given key, loaded or being
+     * loaded. This is typically used to cache values obtained as a side effect of another load.
+     *
+     * @param key
+     *            entry key
+     * @param value
+     *            value to cache
+     * @param expire
+     *            function computing the timeout of the value
+     * @return {@literal true} if the value has been cached
+     */
+    public boolean putIfAbsent(final K key, final V value, final Function<V, Duration, Exception> expire) {
+        long now = time.now();
+        Node<K, V, E> node;
+        lock.lock();
+        try {
+            node = map.get(key);
+            if (node != null && !node.isExpired(now)) {
+                return false;
+            }
+            if (node != null) {
+                expirations.incrementAndGet();
+                remove(node);
+            }
+            node = new Node<>(key, Promises.<V, E>newResultPromise(value));
+            map.put(key, node);
+            link(probation, node);
+            advance(now);
+            evict();
+        } finally {
+            lock.unlock();
+        }
+        loaded(node, value, expire, false);
+        return true;
+    }
+
+    /**
+     * Returns {@literal true} if there is a live entry for the given key, loaded or being loaded. This does not
+     * count as an access of the entry.
+     *
+     * @param key
+     *            entry key
+     * @return {@literal true} if there is a live entry for the given key
+     */
+    public boolean containsKey(final K key) {
+        Node<K, V, E> node = map.get(key);
+        return node != null && !node.isExpired(time.now());
+    }
+
+    /**
+     * Returns an unmodifiable view of the keys of the cached entries, loaded or being loaded (including expired
+     * entries that have not been reclaimed yet). The view is weakly consistent: it reflects some, but not
+     * necessarily all, of the changes made to the cache during the iteration.
+     *
+     * @return an unmodifiable view of the keys of the cached entries
+     */
+    public Set<K> keySet() {
+        return Collections.unmodifiableSet(map.keySet());
+    }
+
+    /**
+     * Evicts a cached value from the cache.
+     *
+     * @param key
+     *            the entry key
+     */
+    public void evict(final K key) {
+        lock.lock();
+        try {
+            Node<K, V, E> node = map.get(key);
+            if (node != null) {
+                remove(node);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Clean-up the cache entries.
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            for (Node<K, V, E> node : map.values()) {
+                remove(node);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reclaims the expired entries. This is done anyway as part of the cache operations, this method is meant to
+     * be periodically called (every {@link #TICK} milliseconds or so) when the cache may stay unused for a while.
+     */
+    public void cleanUp() {
+        lock.lock();
+        try {
+            advance(time.now());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Schedules a periodic {@link #cleanUp()} of this cache on the given executor. This is a single task for the
+     * whole cache, to be cancelled (with the returned future) when the cache is no longer used.
+     *
+     * @param executor
+     *            executor running the clean-up task
+     * @return the future of the clean-up task
+     */
+    public ScheduledFuture<?> scheduleCleanUp(final ScheduledExecutorService executor) {
+        return executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                cleanUp();
+            }
+        }, TICK, TICK, MILLISECONDS);
+    }
+
+    /**
+     * Returns the number of cached values (including the ones being loaded).
+     *
+     * @return the number of cached values
+     */
+    public int size() {
+        return map.size();
+    }
+
+    /**
+     * Returns the total weight of the cached values (always {@literal 0} when no weigher has been configured).
+     *
+     * @return the total weight of the cached values
+     */
+    public long getWeight() {
+        lock.lock();
+        try {
+            return totalWeight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of lookups served from the cache (including the ones waiting for an in-flight load).
+     *
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups that triggered a load.
+     *
+     * @return the number of cache misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of entries evicted to enforce the size and weight bounds.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the number of entries removed because their time-to-live has elapsed.
+     *
+     * @return the number of expirations
+     */
+    public long getExpirationCount() {
+        return expirations.get();
+    }
+
+    /**
+     * Returns the number of loads (including refreshes) that failed.
+     *
+     * @return the number of failed loads
+     */
+    public long getLoadFailureCount() {
+        return loadFailures.get();
+    }
+
+    /**
+     * Returns the number of background reloads triggered by refresh-ahead.
+     *
+     * @return the number of refreshes
+     */
+    public long getRefreshCount() {
+        return refreshes.get();
+    }
+
+    /**
+     * Returns the ratio of lookups served from the cache (between {@literal 0} and {@literal 1}).
+     *
+     * @return the cache hit ratio, or {@literal 0} if there was no lookup yet
+     */
+    public double getHitRatio() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return (total == 0) ? 0d : ((double) hitCount) / total;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void load(final Node<K, V, E> node,
+                      final PromiseImpl<V, E> promise,
+                      final AsyncFunction<K, V, E> loader,
+                      final Function<V, Duration, Exception> expire) {
+        Promise<? extends V, ? extends E> loading;
+        try {
+            loading = loader.apply(node.key);
+        } catch (RuntimeException e) {
+            failed(node);
+            promise.handleRuntimeException(e);
+            return;
+        } catch (Exception e) {
+            // The loader can only throw E (or runtime exceptions)
+            failed(node);
+            promise.handleException((E) e);
+            return;
+        }
+        loading.thenOnResult(new ResultHandler<V>() {
+            @Override
+            public void handleResult(final V value) {
+                loaded(node, value, expire, false);
+                promise.handleResult(value);
+            }
+        }).thenOnException(new ExceptionHandler<E>() {
+            @Override
+            public void handleException(final E exception) {
+                failed(node);
+                promise.handleException(exception);
+            }
+        }).thenOnRuntimeException(new RuntimeExceptionHandler() {
+            @Override
+            public void handleRuntimeException(final RuntimeException exception) {
+                failed(node);
+                promise.handleRuntimeException(exception);
+            }
+        });
+    }
+
+    private void refresh(final Node<K, V, E> node,
+                         final AsyncFunction<K, V, E> loader,
+                         final Function<V, Duration, Exception> expire) {
+        Promise<? extends V, ? extends E> loading;
+        try {
+            loading = loader.apply(node.key);
+        } catch (Exception e) {
+            refreshFailed(node);
+            return;
+        }
+        loading.thenOnResult(new ResultHandler<V>() {
+            @Override
+            public void handleResult(final V value) {
+                loaded(node, value, expire, true);
+            }
+        }).thenOnException(new ExceptionHandler<E>() {
+            @Override
+            public void handleException(final E exception) {
+                refreshFailed(node);
+            }
+        }).thenOnRuntimeException(new RuntimeExceptionHandler() {
+            @Override
+            public void handleRuntimeException(final RuntimeException exception) {
+                refreshFailed(node);
+            }
+        });
+    }
+
+    private void loaded(final Node<K, V, E> node,
+                        final V value,
+                        final Function<V, Duration, Exception> expire,
+                        final boolean refreshed) {
+        // Weigh the value and compute its time-to-live outside of the lock
+        Function<V, Integer, NeverThrowsException> valueWeigher = weigher;
+        int weight = (valueWeigher == null) ? 0 : Math.max(0, valueWeigher.apply(value));
+        long ttl = timeToLive(value, expire);
+        lock.lock();
+        try {
+            if (map.get(node.key) != node) {
+                // Evicted (or cleared) while loading
+                return;
+            }
+            if (ttl == 0L) {
+                remove(node);
+                return;
+            }
+            long now = time.now();
+            if (refreshed) {
+                node.promise = Promises.newResultPromise(value);
+                unlinkTimer(node);
+            }
+            setWeight(node, weight);
+            node.expiresAt = (ttl > Long.MAX_VALUE - now) ? Long.MAX_VALUE : now + ttl;
+            if (refreshAheadRatio > 0 && node.expiresAt != Long.MAX_VALUE) {
+                node.refreshAt = now + (long) (ttl * refreshAheadRatio);
+            }
+            node.refreshing.set(false);
+            if (node.expiresAt != Long.MAX_VALUE) {
+                linkTimer(node);
+            }
+            advance(now);
+            evict();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long timeToLive(final V value, final Function<V, Duration, Exception> expire) {
+        Duration timeout;
+        try {
+            timeout = expire.apply(value);
+        } catch (Exception e) {
+            return 0L;
+        }
+        if (timeout == null || timeout.isZero()) {
+            return 0L;
+        }
+        // Cap the timeout if requested
+        Duration max = maxTimeout;
+        if (max != null && timeout.compareTo(max) > 0) {
+            timeout = max;
+        }
+        return timeout.isUnlimited() ? Long.MAX_VALUE : Math.max(1L, timeout.to(MILLISECONDS));
+    }
+
+    private void failed(final Node<K, V, E> node) {
+        loadFailures.incrementAndGet();
+        lock.lock();
+        try {
+            if (map.get(node.key) == node) {
+                remove(node);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void refreshFailed(final Node<K, V, E> node) {
+        loadFailures.incrementAndGet();
+        // Do not retry: the entry will be reloaded once expired
+        node.refreshAt = Long.MAX_VALUE;
+        node.refreshing.set(false);
+    }
+
+    // Methods below must be called with the lock held
+
+    private void onAccess(final Node<K, V, E> node) {
+        if (!node.isLinked()) {
+            return;
+        }
+        if (!node.isProtected) {
+            // Promote a probationary entry read again
+            node.isProtected = true;
+            protectedSize++;
+            protectedWeight += node.weight;
+        }
+        unlink(node);
+        link(protect, node);
+        // Demote the least recently used protected entries in excess
+        int maxSize = maximumSize;
+        long maxWeight = maximumWeight;
+        while ((protectedSize > maxSize * PROTECTED_RATIO
+                || (maxWeight > 0 && protectedWeight > maxWeight * PROTECTED_RATIO))
+                && protect.next != protect) {
+            Node<K, V, E> demoted = protect.prev;
+            unlink(demoted);
+            demoted.isProtected = false;
+            protectedSize--;
+            protectedWeight -= demoted.weight;
+            link(probation, demoted);
+        }
+    }
+
+    private void evict() {
+        int maxSize = maximumSize;
+        long maxWeight = maximumWeight;
+        while (map.size() > maxSize || (maxWeight > 0 && totalWeight > maxWeight)) {
+            Node<K, V, E> victim = (probation.prev != probation) ? probation.prev : protect.prev;
+            if (victim == protect) {
+                return;
+            }
+            evictions.incrementAndGet();
+            remove(victim);
+        }
+    }
+
+    private void advance(final long now) {
+        long tick = now / TICK;
+        if (tick < currentTick) {
+            return;
+        }
+        long last = Math.min(tick, currentTick + WHEEL_SIZE - 1);
+        for (long t = currentTick; t <= last; t++) {
+            Node<K, V, E> bucket = wheel[(int) (t & (WHEEL_SIZE - 1))];
+            Node<K, V, E> node = bucket.nextTimer;
+            while (node != bucket) {
+                Node<K, V, E> next = node.nextTimer;
+                if (node.expiresAt <= now) {
+                    expirations.incrementAndGet();
+                    remove(node);
+                }
+                node = next;
+            }
+        }
+        currentTick = tick;
+    }
+
+    private void remove(final Node<K, V, E> node) {
+        map.remove(node.key, node);
+        if (node.isLinked()) {
+            unlink(node);
+            if (node.isProtected) {
+                protectedSize--;
+                protectedWeight -= node.weight;
+            }
+        }
+        unlinkTimer(node);
+        totalWeight -= node.weight;
+        node.weight = 0;
+    }
+
+    private void setWeight(final Node<K, V, E> node, final int weight) {
+        totalWeight += weight - node.weight;
+        if (node.isProtected) {
+            protectedWeight += weight - node.weight;
+        }
+        node.weight = weight;
+    }
+
+    private static <K, V, E extends Exception> void link(final Node<K, V, E> head, final Node<K, V, E> node) {
+        node.prev = head;
+        node.next = head.next;
+        head.next.prev = node;
+        head.next = node;
+    }
+
+    private static <K, V, E extends Exception> void unlink(final Node<K, V, E> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+    }
+
+    private void linkTimer(final Node<K, V, E> node) {
+        Node<K, V, E> bucket = wheel[(int) ((node.expiresAt / TICK) & (WHEEL_SIZE - 1))];
+        node.prevTimer = bucket;
+        node.nextTimer = bucket.nextTimer;
+        bucket.nextTimer.prevTimer = node;
+        bucket.nextTimer = node;
+    }
+
+    private static <K, V, E extends Exception> void unlinkTimer(final Node<K, V, E> node) {
+        if (node.nextTimer != null) {
+            node.prevTimer.nextTimer = node.nextTimer;
+            node.nextTimer.prevTimer = node.prevTimer;
+            node.prevTimer = null;
+            node.nextTimer = null;
+        }
+    }
+
+    /**
+     * A cache entry, linked in one of the access order lists and, once loaded, in one of the timer wheel buckets.
+     */
+    private static final class Node<K, V, E extends Exception> {
+        private final K key;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+        private volatile Promise<V, E> promise;
+        private volatile long expiresAt = Long.MAX_VALUE;
+        private volatile long refreshAt = Long.MAX_VALUE;
+
+        // Guarded by the cache lock
+        private Node<K, V, E> prev;
+        private Node<K, V, E> next;
+        private Node<K, V, E> prevTimer;
+        private Node<K, V, E> nextTimer;
+        private boolean isProtected;
+        private int weight;
+
+        static <K, V, E extends Exception> Node<K, V, E> sentinel() {
+            Node<K, V, E> sentinel = new Node<>(null, null);
+            sentinel.prev = sentinel;
+            sentinel.next = sentinel;
+            sentinel.prevTimer = sentinel;
+            sentinel.nextTimer = sentinel;
+            return sentinel;
+        }
+
+        Node(final K key, final Promise<V, E> promise) {
+            this.key = key;
+            this.promise = promise;
+        }
+
+        boolean isExpired(final long now) {
+            return expiresAt <= now;
+        }
+
+        boolean isLinked() {
+            return next != null;
+        }
+    }
+}
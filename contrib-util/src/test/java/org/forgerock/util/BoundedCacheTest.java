@@ -0,0 +1,227 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+
+package org.forgerock.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.util.promise.Promises.newExceptionPromise;
+import static org.forgerock.util.promise.Promises.newResultPromise;
+import static org.forgerock.util.time.Duration.duration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.forgerock.util.promise.NeverThrowsException;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.PromiseImpl;
+import org.forgerock.util.time.Duration;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class BoundedCacheTest {
+
+    private FakeTimeService time;
+    private BoundedCache<Integer, String, Exception> cache;
+    private CountingLoader loader;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        time = new FakeTimeService(0);
+        cache = new BoundedCache<>(time);
+        cache.setDefaultTimeout(duration("30 seconds"));
+        loader = new CountingLoader();
+    }
+
+    @Test
+    public void shouldShareInFlightPromise() throws Exception {
+        final PromiseImpl<String, Exception> pending = PromiseImpl.create();
+        AsyncFunction<Integer, String, Exception> slow = new AsyncFunction<Integer, String, Exception>() {
+            @Override
+            public Promise<String, Exception> apply(final Integer key) {
+                loader.count.incrementAndGet();
+                return pending;
+            }
+        };
+
+        Promise<String, Exception> first = cache.getValue(1, slow);
+        Promise<String, Exception> second = cache.getValue(1, slow);
+
+        assertThat(first.isDone()).isFalse();
+        assertThat(second).isSameAs(first);
+        pending.handleResult("one");
+        assertThat(cache.getValue(1, slow).get()).isEqualTo("one");
+        assertThat(loader.count.get()).isEqualTo(1);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+        assertThat(cache.getHitCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldNotCacheFailures() throws Exception {
+        AsyncFunction<Integer, String, Exception> failing = new AsyncFunction<Integer, String, Exception>() {
+            @Override
+            public Promise<String, Exception> apply(final Integer key) {
+                loader.count.incrementAndGet();
+                return newExceptionPromise(new Exception("boom"));
+            }
+        };
+
+        cache.getValue(1, failing);
+        cache.getValue(1, failing);
+
+        assertThat(loader.count.get()).isEqualTo(2);
+        assertThat(cache.size()).isEqualTo(0);
+        assertThat(cache.getLoadFailureCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldExpireEntries() throws Exception {
+        cache.getValue(1, loader);
+        cache.getValue(2, loader);
+
+        time.advance(29999L);
+        assertThat(cache.getValue(1, loader).get()).isEqualTo("1#1");
+
+        time.advance(1L);
+        assertThat(cache.getValue(1, loader).get()).isEqualTo("1#3");
+
+        // Entry 2 is never read again, but is reclaimed by the timer wheel
+        time.advance(duration("1 minute"));
+        cache.cleanUp();
+        assertThat(cache.size()).isEqualTo(0);
+        assertThat(cache.getExpirationCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldCapTimeout() throws Exception {
+        cache.setDefaultTimeout(Duration.UNLIMITED);
+        cache.setMaxTimeout(duration("10 seconds"));
+        cache.getValue(1, loader);
+
+        time.advance(duration("10 seconds"));
+        cache.getValue(1, loader);
+
+        assertThat(loader.count.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldProtectFrequentlyUsedEntriesFromScans() throws Exception {
+        cache.setMaximumSize(10);
+        for (int i = 0; i < 5; i++) {
+            cache.getValue(i, loader);
+            cache.getValue(i, loader);
+        }
+
+        // One-time keys only compete for the probationary segment
+        for (int i = 100; i < 200; i++) {
+            cache.getValue(i, loader);
+        }
+        for (int i = 0; i < 5; i++) {
+            cache.getValue(i, loader);
+        }
+
+        assertThat(cache.size()).isEqualTo(10);
+        assertThat(cache.getEvictionCount()).isEqualTo(95);
+        assertThat(cache.getMissCount()).isEqualTo(105);
+    }
+
+    @Test
+    public void shouldBoundWeight() throws Exception {
+        cache.setMaximumWeight(10, new Function<String, Integer, NeverThrowsException>() {
+            @Override
+            public Integer apply(final String value) {
+                return value.length();
+            }
+        });
+        for (int i = 0; i < 9; i++) {
+            cache.getValue(i, loader);
+        }
+
+        // Each value weighs 3
+        assertThat(cache.size()).isEqualTo(3);
+        assertThat(cache.getWeight()).isEqualTo(9);
+    }
+
+    @Test
+    public void shouldRefreshAheadOfExpiration() throws Exception {
+        final List<PromiseImpl<String, Exception>> loads = new ArrayList<>();
+        AsyncFunction<Integer, String, Exception> slow = new AsyncFunction<Integer, String, Exception>() {
+            @Override
+            public Promise<String, Exception> apply(final Integer key) {
+                PromiseImpl<String, Exception> promise = PromiseImpl.create();
+                loads.add(promise);
+                return promise;
+            }
+        };
+        cache.setRefreshAheadRatio(0.5);
+        cache.getValue(1, slow);
+        loads.get(0).handleResult("v1");
+
+        // The refresh is triggered once, the current value is served meanwhile
+        time.advance(duration("20 seconds"));
+        assertThat(cache.getValue(1, slow).get()).isEqualTo("v1");
+        assertThat(cache.getValue(1, slow).get()).isEqualTo("v1");
+        assertThat(loads).hasSize(2);
+        loads.get(1).handleResult("v2");
+
+        // The refreshed value lives 30 seconds from its reload
+        time.advance(duration("25 seconds"));
+        assertThat(cache.getValue(1, slow).get()).isEqualTo("v2");
+        assertThat(cache.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldClearEntries() throws Exception {
+        cache.getValue(1, loader);
+        cache.getValue(2, loader);
+        cache.evict(1);
+        assertThat(cache.size()).isEqualTo(1);
+
+        cache.clear();
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldPutIfAbsent() throws Exception {
+        Function<String, Duration, Exception> tenSeconds = new Function<String, Duration, Exception>() {
+            @Override
+            public Duration apply(final String value) {
+                return duration("10 seconds");
+            }
+        };
+        cache.getValue(1, loader);
+        assertThat(cache.putIfAbsent(1, "other", tenSeconds)).isFalse();
+        assertThat(cache.putIfAbsent(2, "2#0", tenSeconds)).isTrue();
+        assertThat(cache.containsKey(2)).isTrue();
+        assertThat(cache.getValue(2, loader).get()).isEqualTo("2#0");
+
+        time.advance(duration("10 seconds"));
+        assertThat(cache.containsKey(1)).isTrue();
+        assertThat(cache.containsKey(2)).isFalse();
+        assertThat(loader.count.get()).isEqualTo(1);
+    }
+
+    private static final class CountingLoader implements AsyncFunction<Integer, String, Exception> {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Promise<String, Exception> apply(final Integer key) {
+            return newResultPromise(key + "#" + count.incrementAndGet());
+        }
+    }
+}
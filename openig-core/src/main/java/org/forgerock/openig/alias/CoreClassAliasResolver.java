@@ -39,12 +39,14 @@ import org.forgerock.openig.filter.SqlAttributesFilter;
 import org.forgerock.openig.filter.StaticRequestFilter;
 import org.forgerock.openig.filter.SwitchFilter;
 import org.forgerock.openig.filter.throttling.DefaultRateThrottlingPolicyHeaplet;
+import org.forgerock.openig.filter.throttling.FileTokenBucketBackendHeaplet;
 import org.forgerock.openig.filter.throttling.MappedThrottlingPolicyHeaplet;
 import org.forgerock.openig.filter.throttling.ScriptableThrottlingPolicy;
 import org.forgerock.openig.filter.throttling.ThrottlingFilterHeaplet;
 import org.forgerock.openig.handler.ClientHandler;
 import org.forgerock.openig.handler.DesKeyGenHandler;
 import org.forgerock.openig.handler.DispatchHandler;
+import org.forgerock.openig.handler.LoadBalancingHandler;
 import org.forgerock.openig.handler.ScriptableHandler;
 import org.forgerock.openig.handler.SequenceHandler;
 import org.forgerock.openig.handler.StaticResponseHandler;
@@ -53,6 +55,7 @@ import org.forgerock.openig.handler.router.AuditServiceObject;
 import org.forgerock.openig.handler.router.RouterHandler;
 import org.forgerock.openig.io.TemporaryStorage;
 import org.forgerock.openig.jwt.JwtSessionManager;
+import org.forgerock.openig.ldap.LdapConnectionPool;
 import org.forgerock.openig.log.ConsoleLogSink;
 import org.forgerock.openig.log.FileLogSink;
 import org.forgerock.openig.log.NullLogSink;
@@ -86,12 +89,15 @@ public class CoreClassAliasResolver implements ClassAliasResolver {
         ALIASES.put("EntityExtractFilter", EntityExtractFilter.class);
         ALIASES.put("FileAttributesFilter", FileAttributesFilter.class);
         ALIASES.put("FileLogSink", FileLogSink.class);
+        ALIASES.put("FileTokenBucketBackend", FileTokenBucketBackendHeaplet.class);
         ALIASES.put("HeaderFilter", HeaderFilter.class);
         ALIASES.put("HttpBasicAuthFilter", HttpBasicAuthFilter.class);
         ALIASES.put("JwtSessionFactory", JwtSessionManager.class);
         ALIASES.put("JwtSession", JwtSessionManager.class);
         ALIASES.put("KeyManager", KeyManagerHeaplet.class);
         ALIASES.put("KeyStore", KeyStoreHeaplet.class);
+        ALIASES.put("LdapConnectionPool", LdapConnectionPool.class);
+        ALIASES.put("LoadBalancingHandler", LoadBalancingHandler.class);
         ALIASES.put("LocationHeaderFilter", LocationHeaderFilter.class);
         ALIASES.put("MappedThrottlingPolicy", MappedThrottlingPolicyHeaplet.class);
         ALIASES.put("MonitorEndpointHandler", MonitorEndpointHandler.class);
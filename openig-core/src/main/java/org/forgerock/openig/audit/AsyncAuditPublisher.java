@@ -0,0 +1,263 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+
+package org.forgerock.openig.audit;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.forgerock.openig.heap.GenericHeapObject;
+import org.forgerock.util.Reject;
+
+/**
+ * Publishes audit events out of the request processing threads.
+ * <p>
+ * Publication tasks (that build and send a compact snapshot of an audit event) are enqueued into a bounded,
+ * lock-free queue, which is drained by batches by a single background thread. When the queue is full, new tasks
+ * are dropped (and counted) rather than blocking the request thread.
+ * <p>
+ * Until it is {@linkplain #start() started} (or once it is {@linkplain #stop() stopped}), the publisher runs the
+ * tasks synchronously, on the calling thread.
+ */
+public class AsyncAuditPublisher extends GenericHeapObject {
+
+    /** Default maximum number of pending tasks. */
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    /** Default maximum number of tasks run per wake-up of the background thread. */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    /** Maximum time to wait for tasks before polling the queue again. */
+    private static final long MAX_IDLE_NANOS = MILLISECONDS.toNanos(100L);
+
+    private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final int capacity;
+    private final int batchSize;
+
+    private volatile Thread thread;
+    private volatile boolean running;
+    private volatile boolean idle;
+
+    /**
+     * Builds a new publisher with the default capacity and batch size.
+     */
+    public AsyncAuditPublisher() {
+        this(DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Builds a new publisher.
+     *
+     * @param capacity
+     *         maximum number of pending tasks (must be strictly positive)
+     * @param batchSize
+     *         maximum number of tasks run per wake-up of the background thread (must be strictly positive)
+     */
+    public AsyncAuditPublisher(final int capacity, final int batchSize) {
+        Reject.ifTrue(capacity <= 0, "capacity must be strictly positive");
+        Reject.ifTrue(batchSize <= 0, "batchSize must be strictly positive");
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Starts the background thread (does nothing if it is already started).
+     *
+     * @return this publisher
+     */
+    public synchronized AsyncAuditPublisher start() {
+        if (thread == null) {
+            running = true;
+            Thread publisher = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    drainUntilStopped();
+                }
+            }, "OpenIG audit publisher");
+            publisher.setDaemon(true);
+            thread = publisher;
+            publisher.start();
+        }
+        return this;
+    }
+
+    /**
+     * Stops the background thread, after it has run the pending tasks.
+     */
+    public synchronized void stop() {
+        Thread publisher = thread;
+        if (publisher == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(publisher);
+        try {
+            publisher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+        // Tasks enqueued while stopping
+        while (drain() > 0) {
+            continue;
+        }
+    }
+
+    /**
+     * Enqueues the given publication task, or runs it immediately if the publisher is not started.
+     *
+     * @param task
+     *         publication task
+     * @return {@literal false} if the task has been dropped because the queue is full
+     */
+    public boolean publish(final Runnable task) {
+        if (!running) {
+            run(task);
+            return true;
+        }
+        if (depth.incrementAndGet() > capacity) {
+            depth.decrementAndGet();
+            dropped.incrementAndGet();
+            return false;
+        }
+        offer(task);
+        return true;
+    }
+
+    /**
+     * Enqueues the given publication task even if the queue is full, or runs it immediately if the publisher is not
+     * started. This is reserved to the tasks completing an already published one (such as the response event of a
+     * published request event): the overflow is then bounded by the number of requests in progress.
+     *
+     * @param task
+     *         publication task
+     */
+    public void enqueue(final Runnable task) {
+        if (!running) {
+            run(task);
+            return;
+        }
+        depth.incrementAndGet();
+        offer(task);
+    }
+
+    /**
+     * Counts a task that the caller did not submit because the task it completes has been dropped.
+     */
+    public void recordDropped() {
+        dropped.incrementAndGet();
+    }
+
+    private void offer(final Runnable task) {
+        queue.offer(task);
+        if (idle) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private void drainUntilStopped() {
+        while (running) {
+            if (drain() == 0) {
+                idle = true;
+                // Check again once idle is visible, so that no wake-up can be missed
+                if (queue.isEmpty() && running) {
+                    LockSupport.parkNanos(this, MAX_IDLE_NANOS);
+                }
+                idle = false;
+            }
+        }
+        drain();
+    }
+
+    /**
+     * Runs at most one batch of tasks.
+     */
+    private int drain() {
+        int count = 0;
+        Runnable task;
+        while (count < batchSize && (task = queue.poll()) != null) {
+            depth.decrementAndGet();
+            run(task);
+            count++;
+        }
+        return count;
+    }
+
+    private void run(final Runnable task) {
+        try {
+            task.run();
+            published.incrementAndGet();
+        } catch (RuntimeException e) {
+            failed.incrementAndGet();
+            logger.error(e);
+        }
+    }
+
+    /**
+     * Returns the number of pending tasks.
+     *
+     * @return the number of pending tasks
+     */
+    public int getQueueDepth() {
+        return depth.get();
+    }
+
+    /**
+     * Returns the maximum number of pending tasks.
+     *
+     * @return the maximum number of pending tasks
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of tasks that have been run successfully.
+     *
+     * @return the number of published events
+     */
+    public long getPublishedCount() {
+        return published.get();
+    }
+
+    /**
+     * Returns the number of tasks that have been dropped because the queue was full.
+     *
+     * @return the number of dropped events
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Returns the number of tasks that have thrown an exception.
+     *
+     * @return the number of failed publications
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+}
@@ -11,7 +11,7 @@
  * Header, with the fields enclosed by brackets [] replaced by your own identifying
  * information: "Portions copyright [year] [name of copyright owner]".
  *
- * Copyright 2014-2015 ForgeRock AS.
+ * Copyright 2014-2016 ForgeRock AS.
  */
 
 package org.forgerock.openig.audit.decoration;
@@ -23,6 +23,7 @@ import java.util.Set;
 import org.forgerock.http.Handler;
 import org.forgerock.http.protocol.Request;
 import org.forgerock.http.protocol.Response;
+import org.forgerock.openig.el.Bindings;
 import org.forgerock.services.context.Context;
 import org.forgerock.util.promise.NeverThrowsException;
 import org.forgerock.util.promise.Promise;
@@ -45,12 +46,15 @@ class AuditHandler extends AuditBaseObject implements Handler {
 
     @Override
     public Promise<Response, NeverThrowsException> handle(final Context context, final Request request) {
-        fireAuditEvent(bindings(context, request), requestTags);
+        // The context chain is only walked once, the response bindings extend (a copy of) the request ones
+        final Bindings bindings = bindings(context, request);
+        fireAuditEvent(bindings, requestTags);
         return delegate.handle(context, request)
                 .thenOnResult(new ResultHandler<Response>() {
                     @Override
                     public void handleResult(final Response response) {
-                        fireAuditEvent(bindings(context, request, response), completedResponseTags);
+                        fireAuditEvent(bindings().bind(bindings).bind("response", response),
+                                       completedResponseTags);
                     }
                 });
     }
@@ -16,23 +16,162 @@
 
 package org.forgerock.openig.audit.internal;
 
+import static org.forgerock.openig.el.Bindings.bindings;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
+import org.forgerock.http.protocol.Headers;
+import org.forgerock.http.protocol.Request;
+import org.forgerock.http.protocol.Response;
+import org.forgerock.openig.audit.AsyncAuditPublisher;
+import org.forgerock.openig.el.Bindings;
+
 /**
  * Forward the {@link org.forgerock.openig.audit.AuditEvent}s to the registered
  * audit listeners (final consumers of the events).
  * <p>
  * No storage is done in this implementation for later connected agents
  * notifications or for post-processing of emitted events.
+ * <p>
+ * When an {@link AsyncAuditPublisher} is provided, listeners are notified on the publisher's thread, so that slow
+ * listeners do not delay the request processing. They then receive a snapshot of the event, taken on the request
+ * thread: the request and the response are copied without their entity, the {@code attributes} and {@code session}
+ * maps are shallow copies. When the publisher is saturated, request/response event pairs are dropped together: the
+ * response event of a dropped request event is dropped as well, the one of a published request event never is.
  */
 @Deprecated
 public class ForwardingAuditSystem implements org.forgerock.openig.audit.AuditSystem {
 
     private final List<org.forgerock.openig.audit.AuditEventListener> listeners = new CopyOnWriteArrayList<>();
+    private final AsyncAuditPublisher publisher;
+
+    /** Requests whose request event has been dropped, with the sources of these events. */
+    private final Map<Request, Set<org.forgerock.openig.audit.AuditSource>> droppedRequests = new WeakHashMap<>();
+
+    /**
+     * Builds a new audit system that notifies the listeners synchronously.
+     */
+    public ForwardingAuditSystem() {
+        this(null);
+    }
+
+    /**
+     * Builds a new audit system that notifies the listeners through the given publisher.
+     *
+     * @param publisher
+     *         publisher used to notify the listeners (may be {@literal null} for synchronous notifications)
+     */
+    public ForwardingAuditSystem(final AsyncAuditPublisher publisher) {
+        this.publisher = publisher;
+    }
 
     @Override
     public void onAuditEvent(final org.forgerock.openig.audit.AuditEvent event) {
+        if (publisher == null) {
+            forward(event);
+            return;
+        }
+        Set<String> tags = event.getTags();
+        Object request = event.getData().get("request");
+        if (tags.contains(org.forgerock.openig.audit.Tag.response.name())) {
+            if (forgetDropped(request, event.getSource())) {
+                publisher.recordDropped();
+            } else {
+                publisher.enqueue(forwardTask(snapshot(event)));
+            }
+            return;
+        }
+        if (!publisher.publish(forwardTask(snapshot(event)))
+                && tags.contains(org.forgerock.openig.audit.Tag.request.name())
+                && request instanceof Request) {
+            rememberDropped((Request) request, event.getSource());
+        }
+    }
+
+    private Runnable forwardTask(final org.forgerock.openig.audit.AuditEvent event) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                forward(event);
+            }
+        };
+    }
+
+    private void rememberDropped(final Request request, final org.forgerock.openig.audit.AuditSource source) {
+        synchronized (droppedRequests) {
+            Set<org.forgerock.openig.audit.AuditSource> sources = droppedRequests.get(request);
+            if (sources == null) {
+                sources = new HashSet<>();
+                droppedRequests.put(request, sources);
+            }
+            sources.add(source);
+        }
+    }
+
+    private boolean forgetDropped(final Object request, final org.forgerock.openig.audit.AuditSource source) {
+        synchronized (droppedRequests) {
+            if (droppedRequests.isEmpty()) {
+                return false;
+            }
+            Set<org.forgerock.openig.audit.AuditSource> sources = droppedRequests.get(request);
+            if (sources == null || !sources.remove(source)) {
+                return false;
+            }
+            if (sources.isEmpty()) {
+                droppedRequests.remove(request);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Copies what the listeners may look at, and that may change once the event has been fired.
+     */
+    private static org.forgerock.openig.audit.AuditEvent snapshot(final org.forgerock.openig.audit.AuditEvent event) {
+        Bindings data = bindings();
+        for (Map.Entry<String, Object> entry : event.getData().entrySet()) {
+            data.bind(entry.getKey(), snapshot(entry.getKey(), entry.getValue()));
+        }
+        return new org.forgerock.openig.audit.AuditEvent(event.getSource(),
+                                                         event.getTimestamp(),
+                                                         data,
+                                                         event.getTags());
+    }
+
+    private static Object snapshot(final String name, final Object value) {
+        if (value instanceof Request) {
+            Request request = (Request) value;
+            Request copy = new Request().setMethod(request.getMethod()).setUri(request.getUri().asURI());
+            copy.setVersion(request.getVersion());
+            copyHeaders(request.getHeaders(), copy.getHeaders());
+            return copy;
+        }
+        if (value instanceof Response) {
+            Response response = (Response) value;
+            Response copy = new Response(response.getStatus()).setCause(response.getCause());
+            copy.setVersion(response.getVersion());
+            copyHeaders(response.getHeaders(), copy.getHeaders());
+            return copy;
+        }
+        if (value instanceof Map && ("attributes".equals(name) || "session".equals(name))) {
+            return new LinkedHashMap<>((Map<?, ?>) value);
+        }
+        return value;
+    }
+
+    private static void copyHeaders(final Headers source, final Headers target) {
+        for (Map.Entry<String, List<String>> header : source.copyAsMultiMapOfStrings().entrySet()) {
+            target.put(header.getKey(), header.getValue());
+        }
+    }
+
+    private void forward(final org.forgerock.openig.audit.AuditEvent event) {
         for (org.forgerock.openig.audit.AuditEventListener listener : listeners) {
             listener.onAuditEvent(event);
         }
@@ -22,6 +22,8 @@ import static org.forgerock.json.JsonValueFunctions.enumConstant;
 import static org.forgerock.json.JsonValueFunctions.listOf;
 import static org.forgerock.openig.decoration.helper.LazyReference.newReference;
 import static org.forgerock.openig.heap.Keys.LOGSINK_HEAP_KEY;
+import static org.forgerock.openig.util.JsonValues.evaluated;
+import static org.forgerock.openig.util.JsonValues.expression;
 import static org.forgerock.openig.util.JsonValues.requiredHeapObject;
 
 import java.util.List;
@@ -36,6 +38,7 @@ import org.forgerock.openig.decoration.Decorator;
 import org.forgerock.openig.decoration.helper.AbstractHandlerAndFilterDecorator;
 import org.forgerock.openig.decoration.helper.DecoratorHeaplet;
 import org.forgerock.openig.decoration.helper.LazyReference;
+import org.forgerock.openig.el.Expression;
 import org.forgerock.openig.heap.Heap;
 import org.forgerock.openig.heap.HeapException;
 import org.forgerock.openig.heap.Name;
@@ -64,7 +67,10 @@ import org.forgerock.openig.log.Logger;
  *       "type": "CaptureDecorator",
  *       "config": {
  *           "captureEntity": false,
- *           "captureContext": false
+ *           "captureContext": false,
+ *           "maxEntityLength": 4096,
+ *           "sampleRate": 0.1,
+ *           "condition": "${matches(request.uri.path, '^/api')}"
  *       }
  *     }
  *     }
@@ -74,7 +80,14 @@ import org.forgerock.openig.log.Logger;
  * To capture the context at the capture point as well, use the {@literal captureContext} boolean attribute
  * (default to {@code false}), Note that {@literal captureExchange} is deprecated.
  * The common {@literal logSink} attribute can be used to force message capture in a given sink. By default, messages
- * are sent to the heap object defined LogSink.
+ * are sent to the heap object defined LogSink. Use an {@link org.forgerock.openig.log.AsyncFileLogSink} to write the
+ * captured messages from a dedicated thread.
+ * <p>
+ * The optional {@literal maxEntityLength} attribute limits the number of captured entity bytes (no limit by
+ * default): only these bytes are read, the rest of the entity is neither read nor buffered, which keeps the
+ * capture affordable on large or streamed entities. The optional {@literal sampleRate} attribute (a number between
+ * {@literal 0} and {@literal 1}, default to {@literal 1}) and {@literal condition} expression (evaluated against the
+ * incoming request) restrict the captured exchanges: requests and responses of the other exchanges are not touched.
  * <p>
  * To decorate a component, just add the decorator declaration next to the {@code config} element:
  * <pre>
@@ -98,6 +111,9 @@ public class CaptureDecorator extends AbstractHandlerAndFilterDecorator {
     private final LazyReference<LogSink> reference;
     private final boolean captureEntity;
     private final boolean captureContext;
+    private int maxEntityLength = -1;
+    private double sampleRate = 1d;
+    private Expression<Boolean> condition;
 
     /**
      * Builds a new {@code capture} decorator with the given sink reference (possibly {@code null})
@@ -121,6 +137,36 @@ public class CaptureDecorator extends AbstractHandlerAndFilterDecorator {
         this.captureContext = captureContext;
     }
 
+    /**
+     * Limits the number of (decoded) entity bytes captured.
+     *
+     * @param maxEntityLength
+     *         maximum number of captured entity bytes (negative for no limit, the default)
+     */
+    public void setMaxEntityLength(final int maxEntityLength) {
+        this.maxEntityLength = maxEntityLength;
+    }
+
+    /**
+     * Sets the ratio of exchanges to capture.
+     *
+     * @param sampleRate
+     *         ratio of captured exchanges, between {@literal 0} and {@literal 1} (the default)
+     */
+    public void setSampleRate(final double sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Sets the condition the incoming requests have to fulfil to be captured.
+     *
+     * @param condition
+     *         the capture condition (may be {@code null} to capture every request)
+     */
+    public void setCondition(final Expression<Boolean> condition) {
+        this.condition = condition;
+    }
+
     @Override
     protected Filter decorateFilter(final Filter delegate, final JsonValue decoratorConfig, final Context context)
             throws HeapException {
@@ -192,7 +238,13 @@ public class CaptureDecorator extends AbstractHandlerAndFilterDecorator {
                           .as(requiredHeapObject(heap, LogSink.class));
         }
         Name name = context.getName();
-        return new MessageCapture(new Logger(sink, name.decorated("Capture")), captureEntity, captureContext);
+        MessageCapture capture = new MessageCapture(new Logger(sink, name.decorated("Capture")),
+                                                    captureEntity,
+                                                    captureContext);
+        capture.setMaxEntityLength(maxEntityLength);
+        capture.setSampleRate(sampleRate);
+        capture.setCondition(condition);
+        return capture;
     }
 
     /**
@@ -215,7 +267,15 @@ public class CaptureDecorator extends AbstractHandlerAndFilterDecorator {
             if (config.isDefined("captureContext")) {
                 captureContext = config.get("captureContext").asBoolean();
             }
-            return new CaptureDecorator(reference, captureEntity, captureContext);
+            CaptureDecorator decorator = new CaptureDecorator(reference, captureEntity, captureContext);
+            decorator.setMaxEntityLength(config.get("maxEntityLength").as(evaluated()).defaultTo(-1).asInteger());
+            double sampleRate = config.get("sampleRate").as(evaluated()).defaultTo(1d).asDouble();
+            if (sampleRate < 0d || sampleRate > 1d) {
+                throw new HeapException("'sampleRate' must be between 0 and 1");
+            }
+            decorator.setSampleRate(sampleRate);
+            decorator.setCondition(config.get("condition").as(expression(Boolean.class)));
+            return decorator;
         }
     }
 }
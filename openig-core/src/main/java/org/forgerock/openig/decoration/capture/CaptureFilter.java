@@ -11,7 +11,7 @@
  * Header, with the fields enclosed by brackets [] replaced by your own identifying
  * information: "Portions copyright [year] [name of copyright owner]".
  *
- * Copyright 2014-2015 ForgeRock AS.
+ * Copyright 2014-2016 ForgeRock AS.
  */
 
 package org.forgerock.openig.decoration.capture;
@@ -62,6 +62,10 @@ class CaptureFilter implements Filter {
     public Promise<Response, NeverThrowsException> filter(final Context context,
                                                           final Request request,
                                                           final Handler next) {
+        if (!capture.accept(context, request)) {
+            // This exchange is not sampled
+            return delegate.filter(context, request, next);
+        }
         if (points.contains(REQUEST)) {
             capture.capture(context, request, REQUEST);
         }
@@ -11,7 +11,7 @@
  * Header, with the fields enclosed by brackets [] replaced by your own identifying
  * information: "Portions copyright [year] [name of copyright owner]".
  *
- * Copyright 2014-2015 ForgeRock AS.
+ * Copyright 2014-2016 ForgeRock AS.
  */
 
 package org.forgerock.openig.decoration.capture;
@@ -57,6 +57,10 @@ class CaptureHandler implements Handler {
 
     @Override
     public Promise<Response, NeverThrowsException> handle(final Context context, final Request request) {
+        if (!capture.accept(context, request)) {
+            // This exchange is not sampled
+            return delegate.handle(context, request);
+        }
         if (points.contains(REQUEST)) {
             capture.capture(context, request, REQUEST);
         }
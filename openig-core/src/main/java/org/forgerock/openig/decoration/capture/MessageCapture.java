@@ -18,11 +18,16 @@ package org.forgerock.openig.decoration.capture;
 
 import static groovy.json.JsonOutput.prettyPrint;
 import static groovy.json.JsonOutput.toJson;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.forgerock.openig.el.Bindings.bindings;
+import static org.forgerock.util.Utils.closeSilently;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 import java.nio.charset.IllegalCharsetNameException;
 import java.nio.charset.UnsupportedCharsetException;
 import java.util.Arrays;
@@ -30,12 +35,15 @@ import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.forgerock.http.header.ContentTypeHeader;
+import org.forgerock.http.protocol.Entity;
 import org.forgerock.http.protocol.Header;
 import org.forgerock.http.protocol.Message;
 import org.forgerock.http.protocol.Request;
 import org.forgerock.http.protocol.Response;
+import org.forgerock.openig.el.Expression;
 import org.forgerock.openig.log.Logger;
 import org.forgerock.services.context.AttributesContext;
 import org.forgerock.services.context.Context;
@@ -43,6 +51,12 @@ import org.forgerock.util.annotations.VisibleForTesting;
 
 /**
  * Capture a message.
+ * <p>
+ * Each captured message is rendered in memory, then written at once in the logger. To keep that rendering cheap on
+ * the proxied path, the entity capture can be limited to its first bytes (see {@link #setMaxEntityLength(int)}):
+ * only those bytes are read (and therefore retained by the entity), the rest of the content is left untouched and
+ * streamed as usual. Captures can also be restricted to a sample of the exchanges (see
+ * {@link #setSampleRate(double)} and {@link #setCondition(Expression)}).
  */
 public class MessageCapture {
 
@@ -56,6 +70,9 @@ public class MessageCapture {
     private final Logger logger;
     private final boolean captureEntity;
     private final boolean captureContext;
+    private int maxEntityLength = -1;
+    private double sampleRate = 1d;
+    private Expression<Boolean> condition;
 
     /**
      * Builds a MessageCapture that will prints messages in the provided {@code logger}.
@@ -85,6 +102,53 @@ public class MessageCapture {
         this.captureContext = captureContext;
     }
 
+    /**
+     * Limits the number of (decoded) entity bytes captured: longer entities are truncated, and their remaining
+     * content is neither read nor buffered.
+     *
+     * @param maxEntityLength
+     *         maximum number of captured entity bytes (negative for no limit, the default)
+     */
+    public void setMaxEntityLength(final int maxEntityLength) {
+        this.maxEntityLength = maxEntityLength;
+    }
+
+    /**
+     * Sets the ratio of exchanges to capture.
+     *
+     * @param sampleRate
+     *         ratio of captured exchanges, between {@literal 0} and {@literal 1} (the default)
+     */
+    public void setSampleRate(final double sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Sets the condition the incoming requests have to fulfil to be captured.
+     *
+     * @param condition
+     *         the capture condition (may be {@code null} to capture every request)
+     */
+    public void setCondition(final Expression<Boolean> condition) {
+        this.condition = condition;
+    }
+
+    /**
+     * Returns {@literal true} if the exchange started with the given request has to be captured.
+     *
+     * @param context
+     *         Incoming request's {@link Context}
+     * @param request
+     *         Incoming request
+     * @return {@literal true} if the exchange has to be captured
+     */
+    boolean accept(final Context context, final Request request) {
+        if (sampleRate < 1d && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return false;
+        }
+        return condition == null || Boolean.TRUE.equals(condition.eval(bindings(context, request)));
+    }
+
     /**
      * Captures the given request, in the given mode.
      *
@@ -237,7 +301,11 @@ public class MessageCapture {
         try {
             message.getEntity().push();
             try {
-                message.getEntity().copyDecodedContentTo(writer);
+                if (maxEntityLength < 0) {
+                    message.getEntity().copyDecodedContentTo(writer);
+                } else {
+                    writeTruncatedEntity(writer, message.getEntity(), contentType.getCharset());
+                }
             } finally {
                 message.getEntity().pop();
             }
@@ -254,6 +322,27 @@ public class MessageCapture {
         writer.println();
     }
 
+    private void writeTruncatedEntity(final PrintWriter writer, final Entity entity, final Charset charset)
+            throws IOException {
+        // Only read what is printed: the remaining content is not buffered by the entity
+        InputStream in = entity.newDecodedContentInputStream();
+        try {
+            byte[] buffer = new byte[maxEntityLength];
+            int length = 0;
+            int n;
+            while (length < buffer.length && (n = in.read(buffer, length, buffer.length - length)) != -1) {
+                length += n;
+            }
+            writer.print(new String(buffer, 0, length, (charset != null) ? charset : UTF_8));
+            if (length == buffer.length && in.read() != -1) {
+                writer.println();
+                writer.printf("[entity truncated to %d bytes]", maxEntityLength);
+            }
+        } finally {
+            closeSilently(in);
+        }
+    }
+
     /**
      * Decide if the given content-type is printable or not. The entity represents a textual/printable content if: <ul>
      * <li>there is a charset associated to the content-type, we'll be able to print it correctly</li> <li>the content
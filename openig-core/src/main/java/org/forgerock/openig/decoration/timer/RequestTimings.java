@@ -0,0 +1,144 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+
+package org.forgerock.openig.decoration.timer;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.forgerock.openig.heap.Name;
+import org.forgerock.services.context.AttributesContext;
+import org.forgerock.services.context.Context;
+
+/**
+ * Per-request record of the time spent (expressed in nanoseconds) by each timed object in each of its processing
+ * phases, made available in the {@literal timings} request attribute when the {@link TimerDecorator} is in
+ * {@linkplain TimerDecorator#setStructured(boolean) structured} mode.
+ * <p>
+ * The recorded phases are:
+ * <ul>
+ *     <li>{@literal pre}: time spent in a filter before it invokes the next handler (or before it responds, if it
+ *     does not invoke the next handler)</li>
+ *     <li>{@literal next}: time spent waiting for the response of the next handler of a filter</li>
+ *     <li>{@literal post}: time spent in a filter after the next handler has responded</li>
+ *     <li>{@literal elapsed}: time spent in a handler (the upstream wait when the handler is a
+ *     {@link org.forgerock.openig.handler.ClientHandler})</li>
+ *     <li>{@literal route-match}: time spent by a router to select the route</li>
+ * </ul>
+ * The {@literal pre} and {@literal post} phases of a route's session correspond to the session load and save.
+ */
+public final class RequestTimings {
+
+    /** Name of the request attribute holding the timings. */
+    public static final String ATTRIBUTE = "timings";
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    RequestTimings() {
+        // Instances are created by the timers
+    }
+
+    /**
+     * Returns the timings of the current request, or {@code null} if no structured timer is involved in its
+     * processing.
+     *
+     * @param context
+     *         request context
+     * @return the timings of the current request, or {@code null}
+     */
+    public static RequestTimings get(final Context context) {
+        if (!context.containsContext(AttributesContext.class)) {
+            return null;
+        }
+        Object timings = context.asContext(AttributesContext.class).getAttributes().get(ATTRIBUTE);
+        return (timings instanceof RequestTimings) ? (RequestTimings) timings : null;
+    }
+
+    /**
+     * Creates new timings and makes them available in the request attributes (when possible).
+     */
+    static RequestTimings attach(final Context context) {
+        RequestTimings timings = new RequestTimings();
+        if (context.containsContext(AttributesContext.class)) {
+            context.asContext(AttributesContext.class).getAttributes().put(ATTRIBUTE, timings);
+        }
+        return timings;
+    }
+
+    /**
+     * Records the time spent by an object in a given phase.
+     *
+     * @param object
+     *         name of the timed object
+     * @param phase
+     *         processing phase
+     * @param nanos
+     *         time spent, expressed in nanoseconds
+     */
+    public synchronized void record(final Name object, final String phase, final long nanos) {
+        entries.add(new Entry(object, phase, nanos));
+    }
+
+    /**
+     * Returns the recorded timings, indexed by object (scoped) name and then by phase. The times spent by an object
+     * several times in the same phase are summed.
+     *
+     * @return the recorded timings (expressed in nanoseconds)
+     */
+    public synchronized Map<String, Map<String, Long>> asMap() {
+        Map<String, Map<String, Long>> map = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            String object = entry.object.getScopedName();
+            Map<String, Long> phases = map.get(object);
+            if (phases == null) {
+                phases = new LinkedHashMap<>();
+                map.put(object, phases);
+            }
+            Long previous = phases.get(entry.phase);
+            phases.put(entry.phase, (previous == null) ? entry.nanos : previous + entry.nanos);
+        }
+        return map;
+    }
+
+    /**
+     * Aggregates all the recorded timings into the given statistics.
+     */
+    synchronized void flush(final TimerStatistics statistics) {
+        for (Entry entry : entries) {
+            statistics.record(entry.object, entry.phase, entry.nanos);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return asMap().toString();
+    }
+
+    private static final class Entry {
+        private final Name object;
+        private final String phase;
+        private final long nanos;
+
+        private Entry(final Name object, final String phase, final long nanos) {
+            this.object = object;
+            this.phase = phase;
+            this.nanos = nanos;
+        }
+    }
+}
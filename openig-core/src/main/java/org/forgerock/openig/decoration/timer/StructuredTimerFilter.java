@@ -0,0 +1,84 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+
+package org.forgerock.openig.decoration.timer;
+
+import org.forgerock.http.Filter;
+import org.forgerock.http.Handler;
+import org.forgerock.http.protocol.Request;
+import org.forgerock.http.protocol.Response;
+import org.forgerock.openig.heap.Name;
+import org.forgerock.services.context.Context;
+import org.forgerock.util.promise.NeverThrowsException;
+import org.forgerock.util.promise.Promise;
+
+/**
+ * Records the {@literal pre}, {@literal next} and {@literal post} phases of a delegated {@link Filter} into the
+ * {@link RequestTimings} of the request.
+ * The timer that creates the request timings aggregates them into its {@link TimerStatistics} once the response
+ * flows out.
+ */
+class StructuredTimerFilter implements Filter {
+    private final Filter delegate;
+    private final Name name;
+    private final TimerStatistics statistics;
+
+    StructuredTimerFilter(final Filter delegate, final Name name, final TimerStatistics statistics) {
+        this.delegate = delegate;
+        this.name = name;
+        this.statistics = statistics;
+    }
+
+    @Override
+    public Promise<Response, NeverThrowsException> filter(final Context context,
+                                                          final Request request,
+                                                          final Handler next) {
+        final RequestTimings existing = RequestTimings.get(context);
+        final RequestTimings timings = (existing != null) ? existing : RequestTimings.attach(context);
+        final long start = System.nanoTime();
+        // Time at which the next handler has responded (0 if it has not been invoked)
+        final long[] returned = new long[1];
+        return delegate.filter(context, request, new Handler() {
+            @Override
+            public Promise<Response, NeverThrowsException> handle(final Context context, final Request request) {
+                final long called = System.nanoTime();
+                timings.record(name, "pre", called - start);
+                return next.handle(context, request)
+                        .thenAlways(new Runnable() {
+                            @Override
+                            public void run() {
+                                returned[0] = System.nanoTime();
+                                timings.record(name, "next", returned[0] - called);
+                            }
+                        });
+            }
+        }).thenAlways(new Runnable() {
+            @Override
+            public void run() {
+                long end = System.nanoTime();
+                if (returned[0] == 0L) {
+                    timings.record(name, "pre", end - start);
+                } else {
+                    timings.record(name, "post", end - returned[0]);
+                }
+                if (existing == null) {
+                    timings.flush(statistics);
+                }
+            }
+        });
+    }
+}
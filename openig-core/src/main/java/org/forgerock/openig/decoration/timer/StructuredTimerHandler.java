@@ -0,0 +1,60 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+
+package org.forgerock.openig.decoration.timer;
+
+import org.forgerock.http.Handler;
+import org.forgerock.http.protocol.Request;
+import org.forgerock.http.protocol.Response;
+import org.forgerock.openig.heap.Name;
+import org.forgerock.services.context.Context;
+import org.forgerock.util.promise.NeverThrowsException;
+import org.forgerock.util.promise.Promise;
+
+/**
+ * Records the {@literal elapsed} phase of a delegated {@link Handler} into the {@link RequestTimings} of the
+ * request. The timer that creates the request timings aggregates them into its {@link TimerStatistics} once the
+ * response flows out.
+ */
+class StructuredTimerHandler implements Handler {
+    private final Handler delegate;
+    private final Name name;
+    private final TimerStatistics statistics;
+
+    StructuredTimerHandler(final Handler delegate, final Name name, final TimerStatistics statistics) {
+        this.delegate = delegate;
+        this.name = name;
+        this.statistics = statistics;
+    }
+
+    @Override
+    public Promise<Response, NeverThrowsException> handle(final Context context, final Request request) {
+        final RequestTimings existing = RequestTimings.get(context);
+        final RequestTimings timings = (existing != null) ? existing : RequestTimings.attach(context);
+        final long start = System.nanoTime();
+        return delegate.handle(context, request)
+                .thenAlways(new Runnable() {
+                    @Override
+                    public void run() {
+                        timings.record(name, "elapsed", System.nanoTime() - start);
+                        if (existing == null) {
+                            timings.flush(statistics);
+                        }
+                    }
+                });
+    }
+}
@@ -17,6 +17,7 @@
 package org.forgerock.openig.decoration.timer;
 
 import static org.forgerock.openig.heap.Keys.LOGSINK_HEAP_KEY;
+import static org.forgerock.openig.util.JsonValues.evaluated;
 import static org.forgerock.openig.util.JsonValues.requiredHeapObject;
 
 import org.forgerock.http.Filter;
@@ -61,13 +62,82 @@ import org.forgerock.openig.log.Logger;
  * There is no special configuration required for this decorator.
  *
  * A default {@literal timer} decorator is automatically created when OpenIG starts.
+ * <p>
+ * When declared with the {@literal structured} attribute, the decorator does not log any message: instead, the
+ * nanosecond timings of the processing phases of the decorated objects are recorded into the {@link RequestTimings}
+ * of the request (available in the {@literal timings} request attribute), and then aggregated into per-object
+ * histograms ({@link TimerStatistics}). The sessions of the routes are timed as well, and the routers record the
+ * time spent to select a route. The histograms are exposed by the monitoring endpoint of the routes, and by the
+ * {@literal /openig/api/system/timings} endpoint.
+ * <pre>
+ *     {@code
+ *     {
+ *       "name": "timer",
+ *       "type": "TimerDecorator",
+ *       "config": {
+ *         "structured": true
+ *       }
+ *     }
+ *     }
+ * </pre>
+ * Undecorated objects have no timing overhead at all.
  */
 public class TimerDecorator extends AbstractHandlerAndFilterDecorator {
 
+    private final TimerStatistics statistics = new TimerStatistics();
+    private boolean structured;
+
+    /**
+     * Enables, or disables, the structured timing mode.
+     *
+     * @param structured
+     *         {@literal true} to record timings into the request context and the statistics instead of logging
+     *         messages
+     * @return this decorator
+     */
+    public TimerDecorator setStructured(final boolean structured) {
+        this.structured = structured;
+        return this;
+    }
+
+    /**
+     * Returns {@literal true} if this decorator records structured timings.
+     *
+     * @return {@literal true} if this decorator records structured timings
+     */
+    public boolean isStructured() {
+        return structured;
+    }
+
+    /**
+     * Returns the statistics aggregated by this decorator in structured mode.
+     *
+     * @return the statistics aggregated by this decorator
+     */
+    public TimerStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Times the phases of the given filter (whatever the mode of this decorator).
+     *
+     * @param delegate
+     *         timed filter
+     * @param name
+     *         name under which the timings are recorded
+     * @return a filter recording the timings of the given filter
+     */
+    public Filter timePhases(final Filter delegate, final Name name) {
+        return new StructuredTimerFilter(delegate, name, statistics);
+    }
+
     @Override
     protected Filter decorateFilter(final Filter delegate, final JsonValue decoratorConfig, final Context context)
             throws HeapException {
         if (decoratorConfig.asBoolean()) {
+            if (structured) {
+                return new StructuredTimerFilter(delegate, context.getName(), statistics);
+            }
             return new TimerFilter(delegate, getLogger(context));
         }
         return delegate;
@@ -77,6 +147,9 @@ public class TimerDecorator extends AbstractHandlerAndFilterDecorator {
     protected Handler decorateHandler(final Handler delegate, final JsonValue decoratorConfig, final Context context)
             throws HeapException {
         if (decoratorConfig.asBoolean()) {
+            if (structured) {
+                return new StructuredTimerHandler(delegate, context.getName(), statistics);
+            }
             return new TimerHandler(delegate, getLogger(context));
         }
         return delegate;
@@ -108,7 +181,10 @@ public class TimerDecorator extends AbstractHandlerAndFilterDecorator {
     public static class Heaplet extends DecoratorHeaplet {
         @Override
         public Decorator create() throws HeapException {
-            return new TimerDecorator();
+            return new TimerDecorator().setStructured(config.get("structured")
+                                                            .as(evaluated())
+                                                            .defaultTo(false)
+                                                            .asBoolean());
         }
     }
 }
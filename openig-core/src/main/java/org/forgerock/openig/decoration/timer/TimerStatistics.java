@@ -0,0 +1,151 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+
+package org.forgerock.openig.decoration.timer;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.object;
+
+import java.math.BigDecimal;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.forgerock.openig.heap.Name;
+import org.forgerock.openig.metrics.LatencyHistogram.Snapshot;
+import org.forgerock.openig.metrics.LatencyRecorder;
+
+/**
+ * Aggregates the {@link RequestTimings} of all the requests into per-object and per-phase latency histograms.
+ */
+public class TimerStatistics {
+
+    private final ConcurrentMap<Name, ConcurrentMap<String, LatencyRecorder>> objects = new ConcurrentHashMap<>();
+
+    /**
+     * Records the time spent by an object in a given phase.
+     *
+     * @param object
+     *         name of the timed object
+     * @param phase
+     *         processing phase
+     * @param nanos
+     *         time spent, expressed in nanoseconds
+     */
+    public void record(final Name object, final String phase, final long nanos) {
+        ConcurrentMap<String, LatencyRecorder> phases = objects.get(object);
+        if (phases == null) {
+            ConcurrentMap<String, LatencyRecorder> created = new ConcurrentHashMap<>();
+            phases = objects.putIfAbsent(object, created);
+            if (phases == null) {
+                phases = created;
+            }
+        }
+        LatencyRecorder recorder = phases.get(phase);
+        if (recorder == null) {
+            LatencyRecorder created = new LatencyRecorder();
+            recorder = phases.putIfAbsent(phase, created);
+            if (recorder == null) {
+                recorder = created;
+            }
+        }
+        recorder.record(NANOSECONDS.toMicros(nanos));
+    }
+
+    /**
+     * Removes the statistics of the given object, and of the objects declared (directly or not) under it, such as
+     * the objects of a destroyed route.
+     *
+     * @param name
+     *         name of the removed object
+     */
+    public void remove(final Name name) {
+        Iterator<Name> iterator = objects.keySet().iterator();
+        while (iterator.hasNext()) {
+            Name object = iterator.next();
+            if (object.equals(name) || isUnder(object, name)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the statistics of all the timed objects, indexed by object (scoped) name and then by phase. Each
+     * phase provides its {@literal count} and the {@literal mean}, {@literal median}, {@literal p95},
+     * {@literal p99} and {@literal max} times, expressed in milliseconds.
+     *
+     * @return the statistics of all the timed objects
+     */
+    public Map<String, Object> asMap() {
+        return asMap(null);
+    }
+
+    /**
+     * Returns the statistics of the objects declared (directly or not) under the given parent name, indexed by
+     * object name (relative to the parent) and then by phase.
+     *
+     * @param parent
+     *         parent name of the returned objects ({@code null} to return all the objects)
+     * @return the statistics of the objects declared under the given parent
+     * @see #asMap()
+     */
+    public Map<String, Object> asMap(final Name parent) {
+        Map<String, Object> map = new TreeMap<>();
+        for (Map.Entry<Name, ConcurrentMap<String, LatencyRecorder>> object : objects.entrySet()) {
+            Name name = object.getKey();
+            if (parent != null && !isUnder(name, parent)) {
+                continue;
+            }
+            Map<String, Object> phases = new TreeMap<>();
+            for (Map.Entry<String, LatencyRecorder> phase : object.getValue().entrySet()) {
+                Snapshot snapshot = phase.getValue().getCumulativeSnapshot();
+                phases.put(phase.getKey(), object(field("count", snapshot.getCount()),
+                                                  field("mean", toMilliseconds((long) snapshot.getMean())),
+                                                  field("median", toMilliseconds(snapshot.getValueAtQuantile(0.5))),
+                                                  field("p95", toMilliseconds(snapshot.getValueAtQuantile(0.95))),
+                                                  field("p99", toMilliseconds(snapshot.getValueAtQuantile(0.99))),
+                                                  field("max", toMilliseconds(snapshot.getMax()))));
+            }
+            map.put((parent != null) ? relative(name, parent) : name.getScopedName(), phases);
+        }
+        return map;
+    }
+
+    private static boolean isUnder(final Name name, final Name parent) {
+        for (Name current = name.getParent(); current != null; current = current.getParent()) {
+            if (current.equals(parent)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String relative(final Name name, final Name parent) {
+        StringBuilder sb = new StringBuilder(name.getLeaf());
+        for (Name current = name.getParent(); !current.equals(parent); current = current.getParent()) {
+            sb.insert(0, '+').insert(0, current.getLeaf());
+        }
+        return sb.toString();
+    }
+
+    private static BigDecimal toMilliseconds(final long micros) {
+        return BigDecimal.valueOf(micros, 3);
+    }
+}
@@ -19,9 +19,11 @@ package org.forgerock.openig.el;
 
 import static java.util.Collections.unmodifiableMap;
 
+import java.util.AbstractMap;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 
 import org.forgerock.http.protocol.Request;
 import org.forgerock.http.protocol.Response;
@@ -37,6 +39,8 @@ public class Bindings {
 
     private final Map<String, Object> map = new LinkedHashMap<>();
 
+    private final Map<String, Object> view = unmodifiableMap(map);
+
     /**
      * Returns an empty {@link Bindings} instance (mutable).
      *
@@ -56,6 +60,9 @@ public class Bindings {
      * {@link org.forgerock.services.context.AttributesContext} and to the {@code session}
      * from the {@link org.forgerock.http.session.SessionContext}.
      *
+     * <p>The {@code contexts} entry is lazily computed: the context chain is only walked when a context is looked
+     * up, and only flattened into a {@code Map} when all of the contexts are enumerated.
+     *
      * @param context
      *         The context to expose
      * @return an initialized {@link Bindings} instance.
@@ -63,12 +70,24 @@ public class Bindings {
     public static Bindings bindings(Context context) {
         Bindings bindings = bindings("context", context);
         if (context != null) {
-            bindings.bind("contexts", flatten(context));
-            if (context.containsContext(AttributesContext.class)) {
-                bindings.bind("attributes", context.asContext(AttributesContext.class).getAttributes());
+            bindings.bind("contexts", new ContextsMap(context));
+
+            // Look for the closest attributes and session contexts in a single walk
+            AttributesContext attributesContext = null;
+            SessionContext sessionContext = null;
+            for (Context parent = context; parent != null; parent = parent.getParent()) {
+                if (attributesContext == null && parent instanceof AttributesContext) {
+                    attributesContext = (AttributesContext) parent;
+                }
+                if (sessionContext == null && parent instanceof SessionContext) {
+                    sessionContext = (SessionContext) parent;
+                }
             }
-            if (context.containsContext(SessionContext.class)) {
-                bindings.bind("session", context.asContext(SessionContext.class).getSession());
+            if (attributesContext != null) {
+                bindings.bind("attributes", attributesContext.getAttributes());
+            }
+            if (sessionContext != null) {
+                bindings.bind("session", sessionContext.getSession());
             }
         }
         return bindings;
@@ -154,7 +173,7 @@ public class Bindings {
      * @return an unmodifiable {@code Map} view of this instance (never {@code null}).
      */
     public Map<String, Object> asMap() {
-        return unmodifiableMap(map);
+        return view;
     }
 
     /**
@@ -195,4 +214,44 @@ public class Bindings {
         return map.toString();
     }
 
+    /**
+     * Read-only view of the contexts visible from a leaf {@link Context}, keyed by context name.
+     *
+     * <p>Single lookups walk the context chain without any allocation, the chain is only {@linkplain #flatten(Context)
+     * flattened} when the whole content is required.
+     */
+    private static final class ContextsMap extends AbstractMap<String, Context> {
+        private final Context leaf;
+        private volatile Map<String, Context> flattened;
+
+        ContextsMap(final Context leaf) {
+            this.leaf = leaf;
+        }
+
+        @Override
+        public Context get(final Object name) {
+            for (Context context = leaf; context != null; context = context.getParent()) {
+                if (context.getContextName().equals(name)) {
+                    return context;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean containsKey(final Object name) {
+            return get(name) != null;
+        }
+
+        @Override
+        public Set<Entry<String, Context>> entrySet() {
+            Map<String, Context> contexts = flattened;
+            if (contexts == null) {
+                contexts = unmodifiableMap(flatten(leaf));
+                flattened = contexts;
+            }
+            return contexts.entrySet();
+        }
+    }
+
 }
@@ -23,6 +23,10 @@ import java.beans.FeatureDescriptor;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.el.BeanELResolver;
 import javax.el.ELContext;
@@ -33,6 +37,7 @@ import javax.el.ValueExpression;
 import javax.el.VariableMapper;
 
 import org.forgerock.http.util.Loader;
+import org.forgerock.openig.regex.PatternCache;
 import org.forgerock.openig.resolver.Resolver;
 import org.forgerock.openig.resolver.Resolvers;
 import org.forgerock.util.Reject;
@@ -43,6 +48,9 @@ import de.odysseus.el.ExpressionFactoryImpl;
  * An Unified Expression Language expression. Creating an expression is the equivalent to
  * compiling it. Once created, an expression can be evaluated within a supplied scope. An
  * expression can safely be evaluated concurrently in multiple threads.
+ * <p>
+ * Parsed expressions are shared: expressions created from the same string (whatever their expected type) reuse the
+ * same underlying parsed expression. Evaluations reuse a per-thread {@link ELContext}.
  *
  * @param <T> expected result type
  */
@@ -61,6 +69,20 @@ public final class Expression<T> {
     private static final Map<String, ExpressionPlugin> PLUGINS =
             Collections.unmodifiableMap(Loader.loadMap(String.class, ExpressionPlugin.class));
 
+    /** Maximum number of interned parsed expressions. */
+    private static final int MAX_INTERNED_EXPRESSIONS = 10000;
+
+    /** Factory used to parse all expressions. */
+    private static final ExpressionFactoryImpl FACTORY = new ExpressionFactoryImpl();
+
+    /** Parsed expressions, keyed by their original string. */
+    private static final ConcurrentMap<String, ValueExpression> INTERNED = new ConcurrentHashMap<>();
+
+    /** Calls to the regular expression functions whose pattern is given as a string literal. */
+    private static final Pattern LITERAL_PATTERN_ARGUMENT =
+            Pattern.compile("\\b(?:matches|matchingGroups|split|keyMatch)\\(\\s*[^,]+?,\\s*"
+                                    + "(?:'((?:[^'\\\\]|\\\\.)*)'|\"((?:[^\"\\\\]|\\\\.)*)\")\\s*\\)");
+
     /**
      * Factory method to create an Expression.
      *
@@ -85,8 +107,15 @@ public final class Expression<T> {
     private Expression(String expression, Class<T> expectedType) throws ExpressionException {
         original = expression;
         this.expectedType = expectedType;
+        valueExpression = intern(expression);
+    }
+
+    private static ValueExpression intern(final String expression) throws ExpressionException {
+        ValueExpression parsed = INTERNED.get(expression);
+        if (parsed != null) {
+            return parsed;
+        }
         try {
-            ExpressionFactoryImpl exprFactory = new ExpressionFactoryImpl();
             /*
              * We still use Object.class but use the expectedType in the evaluation. If we use the expectedType instead
              * of Object.class at the creation, then we had some breaking changes :
@@ -96,10 +125,55 @@ public final class Expression<T> {
              *
              * But note that by still using Object.class prevents from using our own TypeConverter.
              */
-            valueExpression = exprFactory.createValueExpression(new XLContext(null), expression, Object.class);
+            parsed = FACTORY.createValueExpression(new XLContext(), expression, Object.class);
         } catch (ELException ele) {
             throw new ExpressionException(ele);
         }
+        warmUpPatterns(expression);
+        if (INTERNED.size() < MAX_INTERNED_EXPRESSIONS) {
+            ValueExpression previous = INTERNED.putIfAbsent(expression, parsed);
+            if (previous != null) {
+                return previous;
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * Compiles ahead of time the literal patterns given to the regular expression functions, so that the first
+     * evaluation does not pay for it.
+     */
+    private static void warmUpPatterns(final String expression) {
+        if (expression.indexOf('(') == -1) {
+            return;
+        }
+        Matcher matcher = LITERAL_PATTERN_ARGUMENT.matcher(expression);
+        while (matcher.find()) {
+            String literal = (matcher.group(1) != null) ? matcher.group(1) : matcher.group(2);
+            PatternCache.shared().warmUp(unescape(literal));
+        }
+    }
+
+    /**
+     * Removes the escaping backslashes of an EL string literal.
+     */
+    private static String unescape(final String literal) {
+        if (literal.indexOf('\\') == -1) {
+            return literal;
+        }
+        StringBuilder sb = new StringBuilder(literal.length());
+        for (int i = 0; i < literal.length(); i++) {
+            char c = literal.charAt(i);
+            if (c == '\\' && i + 1 < literal.length()) {
+                char next = literal.charAt(i + 1);
+                if (next == '\\' || next == '\'' || next == '"') {
+                    c = next;
+                    i++;
+                }
+            }
+            sb.append(c);
+        }
+        return sb.toString();
     }
 
     /**
@@ -111,12 +185,15 @@ public final class Expression<T> {
      * @return the result of the expression evaluation, or {@code null} if it does not resolve or match the type.
      */
     public T eval(final Bindings bindings) {
+        XLContext context = XLContext.acquire(bindings.asMap());
         try {
-            Object value = valueExpression.getValue(new XLContext(bindings.asMap()));
+            Object value = valueExpression.getValue(context);
             return (value != null && expectedType.isInstance(value) ? expectedType.cast(value) : null);
         } catch (ELException ele) {
             // unresolved element yields null value
             return null;
+        } finally {
+            context.release();
         }
 
     }
@@ -140,18 +217,52 @@ public final class Expression<T> {
      */
     public void set(Bindings bindings, Object value) {
         Reject.ifNull(bindings);
+        XLContext context = XLContext.acquire(bindings.asMap());
         try {
-            valueExpression.setValue(new XLContext(bindings.asMap()), value);
+            valueExpression.setValue(context, value);
         } catch (ELException ele) {
             // unresolved elements are simply ignored
+        } finally {
+            context.release();
         }
     }
 
     private static class XLContext extends ELContext {
-        private final ELResolver elResolver;
 
-        public XLContext(Object scope) {
-            elResolver = new XLResolver(scope);
+        /** Reusable context of the current thread. */
+        private static final ThreadLocal<XLContext> CURRENT = new ThreadLocal<XLContext>() {
+            @Override
+            protected XLContext initialValue() {
+                return new XLContext();
+            }
+        };
+
+        private final XLResolver elResolver = new XLResolver();
+
+        /** {@code true} while an evaluation is using this context. */
+        private boolean inUse;
+
+        /**
+         * Returns a context bound to the given scope: the current thread's context, or a new one if it is already in
+         * use (re-entrant evaluation).
+         */
+        static XLContext acquire(final Object scope) {
+            XLContext context = CURRENT.get();
+            if (context.inUse) {
+                context = new XLContext();
+            }
+            context.inUse = true;
+            context.elResolver.scope = (scope == null) ? XLResolver.NO_SCOPE : scope;
+            context.setPropertyResolved(false);
+            return context;
+        }
+
+        /**
+         * Releases this context, so that it can be reused by the next evaluation.
+         */
+        void release() {
+            elResolver.scope = XLResolver.NO_SCOPE;
+            inUse = false;
         }
 
         @Override
@@ -172,12 +283,11 @@ public final class Expression<T> {
 
     private static class XLResolver extends ELResolver {
         private static final BeanELResolver RESOLVER = new BeanELResolver(true);
-        private final Object scope;
 
-        public XLResolver(final Object scope) {
-            // Resolvers.get() don't support null value
-            this.scope = (scope == null) ? new Object() : scope;
-        }
+        /** Resolvers.get() don't support null value. */
+        private static final Object NO_SCOPE = new Object();
+
+        private Object scope = NO_SCOPE;
 
         @Override
         public Object getValue(ELContext context, Object base, Object property) {
@@ -33,6 +33,7 @@ import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
 import org.forgerock.http.util.Uris;
+import org.forgerock.openig.regex.PatternCache;
 import org.forgerock.openig.util.StringUtil;
 import org.forgerock.util.encode.Base64;
 
@@ -41,6 +42,9 @@ import org.forgerock.util.encode.Base64;
  */
 public final class Functions {
 
+    /** Compiled regular expressions, shared by all functions and expressions. */
+    private static final PatternCache PATTERNS = PatternCache.shared();
+
     private Functions() { }
 
     /**
@@ -159,8 +163,7 @@ public final class Functions {
             // avoid unnecessary proxying via duck typing
             Pattern p = null;
             try {
-                // TODO: cache oft-used patterns?
-                p = Pattern.compile(pattern);
+                p = PATTERNS.compile(pattern);
             } catch (PatternSyntaxException pse) {
                 // invalid pattern results in no match
                 return null;
@@ -216,7 +219,7 @@ public final class Functions {
      */
     public static boolean matches(String value, String pattern) {
         try {
-            return Pattern.compile(pattern).matcher(value).find();
+            return PATTERNS.compile(pattern).matcher(value).find();
         } catch (PatternSyntaxException pse) {
             // ignore invalid pattern
         }
@@ -237,8 +240,7 @@ public final class Functions {
      */
     public static String[] matchingGroups(String value, String pattern) {
         try {
-            Pattern p = Pattern.compile(pattern);
-            Matcher m = p.matcher(value);
+            Matcher m = PATTERNS.compile(pattern).matcher(value);
             if (m.find()) {
                 int count = m.groupCount();
                 String[] matches = new String[count + 1];
@@ -265,7 +267,29 @@ public final class Functions {
      * @return the resulting array of split substrings.
      */
     public static String[] split(String value, String regex) {
-        return value != null ? value.split(regex) : null;
+        if (value == null) {
+            return null;
+        }
+        if (isFastSplit(regex)) {
+            // String.split() does not compile single-character separators
+            return value.split(regex);
+        }
+        return PATTERNS.compile(regex).split(value);
+    }
+
+    /**
+     * Mirrors the fast path of {@link String#split(String)}: single non-special characters, or escaped
+     * non-alphanumeric characters, are split without any {@link Pattern} compilation.
+     */
+    private static boolean isFastSplit(final String regex) {
+        if (regex.length() == 1) {
+            return ".$|()[{^?*+\\".indexOf(regex.charAt(0)) == -1;
+        }
+        if (regex.length() == 2 && regex.charAt(0) == '\\') {
+            char c = regex.charAt(1);
+            return !Character.isLetterOrDigit(c) && !Character.isSurrogate(c);
+        }
+        return false;
     }
 
     /**
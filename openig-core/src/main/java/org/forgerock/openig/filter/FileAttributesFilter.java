@@ -24,15 +24,19 @@ import static org.forgerock.json.JsonValueFunctions.file;
 import static org.forgerock.openig.el.Bindings.bindings;
 import static org.forgerock.openig.util.JsonValues.evaluated;
 import static org.forgerock.openig.util.JsonValues.expression;
+import static org.forgerock.openig.util.StringUtil.join;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import org.forgerock.http.Filter;
 import org.forgerock.http.Handler;
 import org.forgerock.http.protocol.Request;
 import org.forgerock.http.protocol.Response;
+import org.forgerock.json.JsonValue;
 import org.forgerock.openig.el.Bindings;
 import org.forgerock.openig.el.Expression;
 import org.forgerock.openig.heap.GenericHeapObject;
@@ -57,6 +61,30 @@ import org.forgerock.util.promise.Promise;
  * to access a value in the target. This defers the overhead of file operations and text
  * processing until a value is first required. This also means that the {@code value}
  * expression will not be evaluated until the map is first accessed.
+ * <p>
+ * The lookup can be performed on several key fields (such as a user name, then an email address): the first record
+ * matching one of them (in the order of the keys) is exposed.
+ * <p>
+ * When {@code indexed} is {@literal true}, the records are indexed on the key fields instead of being read
+ * sequentially on each lookup (see {@link SeparatedValuesFile}).
+ * <pre>
+ *     {@code
+ *     {
+ *         "type": "FileAttributesFilter",
+ *         "config": {
+ *             "file": expression,                  [REQUIRED]
+ *             "key": string or array of strings,   [REQUIRED]
+ *             "value": expression,                 [REQUIRED]
+ *             "target": lvalue-expression,         [REQUIRED]
+ *             "charset": string,                   [OPTIONAL - default to UTF-8]
+ *             "separator": string,                 [OPTIONAL - default to COMMA]
+ *             "header": boolean,                   [OPTIONAL - default to true]
+ *             "fields": [ string, ... ],           [OPTIONAL - default to the header fields]
+ *             "indexed": boolean                   [OPTIONAL - default to false]
+ *         }
+ *     }
+ *     }
+ * </pre>
  *
  * @see SeparatedValuesFile
  */
@@ -69,8 +97,8 @@ public class FileAttributesFilter extends GenericHeapObject implements Filter {
     /** The file to read separated values from. */
     private final SeparatedValuesFile file;
 
-    /** The name of the field in the file to perform the lookup on. */
-    private final String key;
+    /** The names of the fields in the file to perform the lookup on, in order. */
+    private final List<String> keys;
 
     /** Expression that yields the value to be looked-up within the file. */
     private final Expression<String> value;
@@ -91,8 +119,28 @@ public class FileAttributesFilter extends GenericHeapObject implements Filter {
                                 final String key,
                                 final Expression<String> value,
                                 @SuppressWarnings("rawtypes") final Expression<Map> target) {
+        this(file, Collections.singletonList(key), value, target);
+    }
+
+    /**
+     * Builds a new FileAttributesFilter extracting values from the given separated values file, looking up the
+     * record on several key fields.
+     *
+     * @param file
+     *         The file to read separated values from ({@literal csv} file)
+     * @param keys
+     *         The names of the fields in the file to perform the lookup on (the first matching record is selected)
+     * @param value
+     *         Expression that yields the value to be looked-up within the file
+     * @param target
+     *         Expression that yields the target object that will contain the record
+     */
+    public FileAttributesFilter(final SeparatedValuesFile file,
+                                final List<String> keys,
+                                final Expression<String> value,
+                                @SuppressWarnings("rawtypes") final Expression<Map> target) {
         this.file = file;
-        this.key = key;
+        this.keys = keys;
         this.value = value;
         this.target = target;
     }
@@ -107,13 +155,15 @@ public class FileAttributesFilter extends GenericHeapObject implements Filter {
             public Map<String, String> newInstance() {
                 try {
                     String eval = value.eval(bindings);
-                    Map<String, String> record = file.getRecord(key, eval);
-                    if (record == null) {
-                        logger.debug(format("Couldn't select a row where column %s value is equal to %s", key, eval));
-                        return Collections.emptyMap();
-                    } else {
-                        return record;
+                    for (String key : keys) {
+                        Map<String, String> record = file.getRecord(key, eval);
+                        if (record != null) {
+                            return record;
+                        }
                     }
+                    logger.debug(format("Couldn't select a row where column %s value is equal to %s",
+                                        join(" or ", keys), eval));
+                    return Collections.emptyMap();
                 } catch (IOException ioe) {
                     logger.warning(ioe);
                     // results in an empty map
@@ -139,10 +189,40 @@ public class FileAttributesFilter extends GenericHeapObject implements Filter {
             if (config.isDefined("fields")) {
                 sources.getFields().addAll(config.get("fields").as(evaluated()).asList(String.class));
             }
+            List<String> keys = keys();
+            if (config.get("indexed").as(evaluated()).defaultTo(false).asBoolean()) {
+                sources.getIndexedKeys().addAll(keys);
+                buildIndex(sources);
+            }
             return new FileAttributesFilter(sources,
-                                            config.get("key").as(evaluated()).required().asString(),
+                                            keys,
                                             config.get("value").required().as(expression(String.class)),
                                             config.get("target").required().as(expression(Map.class)));
         }
+
+        private List<String> keys() {
+            JsonValue key = config.get("key").as(evaluated()).required();
+            if (key.isList()) {
+                return new ArrayList<>(key.asList(String.class));
+            }
+            return Collections.singletonList(key.asString());
+        }
+
+        private void buildIndex(final SeparatedValuesFile sources) {
+            try {
+                if (sources.buildIndex()) {
+                    logger.info(format("Indexed %d records in %d ms (%d bytes)",
+                                       sources.getIndexedRecordCount(),
+                                       sources.getIndexBuildTime(),
+                                       sources.getIndexMemorySize()));
+                } else {
+                    logger.warning("The file cannot be indexed (unsupported charset or size), it will be read "
+                                           + "sequentially");
+                }
+            } catch (IOException e) {
+                // The index will be built on the first lookup
+                logger.warning(e);
+            }
+        }
     }
 }
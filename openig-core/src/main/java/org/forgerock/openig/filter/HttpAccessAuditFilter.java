@@ -11,7 +11,7 @@
 * Header, with the fields enclosed by brackets [] replaced by your own identifying
 * information: "Portions copyright [year] [name of copyright owner]".
 *
-* Copyright 2015 ForgeRock AS.
+* Copyright 2015-2016 ForgeRock AS.
 */
 package org.forgerock.openig.filter;
 
@@ -20,6 +20,8 @@ import static org.forgerock.json.resource.Requests.newCreateRequest;
 import static org.forgerock.json.resource.ResourcePath.resourcePath;
 
 import java.net.URI;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import org.forgerock.audit.events.AccessAuditEventBuilder;
@@ -32,6 +34,7 @@ import org.forgerock.http.protocol.Status;
 import org.forgerock.http.routing.UriRouterContext;
 import org.forgerock.json.resource.CreateRequest;
 import org.forgerock.json.resource.RequestHandler;
+import org.forgerock.openig.audit.AsyncAuditPublisher;
 import org.forgerock.services.context.ClientContext;
 import org.forgerock.services.context.Context;
 import org.forgerock.services.context.RequestAuditContext;
@@ -42,45 +45,58 @@ import org.forgerock.util.time.TimeService;
 
 /**
  * This filter aims to send some access audit events to the AuditService managed as a CREST handler.
+ * <p>
+ * Only a compact snapshot of the exchange (request line, copies of the headers, status and elapsed time) is taken
+ * on the request thread: when an {@link AsyncAuditPublisher} is provided, the audit event is built and sent to the
+ * AuditService by the publisher's thread.
  */
 public class HttpAccessAuditFilter implements Filter {
 
     private final RequestHandler auditServiceHandler;
     private final TimeService time;
+    private final AsyncAuditPublisher publisher;
 
     /**
-     * Constructs a new HttpAccessAuditFilter.
+     * Constructs a new HttpAccessAuditFilter that sends the events synchronously.
      *
      * @param auditServiceHandler The {@link RequestHandler} to publish the events.
      * @param time The {@link TimeService} to use.
      */
     public HttpAccessAuditFilter(RequestHandler auditServiceHandler, TimeService time) {
+        this(auditServiceHandler, time, null);
+    }
+
+    /**
+     * Constructs a new HttpAccessAuditFilter.
+     *
+     * @param auditServiceHandler The {@link RequestHandler} to publish the events.
+     * @param time The {@link TimeService} to use.
+     * @param publisher The {@link AsyncAuditPublisher} used to send the events (may be {@literal null} to send them
+     *                  synchronously).
+     */
+    public HttpAccessAuditFilter(RequestHandler auditServiceHandler,
+                                 TimeService time,
+                                 AsyncAuditPublisher publisher) {
         this.auditServiceHandler = auditServiceHandler;
         this.time = time;
+        this.publisher = publisher;
     }
 
     @Override
     public Promise<Response, NeverThrowsException> filter(Context context, Request request, Handler next) {
-        ClientContext clientContext = context.asContext(ClientContext.class);
-
-        AccessAuditEventBuilder<?> accessAuditEventBuilder = accessEvent();
-
-        accessAuditEventBuilder
-                .eventName("OPENIG-HTTP-ACCESS")
-                .timestamp(time.now())
-                .transactionIdFromContext(context)
-                .serverFromContext(clientContext)
-                .clientFromContext(clientContext)
-                .httpRequest(clientContext.isSecure(),
-                             request.getMethod(),
-                             getRequestPath(getURI(context, request)),
-                             new Form().fromRequestQuery(request),
-                             request.getHeaders().copyAsMultiMapOfStrings());
+        // Only capture what may change once the request has been handled, the event is built later.
+        // The headers are copied: the next handlers update them in place, a shallow snapshot would record their
+        // final values instead of the ones received
+        final RequestSnapshot snapshot = new RequestSnapshot(time.now(),
+                                                             request.getMethod(),
+                                                             getURI(context, request),
+                                                             request.getUri().getRawQuery(),
+                                                             request.getHeaders().copyAsMultiMapOfStrings());
 
         // We do not expect any RuntimeException as the downstream handler will have to take care
         // of that case themselves.
         return next.handle(context, request)
-                .thenOnResult(onResult(context, accessAuditEventBuilder));
+                .thenOnResult(onResult(context, snapshot));
     }
 
     private static URI getURI(Context context, Request request) {
@@ -101,33 +117,63 @@ public class HttpAccessAuditFilter implements Filter {
             .append(uri.getRawPath()).toString();
     }
 
-    private ResultHandler<? super Response> onResult(final Context context,
-                                                     final AccessAuditEventBuilder<?> accessAuditEventBuilder) {
+    private ResultHandler<? super Response> onResult(final Context context, final RequestSnapshot snapshot) {
         return new ResultHandler<Response>() {
             @Override
             public void handleResult(Response response) {
-                sendAuditEvent(response, context, accessAuditEventBuilder);
+                sendAuditEvent(response, context, snapshot);
             }
 
         };
     }
 
-    private void sendAuditEvent(final Response response,
-                                final Context context,
-                                final AccessAuditEventBuilder<?> accessAuditEventBuilder) {
+    private void sendAuditEvent(final Response response, final Context context, final RequestSnapshot snapshot) {
+        if (response == null) {
+            return;
+        }
         RequestAuditContext requestAuditContext = context.asContext(RequestAuditContext.class);
+        final long elapsedTime = time.now() - requestAuditContext.getRequestReceivedTime();
+        final Status status = response.getStatus();
+        // The previous filters of the chain may still update the response headers after this result handler
+        final Map<String, List<String>> responseHeaders = response.getHeaders().copyAsMultiMapOfStrings();
 
-        if (response != null) {
-            long elapsedTime = time.now() - requestAuditContext.getRequestReceivedTime();
-            accessAuditEventBuilder.httpResponse(response.getHeaders().copyAsMultiMapOfStrings());
-            accessAuditEventBuilder.response(mapResponseStatus(response.getStatus()),
-                                             String.valueOf(response.getStatus().getCode()),
-                                             elapsedTime,
-                                             TimeUnit.MILLISECONDS);
-
-            CreateRequest request = newCreateRequest(resourcePath("/access"),
-                                                     accessAuditEventBuilder.toEvent().getValue());
-            auditServiceHandler.handleCreate(context, request);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                ClientContext clientContext = context.asContext(ClientContext.class);
+                Form query = new Form();
+                if (snapshot.rawQuery != null) {
+                    query.fromQueryString(snapshot.rawQuery);
+                }
+
+                AccessAuditEventBuilder<?> accessAuditEventBuilder = accessEvent();
+                accessAuditEventBuilder
+                        .eventName("OPENIG-HTTP-ACCESS")
+                        .timestamp(snapshot.timestamp)
+                        .transactionIdFromContext(context)
+                        .serverFromContext(clientContext)
+                        .clientFromContext(clientContext)
+                        .httpRequest(clientContext.isSecure(),
+                                     snapshot.method,
+                                     getRequestPath(snapshot.uri),
+                                     query,
+                                     snapshot.headers)
+                        .httpResponse(responseHeaders)
+                        .response(mapResponseStatus(status),
+                                  String.valueOf(status.getCode()),
+                                  elapsedTime,
+                                  TimeUnit.MILLISECONDS);
+
+                CreateRequest request = newCreateRequest(resourcePath("/access"),
+                                                         accessAuditEventBuilder.toEvent().getValue());
+                auditServiceHandler.handleCreate(context, request);
+            }
+        };
+
+        if (publisher == null) {
+            task.run();
+        } else {
+            publisher.publish(task);
         }
     }
 
@@ -140,4 +186,27 @@ public class HttpAccessAuditFilter implements Filter {
             return AccessAuditEventBuilder.ResponseStatus.SUCCESSFUL;
         }
     }
+
+    /**
+     * Request information captured before the request is handled.
+     */
+    private static final class RequestSnapshot {
+        private final long timestamp;
+        private final String method;
+        private final URI uri;
+        private final String rawQuery;
+        private final Map<String, List<String>> headers;
+
+        RequestSnapshot(final long timestamp,
+                        final String method,
+                        final URI uri,
+                        final String rawQuery,
+                        final Map<String, List<String>> headers) {
+            this.timestamp = timestamp;
+            this.method = method;
+            this.uri = uri;
+            this.rawQuery = rawQuery;
+            this.headers = headers;
+        }
+    }
 }
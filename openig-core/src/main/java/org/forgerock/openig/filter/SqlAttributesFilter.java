@@ -18,11 +18,19 @@
 package org.forgerock.openig.filter;
 
 import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.forgerock.json.JsonValueFunctions.duration;
 import static org.forgerock.json.JsonValueFunctions.listOf;
+import static org.forgerock.json.resource.Resources.newSingleton;
+import static org.forgerock.json.resource.http.CrestHttp.newHttpHandler;
 import static org.forgerock.openig.el.Bindings.bindings;
+import static org.forgerock.openig.heap.Keys.SCHEDULED_EXECUTOR_SERVICE_HEAP_KEY;
+import static org.forgerock.openig.heap.Keys.TIME_SERVICE_HEAP_KEY;
 import static org.forgerock.openig.log.LogLevel.DEBUG;
 import static org.forgerock.openig.util.JsonValues.evaluated;
 import static org.forgerock.openig.util.JsonValues.expression;
+import static org.forgerock.openig.util.JsonValues.requiredHeapObject;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -31,9 +39,17 @@ import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
@@ -50,11 +66,19 @@ import org.forgerock.openig.el.Expression;
 import org.forgerock.openig.heap.GenericHeapObject;
 import org.forgerock.openig.heap.GenericHeaplet;
 import org.forgerock.openig.heap.HeapException;
+import org.forgerock.openig.http.EndpointRegistry;
 import org.forgerock.services.context.Context;
 import org.forgerock.util.Factory;
 import org.forgerock.util.LazyMap;
+import org.forgerock.util.AsyncFunction;
 import org.forgerock.util.promise.NeverThrowsException;
 import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.PromiseImpl;
+import org.forgerock.util.time.Duration;
+import org.forgerock.util.time.TimeService;
+
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Histogram;
 
 /**
  * Executes a SQL query through a prepared statement and exposes its first result. Parameters
@@ -66,6 +90,44 @@ import org.forgerock.util.promise.Promise;
  * to access a value in the target. This defers the overhead of connection pool, network
  * and database query processing until a value is first required. This also means that the
  * {@code parameters} expressions will not be evaluated until the map is first accessed.
+ * <p>
+ * The following optimizations are optional:
+ * <ul>
+ *     <li>Statement caching: up to {@code statementCacheSize} connections, with their prepared statement, are kept
+ *     open and reused instead of being returned to the data source after each query.</li>
+ *     <li>Result caching: the results are cached (for {@code resultCacheTimeToLive}, up to
+ *     {@code resultCacheSize} results), keyed by the values of the parameters.</li>
+ *     <li>Asynchronous execution: with an {@linkplain #setExecutor(ExecutorService, Executor) executor}, the
+ *     parameters are evaluated and the query is executed by the executor as soon as the request is filtered, without
+ *     blocking the calling thread: the request is handed to the next handler once the target holds the result of the
+ *     query. The executor threads only run the queries, the rest of the chain is run by the continuation executor
+ *     ({@literal ScheduledExecutorService} heap object by default). When the executor rejects the query, the filter
+ *     falls back to the lazy execution.</li>
+ * </ul>
+ *
+ * <pre>
+ *     {@code
+ *     {
+ *         "type": "SqlAttributesFilter",
+ *         "config": {
+ *             "dataSource": string,                  [REQUIRED - JNDI name of the DataSource]
+ *             "preparedStatement": string,           [REQUIRED]
+ *             "target": lvalue-expression,           [REQUIRED]
+ *             "parameters": [ expression, ... ],     [OPTIONAL]
+ *             "statementCacheSize": integer,         [OPTIONAL - default to 0 (disabled)]
+ *             "resultCacheSize": integer,            [OPTIONAL - default to 0 (disabled)]
+ *             "resultCacheTimeToLive": duration,     [OPTIONAL - default to 1 minute]
+ *             "asynchronous": {                      [OPTIONAL - default to lazy execution]
+ *                 "poolSize": integer,               [OPTIONAL - default to 4 threads]
+ *                 "queueSize": integer,              [OPTIONAL - default to 100 queued queries]
+ *                 "executor": executor               [OPTIONAL - default to ScheduledExecutorService heap object]
+ *             }
+ *         }
+ *     }
+ *     }
+ * </pre>
+ *
+ * The query latency and the result cache statistics are exposed at {@literal /openig/api/system/objects/.../metrics}.
  *
  * @see PreparedStatement
  */
@@ -84,6 +146,21 @@ public class SqlAttributesFilter extends GenericHeapObject implements Filter {
     /** The list of parameters to evaluate and include in the execution of the prepared statement. */
     private final List<Expression<?>> parameters = new ArrayList<>();
 
+    /** Query execution latency, in microseconds. */
+    private final Histogram latency = new Histogram(new ExponentiallyDecayingReservoir());
+
+    /** Idle connections with their prepared statement, or {@literal null} if statements are not cached. */
+    private BlockingQueue<CachedStatement> statements;
+
+    /** Query results, or {@literal null} if results are not cached. */
+    private SqlResultCache results;
+
+    /** Executes the queries asynchronously, or {@literal null} to execute them lazily. */
+    private ExecutorService executor;
+
+    /** Executes the rest of the chain once an asynchronous query has completed. */
+    private Executor continuations;
+
     /**
      * Builds a new SqlAttributesFilter that will execute the given SQL statement on the given {@link DataSource},
      * placing the results in a {@link Map} in the specified target.
@@ -111,6 +188,52 @@ public class SqlAttributesFilter extends GenericHeapObject implements Filter {
         return parameters;
     }
 
+    /**
+     * Keeps up to {@code size} connections open, with their prepared statement, so that they can be reused by the
+     * next queries (disabled by default).
+     * @param size the maximum number of idle connections to keep open, {@literal 0} to disable statement caching
+     */
+    public void setStatementCacheSize(final int size) {
+        this.statements = (size > 0) ? new ArrayBlockingQueue<CachedStatement>(size) : null;
+    }
+
+    /**
+     * Caches up to {@code size} results for the given duration, keyed by the values of the parameters (disabled
+     * by default).
+     * @param time used to expire the results
+     * @param size the maximum number of cached results, {@literal 0} to disable result caching
+     * @param timeToLive how long a result is cached
+     */
+    public void setResultCache(final TimeService time, final int size, final Duration timeToLive) {
+        this.results = (size > 0) ? new SqlResultCache(time, size, timeToLive) : null;
+    }
+
+    /**
+     * Sets the executor used to execute the queries asynchronously (by default, the queries are executed lazily, by
+     * the thread accessing the target map).
+     * @param executor the executor used to execute the queries, or {@literal null} for lazy execution
+     * @param continuations the executor used to hand the request to the next handler once the query has completed,
+     * so that the rest of the chain is never executed by the query threads
+     */
+    public void setExecutor(final ExecutorService executor, final Executor continuations) {
+        this.executor = executor;
+        this.continuations = continuations;
+    }
+
+    /**
+     * Returns the query execution latency histogram, in microseconds.
+     */
+    Histogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Returns the result cache, or {@literal null} if results are not cached.
+     */
+    SqlResultCache getResultCache() {
+        return results;
+    }
+
     @Override
     public Promise<Response, NeverThrowsException> filter(final Context context,
                                                           final Request request,
@@ -118,84 +241,246 @@ public class SqlAttributesFilter extends GenericHeapObject implements Filter {
 
         final Bindings bindings = bindings(context, request);
 
-        target.set(bindings, new LazyMap<>(new Factory<Map<String, Object>>() {
-            @Override
-            public Map<String, Object> newInstance() {
-                Map<String, Object> result = new HashMap<>();
-                Connection c = null;
-                try {
-                    c = dataSource.getConnection();
-
-                    PreparedStatement ps = createPreparedStatement(c);
-
-                    ResultSet rs = ps.executeQuery();
-                    if (rs.next()) {
-                        ResultSetMetaData rsmd = rs.getMetaData();
-                        int columns = rsmd.getColumnCount();
-                        for (int n = 1; n <= columns; n++) {
-                            result.put(rsmd.getColumnLabel(n), rs.getObject(n));
-                        }
-                    }
-                    if (logger.isLoggable(DEBUG)) {
-                        logger.debug("Result: " + result);
-                    }
-                    rs.close();
-                    ps.close();
-                } catch (SQLException sqle) {
-                    // probably a config issue
-                    logger.error(sqle);
-                } finally {
-                    if (c != null) {
+        if (executor != null) {
+            final List<Object> values = evaluateParameters(bindings);
+            Map<String, Object> cached = (results != null) ? results.get(values) : null;
+            if (cached != null) {
+                target.set(bindings, cached);
+                return next.handle(context, request);
+            }
+            final PromiseImpl<Map<String, Object>, NeverThrowsException> result = PromiseImpl.create();
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        Map<String, Object> value = null;
                         try {
-                            c.close();
-                        } catch (SQLException sqle) {
-                            // probably a network issue
-                            logger.error(sqle);
+                            value = query(values);
+                        } finally {
+                            // Never leave the request waiting for a result
+                            complete(result, value != null ? value : new HashMap<String, Object>());
                         }
                     }
-                }
-                return result;
+                });
+                return result.thenAsync(new AsyncFunction<Map<String, Object>, Response, NeverThrowsException>() {
+                    @Override
+                    public Promise<Response, NeverThrowsException> apply(final Map<String, Object> value) {
+                        target.set(bindings, value);
+                        return next.handle(context, request);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                logger.warning("The query executor is saturated, the query will be executed lazily");
             }
+        }
 
-            private PreparedStatement createPreparedStatement(final Connection connection) throws SQLException {
-                logger.debug(format("PreparedStatement %s", preparedStatement));
+        target.set(bindings, new LazyMap<>(new Factory<Map<String, Object>>() {
+            @Override
+            public Map<String, Object> newInstance() {
+                List<Object> values = evaluateParameters(bindings);
+                Map<String, Object> cached = (results != null) ? results.get(values) : null;
+                return (cached != null) ? cached : query(values);
+            }
+        }));
+        return next.handle(context, request);
+    }
 
-                // probably cached in connection pool
-                PreparedStatement ps = connection.prepareStatement(preparedStatement);
+    /**
+     * Completes the promise on the continuation executor, so that its callbacks (the rest of the chain) are not
+     * executed by the query thread.
+     */
+    private void complete(final PromiseImpl<Map<String, Object>, NeverThrowsException> result,
+                          final Map<String, Object> value) {
+        try {
+            continuations.execute(new Runnable() {
+                @Override
+                public void run() {
+                    result.handleResult(value);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.warning("The continuation executor rejected the request, it is resumed by the query thread");
+            result.handleResult(value);
+        }
+    }
 
-                // probably unnecessary but a safety precaution
-                ps.clearParameters();
+    private List<Object> evaluateParameters(final Bindings bindings) {
+        List<Object> values = new ArrayList<>(parameters.size());
+        for (Expression<?> parameter : parameters) {
+            values.add(parameter.eval(bindings));
+        }
+        return values;
+    }
 
-                // Inject evaluated expression values into statement's placeholders
-                Iterator<Expression<?>> expressions = parameters.iterator();
-                int count = ps.getParameterMetaData().getParameterCount();
-                for (int i = 0; i < count; i++) {
-                    if (!expressions.hasNext()) {
-                        // Got a statement parameter, but no expression to evaluate
-                        logger.warning(format(" Placeholder %d has no provided value as parameter", i + 1));
-                        continue;
-                    }
-                    Object eval = expressions.next().eval(bindings);
-                    ps.setObject(i + 1, eval);
-                    logger.debug(format(" Placeholder #%d -> %s", i + 1, eval));
+    /**
+     * Executes the query (and caches its result) with the given parameter values.
+     */
+    private Map<String, Object> query(final List<Object> values) {
+        CachedStatement statement = null;
+        try {
+            statement = acquireStatement();
+            Map<String, Object> result;
+            try {
+                result = execute(statement, values);
+            } catch (SQLException e) {
+                if (!statement.reused) {
+                    throw e;
                 }
+                // The connection may have been closed by the database in the meantime: retry with a new one
+                logger.debug(format("Cached statement failed (%s), retrying with a new connection", e.getMessage()));
+                releaseStatement(statement, false);
+                statement = null;
+                statement = acquireStatement();
+                result = execute(statement, values);
+            }
+            releaseStatement(statement, true);
+            statement = null;
+            if (results != null) {
+                results.put(values, result);
+            }
+            return result;
+        } catch (SQLException | RuntimeException e) {
+            // probably a config issue
+            logger.error(e);
+            releaseStatement(statement, false);
+            return new HashMap<>();
+        }
+    }
+
+    private Map<String, Object> execute(final CachedStatement statement, final List<Object> values)
+            throws SQLException {
+        Map<String, Object> result = new HashMap<>();
+        PreparedStatement ps = statement.statement;
+        bindParameters(statement, values);
 
-                // Output a warning if there are too many expressions compared to the number
-                // of parameters/placeholders in the prepared statement
-                if (expressions.hasNext()) {
-                    logger.warning(format(" All parameters with index >= %d are ignored because there are "
-                                          + "no placeholders for them in the configured prepared statement (%s)",
-                                          count,
-                                          preparedStatement));
+        long start = System.nanoTime();
+        ResultSet rs = ps.executeQuery();
+        try {
+            if (rs.next()) {
+                ResultSetMetaData rsmd = rs.getMetaData();
+                int columns = rsmd.getColumnCount();
+                for (int n = 1; n <= columns; n++) {
+                    result.put(rsmd.getColumnLabel(n), rs.getObject(n));
                 }
-                return ps;
             }
-        }));
-        return next.handle(context, request);
+        } finally {
+            rs.close();
+        }
+        latency.update(MICROSECONDS.convert(System.nanoTime() - start, NANOSECONDS));
+        if (logger.isLoggable(DEBUG)) {
+            logger.debug("Result: " + result);
+        }
+        return result;
+    }
+
+    private void bindParameters(final CachedStatement statement, final List<Object> values) throws SQLException {
+        PreparedStatement ps = statement.statement;
+
+        // probably unnecessary but a safety precaution
+        ps.clearParameters();
+
+        // Inject evaluated expression values into statement's placeholders
+        int count = statement.parameterCount;
+        for (int i = 0; i < count; i++) {
+            if (i >= values.size()) {
+                // Got a statement parameter, but no expression to evaluate
+                logger.warning(format(" Placeholder %d has no provided value as parameter", i + 1));
+                continue;
+            }
+            Object eval = values.get(i);
+            ps.setObject(i + 1, eval);
+            logger.debug(format(" Placeholder #%d -> %s", i + 1, eval));
+        }
+
+        // Output a warning if there are too many expressions compared to the number
+        // of parameters/placeholders in the prepared statement
+        if (values.size() > count) {
+            logger.warning(format(" All parameters with index >= %d are ignored because there are "
+                                  + "no placeholders for them in the configured prepared statement (%s)",
+                                  count,
+                                  preparedStatement));
+        }
+    }
+
+    private CachedStatement acquireStatement() throws SQLException {
+        if (statements != null) {
+            CachedStatement statement = statements.poll();
+            if (statement != null) {
+                statement.reused = true;
+                return statement;
+            }
+        }
+
+        logger.debug(format("PreparedStatement %s", preparedStatement));
+        Connection connection = dataSource.getConnection();
+        try {
+            // probably cached in connection pool
+            PreparedStatement ps = connection.prepareStatement(preparedStatement);
+            return new CachedStatement(connection, ps, ps.getParameterMetaData().getParameterCount());
+        } catch (SQLException | RuntimeException e) {
+            closeConnection(connection);
+            throw e;
+        }
+    }
+
+    private void releaseStatement(final CachedStatement statement, final boolean reusable) {
+        if (statement == null) {
+            return;
+        }
+        if (reusable && statements != null && statements.offer(statement)) {
+            return;
+        }
+        try {
+            statement.statement.close();
+        } catch (SQLException sqle) {
+            logger.error(sqle);
+        }
+        closeConnection(statement.connection);
+    }
+
+    private void closeConnection(final Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException sqle) {
+            // probably a network issue
+            logger.error(sqle);
+        }
+    }
+
+    /**
+     * Closes the cached connections, and stops the executor (if any).
+     */
+    void stop() {
+        if (statements != null) {
+            CachedStatement statement;
+            while ((statement = statements.poll()) != null) {
+                releaseStatement(statement, false);
+            }
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /** A connection with its prepared statement. */
+    private static final class CachedStatement {
+        private final Connection connection;
+        private final PreparedStatement statement;
+        private final int parameterCount;
+        private boolean reused;
+
+        CachedStatement(final Connection connection, final PreparedStatement statement, final int parameterCount) {
+            this.connection = connection;
+            this.statement = statement;
+            this.parameterCount = parameterCount;
+        }
     }
 
     /** Creates and initializes a static attribute provider in a heap environment. */
     public static class Heaplet extends GenericHeaplet {
+
+        private EndpointRegistry.Registration registration;
+
         @Override
         public Object create() throws HeapException {
             InitialContext ctx;
@@ -225,7 +510,61 @@ public class SqlAttributesFilter extends GenericHeapObject implements Filter {
             if (config.isDefined("parameters")) {
                 filter.parameters.addAll(config.get("parameters").as(listOf(expression(String.class))));
             }
+
+            JsonValue evaluated = config.as(evaluated());
+            filter.setStatementCacheSize(evaluated.get("statementCacheSize").defaultTo(0).asInteger());
+            filter.setResultCache(heap.get(TIME_SERVICE_HEAP_KEY, TimeService.class),
+                                  evaluated.get("resultCacheSize").defaultTo(0).asInteger(),
+                                  evaluated.get("resultCacheTimeToLive").defaultTo("1 minute").as(duration()));
+            JsonValue asynchronous = evaluated.get("asynchronous");
+            if (asynchronous.isNotNull()) {
+                Executor continuations = asynchronous.get("executor")
+                                                     .defaultTo(SCHEDULED_EXECUTOR_SERVICE_HEAP_KEY)
+                                                     .as(requiredHeapObject(heap, Executor.class));
+                filter.setExecutor(executor(name, asynchronous), continuations);
+            }
+
+            registration = endpointRegistry().register("metrics",
+                                                       newHttpHandler(newSingleton(
+                                                               new SqlAttributesResourceProvider(filter))));
             return filter;
         }
+
+        private static ExecutorService executor(final String name, final JsonValue config) throws HeapException {
+            int poolSize = config.get("poolSize").defaultTo(4).asInteger();
+            int queueSize = config.get("queueSize").defaultTo(100).asInteger();
+            if (poolSize <= 0 || queueSize <= 0) {
+                throw new HeapException("'poolSize' and 'queueSize' can only be positive (non-zero) values");
+            }
+            return new ThreadPoolExecutor(poolSize,
+                                          poolSize,
+                                          0L,
+                                          TimeUnit.MILLISECONDS,
+                                          new ArrayBlockingQueue<Runnable>(queueSize),
+                                          new ThreadFactory() {
+                                              private final AtomicInteger count = new AtomicInteger();
+
+                                              @Override
+                                              public Thread newThread(final Runnable runnable) {
+                                                  // Daemon threads: they must not keep the JVM alive
+                                                  Thread thread = new Thread(runnable, format("%s-query-%d",
+                                                                                              name,
+                                                                                              count.incrementAndGet()));
+                                                  thread.setDaemon(true);
+                                                  return thread;
+                                              }
+                                          });
+        }
+
+        @Override
+        public void destroy() {
+            if (registration != null) {
+                registration.unregister();
+            }
+            if (object != null) {
+                ((SqlAttributesFilter) object).stop();
+            }
+            super.destroy();
+        }
     }
 }
@@ -0,0 +1,96 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.filter;
+
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import org.forgerock.json.JsonValue;
+import org.forgerock.json.resource.ActionRequest;
+import org.forgerock.json.resource.ActionResponse;
+import org.forgerock.json.resource.NotSupportedException;
+import org.forgerock.json.resource.PatchRequest;
+import org.forgerock.json.resource.ReadRequest;
+import org.forgerock.json.resource.ResourceException;
+import org.forgerock.json.resource.ResourceResponse;
+import org.forgerock.json.resource.Responses;
+import org.forgerock.json.resource.SingletonResourceProvider;
+import org.forgerock.json.resource.UpdateRequest;
+import org.forgerock.services.context.Context;
+import org.forgerock.util.promise.Promise;
+
+import com.codahale.metrics.Snapshot;
+
+/**
+ * Expose the query latency (in milliseconds) and the result cache statistics of a {@link SqlAttributesFilter} as a
+ * REST resource. This resource only supports read typed operations.
+ */
+class SqlAttributesResourceProvider implements SingletonResourceProvider {
+
+    private static final BigDecimal ONE_THOUSAND = BigDecimal.valueOf(1000);
+
+    private final SqlAttributesFilter filter;
+
+    SqlAttributesResourceProvider(final SqlAttributesFilter filter) {
+        this.filter = filter;
+    }
+
+    @Override
+    public Promise<ResourceResponse, ResourceException> readInstance(final Context context, final ReadRequest request) {
+        Snapshot snapshot = filter.getLatency().getSnapshot();
+        JsonValue data = json(object(field("queries", filter.getLatency().getCount()),
+                                     field("latency", object(field("mean", toMilliseconds(snapshot.getMean())),
+                                                             field("median", toMilliseconds(snapshot.getMedian())),
+                                                             field("p95", toMilliseconds(snapshot.get95thPercentile())),
+                                                             field("p99", toMilliseconds(snapshot.get99thPercentile())),
+                                                             field("max", toMilliseconds(snapshot.getMax()))))));
+        SqlResultCache results = filter.getResultCache();
+        if (results != null) {
+            data.put("resultCache", object(field("size", results.size()),
+                                           field("hits", results.getHitCount()),
+                                           field("misses", results.getMissCount()),
+                                           field("hitRatio", results.getHitRatio())));
+        }
+        return Responses.newResourceResponse(null, null, data).asPromise();
+    }
+
+    private static BigDecimal toMilliseconds(final double micros) {
+        return BigDecimal.valueOf(micros).divide(ONE_THOUSAND, 3, RoundingMode.HALF_UP);
+    }
+
+    @Override
+    public Promise<ActionResponse, ResourceException> actionInstance(final Context context,
+                                                                     final ActionRequest request) {
+        return new NotSupportedException("Action is not supported by this resource").asPromise();
+    }
+
+    @Override
+    public Promise<ResourceResponse, ResourceException> patchInstance(final Context context,
+                                                                      final PatchRequest request) {
+        return new NotSupportedException("Patch is not supported by this resource").asPromise();
+    }
+
+    @Override
+    public Promise<ResourceResponse, ResourceException> updateInstance(final Context context,
+                                                                       final UpdateRequest request) {
+        return new NotSupportedException("Update is not supported by this resource").asPromise();
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.filter;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.forgerock.util.time.Duration;
+import org.forgerock.util.time.TimeService;
+
+import com.codahale.metrics.Counter;
+
+/**
+ * A bounded cache of SQL query results, keyed by the values of the statement parameters. The least recently used
+ * result is evicted when the cache is full, and results expire after a fixed time-to-live.
+ * <p>
+ * Cached results are never exposed directly: {@link #get(List)} returns a copy that can be freely modified.
+ */
+class SqlResultCache {
+
+    private final TimeService time;
+    private final long timeToLive;
+    private final Map<List<Object>, Entry> entries;
+    private final Counter hits = new Counter();
+    private final Counter misses = new Counter();
+
+    /**
+     * Builds a new cache.
+     *
+     * @param time
+     *         used to expire the results
+     * @param maxSize
+     *         the maximum number of cached results
+     * @param timeToLive
+     *         how long a result is cached
+     */
+    SqlResultCache(final TimeService time, final int maxSize, final Duration timeToLive) {
+        this.time = time;
+        this.timeToLive = timeToLive.isUnlimited() ? Long.MAX_VALUE : timeToLive.to(MILLISECONDS);
+        this.entries = new LinkedHashMap<List<Object>, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<List<Object>, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns a copy of the result cached for the given parameter values.
+     *
+     * @param values
+     *         the values of the statement parameters
+     * @return a copy of the cached result, or {@literal null} if there is no (fresh) cached result
+     */
+    Map<String, Object> get(final List<Object> values) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(values);
+            if (entry != null && time.now() >= entry.expiration) {
+                entries.remove(values);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.inc();
+            return null;
+        }
+        hits.inc();
+        return new HashMap<>(entry.result);
+    }
+
+    /**
+     * Caches the result of the query executed with the given parameter values.
+     *
+     * @param values
+     *         the values of the statement parameters
+     * @param result
+     *         the query result (copied)
+     */
+    void put(final List<Object> values, final Map<String, Object> result) {
+        long now = time.now();
+        long expiration = (timeToLive > Long.MAX_VALUE - now) ? Long.MAX_VALUE : now + timeToLive;
+        Entry entry = new Entry(new HashMap<>(result), expiration);
+        synchronized (entries) {
+            entries.put(values, entry);
+        }
+    }
+
+    /**
+     * Returns the number of cached results (including the expired ones that have not been evicted yet).
+     *
+     * @return the number of cached results
+     */
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Returns the number of lookups that found a fresh result.
+     *
+     * @return the number of cache hits
+     */
+    long getHitCount() {
+        return hits.getCount();
+    }
+
+    /**
+     * Returns the number of lookups that did not find a fresh result.
+     *
+     * @return the number of cache misses
+     */
+    long getMissCount() {
+        return misses.getCount();
+    }
+
+    /**
+     * Returns the ratio of lookups served from the cache (between {@literal 0} and {@literal 1}).
+     *
+     * @return the cache hit ratio, or {@literal 0} if there was no lookup yet
+     */
+    double getHitRatio() {
+        long hitCount = hits.getCount();
+        long total = hitCount + misses.getCount();
+        return (total == 0) ? 0d : ((double) hitCount) / total;
+    }
+
+    private static final class Entry {
+        private final Map<String, Object> result;
+        private final long expiration;
+
+        Entry(final Map<String, Object> result, final long expiration) {
+            this.result = result;
+            this.expiration = expiration;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.filter.throttling;
+
+import static org.forgerock.json.JsonValueFunctions.file;
+import static org.forgerock.openig.util.JsonValues.evaluated;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.forgerock.http.filter.throttling.FileTokenBucketBackend;
+import org.forgerock.openig.heap.GenericHeaplet;
+import org.forgerock.openig.heap.HeapException;
+import org.forgerock.openig.heap.Keys;
+import org.forgerock.util.time.TimeService;
+
+/**
+ * Creates and initializes a {@link FileTokenBucketBackend} in a heap environment. All the gateways of a machine
+ * configured with the same file share their throttling buckets.
+ *
+ * Configuration options:
+ *
+ * <pre>
+ * {@code
+ * {
+ *     "type": "FileTokenBucketBackend",
+ *     "config": {
+ *         "file"                         : string              [REQUIRED - The file holding the shared buckets.]
+ *         "size"                         : integer             [OPTIONAL - The number of buckets held by the file
+ *                                                                          when it is created. Default to 10000.]
+ *     }
+ * }
+ * }
+ * </pre>
+ */
+public class FileTokenBucketBackendHeaplet extends GenericHeaplet {
+
+    private FileTokenBucketBackend backend;
+
+    @Override
+    public Object create() throws HeapException {
+        TimeService time = heap.get(Keys.TIME_SERVICE_HEAP_KEY, TimeService.class);
+        File file = config.get("file").as(evaluated()).required().as(file());
+        int size = config.get("size").as(evaluated()).defaultTo(FileTokenBucketBackend.DEFAULT_SIZE).asInteger();
+        try {
+            return backend = new FileTokenBucketBackend(time, file, size);
+        } catch (IOException e) {
+            throw new HeapException("Cannot open the token bucket file " + file, e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        super.destroy();
+        if (backend != null) {
+            try {
+                backend.close();
+            } catch (IOException e) {
+                logger.warning(e);
+            }
+        }
+    }
+}
@@ -26,9 +26,13 @@ import static org.forgerock.openig.util.JsonValues.requiredHeapObject;
 import java.util.concurrent.ScheduledExecutorService;
 
 import org.forgerock.http.filter.throttling.FixedRateThrottlingPolicy;
+import org.forgerock.http.filter.throttling.LeasingTokenBucketStore;
+import org.forgerock.http.filter.throttling.ShardedTokenBucketStore;
 import org.forgerock.http.filter.throttling.ThrottlingFilter;
 import org.forgerock.http.filter.throttling.ThrottlingPolicy;
 import org.forgerock.http.filter.throttling.ThrottlingRate;
+import org.forgerock.http.filter.throttling.TokenBucketBackend;
+import org.forgerock.http.filter.throttling.TokenBucketStore;
 import org.forgerock.json.JsonValue;
 import org.forgerock.json.JsonValueException;
 import org.forgerock.openig.el.Expression;
@@ -56,6 +60,22 @@ import org.forgerock.util.time.TimeService;
  *         "requestGroupingPolicy"        : expression<String>  [REQUIRED - Expression to evaluate whether a request
  *                                                                          matches when calculating a rate for a group
  *                                                                          of requests.]
+ *         "maxPartitions"                : integer             [OPTIONAL - The maximum number of token buckets kept in
+ *                                                                          memory. When set, buckets are stored in
+ *                                                                          fixed-size tables and the least recently
+ *                                                                          refilled ones are evicted when full. Not
+ *                                                                          bounded by default.]
+ *         "approximateOverflow"          : boolean             [OPTIONAL - Only used with "maxPartitions": throttle
+ *                                                                          the extra partitions with an approximate
+ *                                                                          count-min sketch instead of evicting live
+ *                                                                          buckets. Default to false.]
+ *         "tokenBucketBackend"           : reference           [OPTIONAL - A backend sharing the token buckets with
+ *                                                                          the other gateways, so that the rates are
+ *                                                                          enforced cluster-wide. Takes precedence
+ *                                                                          over "maxPartitions".]
+ *         "leaseSize"                    : integer             [OPTIONAL - Only used with "tokenBucketBackend": the
+ *                                                                          number of tokens borrowed at once from the
+ *                                                                          backend. Default to 10.]
  *         "rate": {
  *            "numberOfRequests"          : integer             [REQUIRED - The number of requests allowed to go through
  *                                                                          this filter during the duration window.]
@@ -72,6 +92,8 @@ import org.forgerock.util.time.TimeService;
  */
 public class ThrottlingFilterHeaplet extends GenericHeaplet {
 
+    private static final int DEFAULT_LEASE_SIZE = 10;
+
     static final Function<JsonValue, ThrottlingRate, JsonValueException> THROTTLING_RATE =
             new Function<JsonValue, ThrottlingRate, JsonValueException>() {
 
@@ -117,11 +139,37 @@ public class ThrottlingFilterHeaplet extends GenericHeaplet {
                                                          .defaultTo(SCHEDULED_EXECUTOR_SERVICE_HEAP_KEY)
                                                          .as(requiredHeapObject(heap, ScheduledExecutorService.class));
 
+        TokenBucketStore buckets = tokenBucketStore(time);
+        if (buckets == null) {
+            return filter = new ThrottlingFilter(executorService,
+                                                 time,
+                                                 cleaningInterval,
+                                                 new ExpressionRequestAsyncFunction<>(requestGroupingPolicy),
+                                                 throttlingRatePolicy);
+        }
         return filter = new ThrottlingFilter(executorService,
-                                             time,
                                              cleaningInterval,
                                              new ExpressionRequestAsyncFunction<>(requestGroupingPolicy),
-                                             throttlingRatePolicy);
+                                             throttlingRatePolicy,
+                                             buckets);
+    }
+
+    /**
+     * Returns the configured token bucket store, or {@code null} to use the default one.
+     */
+    private TokenBucketStore tokenBucketStore(final TimeService time) throws HeapException {
+        if (config.isDefined("tokenBucketBackend")) {
+            TokenBucketBackend backend = config.get("tokenBucketBackend")
+                                               .as(requiredHeapObject(heap, TokenBucketBackend.class));
+            int leaseSize = config.get("leaseSize").as(evaluated()).defaultTo(DEFAULT_LEASE_SIZE).asInteger();
+            return new LeasingTokenBucketStore(time, backend, leaseSize);
+        }
+        if (config.isDefined("maxPartitions")) {
+            int maxPartitions = config.get("maxPartitions").as(evaluated()).asInteger();
+            boolean approximate = config.get("approximateOverflow").as(evaluated()).defaultTo(false).asBoolean();
+            return new ShardedTokenBucketStore(time, maxPartitions, approximate);
+        }
+        return null;
     }
 
     @Override
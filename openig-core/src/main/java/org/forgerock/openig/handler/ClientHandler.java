@@ -19,6 +19,8 @@
 package org.forgerock.openig.handler;
 
 import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.forgerock.http.handler.Handlers.chainOf;
 import static org.forgerock.http.handler.HttpClientHandler.OPTION_CONNECT_TIMEOUT;
 import static org.forgerock.http.handler.HttpClientHandler.OPTION_HOSTNAME_VERIFIER;
 import static org.forgerock.http.handler.HttpClientHandler.OPTION_KEY_MANAGERS;
@@ -34,6 +36,9 @@ import static org.forgerock.http.handler.HttpClientHandler.OPTION_TRUST_MANAGERS
 import static org.forgerock.json.JsonValueFunctions.duration;
 import static org.forgerock.json.JsonValueFunctions.enumConstant;
 import static org.forgerock.json.JsonValueFunctions.listOf;
+import static org.forgerock.json.resource.Resources.newSingleton;
+import static org.forgerock.json.resource.http.CrestHttp.newHttpHandler;
+import static org.forgerock.openig.heap.Keys.LATENCY_METRICS_HEAP_KEY;
 import static org.forgerock.openig.util.JsonValues.evaluated;
 import static org.forgerock.openig.util.JsonValues.requiredHeapObject;
 import static org.forgerock.util.Utils.closeSilently;
@@ -54,6 +59,8 @@ import org.forgerock.json.JsonValue;
 import org.forgerock.openig.heap.GenericHeapObject;
 import org.forgerock.openig.heap.GenericHeaplet;
 import org.forgerock.openig.heap.HeapException;
+import org.forgerock.openig.http.EndpointRegistry;
+import org.forgerock.openig.metrics.LatencyMetrics;
 import org.forgerock.services.context.Context;
 import org.forgerock.util.Options;
 import org.forgerock.util.promise.NeverThrowsException;
@@ -73,6 +80,8 @@ import org.forgerock.util.time.Duration;
  *     "type": "ClientHandler",
  *     "config": {
  *       "connections": 64,
+ *       "maxConnectionsPerHost": 16,
+ *       "maxPendingRequestsPerHost": 128,
  *       "disableReuseConnection": true,
  *       "disableRetries": true,
  *       "hostnameVerifier": "ALLOW_ALL",
@@ -126,6 +135,19 @@ import org.forgerock.util.time.Duration;
  * requests. It defaults to the number of CPUs available to the JVM. This attribute is only used if an asynchronous
  * Http client engine is used (that is the default).
  *
+ * <p>The {@literal maxConnectionsPerHost} optional attribute specifies the maximum number of requests concurrently
+ * sent to the same upstream host (hence of connections leased for that host). Additional requests wait, without
+ * blocking any thread, until a previous request to that host completes. It defaults to no limit (only the global
+ * {@literal connections} limit applies).
+ *
+ * <p>The {@literal maxPendingRequestsPerHost} optional attribute specifies how many requests may wait for a
+ * connection to the same upstream host. Once this limit is reached, requests fail immediately with a
+ * {@literal 503 Service Unavailable} response. It defaults to {@literal 128}.
+ *
+ * <p>When {@literal maxConnectionsPerHost} is set, the usage of each upstream host (leased connections, pending
+ * requests and their waiting time, rejected requests) is exposed at the {@literal pool} endpoint of the handler,
+ * along with the number of requests that were not limited because too many hosts were already tracked.
+ *
  * <p>The {@literal sslEnabledProtocols} optional attribute specifies
  * <a href="http://docs.oracle.com/javase/7/docs/technotes/guides/security/StandardNames.html#jssenames">the protocol
  * versions</a> to be enabled for use on the connection.
@@ -141,6 +163,7 @@ import org.forgerock.util.time.Duration;
 public class ClientHandler extends GenericHeapObject implements Handler {
 
     private final Handler delegate;
+    private LatencyMetrics latencyMetrics;
 
     /**
      * Creates a new client handler.
@@ -152,12 +175,31 @@ public class ClientHandler extends GenericHeapObject implements Handler {
         this.delegate = delegate;
     }
 
+    /**
+     * Sets the registry where the latencies of the upstream servers are recorded (may be {@code null}).
+     *
+     * @param latencyMetrics
+     *         registry where the latencies of the upstream servers are recorded
+     * @return this handler
+     */
+    public ClientHandler setLatencyMetrics(final LatencyMetrics latencyMetrics) {
+        this.latencyMetrics = latencyMetrics;
+        return this;
+    }
+
     @Override
     public Promise<Response, NeverThrowsException> handle(final Context context, final Request request) {
+        final long start = System.nanoTime();
+        // The request may be modified once sent, keep its upstream server
+        final String upstream = (request.getUri() != null) ? request.getUri().getRawAuthority() : null;
         return delegate.handle(context, request)
                        .thenOnResult(new ResultHandler<Response>() {
                            @Override
                            public void handleResult(final Response response) {
+                               if (latencyMetrics != null && upstream != null) {
+                                   latencyMetrics.recordUpstream(upstream,
+                                                                 NANOSECONDS.toMicros(System.nanoTime() - start));
+                               }
                                if (response.getCause() != null) {
                                    logger.warning(response.getCause());
                                }
@@ -169,6 +211,7 @@ public class ClientHandler extends GenericHeapObject implements Handler {
     public static class Heaplet extends GenericHeaplet {
 
         private HttpClientHandler httpClientHandler;
+        private EndpointRegistry.Registration registration;
 
         @Override
         public Object create() throws HeapException {
@@ -231,16 +274,47 @@ public class ClientHandler extends GenericHeapObject implements Handler {
                 logger.warning(message);
             }
 
+            UpstreamLimiter limiter = createUpstreamLimiter(evaluated);
+
             try {
                 httpClientHandler = new HttpClientHandler(options);
-                return new ClientHandler(httpClientHandler);
+                Handler handler = httpClientHandler;
+                if (limiter != null) {
+                    registration = endpointRegistry().register("pool",
+                                                               newHttpHandler(newSingleton(
+                                                                       new UpstreamLimiterResourceProvider(limiter))));
+                    handler = chainOf(httpClientHandler, limiter);
+                }
+                return new ClientHandler(handler)
+                        .setLatencyMetrics(heap.get(LATENCY_METRICS_HEAP_KEY, LatencyMetrics.class));
             } catch (final HttpApplicationException e) {
                 throw new HeapException(format("Cannot build ClientHandler named '%s'", name), e);
             }
         }
 
+        private UpstreamLimiter createUpstreamLimiter(final JsonValue evaluated) throws HeapException {
+            int maxConnections = evaluated.get("maxConnectionsPerHost")
+                                          .defaultTo(UpstreamLimiter.UNLIMITED)
+                                          .asInteger();
+            int maxPending = evaluated.get("maxPendingRequestsPerHost")
+                                      .defaultTo(UpstreamLimiter.DEFAULT_MAX_PENDING_PER_HOST)
+                                      .asInteger();
+            if (maxConnections <= 0 || maxPending < 0) {
+                throw new HeapException("'maxConnectionsPerHost' must be strictly positive, "
+                                                + "and 'maxPendingRequestsPerHost' must be positive");
+            }
+            if (maxConnections == UpstreamLimiter.UNLIMITED) {
+                // Nothing to limit
+                return null;
+            }
+            return new UpstreamLimiter(maxConnections, maxPending, logger);
+        }
+
         @Override
         public void destroy() {
+            if (registration != null) {
+                registration.unregister();
+            }
             if (httpClientHandler != null) {
                 closeSilently(httpClientHandler);
             }
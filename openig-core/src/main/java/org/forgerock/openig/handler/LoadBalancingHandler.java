@@ -0,0 +1,494 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+
+package org.forgerock.openig.handler;
+
+import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.forgerock.json.JsonValueFunctions.duration;
+import static org.forgerock.json.JsonValueFunctions.enumConstant;
+import static org.forgerock.json.JsonValueFunctions.uri;
+import static org.forgerock.json.resource.Resources.newSingleton;
+import static org.forgerock.json.resource.http.CrestHttp.newHttpHandler;
+import static org.forgerock.openig.heap.Keys.CLIENT_HANDLER_HEAP_KEY;
+import static org.forgerock.openig.heap.Keys.SCHEDULED_EXECUTOR_SERVICE_HEAP_KEY;
+import static org.forgerock.openig.heap.Keys.TIME_SERVICE_HEAP_KEY;
+import static org.forgerock.openig.util.JsonValues.evaluated;
+import static org.forgerock.openig.util.JsonValues.requiredHeapObject;
+import static org.forgerock.util.Utils.closeSilently;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.http.Handler;
+import org.forgerock.http.protocol.Request;
+import org.forgerock.http.protocol.Response;
+import org.forgerock.http.protocol.Status;
+import org.forgerock.json.JsonValue;
+import org.forgerock.openig.heap.GenericHeapObject;
+import org.forgerock.openig.heap.GenericHeaplet;
+import org.forgerock.openig.heap.HeapException;
+import org.forgerock.openig.http.EndpointRegistry;
+import org.forgerock.openig.metrics.LatencyRecorder;
+import org.forgerock.services.context.Context;
+import org.forgerock.services.context.RootContext;
+import org.forgerock.util.Reject;
+import org.forgerock.util.promise.NeverThrowsException;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.ResultHandler;
+import org.forgerock.util.time.Duration;
+import org.forgerock.util.time.TimeService;
+
+/**
+ * Spreads the requests across a pool of backend servers. Each request is rebased on the selected backend URI (only
+ * scheme, host and port are used), then given to the next handler (usually a {@link ClientHandler}).
+ *
+ * <pre>
+ *   {@code
+ *   {
+ *     "name": "LoadBalancer",
+ *     "type": "LoadBalancingHandler",
+ *     "config": {
+ *       "backends": [ "http://app1.example.com:8080", "http://app2.example.com:8080" ],
+ *       "strategy": "POWER_OF_TWO_CHOICES",
+ *       "handler": "ClientHandler",
+ *       "ejection": {
+ *         "consecutiveFailures": 5,
+ *         "duration": "30 seconds"
+ *       },
+ *       "healthCheck": {
+ *         "path": "/health",
+ *         "interval": "10 seconds",
+ *         "executor": "ScheduledExecutorService"
+ *       }
+ *     }
+ *   }
+ *   }
+ * </pre>
+ *
+ * The {@literal strategy} optional attribute selects how backends are chosen:
+ * <ul>
+ *     <li>{@literal ROUND_ROBIN} (the default): each backend in turn</li>
+ *     <li>{@literal LEAST_REQUESTS}: the backend with the fewest outstanding requests</li>
+ *     <li>{@literal POWER_OF_TWO_CHOICES}: the backend with the fewest outstanding requests among two backends
+ *     picked at random</li>
+ * </ul>
+ *
+ * <p>The {@literal handler} optional attribute references the handler sending the requests. It defaults to the
+ * {@literal ClientHandler} heap object.
+ *
+ * <p>The {@literal ejection} optional attribute configures the passive outlier detection: a backend returning
+ * {@literal consecutiveFailures} server errors in a row (including the {@literal 502 Bad Gateway} responses produced
+ * on connection failures and timeouts) is not selected anymore for the given {@literal duration}. It defaults to
+ * {@literal 5} failures and {@literal 30 seconds}. Setting {@literal consecutiveFailures} to {@literal 0} disables
+ * the ejection.
+ *
+ * <p>The {@literal healthCheck} optional attribute enables active health probes: a {@literal GET} request is sent
+ * to the {@literal path} (defaults to {@literal /}) of each backend every {@literal interval} (defaults to
+ * {@literal 10 seconds}), using the {@literal executor} (defaults to the heap's {@literal ScheduledExecutorService}).
+ * Backends that do not answer with a successful status are not selected until a later probe succeeds. A backend is
+ * not probed again while its previous probe is still pending.
+ *
+ * <p>When no backend is available, requests are spread across all of them rather than failing.
+ *
+ * <p>The state and latency of each backend are exposed at the {@literal backends} endpoint of the handler.
+ */
+public class LoadBalancingHandler extends GenericHeapObject implements Handler {
+
+    /** Default number of consecutive server errors after which a backend is ejected. */
+    public static final int DEFAULT_CONSECUTIVE_FAILURES = 5;
+
+    /** Default ejection duration. */
+    public static final String DEFAULT_EJECTION_DURATION = "30 seconds";
+
+    /** Backend selection strategies. */
+    public enum Strategy {
+        /** Selects each backend in turn. */
+        ROUND_ROBIN,
+        /** Selects the backend with the fewest outstanding requests. */
+        LEAST_REQUESTS,
+        /** Selects the backend with the fewest outstanding requests among two backends picked at random. */
+        POWER_OF_TWO_CHOICES
+    }
+
+    private final Handler next;
+    private final List<Backend> backends;
+    private final Strategy strategy;
+    private final TimeService time;
+    private final AtomicInteger roundRobin = new AtomicInteger();
+    private int consecutiveFailures = DEFAULT_CONSECUTIVE_FAILURES;
+    private long ejectionDuration = Duration.duration(DEFAULT_EJECTION_DURATION).to(MILLISECONDS);
+
+    /**
+     * Builds a new load balancing handler.
+     *
+     * @param next
+     *         handler sending the requests to the selected backend
+     * @param backends
+     *         base URIs of the backends (must not be empty)
+     * @param strategy
+     *         backend selection strategy
+     * @param time
+     *         time service used to expire the ejections
+     */
+    public LoadBalancingHandler(final Handler next,
+                                final List<URI> backends,
+                                final Strategy strategy,
+                                final TimeService time) {
+        Reject.ifTrue(backends.isEmpty(), "At least one backend is required");
+        this.next = next;
+        this.strategy = strategy;
+        this.time = time;
+        List<Backend> list = new ArrayList<>(backends.size());
+        for (URI uri : backends) {
+            list.add(new Backend(uri));
+        }
+        this.backends = Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Configures the passive ejection of the failing backends.
+     *
+     * @param consecutiveFailures
+     *         number of consecutive server errors after which a backend is ejected ({@literal 0} disables the
+     *         ejection)
+     * @param duration
+     *         how long an ejected backend is not selected
+     * @return this handler
+     */
+    public LoadBalancingHandler setEjection(final int consecutiveFailures, final Duration duration) {
+        this.consecutiveFailures = consecutiveFailures;
+        this.ejectionDuration = duration.to(MILLISECONDS);
+        return this;
+    }
+
+    @Override
+    public Promise<Response, NeverThrowsException> handle(final Context context, final Request request) {
+        final Backend backend = select();
+        request.getUri().rebase(backend.uri);
+
+        backend.outstanding.incrementAndGet();
+        final long start = System.nanoTime();
+        final Promise<Response, NeverThrowsException> promise;
+        try {
+            promise = next.handle(context, request);
+        } catch (RuntimeException e) {
+            backend.outstanding.decrementAndGet();
+            backend.onFailure();
+            throw e;
+        }
+        return promise.thenOnResult(new ResultHandler<Response>() {
+            @Override
+            public void handleResult(final Response response) {
+                backend.latency.record(NANOSECONDS.toMicros(System.nanoTime() - start));
+                if (response.getStatus().getFamily() == Status.Family.SERVER_ERROR) {
+                    backend.onFailure();
+                } else {
+                    backend.onSuccess();
+                }
+            }
+        }).thenAlways(new Runnable() {
+            @Override
+            public void run() {
+                backend.outstanding.decrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Selects the backend for the next request.
+     */
+    private Backend select() {
+        List<Backend> candidates = available();
+        switch (strategy) {
+        case LEAST_REQUESTS:
+            return leastRequests(candidates);
+        case POWER_OF_TWO_CHOICES:
+            return powerOfTwoChoices(candidates);
+        default:
+            return candidates.get(nextIndex(candidates.size()));
+        }
+    }
+
+    private List<Backend> available() {
+        long now = time.now();
+        List<Backend> candidates = new ArrayList<>(backends.size());
+        for (Backend backend : backends) {
+            if (backend.isAvailable(now)) {
+                candidates.add(backend);
+            }
+        }
+        // Better send requests to a possibly unhealthy backend than to none
+        return candidates.isEmpty() ? backends : candidates;
+    }
+
+    private int nextIndex(final int size) {
+        return (roundRobin.getAndIncrement() & Integer.MAX_VALUE) % size;
+    }
+
+    private Backend leastRequests(final List<Backend> candidates) {
+        // Start at a rotating position so that ties are spread across backends
+        int offset = nextIndex(candidates.size());
+        Backend selected = null;
+        for (int i = 0; i < candidates.size(); i++) {
+            Backend backend = candidates.get((offset + i) % candidates.size());
+            if (selected == null || backend.outstanding.get() < selected.outstanding.get()) {
+                selected = backend;
+            }
+        }
+        return selected;
+    }
+
+    private static Backend powerOfTwoChoices(final List<Backend> candidates) {
+        int size = candidates.size();
+        if (size == 1) {
+            return candidates.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        int second = random.nextInt(size - 1);
+        if (second >= first) {
+            second++;
+        }
+        Backend a = candidates.get(first);
+        Backend b = candidates.get(second);
+        return (b.outstanding.get() < a.outstanding.get()) ? b : a;
+    }
+
+    /**
+     * Sends a {@literal GET} request to the given path of each backend, and marks the backends as healthy or not
+     * depending on the response status. Backends whose previous probe has not completed yet are skipped.
+     *
+     * @param path
+     *         path of the health check resource
+     */
+    void checkHealth(final String path) {
+        for (final Backend backend : backends) {
+            if (!backend.probing.compareAndSet(false, true)) {
+                continue;
+            }
+            try {
+                Request probe = new Request().setMethod("GET").setUri(backend.uri.resolve(path));
+                next.handle(new RootContext(), probe)
+                    .thenOnResult(new ResultHandler<Response>() {
+                        @Override
+                        public void handleResult(final Response response) {
+                            backend.setHealthy(response.getStatus().getFamily() == Status.Family.SUCCESSFUL);
+                            closeSilently(response);
+                        }
+                    })
+                    .thenAlways(new Runnable() {
+                        @Override
+                        public void run() {
+                            backend.probing.set(false);
+                        }
+                    });
+            } catch (RuntimeException e) {
+                logger.warning(e);
+                backend.setHealthy(false);
+                backend.probing.set(false);
+            }
+        }
+    }
+
+    /**
+     * Returns the backends of this handler.
+     *
+     * @return the backends of this handler
+     */
+    List<Backend> getBackends() {
+        return backends;
+    }
+
+    /**
+     * State of a backend server.
+     */
+    final class Backend {
+        private final URI uri;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicInteger consecutive = new AtomicInteger();
+        private final AtomicLong ejections = new AtomicLong();
+        private final LatencyRecorder latency = new LatencyRecorder();
+        private final AtomicBoolean probing = new AtomicBoolean();
+        private volatile long ejectedUntil;
+        private volatile boolean healthy = true;
+
+        private Backend(final URI uri) {
+            this.uri = uri;
+        }
+
+        private boolean isAvailable(final long now) {
+            return healthy && now >= ejectedUntil;
+        }
+
+        private void onSuccess() {
+            requests.incrementAndGet();
+            consecutive.set(0);
+        }
+
+        private void onFailure() {
+            requests.incrementAndGet();
+            failures.incrementAndGet();
+            if (consecutiveFailures > 0 && consecutive.incrementAndGet() >= consecutiveFailures) {
+                consecutive.set(0);
+                ejectedUntil = time.now() + ejectionDuration;
+                ejections.incrementAndGet();
+                logger.warning(format("Backend '%s' ejected after %d consecutive failures", uri, consecutiveFailures));
+            }
+        }
+
+        private void setHealthy(final boolean healthy) {
+            if (this.healthy != healthy) {
+                logger.info(format("Backend '%s' is now %s", uri, healthy ? "healthy" : "unhealthy"));
+            }
+            this.healthy = healthy;
+        }
+
+        URI getUri() {
+            return uri;
+        }
+
+        boolean isHealthy() {
+            return healthy;
+        }
+
+        boolean isEjected() {
+            return time.now() < ejectedUntil;
+        }
+
+        int getOutstanding() {
+            return outstanding.get();
+        }
+
+        long getRequests() {
+            return requests.get();
+        }
+
+        long getFailures() {
+            return failures.get();
+        }
+
+        long getEjections() {
+            return ejections.get();
+        }
+
+        LatencyRecorder getLatency() {
+            return latency;
+        }
+    }
+
+    /** Creates and initializes a load balancing handler in a heap environment. */
+    public static class Heaplet extends GenericHeaplet {
+
+        private EndpointRegistry.Registration registration;
+        private ScheduledExecutorService healthCheckExecutor;
+        private String healthCheckPath;
+        private long healthCheckPeriod;
+        private ScheduledFuture<?> healthCheck;
+
+        @Override
+        public Object create() throws HeapException {
+            JsonValue evaluated = config.as(evaluated());
+            List<URI> uris = new ArrayList<>();
+            for (JsonValue backend : evaluated.get("backends").required().expect(List.class)) {
+                uris.add(backend.required().as(uri()));
+            }
+            if (uris.isEmpty()) {
+                throw new HeapException("At least one backend is required");
+            }
+            Handler next = config.get("handler")
+                                 .defaultTo(CLIENT_HANDLER_HEAP_KEY)
+                                 .as(requiredHeapObject(heap, Handler.class));
+            Strategy strategy = evaluated.get("strategy")
+                                         .defaultTo(Strategy.ROUND_ROBIN.name())
+                                         .as(enumConstant(Strategy.class));
+            LoadBalancingHandler handler = new LoadBalancingHandler(next,
+                                                                    uris,
+                                                                    strategy,
+                                                                    heap.get(TIME_SERVICE_HEAP_KEY,
+                                                                             TimeService.class));
+
+            JsonValue ejection = evaluated.get("ejection");
+            int failures = ejection.get("consecutiveFailures").defaultTo(DEFAULT_CONSECUTIVE_FAILURES).asInteger();
+            Duration duration = ejection.get("duration").defaultTo(DEFAULT_EJECTION_DURATION).as(duration());
+            if (failures < 0 || duration.isUnlimited()) {
+                throw new HeapException("'consecutiveFailures' must be positive, and 'duration' must be bounded");
+            }
+            handler.setEjection(failures, duration);
+
+            JsonValue healthCheckConfig = config.get("healthCheck");
+            if (healthCheckConfig.isNotNull()) {
+                configureHealthCheck(healthCheckConfig);
+            }
+
+            registration = endpointRegistry().register("backends",
+                                                       newHttpHandler(newSingleton(
+                                                               new LoadBalancingHandlerResourceProvider(handler))));
+            return handler;
+        }
+
+        private void configureHealthCheck(final JsonValue healthCheckConfig) throws HeapException {
+            JsonValue evaluated = healthCheckConfig.as(evaluated());
+            healthCheckPath = evaluated.get("path").defaultTo("/").asString();
+            Duration interval = evaluated.get("interval").defaultTo("10 seconds").as(duration());
+            if (interval.isZero() || interval.isUnlimited()) {
+                throw new HeapException("The health check 'interval' must be strictly positive and bounded");
+            }
+            healthCheckPeriod = interval.to(MILLISECONDS);
+            healthCheckExecutor = healthCheckConfig.get("executor")
+                                                   .defaultTo(SCHEDULED_EXECUTOR_SERVICE_HEAP_KEY)
+                                                   .as(requiredHeapObject(heap, ScheduledExecutorService.class));
+        }
+
+        @Override
+        public void start() throws HeapException {
+            if (healthCheckExecutor == null) {
+                return;
+            }
+            final LoadBalancingHandler handler = (LoadBalancingHandler) object;
+            final String path = healthCheckPath;
+            healthCheck = healthCheckExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    handler.checkHealth(path);
+                }
+            }, 0L, healthCheckPeriod, MILLISECONDS);
+        }
+
+        @Override
+        public void destroy() {
+            if (healthCheck != null) {
+                healthCheck.cancel(false);
+            }
+            if (registration != null) {
+                registration.unregister();
+            }
+            super.destroy();
+        }
+    }
+}
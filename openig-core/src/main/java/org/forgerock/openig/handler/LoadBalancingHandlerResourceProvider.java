@@ -0,0 +1,97 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.handler;
+
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.forgerock.json.JsonValue;
+import org.forgerock.json.resource.ActionRequest;
+import org.forgerock.json.resource.ActionResponse;
+import org.forgerock.json.resource.NotSupportedException;
+import org.forgerock.json.resource.PatchRequest;
+import org.forgerock.json.resource.ReadRequest;
+import org.forgerock.json.resource.ResourceException;
+import org.forgerock.json.resource.ResourceResponse;
+import org.forgerock.json.resource.Responses;
+import org.forgerock.json.resource.SingletonResourceProvider;
+import org.forgerock.json.resource.UpdateRequest;
+import org.forgerock.openig.metrics.LatencyHistogram.Snapshot;
+import org.forgerock.services.context.Context;
+import org.forgerock.util.promise.Promise;
+
+/**
+ * Expose the state of the backends of a {@link LoadBalancingHandler} as a REST resource.
+ * This resource only supports read typed operations.
+ */
+class LoadBalancingHandlerResourceProvider implements SingletonResourceProvider {
+
+    private final LoadBalancingHandler handler;
+
+    LoadBalancingHandlerResourceProvider(final LoadBalancingHandler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public Promise<ResourceResponse, ResourceException> readInstance(final Context context, final ReadRequest request) {
+        Map<String, Object> backends = new LinkedHashMap<>();
+        for (LoadBalancingHandler.Backend backend : handler.getBackends()) {
+            Snapshot latency = backend.getLatency().getCumulativeSnapshot();
+            backends.put(backend.getUri().toString(),
+                         object(field("healthy", backend.isHealthy()),
+                                field("ejected", backend.isEjected()),
+                                field("outstanding", backend.getOutstanding()),
+                                field("requests", backend.getRequests()),
+                                field("failures", backend.getFailures()),
+                                field("ejections", backend.getEjections()),
+                                field("latency", object(
+                                        field("count", latency.getCount()),
+                                        field("median", toMilliseconds(latency.getValueAtQuantile(0.5))),
+                                        field("p99", toMilliseconds(latency.getValueAtQuantile(0.99))),
+                                        field("max", toMilliseconds(latency.getMax()))))));
+        }
+        JsonValue data = json(object(field("backends", backends)));
+        return Responses.newResourceResponse(null, null, data).asPromise();
+    }
+
+    private static BigDecimal toMilliseconds(final long micros) {
+        return BigDecimal.valueOf(micros, 3);
+    }
+
+    @Override
+    public Promise<ActionResponse, ResourceException> actionInstance(final Context context,
+                                                                     final ActionRequest request) {
+        return new NotSupportedException("Action is not supported by this resource").asPromise();
+    }
+
+    @Override
+    public Promise<ResourceResponse, ResourceException> patchInstance(final Context context,
+                                                                      final PatchRequest request) {
+        return new NotSupportedException("Patch is not supported by this resource").asPromise();
+    }
+
+    @Override
+    public Promise<ResourceResponse, ResourceException> updateInstance(final Context context,
+                                                                       final UpdateRequest request) {
+        return new NotSupportedException("Update is not supported by this resource").asPromise();
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+
+package org.forgerock.openig.handler;
+
+import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.forgerock.http.Responses.newInternalServerError;
+import static org.forgerock.http.protocol.Response.newResponsePromise;
+
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.http.Filter;
+import org.forgerock.http.Handler;
+import org.forgerock.http.protocol.Request;
+import org.forgerock.http.protocol.Response;
+import org.forgerock.http.protocol.Status;
+import org.forgerock.openig.log.Logger;
+import org.forgerock.openig.metrics.LatencyRecorder;
+import org.forgerock.services.context.Context;
+import org.forgerock.util.Reject;
+import org.forgerock.util.promise.NeverThrowsException;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.PromiseImpl;
+import org.forgerock.util.promise.ResultHandler;
+
+/**
+ * Limits the number of requests concurrently sent to each upstream host (hence the number of connections leased
+ * from the HTTP client pool for that host), and tracks the usage of each host.
+ * <p>
+ * Requests exceeding the limit wait (without blocking any thread) in a per-host queue, until a previous request to
+ * the same host completes. When this queue is full too, requests fail immediately with a
+ * {@literal 503 Service Unavailable} response, instead of piling up in front of a saturated pool.
+ * <p>
+ * At most {@link #DEFAULT_MAX_HOSTS} hosts are tracked: requests to other hosts are not limited. A warning is
+ * logged the first time this happens, and these requests are counted (see {@link #getBypassed()}).
+ */
+class UpstreamLimiter implements Filter {
+
+    /** Value of the limits when no limit is enforced. */
+    static final int UNLIMITED = Integer.MAX_VALUE;
+
+    /** Default maximum number of requests waiting for a connection, per host. */
+    static final int DEFAULT_MAX_PENDING_PER_HOST = 128;
+
+    /** Default maximum number of tracked hosts. */
+    static final int DEFAULT_MAX_HOSTS = 256;
+
+    private final ConcurrentMap<String, Host> hosts = new ConcurrentHashMap<>();
+    private final int maxConnectionsPerHost;
+    private final int maxPendingPerHost;
+    private final Logger logger;
+    private final AtomicLong bypassed = new AtomicLong();
+    private final AtomicBoolean warned = new AtomicBoolean();
+
+    /**
+     * Builds a new limiter.
+     *
+     * @param maxConnectionsPerHost
+     *         maximum number of concurrent requests per host (must be strictly positive)
+     * @param maxPendingPerHost
+     *         maximum number of requests waiting for a connection, per host (must be positive)
+     * @param logger
+     *         logger warning when requests are not limited because too many hosts are tracked
+     */
+    UpstreamLimiter(final int maxConnectionsPerHost, final int maxPendingPerHost, final Logger logger) {
+        Reject.ifTrue(maxConnectionsPerHost <= 0, "maxConnectionsPerHost must be strictly positive");
+        Reject.ifTrue(maxPendingPerHost < 0, "maxPendingPerHost must be positive");
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.maxPendingPerHost = maxPendingPerHost;
+        this.logger = logger;
+    }
+
+    @Override
+    public Promise<Response, NeverThrowsException> filter(final Context context,
+                                                          final Request request,
+                                                          final Handler next) {
+        Host host = host(request);
+        if (host == null) {
+            return next.handle(context, request);
+        }
+        if (host.tryLease()) {
+            return host.send(context, request, next);
+        }
+        if (host.pendingCount.incrementAndGet() > maxPendingPerHost) {
+            host.pendingCount.decrementAndGet();
+            host.rejected.incrementAndGet();
+            Exception cause = new Exception(format("Too many pending requests to upstream host '%s'", host.name));
+            return newResponsePromise(new Response(Status.SERVICE_UNAVAILABLE).setCause(cause));
+        }
+        Pending pending = new Pending(context, request, next);
+        host.queue.offer(pending);
+        // A connection may have been released in the meantime
+        host.drain();
+        return pending.promise;
+    }
+
+    private Host host(final Request request) {
+        String name = (request.getUri() != null) ? request.getUri().getRawAuthority() : null;
+        if (name == null) {
+            return null;
+        }
+        Host host = hosts.get(name);
+        if (host == null) {
+            if (hosts.size() >= DEFAULT_MAX_HOSTS) {
+                bypassed.incrementAndGet();
+                if (warned.compareAndSet(false, true)) {
+                    logger.warning(format("More than %d upstream hosts are used: the requests sent to '%s', "
+                                                  + "and to any other new host, are not limited",
+                                          DEFAULT_MAX_HOSTS,
+                                          name));
+                }
+                return null;
+            }
+            host = new Host(name);
+            Host previous = hosts.putIfAbsent(name, host);
+            if (previous != null) {
+                host = previous;
+            }
+        }
+        return host;
+    }
+
+    /**
+     * Returns the tracked upstream hosts.
+     *
+     * @return the tracked upstream hosts
+     */
+    Collection<Host> getHosts() {
+        return hosts.values();
+    }
+
+    /**
+     * Returns the number of requests that have not been limited because too many hosts were already tracked.
+     *
+     * @return the number of requests that have not been limited
+     */
+    long getBypassed() {
+        return bypassed.get();
+    }
+
+    int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    int getMaxPendingPerHost() {
+        return maxPendingPerHost;
+    }
+
+    /**
+     * Usage of an upstream host.
+     */
+    final class Host {
+        private final String name;
+        private final AtomicInteger leased = new AtomicInteger();
+        private final AtomicInteger peakLeased = new AtomicInteger();
+        private final AtomicInteger pendingCount = new AtomicInteger();
+        private final Queue<Pending> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicLong completed = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final LatencyRecorder waits = new LatencyRecorder();
+
+        private Host(final String name) {
+            this.name = name;
+        }
+
+        private boolean tryLease() {
+            while (true) {
+                int current = leased.get();
+                if (current >= maxConnectionsPerHost) {
+                    return false;
+                }
+                if (leased.compareAndSet(current, current + 1)) {
+                    updatePeak(current + 1);
+                    return true;
+                }
+            }
+        }
+
+        private void updatePeak(final int value) {
+            int peak;
+            while ((peak = peakLeased.get()) < value && !peakLeased.compareAndSet(peak, value)) {
+                continue;
+            }
+        }
+
+        private Promise<Response, NeverThrowsException> send(final Context context,
+                                                              final Request request,
+                                                              final Handler next) {
+            final Promise<Response, NeverThrowsException> promise;
+            try {
+                promise = next.handle(context, request);
+            } catch (RuntimeException e) {
+                release();
+                throw e;
+            }
+            return promise.thenAlways(new Runnable() {
+                @Override
+                public void run() {
+                    release();
+                }
+            });
+        }
+
+        private void release() {
+            leased.decrementAndGet();
+            completed.incrementAndGet();
+            drain();
+        }
+
+        private void drain() {
+            while (!queue.isEmpty() && tryLease()) {
+                Pending pending = queue.poll();
+                if (pending == null) {
+                    // Taken by a concurrent drain: give the connection back and check again
+                    leased.decrementAndGet();
+                    continue;
+                }
+                pendingCount.decrementAndGet();
+                waits.record(NANOSECONDS.toMicros(System.nanoTime() - pending.enqueued));
+                pending.dispatch(this);
+            }
+        }
+
+        String getName() {
+            return name;
+        }
+
+        int getLeased() {
+            return leased.get();
+        }
+
+        int getPeakLeased() {
+            return peakLeased.get();
+        }
+
+        int getPending() {
+            return pendingCount.get();
+        }
+
+        long getCompleted() {
+            return completed.get();
+        }
+
+        long getRejected() {
+            return rejected.get();
+        }
+
+        LatencyRecorder getWaits() {
+            return waits;
+        }
+    }
+
+    /**
+     * A request waiting for a connection.
+     */
+    private static final class Pending {
+        private final Context context;
+        private final Request request;
+        private final Handler next;
+        private final PromiseImpl<Response, NeverThrowsException> promise = PromiseImpl.create();
+        private final long enqueued = System.nanoTime();
+
+        private Pending(final Context context, final Request request, final Handler next) {
+            this.context = context;
+            this.request = request;
+            this.next = next;
+        }
+
+        private void dispatch(final Host host) {
+            try {
+                host.send(context, request, next)
+                    .thenOnResult(new ResultHandler<Response>() {
+                        @Override
+                        public void handleResult(final Response response) {
+                            promise.handleResult(response);
+                        }
+                    });
+            } catch (RuntimeException e) {
+                // The caller is gone, the exception can only be reported through the response
+                promise.handleResult(newInternalServerError(e));
+            }
+        }
+    }
+}
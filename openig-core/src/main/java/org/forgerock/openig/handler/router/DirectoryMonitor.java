@@ -20,7 +20,13 @@ import static java.util.Arrays.*;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -39,6 +45,9 @@ import java.util.Set;
  *     <li>Removed Files: Compared to the last snapshot, a file was deleted.</li>
  *     <li>Modified Files: Compared to the last snapshot, a file has been changed externally.</li>
  * </ul>
+ * <p>
+ * A file whose last modified time changed is only considered as modified if its content changed as well: simply
+ * touching a file does not emit any notification.
  *
  * @see FileChangeListener
  * @since 2.2
@@ -56,6 +65,11 @@ class DirectoryMonitor implements DirectoryScanner {
      */
     private final Map<File, Long> snapshot;
 
+    /**
+     * Digest of the content of the files in the snapshot (absent when the content could not be read).
+     */
+    private final Map<File, byte[]> digests = new HashMap<>();
+
     /**
      * Builds a new monitor watching for changes in the given {@literal directory} that will notify the given listener.
      * It starts with an empty snapshot (at first run, all discovered files will be considered as new).
@@ -108,6 +122,7 @@ class DirectoryMonitor implements DirectoryScanner {
             if (!latest.contains(candidate)) {
                 removed.add(candidate);
                 snapshot.remove(candidate);
+                digests.remove(candidate);
             }
         }
 
@@ -117,9 +132,15 @@ class DirectoryMonitor implements DirectoryScanner {
         for (File candidate : latest) {
             long lastModified = snapshot.get(candidate);
             if (lastModified < candidate.lastModified()) {
-                // File has changed since last check
-                modified.add(candidate);
+                // File has been touched since last check
                 snapshot.put(candidate, candidate.lastModified());
+                byte[] previous = digests.get(candidate);
+                byte[] digest = digest(candidate);
+                digests.put(candidate, digest);
+                if (previous == null || digest == null || !Arrays.equals(previous, digest)) {
+                    // File content has changed since last check
+                    modified.add(candidate);
+                }
             }
         }
 
@@ -127,6 +148,7 @@ class DirectoryMonitor implements DirectoryScanner {
         for (File file : added) {
             // Store their last modified value
             snapshot.put(file, file.lastModified());
+            digests.put(file, digest(file));
         }
 
         // If there is no change to propagate, simply return
@@ -138,6 +160,28 @@ class DirectoryMonitor implements DirectoryScanner {
         listener.onChanges(new FileChangeSet(directory, added, modified, removed));
     }
 
+    /**
+     * Computes a digest of the given file's content.
+     *
+     * @param file
+     *         file to digest
+     * @return the digest of the file's content, or {@code null} if it cannot be computed
+     */
+    private static byte[] digest(final File file) {
+        try (InputStream in = new FileInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+            return digest.digest();
+        } catch (IOException | NoSuchAlgorithmException e) {
+            // Content will be considered as changed
+            return null;
+        }
+    }
+
     /**
      * Factory method to be used as a fluent {@link FileFilter} declaration.
      *
@@ -0,0 +1,62 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+
+package org.forgerock.openig.handler.router;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import org.forgerock.http.Filter;
+import org.forgerock.http.Handler;
+import org.forgerock.http.protocol.Request;
+import org.forgerock.http.protocol.Response;
+import org.forgerock.openig.metrics.LatencyMetrics.RouteLatency;
+import org.forgerock.services.context.Context;
+import org.forgerock.util.promise.NeverThrowsException;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.ResultHandler;
+
+/**
+ * Records the request processing latency of a route, per response status family.
+ */
+class LatencyFilter implements Filter {
+
+    private final RouteLatency latency;
+
+    /**
+     * Constructs a LatencyFilter recording into the given route latencies.
+     *
+     * @param latency
+     *         route latencies
+     */
+    LatencyFilter(final RouteLatency latency) {
+        this.latency = latency;
+    }
+
+    @Override
+    public Promise<Response, NeverThrowsException> filter(final Context context,
+                                                          final Request request,
+                                                          final Handler next) {
+        final long start = System.nanoTime();
+        return next.handle(context, request)
+                   .thenOnResult(new ResultHandler<Response>() {
+                       @Override
+                       public void handleResult(final Response result) {
+                           latency.record(result, NANOSECONDS.toMicros(System.nanoTime() - start));
+                       }
+                   });
+    }
+}
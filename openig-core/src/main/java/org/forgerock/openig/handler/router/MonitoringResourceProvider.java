@@ -39,6 +39,8 @@ import org.forgerock.json.resource.ResourceResponse;
 import org.forgerock.json.resource.Responses;
 import org.forgerock.json.resource.SingletonResourceProvider;
 import org.forgerock.json.resource.UpdateRequest;
+import org.forgerock.openig.decoration.timer.TimerDecorator;
+import org.forgerock.openig.heap.Name;
 import org.forgerock.services.context.Context;
 import org.forgerock.util.promise.Promise;
 
@@ -60,14 +62,28 @@ class MonitoringResourceProvider implements SingletonResourceProvider {
 
     private final MonitoringMetrics metrics;
     private final List<Double> percentiles;
+    private final TimerDecorator timer;
+    private final Name routeName;
 
     MonitoringResourceProvider(final MonitoringMetrics metrics) {
         this(metrics, DEFAULT_PERCENTILES);
     }
 
     MonitoringResourceProvider(final MonitoringMetrics metrics, List<Double> percentiles) {
+        this(metrics, percentiles, null, null);
+    }
+
+    /**
+     * Also exposes the structured timings of the route objects, when the given timer is not {@code null}.
+     */
+    MonitoringResourceProvider(final MonitoringMetrics metrics,
+                               final List<Double> percentiles,
+                               final TimerDecorator timer,
+                               final Name routeName) {
         this.metrics = metrics;
         this.percentiles = percentiles;
+        this.timer = timer;
+        this.routeName = routeName;
     }
 
     @Override
@@ -106,6 +122,11 @@ class MonitoringResourceProvider implements SingletonResourceProvider {
                                         field("total", accumulatedMillis),
                                         field("percentiles", percentilesValues(snapshot))));
 
+        // timings (milliseconds) of the route objects, per processing phase
+        if (timer != null) {
+            data.put("timings", timer.getStatistics().asMap(routeName));
+        }
+
         return Responses.newResourceResponse(null, null, data).asPromise();
     }
 
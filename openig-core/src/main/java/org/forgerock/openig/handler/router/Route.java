@@ -114,6 +114,14 @@ abstract class Route implements Handler {
         return name;
     }
 
+    /**
+     * Returns the condition of this route.
+     * @return the condition of this route (may be {@literal null}).
+     */
+    Expression<Boolean> getCondition() {
+        return condition;
+    }
+
     /**
      * Evaluate if this route will accept the given {@link Context} and {@link Request}.
      * @param context used to evaluate the condition against
@@ -129,6 +137,13 @@ abstract class Route implements Handler {
      */
     public abstract void start();
 
+    /**
+     * Unhook this route from the system, before it is destroyed (requests that have already been dispatched to this
+     * route may still be processed). Does nothing by default.
+     */
+    public void stop() {
+    }
+
     /**
      * Cleanup the resources used by this route.
      */
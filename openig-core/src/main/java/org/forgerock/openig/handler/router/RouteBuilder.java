@@ -25,8 +25,11 @@ import static org.forgerock.http.util.Json.readJsonLenient;
 import static org.forgerock.json.resource.Resources.newSingleton;
 import static org.forgerock.json.resource.http.CrestHttp.newHttpHandler;
 import static org.forgerock.openig.handler.router.MonitoringResourceProvider.DEFAULT_PERCENTILES;
+import static org.forgerock.openig.heap.Keys.AUDIT_PUBLISHER_HEAP_KEY;
 import static org.forgerock.openig.heap.Keys.ENDPOINT_REGISTRY_HEAP_KEY;
+import static org.forgerock.openig.heap.Keys.LATENCY_METRICS_HEAP_KEY;
 import static org.forgerock.openig.heap.Keys.LOGSINK_HEAP_KEY;
+import static org.forgerock.openig.heap.Keys.TIMER_HEAP_KEY;
 import static org.forgerock.openig.heap.Keys.TIME_SERVICE_HEAP_KEY;
 import static org.forgerock.openig.util.JsonValues.evaluated;
 import static org.forgerock.openig.util.JsonValues.expression;
@@ -47,6 +50,9 @@ import org.forgerock.http.routing.Router;
 import org.forgerock.http.session.SessionManager;
 import org.forgerock.json.JsonValue;
 import org.forgerock.json.resource.RequestHandler;
+import org.forgerock.openig.audit.AsyncAuditPublisher;
+import org.forgerock.openig.decoration.Decorator;
+import org.forgerock.openig.decoration.timer.TimerDecorator;
 import org.forgerock.openig.el.Expression;
 import org.forgerock.openig.filter.HttpAccessAuditFilter;
 import org.forgerock.openig.filter.RuntimeExceptionFilter;
@@ -57,6 +63,8 @@ import org.forgerock.openig.heap.Name;
 import org.forgerock.openig.http.EndpointRegistry;
 import org.forgerock.openig.log.LogSink;
 import org.forgerock.openig.log.Logger;
+import org.forgerock.openig.metrics.LatencyMetrics;
+import org.forgerock.openig.metrics.LatencyMetrics.RouteLatency;
 import org.forgerock.util.time.TimeService;
 
 /**
@@ -85,6 +93,15 @@ class RouteBuilder {
         this.registry = registry;
     }
 
+    /**
+     * Returns the name of the router using this builder.
+     *
+     * @return the name of the router using this builder
+     */
+    Name getName() {
+        return name;
+    }
+
     /**
      * Builds a new route from the given resource file.
      *
@@ -146,22 +163,48 @@ class RouteBuilder {
                                       slug));
             }
 
-            return new Route(setupRouteHandler(routeHeap, config, routeRegistry, logger), routeName, condition) {
+            // Latencies are only exposed once the route is started
+            final LatencyMetrics latencyMetrics = routeHeap.get(LATENCY_METRICS_HEAP_KEY, LatencyMetrics.class);
+            final RouteLatency latency = (latencyMetrics != null)
+                    ? new RouteLatency(routeHeapName.getParent().getFullyQualifiedName(), routeName)
+                    : null;
+
+            final TimerDecorator timer = getStructuredTimer(routeHeap);
+            Handler handler = setupRouteHandler(routeHeap, routeHeapName, config, routeRegistry, logger, latency);
+            return new Route(handler, routeName, condition) {
 
-                private EndpointRegistry.Registration registration;
+                private volatile EndpointRegistry.Registration registration;
 
                 @Override
                 public void start() {
                     // Register this route's endpoint into the parent registry
                     registration = registry.register(slug, thisRouteRouter);
+                    if (latency != null) {
+                        latencyMetrics.register(latency);
+                    }
                 }
 
                 @Override
-                public void destroy() {
-                    if (registration != null) {
-                        registration.unregister();
+                public void stop() {
+                    // Only unregister once: a new route with the same name may have registered the same endpoint
+                    EndpointRegistry.Registration current = registration;
+                    registration = null;
+                    if (current != null) {
+                        current.unregister();
+                    }
+                    if (latency != null) {
+                        latencyMetrics.unregister(latency);
                     }
+                }
+
+                @Override
+                public void destroy() {
+                    stop();
                     routeHeap.destroy();
+                    if (timer != null) {
+                        // Statistics of the route objects are not reported anymore
+                        timer.getStatistics().remove(routeHeapName);
+                    }
                 }
             };
         } catch (HeapException | RuntimeException ex) {
@@ -171,22 +214,36 @@ class RouteBuilder {
     }
 
     private Handler setupRouteHandler(final HeapImpl routeHeap,
+                                      final Name routeHeapName,
                                       final JsonValue config,
                                       final EndpointRegistry routeRegistry,
-                                      final Logger logger) throws HeapException {
+                                      final Logger logger,
+                                      final RouteLatency latency) throws HeapException {
 
         TimeService time = routeHeap.get(TIME_SERVICE_HEAP_KEY, TimeService.class);
 
         List<Filter> filters = new ArrayList<>();
 
+        // Structured timings of the session (load and save) and of the route objects
+        TimerDecorator timer = getStructuredTimer(routeHeap);
+
         SessionManager sessionManager = routeHeap.resolve(config.get("session"), SessionManager.class, true);
         if (sessionManager != null) {
-            filters.add(newSessionFilter(sessionManager));
+            Filter sessionFilter = newSessionFilter(sessionManager);
+            if (timer != null) {
+                sessionFilter = timer.timePhases(sessionFilter, routeHeapName.child("Session"));
+            }
+            filters.add(sessionFilter);
         }
 
         AuditService auditService = routeHeap.resolve(config.get("auditService"), AuditService.class, true);
         if (auditService != null && auditService.isRunning()) {
-            filters.add(new HttpAccessAuditFilter(auditService, time));
+            AsyncAuditPublisher publisher = routeHeap.get(AUDIT_PUBLISHER_HEAP_KEY, AsyncAuditPublisher.class);
+            filters.add(new HttpAccessAuditFilter(auditService, time, publisher));
+        }
+
+        if (latency != null) {
+            filters.add(new LatencyFilter(latency));
         }
 
         MonitorConfig mc = getMonitorConfig(config.get("monitor"));
@@ -194,7 +251,9 @@ class RouteBuilder {
             MonitoringMetrics metrics = new MonitoringMetrics();
             filters.add(new MetricsFilter(metrics));
             RequestHandler singleton = newSingleton(new MonitoringResourceProvider(metrics,
-                                                                                   mc.getPercentiles()));
+                                                                                   mc.getPercentiles(),
+                                                                                   timer,
+                                                                                   routeHeapName));
             EndpointRegistry.Registration monitoring = routeRegistry.register("monitoring", newHttpHandler(singleton));
             logger.info(format("Monitoring endpoint available at '%s'", monitoring.getPath()));
         }
@@ -208,6 +267,14 @@ class RouteBuilder {
         return chainOf(routeHeap.getHandler(), filters);
     }
 
+    private static TimerDecorator getStructuredTimer(final HeapImpl routeHeap) throws HeapException {
+        Decorator timer = routeHeap.get(TIMER_HEAP_KEY, Decorator.class);
+        if (timer instanceof TimerDecorator && ((TimerDecorator) timer).isStructured()) {
+            return (TimerDecorator) timer;
+        }
+        return null;
+    }
+
     /**
      * Extract monitoring information from JSON.
      *
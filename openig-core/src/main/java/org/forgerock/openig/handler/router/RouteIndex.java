@@ -0,0 +1,380 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.handler.router;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.forgerock.http.protocol.Request;
+import org.forgerock.openig.el.Expression;
+
+/**
+ * Immutable index over an ordered collection of {@link Route}s.
+ *
+ * <p>Route conditions are statically analysed when the index is built. The following condition shapes (possibly
+ * combined together with {@literal and} / {@literal &&}) are recognized:
+ * <ul>
+ *     <li>{@code ${matches(request.uri.path, '^/prefix')}}: indexed by the literal path prefix</li>
+ *     <li>{@code ${request.uri.host == 'www.example.com'}}: indexed by host name</li>
+ *     <li>{@code ${request.method == 'GET'}}: indexed by method</li>
+ * </ul>
+ *
+ * <p>Any other condition makes the route <em>linear</em>: it is always a candidate and its condition is always
+ * evaluated. Indexed routes are only candidates when the incoming request satisfies their indexed constraint. In all
+ * cases, the route's condition remains the authoritative decision: the index only prunes routes that can't possibly
+ * match. Candidates are returned in the same order as the routes given at construction time.
+ */
+final class RouteIndex {
+
+    /** Empty index. */
+    static final RouteIndex EMPTY = new RouteIndex(Collections.<Route>emptyList());
+
+    private static final String LITERAL = "(?:'((?:[^'\\\\]|\\\\.)*)'|\"((?:[^\"\\\\]|\\\\.)*)\")";
+
+    private static final Pattern EXPRESSION = Pattern.compile("^\\$\\{(.*)\\}$", Pattern.DOTALL);
+
+    private static final Pattern CONJUNCTION = Pattern.compile("\\s*(?:&&|\\band\\b)\\s*");
+
+    private static final Pattern PATH_MATCHES =
+            Pattern.compile("^matches\\(\\s*request\\.uri\\.path\\s*,\\s*" + LITERAL + "\\s*\\)$");
+
+    private static final Pattern HOST_EQUALS = equality("request\\.uri\\.host");
+    private static final Pattern HOST_EQUALS_REVERSED = reversedEquality("request\\.uri\\.host");
+
+    private static final Pattern METHOD_EQUALS = equality("request\\.method");
+    private static final Pattern METHOD_EQUALS_REVERSED = reversedEquality("request\\.method");
+
+    /** Regular expression characters that stop the literal prefix extraction. */
+    private static final String REGEX_META_CHARACTERS = ".[](){}*+?|$^";
+
+    /** Quantifiers making the preceding character optional. */
+    private static final String OPTIONAL_QUANTIFIERS = "?*{";
+
+    private final Route[] routes;
+    private final boolean[] indexed;
+    private final BitSet all;
+    private final BitSet linear;
+    private final Node paths = new Node();
+    private final Map<String, BitSet> hosts = new HashMap<>();
+    private final Map<String, BitSet> methods = new HashMap<>();
+
+    /**
+     * Builds an index over the given routes.
+     *
+     * @param ordered
+     *         routes, in evaluation order
+     */
+    RouteIndex(final Collection<Route> ordered) {
+        routes = ordered.toArray(new Route[ordered.size()]);
+        indexed = new boolean[routes.length];
+        all = new BitSet(routes.length);
+        linear = new BitSet(routes.length);
+        all.set(0, routes.length);
+        for (int i = 0; i < routes.length; i++) {
+            Constraint constraint = analyse(routes[i].getCondition());
+            if (constraint == null) {
+                linear.set(i);
+            } else {
+                indexed[i] = true;
+                constraint.register(this, i);
+            }
+        }
+    }
+
+    /**
+     * Returns the positions of the routes that may accept the given request, ordered.
+     *
+     * @param request
+     *         incoming request (may be {@code null})
+     * @return the candidate route positions
+     */
+    BitSet candidates(final Request request) {
+        if (request == null || request.getUri() == null) {
+            return all;
+        }
+        BitSet candidates = (BitSet) linear.clone();
+        String path = request.getUri().getPath();
+        if (path != null) {
+            Node node = paths;
+            for (int i = 0; node != null; i++) {
+                candidates.or(node.routes);
+                node = (i < path.length()) ? node.children.get(path.charAt(i)) : null;
+            }
+        }
+        String host = request.getUri().getHost();
+        if (host != null) {
+            orIfPresent(candidates, hosts.get(host));
+        }
+        String method = request.getMethod();
+        if (method != null) {
+            orIfPresent(candidates, methods.get(method));
+        }
+        return candidates;
+    }
+
+    /**
+     * Returns the route at the given position.
+     *
+     * @param position
+     *         route position
+     * @return the route at the given position
+     */
+    Route getRoute(final int position) {
+        return routes[position];
+    }
+
+    /**
+     * Returns {@code true} if the route at the given position has been selected through the index, {@code false}
+     * if it is evaluated linearly.
+     *
+     * @param position
+     *         route position
+     * @return {@code true} if the route at the given position is indexed
+     */
+    boolean isIndexed(final int position) {
+        return indexed[position];
+    }
+
+    /**
+     * Returns the names of the routes that could not be indexed, in evaluation order.
+     *
+     * @return the names of the linearly evaluated routes
+     */
+    List<String> getLinearRouteNames() {
+        List<String> names = new ArrayList<>();
+        for (int i = linear.nextSetBit(0); i >= 0; i = linear.nextSetBit(i + 1)) {
+            names.add(routes[i].getName());
+        }
+        return names;
+    }
+
+    /**
+     * Returns the number of indexed routes.
+     *
+     * @return the number of indexed routes
+     */
+    int getIndexedRouteCount() {
+        return routes.length - linear.cardinality();
+    }
+
+    private static void orIfPresent(final BitSet candidates, final BitSet positions) {
+        if (positions != null) {
+            candidates.or(positions);
+        }
+    }
+
+    private static BitSet positions(final Map<String, BitSet> map, final String key) {
+        BitSet positions = map.get(key);
+        if (positions == null) {
+            positions = new BitSet();
+            map.put(key, positions);
+        }
+        return positions;
+    }
+
+    /**
+     * Analyses the given condition and extract the most selective indexable constraint.
+     *
+     * @param condition
+     *         route's condition (may be {@code null})
+     * @return the indexable constraint, or {@code null} if the condition cannot be indexed
+     */
+    static Constraint analyse(final Expression<Boolean> condition) {
+        if (condition == null) {
+            return null;
+        }
+        Matcher expression = EXPRESSION.matcher(condition.toString().trim());
+        if (!expression.matches()) {
+            return null;
+        }
+        Constraint best = null;
+        for (String clause : CONJUNCTION.split(expression.group(1).trim())) {
+            Constraint constraint = analyseClause(clause.trim());
+            if (constraint == null) {
+                // Any unknown clause may change the meaning of the whole expression
+                return null;
+            }
+            if (best == null || constraint.isMoreSelectiveThan(best)) {
+                best = constraint;
+            }
+        }
+        return best;
+    }
+
+    private static Constraint analyseClause(final String clause) {
+        Matcher matcher = PATH_MATCHES.matcher(clause);
+        if (matcher.matches()) {
+            String prefix = literalPrefix(literal(matcher));
+            return (prefix == null) ? null : new Constraint(Kind.PATH, prefix);
+        }
+        String value = equalityLiteral(clause, HOST_EQUALS, HOST_EQUALS_REVERSED);
+        if (value != null) {
+            return new Constraint(Kind.HOST, value);
+        }
+        value = equalityLiteral(clause, METHOD_EQUALS, METHOD_EQUALS_REVERSED);
+        if (value != null) {
+            return new Constraint(Kind.METHOD, value);
+        }
+        return null;
+    }
+
+    private static String equalityLiteral(final String clause, final Pattern... patterns) {
+        for (Pattern pattern : patterns) {
+            Matcher matcher = pattern.matcher(clause);
+            if (matcher.matches()) {
+                return literal(matcher);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the unescaped value of the EL string literal captured by the matcher, or {@code null} if it contains
+     * unsupported escape sequences.
+     */
+    private static String literal(final Matcher matcher) {
+        String raw = (matcher.group(1) != null) ? matcher.group(1) : matcher.group(2);
+        StringBuilder sb = new StringBuilder(raw.length());
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (c == '\\') {
+                char next = raw.charAt(++i);
+                if (next != '\\' && next != '\'' && next != '"') {
+                    return null;
+                }
+                c = next;
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Extracts the literal prefix that any string must start with to be found by the given regular expression, or
+     * {@code null} if the regular expression is not anchored at the beginning of the input.
+     */
+    static String literalPrefix(final String regex) {
+        if (regex == null || !regex.startsWith("^") || regex.indexOf('|') != -1) {
+            return null;
+        }
+        StringBuilder prefix = new StringBuilder();
+        for (int i = 1; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 >= regex.length() || Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                    // Character classes, back-references, quotes: stop here
+                    break;
+                }
+                prefix.append(regex.charAt(++i));
+            } else if (REGEX_META_CHARACTERS.indexOf(c) != -1) {
+                if (OPTIONAL_QUANTIFIERS.indexOf(c) != -1 && prefix.length() > 0) {
+                    prefix.setLength(prefix.length() - 1);
+                }
+                break;
+            } else {
+                prefix.append(c);
+            }
+        }
+        return prefix.toString();
+    }
+
+    private static Pattern equality(final String property) {
+        return Pattern.compile("^" + property + "\\s*(?:==|\\beq\\b)\\s*" + LITERAL + "$");
+    }
+
+    private static Pattern reversedEquality(final String property) {
+        return Pattern.compile("^" + LITERAL + "\\s*(?:==|\\beq\\b)\\s*" + property + "$");
+    }
+
+    /** Kinds of indexed constraints, from the most to the least selective. */
+    enum Kind {
+        PATH, HOST, METHOD
+    }
+
+    /** Necessary condition that a request has to satisfy to be accepted by a route. */
+    static final class Constraint {
+        private final Kind kind;
+        private final String value;
+
+        Constraint(final Kind kind, final String value) {
+            this.kind = kind;
+            this.value = value;
+        }
+
+        Kind getKind() {
+            return kind;
+        }
+
+        String getValue() {
+            return value;
+        }
+
+        private boolean isMoreSelectiveThan(final Constraint other) {
+            if (kind == Kind.PATH && other.kind == Kind.PATH) {
+                return value.length() > other.value.length();
+            }
+            if (kind == Kind.PATH && value.isEmpty()) {
+                // An empty path prefix matches everything
+                return false;
+            }
+            if (other.kind == Kind.PATH && other.value.isEmpty()) {
+                return true;
+            }
+            return kind.ordinal() < other.kind.ordinal();
+        }
+
+        private void register(final RouteIndex index, final int position) {
+            switch (kind) {
+            case PATH:
+                Node node = index.paths;
+                for (int i = 0; i < value.length(); i++) {
+                    node = node.child(value.charAt(i));
+                }
+                node.routes.set(position);
+                break;
+            case HOST:
+                positions(index.hosts, value).set(position);
+                break;
+            default:
+                positions(index.methods, value).set(position);
+                break;
+            }
+        }
+    }
+
+    /** Node of the path prefix trie. */
+    private static final class Node {
+        private final Map<Character, Node> children = new HashMap<>();
+        private final BitSet routes = new BitSet();
+
+        private Node child(final char c) {
+            Node child = children.get(c);
+            if (child == null) {
+                child = new Node();
+                children.put(c, child);
+            }
+            return child;
+        }
+    }
+}
@@ -17,22 +17,31 @@
 package org.forgerock.openig.handler.router;
 
 import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.forgerock.http.routing.RouteMatchers.requestUriMatcher;
 import static org.forgerock.http.routing.RoutingMode.EQUALS;
+import static org.forgerock.json.JsonValueFunctions.duration;
+import static org.forgerock.json.resource.Resources.newSingleton;
+import static org.forgerock.json.resource.http.CrestHttp.newHttpHandler;
 import static org.forgerock.openig.heap.Keys.ENVIRONMENT_HEAP_KEY;
 import static org.forgerock.openig.heap.Keys.TIME_SERVICE_HEAP_KEY;
 import static org.forgerock.openig.util.JsonValues.evaluated;
 import static org.forgerock.openig.util.JsonValues.optionalHeapObject;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.forgerock.http.Handler;
 import org.forgerock.http.Responses;
@@ -40,6 +49,7 @@ import org.forgerock.http.protocol.Request;
 import org.forgerock.http.protocol.Response;
 import org.forgerock.http.routing.Router;
 import org.forgerock.openig.config.Environment;
+import org.forgerock.openig.decoration.timer.RequestTimings;
 import org.forgerock.openig.handler.Handlers;
 import org.forgerock.openig.heap.GenericHeapObject;
 import org.forgerock.openig.heap.GenericHeaplet;
@@ -64,7 +74,9 @@ import org.forgerock.util.time.TimeService;
  *     "config": {
  *       "directory": "/tmp/routes",
  *       "defaultHandler": "404NotFound",
- *       "scanInterval": 2
+ *       "scanInterval": 2,
+ *       "watch": false,
+ *       "watchQuietPeriod": "500 milliseconds"
  *     }
  *   }
  *   }
@@ -73,6 +85,24 @@ import org.forgerock.util.time.TimeService;
  * Note that {@literal scanInterval} is defined in seconds. If {@literal -1} (or any negative value) is
  * provided, only an initial scan is performed at startup, synchronously.
  *
+ * <p>When {@literal watch} is {@literal true}, {@literal scanInterval} is ignored: after the initial scan, the
+ * directory changes are detected by a background thread using the file system notifications, and requests never
+ * trigger a directory scan. Changes are applied once no more change has been notified during
+ * {@literal watchQuietPeriod} (defaults to 500 milliseconds). A directory that does not exist (yet) is checked every
+ * 10 seconds, and watched as soon as it appears. In all modes, a file that has been touched without changing its
+ * content does not reload the route.
+ *
+ * <p>Route conditions are analysed when routes are loaded: routes whose condition only checks the request path
+ * prefix (with {@code matches(request.uri.path, '^/prefix')}), the request host or the request method are indexed,
+ * so that only the routes that may accept the request have their condition evaluated. Other routes are evaluated
+ * linearly. The index statistics are exposed on the {@literal index} endpoint of the router.
+ *
+ * <p>Incoming requests are dispatched against an immutable snapshot of the routes that is atomically replaced when
+ * routes are changing: new routes are built and started without blocking the traffic, and requests being processed
+ * keep the snapshot they started with. Replaced or removed routes are destroyed once all the requests dispatched
+ * against the snapshots that contain them are complete.
+ *
+ * @see RouteIndex
  * @since 2.2
  */
 public class RouterHandler extends GenericHeapObject implements FileChangeListener, Handler {
@@ -88,30 +118,51 @@ public class RouterHandler extends GenericHeapObject implements FileChangeListen
     private final DirectoryScanner directoryScanner;
 
     /**
-     * Keep track of managed routes.
+     * Keep track of managed routes (only accessed with the write lock held).
      */
     private final Map<File, Route> routes = new HashMap<>();
 
     /**
-     * Ordered set of managed routes.
+     * Ordered set of managed routes (only accessed with the write lock held).
      */
     private SortedSet<Route> sorted = new TreeSet<>(new LexicographicalRouteComparator());
 
     /**
-     * Protect routes access.
+     * Routes built during the current change, to be started before they are published.
+     */
+    private final List<Route> started = new ArrayList<>();
+
+    /**
+     * Routes removed during the current change, to be destroyed once no more in use.
+     */
+    private final List<Route> destroyed = new ArrayList<>();
+
+    /**
+     * Immutable snapshot of the ordered routes used to dispatch the requests, replaced each time the routes are
+     * changing.
+     */
+    private volatile Snapshot current = new Snapshot(RouteIndex.EMPTY, 1);
+
+    /**
+     * Number of requests dispatched to a route selected through the index.
+     */
+    private final AtomicLong indexHits = new AtomicLong();
+
+    /**
+     * Number of requests dispatched to a linearly evaluated route, or to the default handler.
      */
-    private final Lock read;
+    private final AtomicLong indexMisses = new AtomicLong();
 
     /**
-     * Protects write access to the routes.
+     * Serializes the changes of the routes, request processing never acquires it.
      */
-    private final Lock write;
+    private final Lock write = new ReentrantLock();
 
     /**
      * The optional handler which should be invoked when no routes match the
      * request.
      */
-    private Handler defaultHandler;
+    private volatile Handler defaultHandler;
 
     /**
      * Builds a router that loads its configuration from the given directory.
@@ -121,9 +172,6 @@ public class RouterHandler extends GenericHeapObject implements FileChangeListen
     public RouterHandler(final RouteBuilder builder, final DirectoryScanner scanner) {
         this.builder = builder;
         this.directoryScanner = scanner;
-        ReadWriteLock lock = new ReentrantReadWriteLock();
-        this.read = lock.readLock();
-        this.write = lock.writeLock();
     }
 
     /**
@@ -136,6 +184,7 @@ public class RouterHandler extends GenericHeapObject implements FileChangeListen
             SortedSet<Route> newSet = new TreeSet<>(comparator);
             newSet.addAll(sorted);
             sorted = newSet;
+            publish();
         } finally {
             write.unlock();
         }
@@ -150,12 +199,7 @@ public class RouterHandler extends GenericHeapObject implements FileChangeListen
      *            request
      */
     public void setDefaultHandler(final Handler handler) {
-        write.lock();
-        try {
-            this.defaultHandler = handler;
-        } finally {
-            write.unlock();
-        }
+        this.defaultHandler = handler;
     }
 
     /**
@@ -173,11 +217,10 @@ public class RouterHandler extends GenericHeapObject implements FileChangeListen
         try {
             // Un-register all the routes
             sorted.clear();
-            // Destroy the routes
-            for (Route route : routes.values()) {
-                route.destroy();
-            }
+            destroyed.addAll(routes.values());
             routes.clear();
+            // Destroy the routes
+            publish();
         } finally {
             write.unlock();
         }
@@ -200,6 +243,7 @@ public class RouterHandler extends GenericHeapObject implements FileChangeListen
                 onModifiedFile(file);
             }
 
+            publish();
         } finally {
             write.unlock();
         }
@@ -225,7 +269,7 @@ public class RouterHandler extends GenericHeapObject implements FileChangeListen
             route.destroy();
             return;
         }
-        route.start();
+        started.add(route);
         sorted.add(route);
         routes.put(file, route);
         logger.info(format("Added route '%s' defined in file '%s'", name, file));
@@ -235,7 +279,7 @@ public class RouterHandler extends GenericHeapObject implements FileChangeListen
         Route route = routes.remove(file);
         if (route != null) {
             sorted.remove(route);
-            route.destroy();
+            destroyed.add(route);
             logger.info(format("Removed route '%s' defined in file '%s'", route.getName(), file));
         }
     }
@@ -264,9 +308,9 @@ public class RouterHandler extends GenericHeapObject implements FileChangeListen
             }
             routes.remove(file);
             sorted.remove(oldRoute);
-            oldRoute.destroy();
+            destroyed.add(oldRoute);
         }
-        newRoute.start();
+        started.add(newRoute);
         sorted.add(newRoute);
         routes.put(file, newRoute);
         logger.info(format("Modified route '%s' defined in file '%s'", newRoute.getName(), file));
@@ -277,24 +321,133 @@ public class RouterHandler extends GenericHeapObject implements FileChangeListen
         // Run the directory scanner
         directoryScanner.scan(this);
 
-        // Traverse the routes
-        read.lock();
+        // Only time the route selection when structured timings are recorded for this request
+        RequestTimings timings = RequestTimings.get(context);
+        long start = (timings != null) ? System.nanoTime() : 0L;
+
+        // Traverse the routes of the current snapshot, that cannot be destroyed until the request is complete
+        final Snapshot snapshot = acquireSnapshot();
+        Promise<Response, NeverThrowsException> promise;
         try {
-            for (Route route : sorted) {
-                if (route.accept(context, request)) {
-                    return route.handle(context, request);
+            promise = dispatch(snapshot.index, context, request, timings, start);
+        } catch (RuntimeException e) {
+            snapshot.release();
+            throw e;
+        }
+        return promise.thenAlways(new Runnable() {
+            @Override
+            public void run() {
+                snapshot.release();
+            }
+        });
+    }
+
+    private Promise<Response, NeverThrowsException> dispatch(final RouteIndex snapshot,
+                                                             final Context context,
+                                                             final Request request,
+                                                             final RequestTimings timings,
+                                                             final long start) {
+        BitSet candidates = snapshot.candidates(request);
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            Route route = snapshot.getRoute(i);
+            if (route.accept(context, request)) {
+                (snapshot.isIndexed(i) ? indexHits : indexMisses).incrementAndGet();
+                if (timings != null) {
+                    timings.record(builder.getName(), "route-match", System.nanoTime() - start);
                 }
+                return route.handle(context, request);
             }
-            if (defaultHandler != null) {
-                return defaultHandler.handle(context, request);
+        }
+        indexMisses.incrementAndGet();
+        if (timings != null) {
+            timings.record(builder.getName(), "route-match", System.nanoTime() - start);
+        }
+        Handler handler = defaultHandler;
+        if (handler != null) {
+            return handler.handle(context, request);
+        }
+        logger.error("no handler to dispatch to");
+        return Promises.newResultPromise(Responses.newNotFound());
+    }
+
+    private Snapshot acquireSnapshot() {
+        while (true) {
+            Snapshot snapshot = current;
+            if (snapshot.acquire()) {
+                return snapshot;
             }
-            logger.error("no handler to dispatch to");
-            return Promises.newResultPromise(Responses.newNotFound());
-        } finally {
-            read.unlock();
+            // Drained in the meantime, a newer snapshot has been published
         }
     }
 
+    /**
+     * Returns the number of requests dispatched to a route that has been selected through the route index.
+     *
+     * @return the number of index hits
+     */
+    public long getIndexHitCount() {
+        return indexHits.get();
+    }
+
+    /**
+     * Returns the number of requests dispatched to a linearly evaluated route (or to the default handler).
+     *
+     * @return the number of index misses
+     */
+    public long getIndexMissCount() {
+        return indexMisses.get();
+    }
+
+    /**
+     * Returns the names of the routes whose condition could not be indexed and that are evaluated linearly.
+     *
+     * @return the names of the linearly evaluated routes
+     */
+    public List<String> getLinearRouteNames() {
+        return current.index.getLinearRouteNames();
+    }
+
+    /**
+     * Returns the number of routes whose condition has been indexed.
+     *
+     * @return the number of indexed routes
+     */
+    public int getIndexedRouteCount() {
+        return current.index.getIndexedRouteCount();
+    }
+
+    /**
+     * Starts the new routes and publishes a new snapshot of the routes. The routes that are no longer part of it are
+     * destroyed once the requests dispatched against the previous snapshots are complete. Must be called with the
+     * write lock held.
+     */
+    private void publish() {
+        // Old routes have to be unhooked first, they may have registered the same endpoints
+        for (Route route : destroyed) {
+            route.stop();
+        }
+        // New routes are started before they are reachable
+        for (Route route : started) {
+            route.start();
+        }
+        started.clear();
+
+        RouteIndex index = new RouteIndex(sorted);
+        List<String> linear = index.getLinearRouteNames();
+        if (!linear.isEmpty()) {
+            logger.debug(format("Conditions of routes %s cannot be indexed, they will be evaluated linearly", linear));
+        }
+
+        // The new snapshot is held by the previous one until it has drained
+        Snapshot snapshot = new Snapshot(index, 2);
+        Snapshot previous = current;
+        previous.obsolete = new ArrayList<>(destroyed);
+        previous.next = snapshot;
+        destroyed.clear();
+        current = snapshot;
+        previous.release();
+    }
+
     private File lookupRouteFile(String routeName) {
         for (Map.Entry<File, Route> entry : routes.entrySet()) {
             File file = entry.getKey();
@@ -311,6 +464,8 @@ public class RouterHandler extends GenericHeapObject implements FileChangeListen
     public static class Heaplet extends GenericHeaplet {
 
         private EndpointRegistry.Registration registration;
+        private EndpointRegistry.Registration indexRegistration;
+        private WatchServiceDirectoryScanner watcher;
 
         @Override
         public Object create() throws HeapException {
@@ -327,9 +482,19 @@ public class RouterHandler extends GenericHeapObject implements FileChangeListen
 
             DirectoryScanner scanner = new DirectoryMonitor(directory);
 
+            boolean watch = config.get("watch").as(evaluated()).defaultTo(false).asBoolean();
             int period = config.get("scanInterval").as(evaluated()).defaultTo(PeriodicDirectoryScanner.TEN_SECONDS)
                                .asInteger();
-            if (period > 0) {
+            if (watch) {
+                long quietPeriod = config.get("watchQuietPeriod")
+                                         .as(evaluated())
+                                         .defaultTo(WatchServiceDirectoryScanner.DEFAULT_QUIET_PERIOD + " milliseconds")
+                                         .as(duration())
+                                         .to(MILLISECONDS);
+                // Scan once when handler.start() is called, then react to file system notifications
+                watcher = new WatchServiceDirectoryScanner(directory, scanner, quietPeriod, logger);
+                scanner = watcher;
+            } else if (period > 0) {
                 TimeService time = heap.get(TIME_SERVICE_HEAP_KEY, TimeService.class);
                 // Wrap the scanner in another scanner that will trigger scan at given interval
                 PeriodicDirectoryScanner periodic = new PeriodicDirectoryScanner(scanner, time);
@@ -354,6 +519,10 @@ public class RouterHandler extends GenericHeapObject implements FileChangeListen
                                                                                             registration.getPath())),
                                                       scanner);
             handler.setDefaultHandler(config.get("defaultHandler").as(optionalHeapObject(heap, Handler.class)));
+
+            // Register the /index endpoint
+            RouteIndexResourceProvider indexProvider = new RouteIndexResourceProvider(handler);
+            indexRegistration = registry.register("index", newHttpHandler(newSingleton(indexProvider)));
             return handler;
         }
 
@@ -364,13 +533,68 @@ public class RouterHandler extends GenericHeapObject implements FileChangeListen
 
         @Override
         public void destroy() {
+            if (watcher != null) {
+                watcher.stop();
+            }
             if (object != null) {
                 ((RouterHandler) object).stop();
             }
             if (registration != null) {
                 registration.unregister();
             }
+            if (indexRegistration != null) {
+                indexRegistration.unregister();
+            }
             super.destroy();
         }
     }
+
+    /**
+     * A published {@link RouteIndex}, with the count of its references: one per request being dispatched against it,
+     * one held until it is replaced, and one held by the previous snapshot until that one has drained.
+     * <p>
+     * Once all the references are released, the routes that have been removed when this snapshot was replaced are no
+     * longer used by any request (neither through this snapshot, nor through an older one): they are destroyed.
+     */
+    private static final class Snapshot {
+        private final RouteIndex index;
+        private final AtomicInteger references;
+
+        /** Routes removed when this snapshot was replaced (set before the replacement reference is released). */
+        private List<Route> obsolete = Collections.emptyList();
+
+        /** Snapshot that replaced this one (set before the replacement reference is released). */
+        private Snapshot next;
+
+        Snapshot(final RouteIndex index, final int references) {
+            this.index = index;
+            this.references = new AtomicInteger(references);
+        }
+
+        /**
+         * Acquires a reference, unless this snapshot has already drained.
+         */
+        boolean acquire() {
+            while (true) {
+                int count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+                if (references.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                for (Route route : obsolete) {
+                    route.destroy();
+                }
+                if (next != null) {
+                    next.release();
+                }
+            }
+        }
+    }
 }
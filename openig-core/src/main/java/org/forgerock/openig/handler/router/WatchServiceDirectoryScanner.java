@@ -0,0 +1,300 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.handler.router;
+
+import static java.lang.String.format;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.forgerock.openig.log.Logger;
+
+/**
+ * Event driven {@link DirectoryScanner}: the first call to {@link #scan(FileChangeListener)} performs the initial
+ * scan synchronously, then changes of the directory content are observed with a {@link WatchService} on a
+ * dedicated thread. Subsequent calls to {@link #scan(FileChangeListener)} (issued by request threads) are no-ops and
+ * never touch the file system.
+ * <p>
+ * Bursts of events (such as the ones produced by editors saving a file in multiple steps) are coalesced: the
+ * delegate scanner is only invoked once no more event has been received during the quiet period.
+ * <p>
+ * While the directory does not exist (or once it has been deleted), it is polled every poll period, and watched
+ * again as soon as it appears.
+ *
+ * @see DirectoryMonitor
+ */
+class WatchServiceDirectoryScanner implements DirectoryScanner {
+
+    /**
+     * Default quiet period (in milliseconds).
+     */
+    public static final long DEFAULT_QUIET_PERIOD = 500L;
+
+    /**
+     * Default period (in milliseconds) between two checks of a missing directory.
+     */
+    public static final long DEFAULT_POLL_PERIOD = 10000L;
+
+    /**
+     * Watched directory.
+     */
+    private final File directory;
+
+    /**
+     * Delegate, invoked on the watching thread.
+     */
+    private final DirectoryScanner delegate;
+
+    /**
+     * Delay without events to wait before invoking the delegate (expressed in milliseconds).
+     */
+    private final long quietPeriod;
+
+    /**
+     * Delay between two checks of a missing directory (expressed in milliseconds).
+     */
+    private final long pollPeriod;
+
+    private final Logger logger;
+
+    /**
+     * Contains {@literal true} once the initial scan has been performed.
+     */
+    private final AtomicBoolean started = new AtomicBoolean(false);
+
+    /**
+     * Released once watching has been stopped.
+     */
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    /**
+     * Guards the invocations of the delegate, so that {@link #stop()} can wait for an in-progress scan.
+     */
+    private final Object scanLock = new Object();
+
+    private volatile WatchService watchService;
+
+    /**
+     * Builds a new scanner watching the given directory, polling it every {@link #DEFAULT_POLL_PERIOD} while it
+     * does not exist.
+     *
+     * @param directory
+     *         watched directory
+     * @param delegate
+     *         real scanner
+     * @param quietPeriod
+     *         delay without events to wait before invoking the delegate (expressed in milliseconds)
+     * @param logger
+     *         used to report watching errors
+     */
+    public WatchServiceDirectoryScanner(final File directory,
+                                        final DirectoryScanner delegate,
+                                        final long quietPeriod,
+                                        final Logger logger) {
+        this(directory, delegate, quietPeriod, DEFAULT_POLL_PERIOD, logger);
+    }
+
+    /**
+     * Builds a new scanner watching the given directory.
+     *
+     * @param directory
+     *         watched directory
+     * @param delegate
+     *         real scanner
+     * @param quietPeriod
+     *         delay without events to wait before invoking the delegate (expressed in milliseconds)
+     * @param pollPeriod
+     *         delay between two checks of the directory while it does not exist (expressed in milliseconds)
+     * @param logger
+     *         used to report watching errors
+     */
+    WatchServiceDirectoryScanner(final File directory,
+                                 final DirectoryScanner delegate,
+                                 final long quietPeriod,
+                                 final long pollPeriod,
+                                 final Logger logger) {
+        this.directory = directory;
+        this.delegate = delegate;
+        this.quietPeriod = quietPeriod;
+        this.pollPeriod = pollPeriod;
+        this.logger = logger;
+    }
+
+    @Override
+    public void scan(final FileChangeListener listener) {
+        if (!started.compareAndSet(false, true)) {
+            // Changes are detected by the watching thread
+            return;
+        }
+
+        // Start watching before the initial scan so that no change can be missed
+        final WatchService service = watch();
+        if (service == null) {
+            logger.warning(format("Directory '%s' is not watched yet, it will be checked every %d ms",
+                                  directory,
+                                  pollPeriod));
+        }
+        delegateScan(listener);
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watchChanges(service, listener);
+            }
+        }, format("Router directory watcher (%s)", directory));
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops watching the directory. Once this method has returned, no scan is in progress and the delegate is not
+     * invoked anymore.
+     */
+    public void stop() {
+        stopped.countDown();
+        // Wait for an in-progress scan
+        synchronized (scanLock) {
+            closeWatchService();
+        }
+    }
+
+    private void closeWatchService() {
+        WatchService service = watchService;
+        watchService = null;
+        if (service != null) {
+            try {
+                service.close();
+            } catch (IOException e) {
+                logger.warning(e);
+            }
+        }
+    }
+
+    private boolean isStopped() {
+        return stopped.getCount() == 0;
+    }
+
+    private void delegateScan(final FileChangeListener listener) {
+        synchronized (scanLock) {
+            if (!isStopped()) {
+                delegate.scan(listener);
+            }
+        }
+    }
+
+    private void safeScan(final FileChangeListener listener) {
+        try {
+            delegateScan(listener);
+        } catch (RuntimeException e) {
+            logger.error(e);
+        }
+    }
+
+    private WatchService watch() {
+        if (!directory.isDirectory()) {
+            return null;
+        }
+        try {
+            WatchService service = directory.toPath().getFileSystem().newWatchService();
+            directory.toPath().register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            synchronized (scanLock) {
+                if (isStopped()) {
+                    service.close();
+                    return null;
+                }
+                watchService = service;
+            }
+            return service;
+        } catch (IOException e) {
+            logger.error(format("Cannot watch directory '%s', it will be checked every %d ms", directory, pollPeriod));
+            logger.error(e);
+            return null;
+        }
+    }
+
+    private void watchChanges(final WatchService initial, final FileChangeListener listener) {
+        try {
+            WatchService service = initial;
+            while (!isStopped()) {
+                if (service == null) {
+                    // Wait for the directory to (re)appear
+                    if (stopped.await(pollPeriod, MILLISECONDS)) {
+                        return;
+                    }
+                    service = watch();
+                    if (service != null) {
+                        logger.info(format("Directory '%s' is now watched", directory));
+                        // Files may have been added before the directory was watched
+                        safeScan(listener);
+                    }
+                    continue;
+                }
+                if (!watchUntilInvalid(service, listener)) {
+                    return;
+                }
+                logger.warning(format("Directory '%s' is no longer accessible, it will be checked every %d ms",
+                                      directory,
+                                      pollPeriod));
+                closeWatchService();
+                service = null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Watches the directory until it is no longer accessible.
+     *
+     * @return {@literal false} if watching has been stopped
+     */
+    private boolean watchUntilInvalid(final WatchService service, final FileChangeListener listener)
+            throws InterruptedException {
+        try {
+            while (true) {
+                boolean valid = consume(service.take());
+                // Wait for the end of the events burst
+                WatchKey key;
+                while ((key = service.poll(quietPeriod, MILLISECONDS)) != null) {
+                    valid = consume(key);
+                }
+                safeScan(listener);
+                if (!valid) {
+                    return true;
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // Watching has been stopped
+            return false;
+        }
+    }
+
+    private static boolean consume(final WatchKey key) {
+        // Events are ignored: the delegate will compare the directory content with its own snapshot
+        key.pollEvents();
+        return key.reset();
+    }
+}
@@ -26,6 +26,7 @@ import org.forgerock.openig.handler.ClientHandler;
 import org.forgerock.openig.http.EndpointRegistry;
 import org.forgerock.openig.io.TemporaryStorage;
 import org.forgerock.openig.log.LogSink;
+import org.forgerock.openig.metrics.LatencyMetrics;
 import org.forgerock.util.time.TimeService;
 
 /**
@@ -47,6 +48,12 @@ public final class Keys {
     @Deprecated
     public static final String AUDIT_HEAP_KEY = "audit";
 
+    /**
+     * Key to retrieve an {@link org.forgerock.openig.audit.AsyncAuditPublisher} instance from the
+     * {@link org.forgerock.openig.heap.Heap}.
+     */
+    public static final String AUDIT_PUBLISHER_HEAP_KEY = "AuditPublisher";
+
     /**
      * Key to retrieve a default
      * {@link org.forgerock.openig.audit.AuditSystem} instance from
@@ -98,6 +105,11 @@ public final class Keys {
      */
     public static final String FORGEROCK_CLIENT_HANDLER_HEAP_KEY = "ForgeRockClientHandler";
 
+    /**
+     * Key to retrieve the gateway-wide {@link LatencyMetrics} instance from the {@link org.forgerock.openig.heap.Heap}.
+     */
+    public static final String LATENCY_METRICS_HEAP_KEY = "LatencyMetrics";
+
     /**
      * Key to retrieve a {@link LogSink} instance from the {@link org.forgerock.openig.heap.Heap}.
      */
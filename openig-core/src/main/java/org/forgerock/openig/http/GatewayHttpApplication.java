@@ -29,8 +29,11 @@ import static org.forgerock.json.JsonValue.array;
 import static org.forgerock.json.JsonValue.field;
 import static org.forgerock.json.JsonValue.json;
 import static org.forgerock.json.JsonValue.object;
+import static org.forgerock.json.resource.Resources.newSingleton;
+import static org.forgerock.json.resource.http.CrestHttp.newHttpHandler;
 import static org.forgerock.openig.heap.Keys.API_PROTECTION_FILTER_HEAP_KEY;
 import static org.forgerock.openig.heap.Keys.AUDIT_HEAP_KEY;
+import static org.forgerock.openig.heap.Keys.AUDIT_PUBLISHER_HEAP_KEY;
 import static org.forgerock.openig.heap.Keys.AUDIT_SYSTEM_HEAP_KEY;
 import static org.forgerock.openig.heap.Keys.BASEURI_HEAP_KEY;
 import static org.forgerock.openig.heap.Keys.CAPTURE_HEAP_KEY;
@@ -38,6 +41,7 @@ import static org.forgerock.openig.heap.Keys.CLIENT_HANDLER_HEAP_KEY;
 import static org.forgerock.openig.heap.Keys.ENDPOINT_REGISTRY_HEAP_KEY;
 import static org.forgerock.openig.heap.Keys.ENVIRONMENT_HEAP_KEY;
 import static org.forgerock.openig.heap.Keys.FORGEROCK_CLIENT_HANDLER_HEAP_KEY;
+import static org.forgerock.openig.heap.Keys.LATENCY_METRICS_HEAP_KEY;
 import static org.forgerock.openig.heap.Keys.LOGSINK_HEAP_KEY;
 import static org.forgerock.openig.heap.Keys.SCHEDULED_EXECUTOR_SERVICE_HEAP_KEY;
 import static org.forgerock.openig.heap.Keys.SESSION_FACTORY_HEAP_KEY;
@@ -72,10 +76,12 @@ import org.forgerock.http.protocol.Status;
 import org.forgerock.http.routing.Router;
 import org.forgerock.http.session.SessionManager;
 import org.forgerock.json.JsonValue;
+import org.forgerock.openig.audit.AsyncAuditPublisher;
 import org.forgerock.openig.audit.AuditSystem;
 import org.forgerock.openig.audit.decoration.AuditDecorator;
 import org.forgerock.openig.audit.internal.ForwardingAuditSystem;
 import org.forgerock.openig.config.Environment;
+import org.forgerock.openig.decoration.Decorator;
 import org.forgerock.openig.decoration.baseuri.BaseUriDecorator;
 import org.forgerock.openig.decoration.capture.CaptureDecorator;
 import org.forgerock.openig.decoration.timer.TimerDecorator;
@@ -88,6 +94,9 @@ import org.forgerock.openig.io.TemporaryStorage;
 import org.forgerock.openig.log.ConsoleLogSink;
 import org.forgerock.openig.log.LogSink;
 import org.forgerock.openig.log.Logger;
+import org.forgerock.openig.metrics.LatencyMetrics;
+import org.forgerock.openig.metrics.LatencyMetricsHandler;
+import org.forgerock.openig.regex.PatternCache;
 import org.forgerock.services.context.ClientContext;
 import org.forgerock.services.context.Context;
 import org.forgerock.util.Factory;
@@ -129,6 +138,7 @@ public final class GatewayHttpApplication implements HttpApplication {
                         field("type", "ScheduledExecutorService")));
 
     private HeapImpl heap;
+    private AsyncAuditPublisher auditPublisher;
     private TemporaryStorage storage;
     private Environment environment;
 
@@ -191,6 +201,10 @@ public final class GatewayHttpApplication implements HttpApplication {
 
             // Provide the base tree:
             // /openig/api/system/objects
+            // /openig/api/system/patterns
+            // /openig/api/system/metrics
+            // /openig/api/system/timings (when the timer decorator is a TimerDecorator)
+            // /openig/api/system/audit
             Router openigRouter = new Router();
             Router apiRouter = new Router();
             Router systemRouter = new Router();
@@ -201,14 +215,25 @@ public final class GatewayHttpApplication implements HttpApplication {
             // this is just to mimic the fact that 'system' should be a Route within a RouterHandler
             addSubRouter(systemRouter, "objects", systemObjectsRouter);
             systemObjectsRouter.addRoute(requestUriMatcher(EQUALS, ""), Handlers.NO_CONTENT);
+            PatternCacheResourceProvider patterns = new PatternCacheResourceProvider(PatternCache.shared());
+            systemRouter.addRoute(requestUriMatcher(EQUALS, "patterns"), newHttpHandler(newSingleton(patterns)));
+            LatencyMetrics latencyMetrics = new LatencyMetrics();
+            systemRouter.addRoute(requestUriMatcher(EQUALS, "metrics"), new LatencyMetricsHandler(latencyMetrics));
+            // Not started yet: the events published while the heap is built are published synchronously
+            auditPublisher = new AsyncAuditPublisher();
+            AuditPublisherResourceProvider audit = new AuditPublisherResourceProvider(auditPublisher);
+            systemRouter.addRoute(requestUriMatcher(EQUALS, "audit"), newHttpHandler(newSingleton(audit)));
             heap.put(ENDPOINT_REGISTRY_HEAP_KEY, new EndpointRegistry(systemObjectsRouter,
                                                                       "/openig/api/system/objects"));
 
             // "Live" objects
             heap.put(ENVIRONMENT_HEAP_KEY, environment);
             heap.put(TIME_SERVICE_HEAP_KEY, timeService);
+            heap.put(LATENCY_METRICS_HEAP_KEY, latencyMetrics);
 
-            AuditSystem auditSystem = new ForwardingAuditSystem();
+            heap.put(AUDIT_PUBLISHER_HEAP_KEY, auditPublisher);
+
+            AuditSystem auditSystem = new ForwardingAuditSystem(auditPublisher);
 
             // can be overridden in config
             heap.put(TEMPORARY_STORAGE_HEAP_KEY, new TemporaryStorage());
@@ -224,12 +249,22 @@ public final class GatewayHttpApplication implements HttpApplication {
             heap.addDefaultDeclaration(DEFAULT_SCHEDULED_THREAD_POOL);
             heap.init(config, "logSink", "temporaryStorage", "handler", "handlerObject", "globalDecorators");
 
+            // Expose the structured timings of the (possibly overridden) timer decorator
+            Decorator timer = heap.get(TIMER_HEAP_KEY, Decorator.class);
+            if (timer instanceof TimerDecorator) {
+                TimerStatisticsResourceProvider timings =
+                        new TimerStatisticsResourceProvider(((TimerDecorator) timer).getStatistics());
+                systemRouter.addRoute(requestUriMatcher(EQUALS, "timings"), newHttpHandler(newSingleton(timings)));
+            }
+
             // As all heaplets can specify their own storage and logger,
             // these two lines provide custom logger or storage available.
             LogSink logSink = config.get("logSink")
                                     .defaultTo(LOGSINK_HEAP_KEY)
                                     .as(optionalHeapObject(heap, LogSink.class));
             final Logger logger = new Logger(logSink, Name.of(GatewayHttpApplication.class));
+            auditPublisher.setLogger(new Logger(logSink, Name.of(AsyncAuditPublisher.class)));
+            auditPublisher.start();
             storage = config.get("temporaryStorage")
                             .defaultTo(TEMPORARY_STORAGE_HEAP_KEY)
                             .as(requiredHeapObject(heap, TemporaryStorage.class));
@@ -293,6 +328,11 @@ public final class GatewayHttpApplication implements HttpApplication {
 
     @Override
     public void stop() {
+        if (auditPublisher != null) {
+            // Publish the pending audit events while the audit services are still available
+            auditPublisher.stop();
+            auditPublisher = null;
+        }
         if (heap != null) {
             // Try to release Heaplet(s) resources
             heap.destroy();
@@ -0,0 +1,144 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.jwt;
+
+import static org.forgerock.openig.jwt.CompactJwe.CBC_HMAC_KEY_SIZE;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Cipher;
+
+import org.forgerock.json.jose.jwe.EncryptionMethod;
+import org.forgerock.json.jose.jwe.JweAlgorithm;
+import org.forgerock.json.jose.jwt.JwtClaimsSet;
+import org.forgerock.util.encode.Base64url;
+
+/**
+ * A {@link JwtSessionCipher} producing the same cookies as {@link RsaJwtSessionCipher}
+ * ({@link JweAlgorithm#RSAES_PKCS1_V1_5} and {@link EncryptionMethod#A128CBC_HS256}), but avoiding most RSA
+ * operations.
+ *
+ * <p>The content encryption keys unwrapped with the private key are kept in a bounded LRU cache, keyed by their
+ * encrypted (wrapped) form: a cookie whose key is cached is decrypted with a single AES pass and an HMAC. When
+ * encrypting, the same wrapped content encryption key is reused for many cookies (each one with its own random IV)
+ * before a new one is generated, so that most saved cookies also share a cached key.
+ */
+class CachingRsaJwtSessionCipher implements JwtSessionCipher {
+
+    /** Number of cookies encrypted with the same content encryption key. */
+    private static final int MAX_KEY_USES = 1 << 16;
+
+    private static final String ALG = JweAlgorithm.RSAES_PKCS1_V1_5.name();
+    private static final String ENC = EncryptionMethod.A128CBC_HS256.name();
+    private static final String HEADER = CompactJwe.header(ALG, ENC);
+
+    private final KeyPair pair;
+    private final Map<String, byte[]> keys;
+    private volatile WrappedKey current;
+
+    /**
+     * Builds a new cipher.
+     *
+     * @param pair
+     *         the key pair used to wrap and unwrap the content encryption keys
+     * @param cacheSize
+     *         the maximum number of unwrapped content encryption keys to keep
+     */
+    CachingRsaJwtSessionCipher(final KeyPair pair, final int cacheSize) {
+        this.pair = pair;
+        this.keys = Collections.synchronizedMap(new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, byte[]> eldest) {
+                return size() > cacheSize;
+            }
+        });
+    }
+
+    @Override
+    public JwtClaimsSet decrypt(final String value) throws GeneralSecurityException {
+        String[] parts = CompactJwe.split(value);
+        if (!HEADER.equals(parts[0])) {
+            // Cookies produced by RsaJwtSessionCipher use another (equivalent) JSON formatting
+            Map<String, Object> header = CompactJwe.decodeHeader(parts[0]);
+            if (!ALG.equals(header.get("alg")) || !ENC.equals(header.get("enc"))) {
+                throw new GeneralSecurityException("Unsupported JWE algorithm or encryption method");
+            }
+        }
+        byte[] cek = keys.get(parts[1]);
+        if (cek == null) {
+            cek = unwrap(CompactJwe.decode(parts[1]));
+            keys.put(parts[1], cek);
+        }
+        return CompactJwe.deserialize(CompactJwe.decryptCbcHmac(cek, parts));
+    }
+
+    @Override
+    public String encrypt(final JwtClaimsSet claims) throws GeneralSecurityException {
+        WrappedKey key = current;
+        if (key == null || key.uses.incrementAndGet() > MAX_KEY_USES) {
+            // Concurrent threads may generate a new key at the same time: harmless
+            key = wrap();
+            current = key;
+        }
+        return CompactJwe.encryptCbcHmac(key.cek, HEADER, key.encrypted, CompactJwe.serialize(claims));
+    }
+
+    /**
+     * Returns the number of cached content encryption keys.
+     */
+    int getCachedKeyCount() {
+        return keys.size();
+    }
+
+    private byte[] unwrap(final byte[] encrypted) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
+        cipher.init(Cipher.DECRYPT_MODE, pair.getPrivate());
+        byte[] cek = cipher.doFinal(encrypted);
+        if (cek.length != CBC_HMAC_KEY_SIZE) {
+            throw new GeneralSecurityException("Invalid content encryption key");
+        }
+        return cek;
+    }
+
+    private WrappedKey wrap() throws GeneralSecurityException {
+        byte[] cek = CompactJwe.randomBytes(CBC_HMAC_KEY_SIZE);
+        Cipher cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, pair.getPublic());
+        String encrypted = Base64url.encode(cipher.doFinal(cek));
+        keys.put(encrypted, cek);
+        return new WrappedKey(cek, encrypted);
+    }
+
+    /** A content encryption key, with its encrypted form. */
+    private static final class WrappedKey {
+        private final byte[] cek;
+        private final String encrypted;
+        private final AtomicInteger uses = new AtomicInteger(1);
+
+        WrappedKey(final byte[] cek, final String encrypted) {
+            this.cek = cek;
+            this.encrypted = encrypted;
+        }
+    }
+}
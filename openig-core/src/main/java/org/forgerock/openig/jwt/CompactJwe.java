@@ -0,0 +1,216 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.jwt;
+
+import static org.forgerock.http.util.Json.readJson;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.forgerock.json.jose.builders.JwtBuilderFactory;
+import org.forgerock.json.jose.jwt.JwtClaimsSet;
+import org.forgerock.util.encode.Base64url;
+
+/**
+ * Low-level support for the compact serialization of JWE carrying JWT claims, using the JCE directly.
+ *
+ * <p>Supported content encryption methods are {@literal A128CBC-HS256} (RFC 7518, section 5.2.3) and
+ * {@literal AES GCM} (RFC 7518, section 5.3).
+ */
+final class CompactJwe {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Size of the A128CBC-HS256 content encryption key (MAC key followed by encryption key), in bytes. */
+    static final int CBC_HMAC_KEY_SIZE = 32;
+    private static final int CBC_IV_SIZE = 16;
+    private static final int CBC_HMAC_TAG_SIZE = 16;
+
+    private static final int GCM_IV_SIZE = 12;
+    private static final int GCM_TAG_BITS = 128;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private CompactJwe() { }
+
+    /**
+     * Returns the base64url-encoded JOSE header with the given algorithm and encryption method.
+     */
+    static String header(final String alg, final String enc) {
+        return Base64url.encode(("{\"typ\":\"JWT\",\"alg\":\"" + alg + "\",\"enc\":\"" + enc + "\"}").getBytes(UTF_8));
+    }
+
+    /**
+     * Splits the compact serialization in its 5 parts: header, encrypted key, IV, ciphertext and tag.
+     */
+    static String[] split(final String value) throws GeneralSecurityException {
+        String[] parts = value.split("\\.", -1);
+        if (parts.length != 5) {
+            throw new GeneralSecurityException("Not a JWE compact serialization");
+        }
+        return parts;
+    }
+
+    /**
+     * Returns the decoded JOSE header.
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> decodeHeader(final String header) throws GeneralSecurityException {
+        try {
+            return (Map<String, Object>) readJson(new StringReader(new String(decode(header), UTF_8)));
+        } catch (IOException | ClassCastException e) {
+            throw new GeneralSecurityException("Invalid JWE header", e);
+        }
+    }
+
+    static byte[] decode(final String segment) throws GeneralSecurityException {
+        byte[] decoded = Base64url.decode(segment);
+        if (decoded == null) {
+            throw new GeneralSecurityException("Invalid base64url encoded segment");
+        }
+        return decoded;
+    }
+
+    static byte[] randomBytes(final int size) {
+        byte[] bytes = new byte[size];
+        RANDOM.nextBytes(bytes);
+        return bytes;
+    }
+
+    static byte[] serialize(final JwtClaimsSet claims) {
+        return claims.build().getBytes(UTF_8);
+    }
+
+    @SuppressWarnings("unchecked")
+    static JwtClaimsSet deserialize(final byte[] plaintext) throws GeneralSecurityException {
+        try {
+            Map<String, Object> claims =
+                    (Map<String, Object>) readJson(new StringReader(new String(plaintext, UTF_8)));
+            return new JwtBuilderFactory().claims().claims(claims).build();
+        } catch (IOException | ClassCastException e) {
+            throw new GeneralSecurityException("Invalid JWT claims", e);
+        }
+    }
+
+    /**
+     * Encrypts the plaintext with A128CBC-HS256 and returns the compact serialization.
+     */
+    static String encryptCbcHmac(final byte[] cek,
+                                 final String header,
+                                 final String encryptedKey,
+                                 final byte[] plaintext) throws GeneralSecurityException {
+        byte[] iv = randomBytes(CBC_IV_SIZE);
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, encryptionKey(cek), new IvParameterSpec(iv));
+        byte[] ciphertext = cipher.doFinal(plaintext);
+        byte[] tag = cbcHmacTag(cek, header, iv, ciphertext);
+        return join(header, encryptedKey, iv, ciphertext, tag);
+    }
+
+    /**
+     * Verifies then decrypts the A128CBC-HS256 encrypted compact serialization.
+     */
+    static byte[] decryptCbcHmac(final byte[] cek, final String[] parts) throws GeneralSecurityException {
+        byte[] iv = decode(parts[2]);
+        byte[] ciphertext = decode(parts[3]);
+        if (!MessageDigest.isEqual(cbcHmacTag(cek, parts[0], iv, ciphertext), decode(parts[4]))) {
+            throw new GeneralSecurityException("Invalid authentication tag");
+        }
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.DECRYPT_MODE, encryptionKey(cek), new IvParameterSpec(iv));
+        return cipher.doFinal(ciphertext);
+    }
+
+    private static byte[] cbcHmacTag(final byte[] cek, final String header, final byte[] iv, final byte[] ciphertext)
+            throws GeneralSecurityException {
+        byte[] aad = header.getBytes(ASCII);
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(cek, 0, CBC_HMAC_KEY_SIZE / 2, "HmacSHA256"));
+        mac.update(aad);
+        mac.update(iv);
+        mac.update(ciphertext);
+        mac.update(ByteBuffer.allocate(8).putLong(aad.length * 8L).array());
+        return Arrays.copyOf(mac.doFinal(), CBC_HMAC_TAG_SIZE);
+    }
+
+    private static SecretKey encryptionKey(final byte[] cek) throws GeneralSecurityException {
+        if (cek.length != CBC_HMAC_KEY_SIZE) {
+            throw new GeneralSecurityException("Invalid content encryption key");
+        }
+        return new SecretKeySpec(cek, CBC_HMAC_KEY_SIZE / 2, CBC_HMAC_KEY_SIZE / 2, "AES");
+    }
+
+    /**
+     * Encrypts the plaintext with AES GCM and returns the compact serialization (without encrypted key).
+     */
+    static String encryptGcm(final SecretKey key, final String header, final byte[] plaintext)
+            throws GeneralSecurityException {
+        byte[] iv = randomBytes(GCM_IV_SIZE);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_BITS, iv));
+        cipher.updateAAD(header.getBytes(ASCII));
+        byte[] output = cipher.doFinal(plaintext);
+        int length = output.length - GCM_TAG_BITS / 8;
+        return join(header,
+                    "",
+                    iv,
+                    Arrays.copyOfRange(output, 0, length),
+                    Arrays.copyOfRange(output, length, output.length));
+    }
+
+    /**
+     * Verifies then decrypts the AES GCM encrypted compact serialization.
+     */
+    static byte[] decryptGcm(final SecretKey key, final String[] parts) throws GeneralSecurityException {
+        byte[] ciphertext = decode(parts[3]);
+        byte[] tag = decode(parts[4]);
+        byte[] input = Arrays.copyOf(ciphertext, ciphertext.length + tag.length);
+        System.arraycopy(tag, 0, input, ciphertext.length, tag.length);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_BITS, decode(parts[2])));
+        cipher.updateAAD(parts[0].getBytes(ASCII));
+        return cipher.doFinal(input);
+    }
+
+    private static String join(final String header,
+                               final String encryptedKey,
+                               final byte[] iv,
+                               final byte[] ciphertext,
+                               final byte[] tag) {
+        return new StringBuilder(header).append('.')
+                                        .append(encryptedKey).append('.')
+                                        .append(Base64url.encode(iv)).append('.')
+                                        .append(Base64url.encode(ciphertext)).append('.')
+                                        .append(Base64url.encode(tag))
+                                        .toString();
+    }
+}
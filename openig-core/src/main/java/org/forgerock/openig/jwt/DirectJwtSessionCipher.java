@@ -0,0 +1,68 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.jwt;
+
+import static java.lang.String.format;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.forgerock.json.jose.jwt.JwtClaimsSet;
+
+/**
+ * A {@link JwtSessionCipher} encrypting the cookies directly with a shared secret key ({@literal dir} algorithm)
+ * and AES GCM, so that a cookie is decrypted with a single AES pass, without any RSA operation.
+ *
+ * <p>The encryption method ({@literal A128GCM}, {@literal A192GCM} or {@literal A256GCM}) depends on the size of the
+ * secret key. Cookies encrypted by other ciphers cannot be decrypted (the sessions are reset).
+ */
+class DirectJwtSessionCipher implements JwtSessionCipher {
+
+    private final SecretKey key;
+    private final String header;
+
+    /**
+     * Builds a new cipher.
+     *
+     * @param secret
+     *         the shared secret key (16, 24 or 32 bytes long)
+     */
+    DirectJwtSessionCipher(final byte[] secret) {
+        if (secret.length != 16 && secret.length != 24 && secret.length != 32) {
+            throw new IllegalArgumentException(format("The secret key has to be 128, 192 or 256 bits long (was %d)",
+                                                      secret.length * 8));
+        }
+        this.key = new SecretKeySpec(secret, "AES");
+        this.header = CompactJwe.header("dir", format("A%dGCM", secret.length * 8));
+    }
+
+    @Override
+    public JwtClaimsSet decrypt(final String value) throws GeneralSecurityException {
+        String[] parts = CompactJwe.split(value);
+        if (!header.equals(parts[0]) || !parts[1].isEmpty()) {
+            throw new GeneralSecurityException("Unsupported JWE algorithm or encryption method");
+        }
+        return CompactJwe.deserialize(CompactJwe.decryptGcm(key, parts));
+    }
+
+    @Override
+    public String encrypt(final JwtClaimsSet claims) throws GeneralSecurityException {
+        return CompactJwe.encryptGcm(key, header, CompactJwe.serialize(claims));
+    }
+}
@@ -24,6 +24,7 @@ import static org.forgerock.http.util.Json.*;
 import static org.forgerock.openig.jwt.JwtSessionManager.MAX_SESSION_TIMEOUT;
 
 import java.io.IOException;
+import java.security.GeneralSecurityException;
 import java.security.KeyPair;
 import java.util.Collection;
 import java.util.Date;
@@ -37,12 +38,9 @@ import org.forgerock.http.protocol.Cookie;
 import org.forgerock.http.protocol.Request;
 import org.forgerock.http.protocol.Response;
 import org.forgerock.http.session.Session;
-import org.forgerock.json.jose.builders.EncryptedJwtBuilder;
 import org.forgerock.json.jose.builders.JwtBuilderFactory;
 import org.forgerock.json.jose.builders.JwtClaimsSetBuilder;
-import org.forgerock.json.jose.common.JwtReconstruction;
 import org.forgerock.json.jose.exceptions.JweDecryptionException;
-import org.forgerock.json.jose.jwe.EncryptedJwt;
 import org.forgerock.json.jose.jwe.EncryptionMethod;
 import org.forgerock.json.jose.jwe.JweAlgorithm;
 import org.forgerock.json.jose.jwt.JwtClaimsSet;
@@ -57,7 +55,7 @@ import org.forgerock.util.time.TimeService;
 
 /**
  * Represents an OpenIG {@link Session} that will be stored as an encrypted JSON Web Token in a Cookie.
- * The generated JWT is encrypted with the {@link JweAlgorithm#RSAES_PKCS1_V1_5} algorithm and {@link
+ * By default, the generated JWT is encrypted with the {@link JweAlgorithm#RSAES_PKCS1_V1_5} algorithm and {@link
  * EncryptionMethod#A128CBC_HS256} method.
  */
 public class JwtCookieSession extends MapDecorator<String, Object> implements Session, DirtyListener {
@@ -84,11 +82,6 @@ public class JwtCookieSession extends MapDecorator<String, Object> implements Se
      */
     private static final Date EPOCH = new Date(0L);
 
-    /**
-     * Know how to rebuild a JWT from a String.
-     */
-    private final JwtReconstruction reader = new JwtReconstruction();
-
     /**
      * Factory for JWT.
      */
@@ -112,7 +105,7 @@ public class JwtCookieSession extends MapDecorator<String, Object> implements Se
     /**
      * Used for decryption/encryption of session's content.
      */
-    private final KeyPair pair;
+    private final JwtSessionCipher cipher;
 
     /**
      * The TimeService to use when setting the cookie session expiry time.
@@ -146,8 +139,33 @@ public class JwtCookieSession extends MapDecorator<String, Object> implements Se
                             final Logger logger,
                             final TimeService timeService,
                             final Duration sessionTimeout) {
+        this(request, new RsaJwtSessionCipher(pair), cookieName, logger, timeService, sessionTimeout);
+    }
+
+    /**
+     * Builds a new JwtCookieSession that will manage the given Request's session.
+     *
+     * @param request
+     *         Request used to access {@literal Cookie} and {@literal Set-Cookie} headers.
+     * @param cipher
+     *         Used for decryption/encryption of session's content.
+     * @param cookieName
+     *         Name to be used for the JWT Cookie.
+     * @param logger
+     *         Logger
+     * @param timeService
+     *         TimeService to use when dealing with cookie sessions
+     * @param sessionTimeout
+     *         The duration of the cookie session
+     */
+    JwtCookieSession(final Request request,
+                     final JwtSessionCipher cipher,
+                     final String cookieName,
+                     final Logger logger,
+                     final TimeService timeService,
+                     final Duration sessionTimeout) {
         super(new LinkedHashMap<String, Object>());
-        this.pair = pair;
+        this.cipher = cipher;
         this.cookieName = cookieName;
         this.logger = logger;
         this.timeService = timeService;
@@ -173,9 +191,7 @@ public class JwtCookieSession extends MapDecorator<String, Object> implements Se
         Cookie cookie = findJwtSessionCookie(request);
         if (cookie != null) {
             try {
-                EncryptedJwt jwt = reader.reconstructJwt(cookie.getValue(), EncryptedJwt.class);
-                jwt.decrypt(pair.getPrivate());
-                JwtClaimsSet claimsSet = jwt.getClaimsSet();
+                JwtClaimsSet claimsSet = cipher.decrypt(cookie.getValue());
                 for (String key : claimsSet.keys()) {
                     // directly use super to avoid session be marked as dirty
                     super.put(key, claimsSet.getClaim(key));
@@ -192,7 +208,7 @@ public class JwtCookieSession extends MapDecorator<String, Object> implements Se
                     // but will keep the session's content with an expiration date
                     put(IG_EXP_SESSION_KEY, getNewExpiryTime());
                 }
-            } catch (JweDecryptionException e) {
+            } catch (JweDecryptionException | GeneralSecurityException e) {
                 dirty = true; // Force cookie expiration / overwrite.
                 logger.warning(format("The JWT Session Cookie '%s' could not be decrypted. This "
                         + "may be because temporary encryption keys have been used or if the "
@@ -308,7 +324,7 @@ public class JwtCookieSession extends MapDecorator<String, Object> implements Se
         return new Cookie().setPath("/").setName(cookieName).setExpires(EPOCH);
     }
 
-    private Cookie buildJwtCookie() {
+    private Cookie buildJwtCookie() throws IOException {
         // Reuse existing expiryTime if it exists.
         // If the value fits within a Integer, then an Integer rather than a Long is returned.
         Number expiryTime = (Number) get(IG_EXP_SESSION_KEY);
@@ -326,15 +342,14 @@ public class JwtCookieSession extends MapDecorator<String, Object> implements Se
     /**
      * Builds a JWT from the session's content.
      */
-    private String buildJwtSession() {
-        EncryptedJwtBuilder jwtBuilder = factory.jwe(pair.getPublic());
+    private String buildJwtSession() throws IOException {
         JwtClaimsSetBuilder claimsBuilder = factory.claims();
         claimsBuilder.claims(this);
-        jwtBuilder.claims(claimsBuilder.build());
-        jwtBuilder.headers()
-                  .alg(JweAlgorithm.RSAES_PKCS1_V1_5)
-                  .enc(EncryptionMethod.A128CBC_HS256);
-        return jwtBuilder.build();
+        try {
+            return cipher.encrypt(claimsBuilder.build());
+        } catch (GeneralSecurityException e) {
+            throw new IOException(format("Cannot encrypt the JWT session stored in Cookie '%s'", cookieName), e);
+        }
     }
 
     /**
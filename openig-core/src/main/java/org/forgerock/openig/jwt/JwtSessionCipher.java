@@ -0,0 +1,54 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.jwt;
+
+import java.security.GeneralSecurityException;
+
+import org.forgerock.json.jose.exceptions.JweDecryptionException;
+import org.forgerock.json.jose.jwt.JwtClaimsSet;
+
+/**
+ * Encrypts the content of a {@link JwtCookieSession} into the value of its cookie, and decrypts it back.
+ *
+ * <p>Implementations are shared by all the sessions of a {@link JwtSessionManager} and have to be thread-safe.
+ */
+interface JwtSessionCipher {
+
+    /**
+     * Decrypts the given cookie value.
+     *
+     * @param value
+     *         the value of the session cookie
+     * @return the session's claims
+     * @throws GeneralSecurityException
+     *         if the value cannot be decrypted (wrong key, tampered value)
+     * @throws JweDecryptionException
+     *         if the value cannot be decrypted (wrong key, tampered value)
+     */
+    JwtClaimsSet decrypt(String value) throws GeneralSecurityException;
+
+    /**
+     * Encrypts the given claims.
+     *
+     * @param claims
+     *         the session's claims
+     * @return the value of the session cookie
+     * @throws GeneralSecurityException
+     *         if the claims cannot be encrypted
+     */
+    String encrypt(JwtClaimsSet claims) throws GeneralSecurityException;
+}
@@ -43,6 +43,7 @@ import org.forgerock.json.JsonValue;
 import org.forgerock.openig.heap.GenericHeapObject;
 import org.forgerock.openig.heap.GenericHeaplet;
 import org.forgerock.openig.heap.HeapException;
+import org.forgerock.util.encode.Base64;
 import org.forgerock.util.time.Duration;
 import org.forgerock.util.time.TimeService;
 
@@ -59,7 +60,9 @@ import org.forgerock.util.time.TimeService;
  *             "alias": "PrivateKey Alias",
  *             "password": "KeyStore/Key Password",
  *             "cookieName": "OpenIG",
- *             "sessionTimeout": "30 minutes"
+ *             "sessionTimeout": "30 minutes",
+ *             "sessionKeyCacheSize": 1000,
+ *             "sharedSecret": "Base64 encoded AES key"
  *         }
  *     }
  *     }
@@ -85,6 +88,16 @@ import org.forgerock.util.time.TimeService;
  * The {@literal sessionTimeout} optional duration attribute, specifies the amount of time before the cookie session
  * expires. If not set, a default of 30 minutes is used. A duration of 0 is not valid and it will be limited to
  * a maximum duration of approximately 10 years.
+ * <p>
+ * The {@literal sessionKeyCacheSize} optional integer attribute enables the caching of the content encryption keys
+ * unwrapped with the private key (and the reuse of the wrapped keys when saving sessions), so that most of the
+ * requests do not need any RSA operation. It specifies the maximum number of cached keys. If not set (or set to 0),
+ * no key is cached. The cookies remain compatible with the non-caching mode.
+ * <p>
+ * The {@literal sharedSecret} optional string attribute specifies a base64 encoded AES key (128, 192 or 256 bits).
+ * When set, the cookies are directly encrypted with this key ({@literal dir} algorithm) and AES GCM instead of RSA:
+ * all the OpenIG instances sharing the sessions have to be configured with the same secret. This attribute cannot
+ * be used with a {@literal keystore}. The sessions stored in cookies encrypted with RSA are reset.
  *
  * @since 3.1
  */
@@ -102,9 +115,9 @@ public class JwtSessionManager extends GenericHeapObject implements SessionManag
     public static final Duration MAX_SESSION_TIMEOUT = Duration.duration("3650 days");
 
     /**
-     * The pair of keys for JWT payload encryption/decryption.
+     * Used for JWT payload encryption/decryption.
      */
-    private final KeyPair keyPair;
+    private final JwtSessionCipher cipher;
 
     /**
      * The name of the cookie to be used to session's content transmission.
@@ -138,7 +151,27 @@ public class JwtSessionManager extends GenericHeapObject implements SessionManag
                              final String cookieName,
                              final TimeService timeService,
                              final Duration sessionTimeout) {
-        this.keyPair = keyPair;
+        this(new RsaJwtSessionCipher(keyPair), cookieName, timeService, sessionTimeout);
+    }
+
+    /**
+     * Builds a new JwtSessionManager using the given cipher for session encryption, storing the opaque result in a
+     * cookie with the given name.
+     *
+     * @param cipher
+     *         Used for ciphering/deciphering
+     * @param cookieName
+     *         name of the cookie
+     * @param timeService
+     *         TimeService to use when dealing with cookie sessions
+     * @param sessionTimeout
+     *         The duration of the cookie session
+     */
+    JwtSessionManager(final JwtSessionCipher cipher,
+                      final String cookieName,
+                      final TimeService timeService,
+                      final Duration sessionTimeout) {
+        this.cipher = cipher;
         this.cookieName = cookieName;
         this.timeService = timeService;
         this.sessionTimeout = sessionTimeout;
@@ -146,7 +179,7 @@ public class JwtSessionManager extends GenericHeapObject implements SessionManag
 
     @Override
     public Session load(final Request request) {
-        return new JwtCookieSession(request, keyPair, cookieName, logger, timeService, sessionTimeout);
+        return new JwtCookieSession(request, cipher, cookieName, logger, timeService, sessionTimeout);
     }
 
     @Override
@@ -174,8 +207,8 @@ public class JwtSessionManager extends GenericHeapObject implements SessionManag
                 throw new HeapException("sessionTimeout duration must be greater than 0");
             }
 
-            // Create the session factory with the given KeyPair and cookie name
-            return new JwtSessionManager(keyPair(),
+            // Create the session factory with the given cipher and cookie name
+            return new JwtSessionManager(cipher(evaluated),
                                          evaluated.get("cookieName")
                                                   .defaultTo(OPENIG_JWT_SESSION)
                                                   .asString(),
@@ -183,6 +216,29 @@ public class JwtSessionManager extends GenericHeapObject implements SessionManag
                                          sessionTimeout);
         }
 
+        private JwtSessionCipher cipher(final JsonValue evaluated) throws HeapException {
+            if (evaluated.isDefined("sharedSecret")) {
+                if (config.isDefined("keystore")) {
+                    throw new HeapException("'sharedSecret' and 'keystore' attributes cannot be used together");
+                }
+                byte[] secret = Base64.decode(evaluated.get("sharedSecret").asString());
+                if (secret == null) {
+                    throw new HeapException("'sharedSecret' is not a valid base64 encoded key");
+                }
+                try {
+                    return new DirectJwtSessionCipher(secret);
+                } catch (IllegalArgumentException e) {
+                    throw new HeapException(e.getMessage(), e);
+                }
+            }
+
+            int cacheSize = evaluated.get("sessionKeyCacheSize").defaultTo(0).asInteger();
+            if (cacheSize > 0) {
+                return new CachingRsaJwtSessionCipher(keyPair(), cacheSize);
+            }
+            return new RsaJwtSessionCipher(keyPair());
+        }
+
         private KeyPair keyPair() throws HeapException {
             KeyStore keyStore = config.get("keystore").as(optionalHeapObject(heap, KeyStore.class));
             if (keyStore != null) {
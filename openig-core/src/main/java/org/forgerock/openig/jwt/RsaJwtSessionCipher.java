@@ -0,0 +1,65 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.jwt;
+
+import java.security.KeyPair;
+
+import org.forgerock.json.jose.builders.EncryptedJwtBuilder;
+import org.forgerock.json.jose.builders.JwtBuilderFactory;
+import org.forgerock.json.jose.common.JwtReconstruction;
+import org.forgerock.json.jose.jwe.EncryptedJwt;
+import org.forgerock.json.jose.jwe.EncryptionMethod;
+import org.forgerock.json.jose.jwe.JweAlgorithm;
+import org.forgerock.json.jose.jwt.JwtClaimsSet;
+
+/**
+ * Default {@link JwtSessionCipher}: every cookie is encrypted with the {@link JweAlgorithm#RSAES_PKCS1_V1_5}
+ * algorithm and {@link EncryptionMethod#A128CBC_HS256} method, with a new content encryption key.
+ */
+class RsaJwtSessionCipher implements JwtSessionCipher {
+
+    /**
+     * Factory for JWT.
+     */
+    private final JwtBuilderFactory factory = new JwtBuilderFactory();
+
+    /**
+     * Used for decryption/encryption of session's content.
+     */
+    private final KeyPair pair;
+
+    RsaJwtSessionCipher(final KeyPair pair) {
+        this.pair = pair;
+    }
+
+    @Override
+    public JwtClaimsSet decrypt(final String value) {
+        EncryptedJwt jwt = new JwtReconstruction().reconstructJwt(value, EncryptedJwt.class);
+        jwt.decrypt(pair.getPrivate());
+        return jwt.getClaimsSet();
+    }
+
+    @Override
+    public String encrypt(final JwtClaimsSet claims) {
+        EncryptedJwtBuilder jwtBuilder = factory.jwe(pair.getPublic());
+        jwtBuilder.claims(claims);
+        jwtBuilder.headers()
+                  .alg(JweAlgorithm.RSAES_PKCS1_V1_5)
+                  .enc(EncryptionMethod.A128CBC_HS256);
+        return jwtBuilder.build();
+    }
+}
@@ -17,7 +17,7 @@ package org.forgerock.openig.ldap;
 
 import static org.forgerock.opendj.ldap.Connections.newCachedConnectionPool;
 import static org.forgerock.opendj.ldap.LDAPConnectionFactory.HEARTBEAT_ENABLED;
-import static org.forgerock.util.Options.defaultOptions;
+import static org.forgerock.util.Reject.checkNotNull;
 
 import java.util.Collections;
 import java.util.HashMap;
@@ -25,6 +25,7 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
+import org.forgerock.opendj.ldap.Connection;
 import org.forgerock.opendj.ldap.ConnectionFactory;
 import org.forgerock.opendj.ldap.DN;
 import org.forgerock.opendj.ldap.Filter;
@@ -34,18 +35,23 @@ import org.forgerock.opendj.ldap.SearchScope;
 import org.forgerock.services.TransactionId;
 import org.forgerock.services.context.Context;
 import org.forgerock.services.context.TransactionIdContext;
+import org.forgerock.util.Function;
 import org.forgerock.util.Option;
 import org.forgerock.util.Options;
+import org.forgerock.util.promise.Promise;
 
 /**
  * This class acts as a simplified access point into the OpenDJ LDAP SDK. Whilst
  * it is possible for scripts to access the OpenDJ LDAP SDK APIs directly, this
  * class simplifies the most common use cases by exposes fields and methods for:
  * <ul>
- * <li>creating and caching LDAP connections
+ * <li>creating and caching LDAP connections (synchronously or asynchronously)
  * <li>parsing DNs and LDAP filters
  * <li>simple access to LDAP scopes.
  * </ul>
+ * <p>
+ * A client can be bound to a configured {@link LdapConnectionPool}: connections to the pool's LDAP server are then
+ * obtained from that pool, instead of the default pool shared by all the clients.
  */
 public final class LdapClient {
 
@@ -82,8 +88,10 @@ public final class LdapClient {
     }
 
 
-    private final ConcurrentMap<String, ConnectionFactory> factories =
-            new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ConnectionFactory> factories;
+
+    /** Configured pool, or {@code null} if all the connections use the default pools. */
+    private final LdapConnectionPool pool;
 
     /**
      * A map containing the LDAP scopes making it easier to specify scopes
@@ -98,6 +106,21 @@ public final class LdapClient {
             map.put(scope.toString(), scope);
         }
         scope = Collections.unmodifiableMap(map);
+        factories = new ConcurrentHashMap<>();
+        pool = null;
+    }
+
+    /**
+     * Builds a new client using the given pool for the connections to its LDAP server. Connections to other LDAP
+     * servers use the default pools, shared with {@link #getInstance()}.
+     *
+     * @param pool
+     *         the pool of connections to use (not {@code null})
+     */
+    public LdapClient(final LdapConnectionPool pool) {
+        this.scope = INSTANCE.scope;
+        this.factories = INSTANCE.factories;
+        this.pool = checkNotNull(pool);
     }
 
     /**
@@ -141,10 +164,108 @@ public final class LdapClient {
      */
     public LdapConnection connect(final String host, final int port, final Options options)
             throws LdapException {
+        if (pool != null && pool.isConnectedTo(host, port)) {
+            return pool.connect(options.get(TRANSACTIONID_OPTION));
+        }
         final ConnectionFactory factory = getConnectionFactory(host, port, options);
         return new LdapConnection(factory.getConnection(), options.get(TRANSACTIONID_OPTION));
     }
 
+    /**
+     * Returns a connection from the configured {@link LdapConnectionPool}. The returned connection must be closed
+     * once the caller has completed its transaction.
+     *
+     * @return An LDAP connection for the pool's LDAP server.
+     * @throws LdapException If an error occurred while connecting to the LDAP server.
+     * @throws IllegalStateException If this client is not bound to a connection pool.
+     */
+    public LdapConnection connect() throws LdapException {
+        return connect(Options.defaultOptions());
+    }
+
+    /**
+     * Returns a connection from the configured {@link LdapConnectionPool}. The returned connection must be closed
+     * once the caller has completed its transaction.
+     *
+     * @param options The LDAP options (only the transaction ID is considered).
+     * @return An LDAP connection for the pool's LDAP server.
+     * @throws LdapException If an error occurred while connecting to the LDAP server.
+     * @throws IllegalStateException If this client is not bound to a connection pool.
+     */
+    public LdapConnection connect(final Options options) throws LdapException {
+        return configuredPool().connect(options.get(TRANSACTIONID_OPTION));
+    }
+
+    /**
+     * Asynchronously returns an LDAP connection for the specified LDAP server. The returned connection must be
+     * closed once the caller has completed its transaction.
+     *
+     * @param host The LDAP server host name.
+     * @param port The LDAP server port.
+     * @return A promise of an LDAP connection for the specified LDAP server.
+     * @see #connect(String, int)
+     */
+    public Promise<LdapConnection, LdapException> connectAsync(final String host, final int port) {
+        return connectAsync(host, port, Options.defaultOptions());
+    }
+
+    /**
+     * Asynchronously returns an LDAP connection for the specified LDAP server using the provided LDAP options.
+     * The returned connection must be closed once the caller has completed its transaction.
+     *
+     * @param host The LDAP server host name.
+     * @param port The LDAP server port.
+     * @param options The LDAP options.
+     * @return A promise of an LDAP connection for the specified LDAP server.
+     * @see #connect(String, int, Options)
+     */
+    public Promise<LdapConnection, LdapException> connectAsync(final String host,
+                                                               final int port,
+                                                               final Options options) {
+        final TransactionId transactionId = options.get(TRANSACTIONID_OPTION);
+        if (pool != null && pool.isConnectedTo(host, port)) {
+            return pool.connectAsync(transactionId);
+        }
+        final ConnectionFactory factory = getConnectionFactory(host, port, options);
+        return factory.getConnectionAsync()
+                      .then(new Function<Connection, LdapConnection, LdapException>() {
+                          @Override
+                          public LdapConnection apply(final Connection connection) {
+                              return new LdapConnection(connection, transactionId);
+                          }
+                      });
+    }
+
+    /**
+     * Asynchronously returns a connection from the configured {@link LdapConnectionPool}. The returned connection
+     * must be closed once the caller has completed its transaction.
+     *
+     * @return A promise of an LDAP connection for the pool's LDAP server.
+     * @throws IllegalStateException If this client is not bound to a connection pool.
+     */
+    public Promise<LdapConnection, LdapException> connectAsync() {
+        return connectAsync(Options.defaultOptions());
+    }
+
+    /**
+     * Asynchronously returns a connection from the configured {@link LdapConnectionPool}. The returned connection
+     * must be closed once the caller has completed its transaction.
+     *
+     * @param options The LDAP options (only the transaction ID is considered).
+     * @return A promise of an LDAP connection for the pool's LDAP server.
+     * @throws IllegalStateException If this client is not bound to a connection pool.
+     */
+    public Promise<LdapConnection, LdapException> connectAsync(final Options options) {
+        return configuredPool().connectAsync(options.get(TRANSACTIONID_OPTION));
+    }
+
+    private LdapConnectionPool configuredPool() {
+        if (pool == null) {
+            throw new IllegalStateException("This LDAP client is not bound to a connection pool");
+        }
+        return pool;
+    }
+
     /**
      * Formats an LDAP distinguished name using the provided template and
      * attribute values. Values will be safely escaped in order to avoid
@@ -196,10 +317,13 @@ public final class LdapClient {
 
     @Override
     protected void finalize() throws Throwable {
-        for (ConnectionFactory factory : factories.values()) {
-            factory.close();
+        // The default pools are shared with the clients bound to a configured pool
+        if (pool == null) {
+            for (ConnectionFactory factory : factories.values()) {
+                factory.close();
+            }
+            factories.clear();
         }
-        factories.clear();
         super.finalize();
     }
 }
@@ -11,7 +11,7 @@
  * Header, with the fields enclosed by brackets [] replaced by your own identifying
  * information: "Portions copyright [year] [name of copyright owner]".
  *
- * Copyright 2014-2015 ForgeRock AS.
+ * Copyright 2014-2016 ForgeRock AS.
  */
 package org.forgerock.openig.ldap;
 
@@ -24,12 +24,17 @@ import static org.forgerock.opendj.ldap.requests.Requests.newSearchRequest;
 import static org.forgerock.opendj.ldap.requests.Requests.newSimpleBindRequest;
 
 import java.io.Closeable;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.forgerock.opendj.ldap.Connection;
 import org.forgerock.opendj.ldap.DN;
 import org.forgerock.opendj.ldap.Entry;
+import org.forgerock.opendj.ldap.Filter;
 import org.forgerock.opendj.ldap.LdapException;
+import org.forgerock.opendj.ldap.SearchResultHandler;
 import org.forgerock.opendj.ldap.SearchScope;
 import org.forgerock.opendj.ldap.controls.SubtreeDeleteRequestControl;
 import org.forgerock.opendj.ldap.requests.AddRequest;
@@ -47,25 +52,54 @@ import org.forgerock.opendj.ldap.responses.SearchResultEntry;
 import org.forgerock.opendj.ldap.responses.SearchResultReference;
 import org.forgerock.opendj.ldif.ConnectionEntryReader;
 import org.forgerock.services.TransactionId;
+import org.forgerock.util.Function;
+import org.forgerock.util.promise.Promise;
 
 import com.forgerock.opendj.ldap.controls.TransactionIdControl;
 
 /**
- * Provides an adapted view of an OpenDJ LDAP connection exposing only the
- * synchronous methods and protecting against future evolution of the
- * {@link Connection} interface (e.g. migration to Promises).
+ * Provides an adapted view of an OpenDJ LDAP connection exposing the
+ * synchronous methods, along with asynchronous counterparts (suffixed with
+ * {@code Async}) returning {@link Promise}s, and protecting against future
+ * evolution of the {@link Connection} interface.
+ * <p>
+ * The asynchronous methods never block the calling thread: scripts can chain
+ * their processing on the returned promises, for example:
+ *
+ * <pre>
+ * {@code
+ * connection.searchSingleEntryAsync(baseDN, ldap.scope.sub, filter)
+ *           .thenAsync({ user -> next.handle(context, request) } as AsyncFunction)
+ *           .thenAlways({ connection.close() })
+ * }
+ * </pre>
  */
 public final class LdapConnection implements Closeable {
     private final Connection connection;
     private final TransactionId rootTransactionId;
+    /** The pool this connection has been obtained from, if any. */
+    private final LdapConnectionPool pool;
+    /** The cache of the single entry lookups, if any. */
+    private final LdapSearchCache searchCache;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    /** {@literal true} once a bind request has been sent through this connection. */
+    private volatile boolean bound;
 
     LdapConnection(final Connection connection) {
         this(connection, null);
     }
 
     LdapConnection(final Connection connection, final TransactionId rootTransactionId) {
+        this(connection, rootTransactionId, null);
+    }
+
+    LdapConnection(final Connection connection,
+                   final TransactionId rootTransactionId,
+                   final LdapConnectionPool pool) {
         this.connection = connection;
         this.rootTransactionId = rootTransactionId;
+        this.pool = pool;
+        this.searchCache = (pool != null) ? pool.getSearchCache() : null;
     }
 
     /**
@@ -82,7 +116,11 @@ public final class LdapConnection implements Closeable {
      */
     public Result add(AddRequest request) throws LdapException {
         addTransactionIdControl(request);
-        return connection.add(request);
+        try {
+            return connection.add(request);
+        } finally {
+            invalidate(request.getName());
+        }
     }
 
     /**
@@ -149,6 +187,21 @@ public final class LdapConnection implements Closeable {
         return add(newAddRequest(ldifLines));
     }
 
+    /**
+     * Asynchronously adds an entry to the Directory Server using the provided
+     * add request.
+     *
+     * @param request The add request.
+     * @return A promise of the result of the operation, failed with an
+     * {@link LdapException} if the result code indicates that the request
+     * failed for some reason.
+     * @see #add(AddRequest)
+     */
+    public Promise<Result, LdapException> addAsync(AddRequest request) {
+        addTransactionIdControl(request);
+        return invalidateOnCompletion(connection.addAsync(request), request.getName());
+    }
+
     /**
      * Authenticates to the Directory Server using the provided bind request.
      *
@@ -163,6 +216,7 @@ public final class LdapConnection implements Closeable {
      */
     public BindResult bind(BindRequest request) throws LdapException {
         addTransactionIdControl(request);
+        bound = true;
         return connection.bind(request);
     }
 
@@ -204,6 +258,39 @@ public final class LdapConnection implements Closeable {
         return bind(newSimpleBindRequest(name, password));
     }
 
+    /**
+     * Asynchronously authenticates to the Directory Server using the provided
+     * bind request.
+     *
+     * @param request The bind request.
+     * @return A promise of the result of the operation, failed with an
+     * {@link LdapException} if the result code indicates that the request
+     * failed for some reason.
+     * @see #bind(BindRequest)
+     */
+    public Promise<BindResult, LdapException> bindAsync(BindRequest request) {
+        addTransactionIdControl(request);
+        bound = true;
+        return connection.bindAsync(request);
+    }
+
+    /**
+     * Asynchronously authenticates to the Directory Server using simple
+     * authentication and the provided user name and password.
+     *
+     * @param name The distinguished name of the Directory object that the client
+     * wishes to bind as, which may be empty.
+     * @param password The password of the Directory object that the client wishes
+     * to bind as, which may be empty.
+     * @return A promise of the result of the operation, failed with an
+     * {@link LdapException} if the result code indicates that the request
+     * failed for some reason.
+     * @see #bind(String, char[])
+     */
+    public Promise<BindResult, LdapException> bindAsync(String name, char[] password) {
+        return bindAsync(newSimpleBindRequest(name, password));
+    }
+
     /**
      * Releases any resources associated with this connection. For physical
      * connections to a Directory Server this will mean that an unbind request
@@ -225,12 +312,41 @@ public final class LdapConnection implements Closeable {
      * <p>
      * Calling {@code close} on a connection that is already closed has no
      * effect.
+     * <p>
+     * A pooled connection that has been re-bound is first bound anonymously again, so that it is returned to its pool
+     * with the pool's identity.
      *
      * @see org.forgerock.opendj.ldap.Connections#uncloseable(Connection)
      */
     @Override
     public void close() {
+        if (pool == null) {
+            connection.close();
+            return;
+        }
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        if (!bound) {
+            release();
+            return;
+        }
+        // The pooled connection is still authenticated as the re-bound user: restore the (anonymous) identity of
+        // the pool before handing it back, so that the next lease neither acts as that user nor caches its results.
+        // A failed bind also leaves the connection anonymous (RFC 4511, section 4.2.1), and a broken connection is
+        // discarded by the pool, so the connection is released whatever the outcome.
+        connection.bindAsync(newSimpleBindRequest())
+                  .thenAlways(new Runnable() {
+                      @Override
+                      public void run() {
+                          release();
+                      }
+                  });
+    }
+
+    private void release() {
         connection.close();
+        pool.released();
     }
 
     /**
@@ -291,6 +407,21 @@ public final class LdapConnection implements Closeable {
         return compare(newCompareRequest(name, attributeDescription, assertionValue));
     }
 
+    /**
+     * Asynchronously compares an entry in the Directory Server using the
+     * provided compare request.
+     *
+     * @param request The compare request.
+     * @return A promise of the result of the operation, failed with an
+     * {@link LdapException} if the result code indicates that the request
+     * failed for some reason.
+     * @see #compare(CompareRequest)
+     */
+    public Promise<CompareResult, LdapException> compareAsync(CompareRequest request) {
+        addTransactionIdControl(request);
+        return connection.compareAsync(request);
+    }
+
     /**
      * Deletes an entry from the Directory Server using the provided delete
      * request.
@@ -306,7 +437,11 @@ public final class LdapConnection implements Closeable {
      */
     public Result delete(DeleteRequest request) throws LdapException {
         addTransactionIdControl(request);
-        return connection.delete(request);
+        try {
+            return connection.delete(request);
+        } finally {
+            invalidate(request.getName());
+        }
     }
 
     /**
@@ -377,6 +512,21 @@ public final class LdapConnection implements Closeable {
         return delete(newDeleteRequest(name).addControl(SubtreeDeleteRequestControl.newControl(true)));
     }
 
+    /**
+     * Asynchronously deletes an entry from the Directory Server using the
+     * provided delete request.
+     *
+     * @param request The delete request.
+     * @return A promise of the result of the operation, failed with an
+     * {@link LdapException} if the result code indicates that the request
+     * failed for some reason.
+     * @see #delete(DeleteRequest)
+     */
+    public Promise<Result, LdapException> deleteAsync(DeleteRequest request) {
+        addTransactionIdControl(request);
+        return invalidateOnCompletion(connection.deleteAsync(request), request.getName());
+    }
+
     /**
      * Modifies an entry in the Directory Server using the provided modify
      * request.
@@ -392,7 +542,11 @@ public final class LdapConnection implements Closeable {
      */
     public Result modify(ModifyRequest request) throws LdapException {
         addTransactionIdControl(request);
-        return connection.modify(request);
+        try {
+            return connection.modify(request);
+        } finally {
+            invalidate(request.getName());
+        }
     }
 
     /**
@@ -430,6 +584,21 @@ public final class LdapConnection implements Closeable {
         return modify(newModifyRequest(ldifLines));
     }
 
+    /**
+     * Asynchronously modifies an entry in the Directory Server using the
+     * provided modify request.
+     *
+     * @param request The modify request.
+     * @return A promise of the result of the operation, failed with an
+     * {@link LdapException} if the result code indicates that the request
+     * failed for some reason.
+     * @see #modify(ModifyRequest)
+     */
+    public Promise<Result, LdapException> modifyAsync(ModifyRequest request) {
+        addTransactionIdControl(request);
+        return invalidateOnCompletion(connection.modifyAsync(request), request.getName());
+    }
+
     /**
      * Renames an entry in the Directory Server using the provided modify DN
      * request.
@@ -445,7 +614,11 @@ public final class LdapConnection implements Closeable {
      */
     public Result modifyDN(ModifyDNRequest request) throws LdapException {
         addTransactionIdControl(request);
-        return connection.modifyDN(request);
+        try {
+            return connection.modifyDN(request);
+        } finally {
+            invalidate(request.getName());
+        }
     }
 
     /**
@@ -484,6 +657,21 @@ public final class LdapConnection implements Closeable {
         return modifyDN(newModifyDNRequest(name, newRDN));
     }
 
+    /**
+     * Asynchronously renames an entry in the Directory Server using the
+     * provided modify DN request.
+     *
+     * @param request The modify DN request.
+     * @return A promise of the result of the operation, failed with an
+     * {@link LdapException} if the result code indicates that the request
+     * failed for some reason.
+     * @see #modifyDN(ModifyDNRequest)
+     */
+    public Promise<Result, LdapException> modifyDNAsync(ModifyDNRequest request) {
+        addTransactionIdControl(request);
+        return invalidateOnCompletion(connection.modifyDNAsync(request), request.getName());
+    }
+
     /**
      * Reads the named entry from the Directory Server.
      * <p>
@@ -521,6 +709,10 @@ public final class LdapConnection implements Closeable {
      */
     public SearchResultEntry readEntry(DN name, String... attributeDescriptions)
             throws LdapException {
+        if (isCaching()) {
+            return searchSingleEntry(newSearchRequest(name, SearchScope.BASE_OBJECT, Filter.objectClassPresent(),
+                                                      attributeDescriptions));
+        }
         return connection.readEntry(name, attributeDescriptions);
     }
 
@@ -562,9 +754,30 @@ public final class LdapConnection implements Closeable {
      */
     public SearchResultEntry readEntry(String name, String... attributeDescriptions)
             throws LdapException {
+        if (isCaching()) {
+            return searchSingleEntry(newSearchRequest(name, SearchScope.BASE_OBJECT, "(objectClass=*)",
+                                                      attributeDescriptions));
+        }
         return connection.readEntry(name, attributeDescriptions);
     }
 
+    /**
+     * Asynchronously reads the named entry from the Directory Server.
+     *
+     * @param name
+     *            The distinguished name of the entry to be read.
+     * @param attributeDescriptions
+     *            The names of the attributes to be included with the entry.
+     * @return A promise of the entry, failed with an
+     *         {@link org.forgerock.opendj.ldap.EntryNotFoundException} if the
+     *         requested entry is not returned by the Directory Server.
+     * @see #readEntry(String, String...)
+     */
+    public Promise<SearchResultEntry, LdapException> readEntryAsync(String name, String... attributeDescriptions) {
+        return searchSingleEntryAsync(newSearchRequest(name, SearchScope.BASE_OBJECT, "(objectClass=*)",
+                                                       attributeDescriptions));
+    }
+
     /**
      * Searches the Directory Server using the provided search parameters. Any
      * matching entries returned by the search will be exposed through the
@@ -715,6 +928,69 @@ public final class LdapConnection implements Closeable {
         return search(newSearchRequest(baseObject, scope, filter, attributeDescriptions));
     }
 
+    /**
+     * Asynchronously searches the Directory Server using the provided search
+     * request. The matching entries are collected in memory, search result
+     * references are discarded.
+     * <p>
+     * <b>Warning:</b> Usage of this method is discouraged if the search request
+     * is expected to yield a large number of search results since the entire
+     * set of results will be stored in memory.
+     *
+     * @param request
+     *            The search request.
+     * @return A promise of the matching entries, failed with an
+     *         {@link LdapException} if the result code indicates that the
+     *         request failed for some reason.
+     * @see #search(SearchRequest, Collection)
+     */
+    public Promise<List<SearchResultEntry>, LdapException> searchAsync(SearchRequest request) {
+        addTransactionIdControl(request);
+        final List<SearchResultEntry> entries = new ArrayList<>();
+        return connection.searchAsync(request, new SearchResultHandler() {
+            @Override
+            public boolean handleEntry(final SearchResultEntry entry) {
+                entries.add(entry);
+                return true;
+            }
+
+            @Override
+            public boolean handleReference(final SearchResultReference reference) {
+                return true;
+            }
+        }).then(new Function<Result, List<SearchResultEntry>, LdapException>() {
+            @Override
+            public List<SearchResultEntry> apply(final Result result) {
+                return entries;
+            }
+        });
+    }
+
+    /**
+     * Asynchronously searches the Directory Server using the provided search
+     * parameters. The matching entries are collected in memory.
+     *
+     * @param baseObject
+     *            The distinguished name of the base entry relative to which the
+     *            search is to be performed.
+     * @param scope
+     *            The scope of the search.
+     * @param filter
+     *            The filter that defines the conditions that must be fulfilled
+     *            in order for an entry to be returned.
+     * @param attributeDescriptions
+     *            The names of the attributes to be included with each entry.
+     * @return A promise of the matching entries, failed with an
+     *         {@link LdapException} if the result code indicates that the
+     *         request failed for some reason.
+     * @see #searchAsync(SearchRequest)
+     */
+    public Promise<List<SearchResultEntry>, LdapException> searchAsync(String baseObject, SearchScope scope,
+                                                                        String filter,
+                                                                        String... attributeDescriptions) {
+        return searchAsync(newSearchRequest(baseObject, scope, filter, attributeDescriptions));
+    }
+
     /**
      * Searches the Directory Server for a single entry using the provided
      * search request.
@@ -741,6 +1017,9 @@ public final class LdapConnection implements Closeable {
      */
     public SearchResultEntry searchSingleEntry(SearchRequest request) throws LdapException {
         addTransactionIdControl(request);
+        if (isCaching()) {
+            return searchCache.searchSingleEntry(connection, request).getOrThrowUninterruptibly();
+        }
         return connection.searchSingleEntry(request);
     }
 
@@ -795,6 +1074,74 @@ public final class LdapConnection implements Closeable {
         return searchSingleEntry(newSearchRequest(baseObject, scope, filter, attributeDescriptions));
     }
 
+    /**
+     * Asynchronously searches the Directory Server for a single entry using
+     * the provided search request.
+     *
+     * @param request
+     *            The search request.
+     * @return A promise of the single search result entry, failed with an
+     *         {@link org.forgerock.opendj.ldap.EntryNotFoundException} if no
+     *         entry matches, or with an
+     *         {@link org.forgerock.opendj.ldap.MultipleEntriesFoundException}
+     *         if several entries match.
+     * @see #searchSingleEntry(SearchRequest)
+     */
+    public Promise<SearchResultEntry, LdapException> searchSingleEntryAsync(SearchRequest request) {
+        addTransactionIdControl(request);
+        if (isCaching()) {
+            return searchCache.searchSingleEntry(connection, request);
+        }
+        return connection.searchSingleEntryAsync(request);
+    }
+
+    /**
+     * Asynchronously searches the Directory Server for a single entry using
+     * the provided search parameters.
+     *
+     * @param baseObject
+     *            The distinguished name of the base entry relative to which the
+     *            search is to be performed.
+     * @param scope
+     *            The scope of the search.
+     * @param filter
+     *            The filter that defines the conditions that must be fulfilled
+     *            in order for an entry to be returned.
+     * @param attributeDescriptions
+     *            The names of the attributes to be included with each entry.
+     * @return A promise of the single search result entry.
+     * @see #searchSingleEntryAsync(SearchRequest)
+     */
+    public Promise<SearchResultEntry, LdapException> searchSingleEntryAsync(String baseObject, SearchScope scope,
+                                                                             String filter,
+                                                                             String... attributeDescriptions) {
+        return searchSingleEntryAsync(newSearchRequest(baseObject, scope, filter, attributeDescriptions));
+    }
+
+    private boolean isCaching() {
+        // Results obtained with another identity than the pool's one are never cached
+        return searchCache != null && !bound;
+    }
+
+    private void invalidate(final DN dn) {
+        if (searchCache != null) {
+            searchCache.invalidate(dn);
+        }
+    }
+
+    private <V> Promise<V, LdapException> invalidateOnCompletion(final Promise<V, LdapException> promise,
+                                                                 final DN dn) {
+        if (searchCache == null) {
+            return promise;
+        }
+        return promise.thenAlways(new Runnable() {
+            @Override
+            public void run() {
+                searchCache.invalidate(dn);
+            }
+        });
+    }
+
     private void addTransactionIdControl(Request request) {
         if (rootTransactionId != null && !request.containsControl(TransactionIdControl.OID)) {
             request.addControl(TransactionIdControl.newControl(rootTransactionId.createSubTransactionId().getValue()));
@@ -0,0 +1,377 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+
+package org.forgerock.openig.ldap;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.forgerock.json.JsonValueFunctions.duration;
+import static org.forgerock.json.resource.Resources.newSingleton;
+import static org.forgerock.json.resource.http.CrestHttp.newHttpHandler;
+import static org.forgerock.opendj.ldap.Connections.newCachedConnectionPool;
+import static org.forgerock.opendj.ldap.LDAPConnectionFactory.CONNECT_TIMEOUT;
+import static org.forgerock.opendj.ldap.LDAPConnectionFactory.HEARTBEAT_ENABLED;
+import static org.forgerock.opendj.ldap.LDAPConnectionFactory.HEARTBEAT_INTERVAL;
+import static org.forgerock.openig.heap.Keys.SCHEDULED_EXECUTOR_SERVICE_HEAP_KEY;
+import static org.forgerock.openig.heap.Keys.TIME_SERVICE_HEAP_KEY;
+import static org.forgerock.openig.util.JsonValues.evaluated;
+import static org.forgerock.openig.util.JsonValues.requiredHeapObject;
+
+import java.io.Closeable;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.json.JsonValue;
+import org.forgerock.opendj.ldap.Connection;
+import org.forgerock.opendj.ldap.ConnectionFactory;
+import org.forgerock.opendj.ldap.LDAPConnectionFactory;
+import org.forgerock.opendj.ldap.LdapException;
+import org.forgerock.openig.heap.GenericHeaplet;
+import org.forgerock.openig.heap.HeapException;
+import org.forgerock.openig.http.EndpointRegistry;
+import org.forgerock.services.TransactionId;
+import org.forgerock.util.Function;
+import org.forgerock.util.Options;
+import org.forgerock.util.promise.ExceptionHandler;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.time.Duration;
+import org.forgerock.util.time.TimeService;
+
+/**
+ * A configurable pool of connections to a single LDAP server.
+ * <p>
+ * Connections are created on demand, up to the maximum size of the pool: once it is reached, connection requests
+ * wait (asynchronously when using {@link #connectAsync(TransactionId)}) for a connection to be released. Connections
+ * idle for longer than the idle timeout are closed (down to the core size of the pool), and idle connections are
+ * kept alive (and checked) with heart-beats.
+ *
+ * <pre>
+ *     {@code
+ *     {
+ *         "type": "LdapConnectionPool",
+ *         "config": {
+ *             "host":              expression   [REQUIRED]
+ *             "port":              integer      [OPTIONAL - default to 389]
+ *             "coreSize":          integer      [OPTIONAL - default to 0]
+ *             "maxSize":           integer      [OPTIONAL - default to 10]
+ *             "idleTimeout":       duration     [OPTIONAL - default to '1 minute']
+ *             "heartbeatInterval": duration     [OPTIONAL - default to '10 seconds', 'zero' to disable]
+ *             "connectTimeout":    duration     [OPTIONAL - default to the LDAP SDK default]
+ *             "searchCache": {                  [OPTIONAL - no caching by default]
+ *                 "maxSize":       integer      [OPTIONAL - default to 10000]
+ *                 "ttl":           duration     [OPTIONAL - default to '1 minute']
+ *                 "negativeTtl":   duration     [OPTIONAL - default to '10 seconds']
+ *                 "executor":      reference    [OPTIONAL - default to the heap's ScheduledExecutorService]
+ *             }
+ *         }
+ *     }
+ *     }
+ * </pre>
+ * <p>
+ * The pool statistics (active connections, peak, acquisitions and failures) are exposed (read-only) on the
+ * {@literal pool} endpoint of the heap object.
+ * <p>
+ * When a {@literal searchCache} is configured, single entry lookups ({@code readEntry()} and
+ * {@code searchSingleEntry()}) issued through the connections of this pool are served from a {@link LdapSearchCache},
+ * including the "no such entry" outcomes (for the {@literal negativeTtl} duration). Write operations sent through
+ * the pool evict the cached entries of the modified sub-tree; changes made by other LDAP clients are only visible
+ * once the cached entries expire. Connections that have been re-bound (with another identity) bypass the cache, and
+ * are bound anonymously again when they are closed, before being returned to the pool.
+ * <p>
+ * Scriptable heap objects referencing a pool (through their {@literal ldapConnectionPool} attribute) use it for
+ * their connections to the same LDAP server.
+ */
+public class LdapConnectionPool implements Closeable {
+
+    /** Default maximum number of connections. */
+    public static final int DEFAULT_MAX_SIZE = 10;
+
+    private final String host;
+    private final int port;
+    private final int maxSize;
+    private final ConnectionFactory factory;
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger peak = new AtomicInteger();
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    private volatile LdapSearchCache searchCache;
+
+    /**
+     * Builds a new pool of connections to the given LDAP server.
+     *
+     * @param host
+     *         LDAP server host name
+     * @param port
+     *         LDAP server port
+     * @param coreSize
+     *         number of connections kept open, even when idle
+     * @param maxSize
+     *         maximum number of connections
+     * @param idleTimeout
+     *         time after which idle connections (exceeding the core size) are closed
+     * @param options
+     *         LDAP options (heart-beat, timeouts, SSL, ...)
+     */
+    public LdapConnectionPool(final String host,
+                              final int port,
+                              final int coreSize,
+                              final int maxSize,
+                              final Duration idleTimeout,
+                              final Options options) {
+        this.host = host;
+        this.port = port;
+        this.maxSize = maxSize;
+        this.factory = newCachedConnectionPool(new LDAPConnectionFactory(host, port, options),
+                                               coreSize,
+                                               maxSize,
+                                               idleTimeout.to(MILLISECONDS),
+                                               MILLISECONDS);
+    }
+
+    /**
+     * Returns a connection from this pool, waiting for a connection to be released if the pool is exhausted. The
+     * returned connection must be closed once the caller has completed its transaction.
+     *
+     * @param transactionId
+     *         the transaction to attach the LDAP requests to (may be {@code null})
+     * @return a connection to the LDAP server
+     * @throws LdapException
+     *         If an error occurred while connecting to the LDAP server.
+     */
+    public LdapConnection connect(final TransactionId transactionId) throws LdapException {
+        final Connection connection;
+        try {
+            connection = factory.getConnection();
+        } catch (LdapException e) {
+            failures.incrementAndGet();
+            throw e;
+        }
+        return acquired(connection, transactionId);
+    }
+
+    /**
+     * Asynchronously returns a connection from this pool. The promise is completed once a connection is available.
+     * The returned connection must be closed once the caller has completed its transaction.
+     *
+     * @param transactionId
+     *         the transaction to attach the LDAP requests to (may be {@code null})
+     * @return a promise of a connection to the LDAP server
+     */
+    public Promise<LdapConnection, LdapException> connectAsync(final TransactionId transactionId) {
+        return factory.getConnectionAsync()
+                      .thenOnException(new ExceptionHandler<LdapException>() {
+                          @Override
+                          public void handleException(final LdapException exception) {
+                              failures.incrementAndGet();
+                          }
+                      })
+                      .then(new Function<Connection, LdapConnection, LdapException>() {
+                          @Override
+                          public LdapConnection apply(final Connection connection) {
+                              return acquired(connection, transactionId);
+                          }
+                      });
+    }
+
+    private LdapConnection acquired(final Connection connection, final TransactionId transactionId) {
+        acquired.incrementAndGet();
+        int count = active.incrementAndGet();
+        int max = peak.get();
+        while (count > max && !peak.compareAndSet(max, count)) {
+            max = peak.get();
+        }
+        return new LdapConnection(connection, transactionId, this);
+    }
+
+    /**
+     * Called when a connection obtained from this pool is closed.
+     */
+    void released() {
+        active.decrementAndGet();
+    }
+
+    /**
+     * Returns {@literal true} if this pool connects to the given LDAP server.
+     *
+     * @param host
+     *         LDAP server host name
+     * @param port
+     *         LDAP server port
+     * @return {@literal true} if this pool connects to the given LDAP server
+     */
+    public boolean isConnectedTo(final String host, final int port) {
+        return this.port == port && this.host.equalsIgnoreCase(host);
+    }
+
+    /**
+     * Returns the cache of the single entry lookups issued through the connections of this pool.
+     *
+     * @return the search cache of this pool, or {@code null} if lookups are not cached
+     */
+    public LdapSearchCache getSearchCache() {
+        return searchCache;
+    }
+
+    /**
+     * Sets the cache of the single entry lookups issued through the connections of this pool. Only the connections
+     * obtained after this call use the cache.
+     *
+     * @param searchCache
+     *         the search cache to use (may be {@code null} to disable caching)
+     */
+    public void setSearchCache(final LdapSearchCache searchCache) {
+        this.searchCache = searchCache;
+    }
+
+    /**
+     * Returns the maximum number of connections of this pool.
+     *
+     * @return the maximum number of connections of this pool
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of connections currently in use.
+     *
+     * @return the number of connections currently in use
+     */
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    /**
+     * Returns the highest number of connections simultaneously in use.
+     *
+     * @return the highest number of connections simultaneously in use
+     */
+    public int getPeakActiveCount() {
+        return peak.get();
+    }
+
+    /**
+     * Returns the number of connections obtained from this pool.
+     *
+     * @return the number of connections obtained from this pool
+     */
+    public long getAcquiredCount() {
+        return acquired.get();
+    }
+
+    /**
+     * Returns the number of failed connection attempts.
+     *
+     * @return the number of failed connection attempts
+     */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * Closes this pool and its idle connections: connections still in use are closed when released.
+     */
+    @Override
+    public void close() {
+        factory.close();
+    }
+
+    /**
+     * Creates and initializes a LDAP connection pool in a heap environment.
+     */
+    public static class Heaplet extends GenericHeaplet {
+
+        private EndpointRegistry.Registration registration;
+        private ScheduledFuture<?> cleanUp;
+
+        @Override
+        public Object create() throws HeapException {
+            JsonValue evaluated = config.as(evaluated());
+            String host = evaluated.get("host").required().asString();
+            int port = evaluated.get("port").defaultTo(389).asInteger();
+            int coreSize = evaluated.get("coreSize").defaultTo(0).asInteger();
+            int maxSize = evaluated.get("maxSize").defaultTo(DEFAULT_MAX_SIZE).asInteger();
+            if (coreSize < 0 || maxSize <= 0 || coreSize > maxSize) {
+                throw new HeapException("'maxSize' must be strictly positive, and greater than or equal to 'coreSize'");
+            }
+            Duration idleTimeout = evaluated.get("idleTimeout").defaultTo("1 minute").as(duration());
+
+            Options options = Options.defaultOptions();
+            Duration heartbeat = evaluated.get("heartbeatInterval").defaultTo("10 seconds").as(duration());
+            if (heartbeat.isZero() || heartbeat.isUnlimited()) {
+                options.set(HEARTBEAT_ENABLED, false);
+            } else {
+                options.set(HEARTBEAT_ENABLED, true);
+                options.set(HEARTBEAT_INTERVAL, heartbeat);
+            }
+            if (evaluated.isDefined("connectTimeout")) {
+                options.set(CONNECT_TIMEOUT, evaluated.get("connectTimeout").as(duration()));
+            }
+
+            LdapConnectionPool pool = new LdapConnectionPool(host, port, coreSize, maxSize, idleTimeout, options);
+            JsonValue cacheConfig = config.get("searchCache");
+            if (cacheConfig.isNotNull()) {
+                pool.setSearchCache(createSearchCache(cacheConfig));
+            }
+            registration = endpointRegistry().register("pool",
+                                                       newHttpHandler(newSingleton(
+                                                               new LdapConnectionPoolResourceProvider(pool))));
+            return pool;
+        }
+
+        private LdapSearchCache createSearchCache(final JsonValue cacheConfig) throws HeapException {
+            JsonValue evaluated = cacheConfig.as(evaluated());
+            int maxSize = evaluated.get("maxSize").defaultTo(LdapSearchCache.DEFAULT_MAX_SIZE).asInteger();
+            Duration ttl = evaluated.get("ttl").defaultTo("1 minute").as(duration());
+            Duration negativeTtl = evaluated.get("negativeTtl").defaultTo("10 seconds").as(duration());
+            if (maxSize <= 0 || ttl.isZero() || ttl.isUnlimited() || negativeTtl.isUnlimited()) {
+                throw new HeapException("The search cache requires a strictly positive 'maxSize' and a bounded 'ttl'");
+            }
+            ScheduledExecutorService executor = cacheConfig.get("executor")
+                                                           .defaultTo(SCHEDULED_EXECUTOR_SERVICE_HEAP_KEY)
+                                                           .as(requiredHeapObject(heap,
+                                                                                  ScheduledExecutorService.class));
+            LdapSearchCache cache = new LdapSearchCache(heap.get(TIME_SERVICE_HEAP_KEY, TimeService.class),
+                                                        maxSize,
+                                                        ttl,
+                                                        negativeTtl);
+            cleanUp = cache.scheduleCleanUp(executor);
+            return cache;
+        }
+
+        @Override
+        public void destroy() {
+            if (registration != null) {
+                registration.unregister();
+            }
+            if (cleanUp != null) {
+                cleanUp.cancel(false);
+            }
+            if (object != null) {
+                LdapConnectionPool pool = (LdapConnectionPool) object;
+                if (pool.getSearchCache() != null) {
+                    pool.getSearchCache().clear();
+                }
+                pool.close();
+            }
+            super.destroy();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+
+package org.forgerock.openig.ldap;
+
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+
+import org.forgerock.json.JsonValue;
+import org.forgerock.json.resource.ActionRequest;
+import org.forgerock.json.resource.ActionResponse;
+import org.forgerock.json.resource.NotSupportedException;
+import org.forgerock.json.resource.PatchRequest;
+import org.forgerock.json.resource.ReadRequest;
+import org.forgerock.json.resource.ResourceException;
+import org.forgerock.json.resource.ResourceResponse;
+import org.forgerock.json.resource.Responses;
+import org.forgerock.json.resource.SingletonResourceProvider;
+import org.forgerock.json.resource.UpdateRequest;
+import org.forgerock.services.context.Context;
+import org.forgerock.util.promise.Promise;
+
+/**
+ * Expose the statistics of a {@link LdapConnectionPool} as a REST resource.
+ * This resource only supports read typed operations.
+ */
+class LdapConnectionPoolResourceProvider implements SingletonResourceProvider {
+
+    private final LdapConnectionPool pool;
+
+    LdapConnectionPoolResourceProvider(final LdapConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public Promise<ResourceResponse, ResourceException> readInstance(final Context context, final ReadRequest request) {
+        JsonValue data = json(object(field("maxSize", pool.getMaxSize()),
+                                     field("active", pool.getActiveCount()),
+                                     field("peakActive", pool.getPeakActiveCount()),
+                                     field("acquired", pool.getAcquiredCount()),
+                                     field("failures", pool.getFailureCount())));
+        LdapSearchCache cache = pool.getSearchCache();
+        if (cache != null) {
+            data.put("searchCache", object(field("size", cache.size()),
+                                           field("hits", cache.getHitCount()),
+                                           field("misses", cache.getMissCount()),
+                                           field("hitRatio", cache.getHitRatio()),
+                                           field("evictions", cache.getEvictionCount())));
+        }
+        return Responses.newResourceResponse(null, null, data).asPromise();
+    }
+
+    @Override
+    public Promise<ActionResponse, ResourceException> actionInstance(final Context context,
+                                                                     final ActionRequest request) {
+        return new NotSupportedException("Action is not supported by this resource").asPromise();
+    }
+
+    @Override
+    public Promise<ResourceResponse, ResourceException> patchInstance(final Context context,
+                                                                      final PatchRequest request) {
+        return new NotSupportedException("Patch is not supported by this resource").asPromise();
+    }
+
+    @Override
+    public Promise<ResourceResponse, ResourceException> updateInstance(final Context context,
+                                                                       final UpdateRequest request) {
+        return new NotSupportedException("Update is not supported by this resource").asPromise();
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+
+package org.forgerock.openig.ldap;
+
+import static org.forgerock.opendj.ldap.LdapException.newLdapException;
+import static org.forgerock.opendj.ldap.responses.Responses.copyOfSearchResultEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+
+import org.forgerock.opendj.ldap.Connection;
+import org.forgerock.opendj.ldap.DN;
+import org.forgerock.opendj.ldap.EntryNotFoundException;
+import org.forgerock.opendj.ldap.LdapException;
+import org.forgerock.opendj.ldap.ResultCode;
+import org.forgerock.opendj.ldap.SearchScope;
+import org.forgerock.opendj.ldap.controls.Control;
+import org.forgerock.opendj.ldap.requests.SearchRequest;
+import org.forgerock.opendj.ldap.responses.SearchResultEntry;
+import org.forgerock.util.AsyncFunction;
+import org.forgerock.util.BoundedCache;
+import org.forgerock.util.Function;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.time.Duration;
+import org.forgerock.util.time.TimeService;
+
+import com.forgerock.opendj.ldap.controls.TransactionIdControl;
+
+/**
+ * Caches the results of single entry LDAP lookups ({@link LdapConnection#searchSingleEntry(SearchRequest)},
+ * {@link LdapConnection#readEntry(String, String...)} and their asynchronous variants), keyed by base DN, scope,
+ * filter and requested attributes.
+ * <p>
+ * Lookups that did not find any entry are cached as well (with their own, usually shorter, time-to-live). Other
+ * failures are never cached. Requests carrying controls (other than the transaction ID) are not cached.
+ * <p>
+ * Cached results are shared by all the connections of a {@link LdapConnectionPool}: connections that have been
+ * (re-)authenticated with a bind request bypass the cache, and are bound anonymously again before returning to the
+ * pool, so that results obtained with different access rights are never mixed. Changes made through the pool's
+ * connections invalidate the affected results (see {@link #invalidate(DN)}), changes made by other LDAP clients are
+ * only visible once the results expire.
+ */
+public final class LdapSearchCache {
+
+    /** Default maximum number of cached results. */
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    private final BoundedCache<Key, Lookup, LdapException> cache;
+    private final Function<Lookup, Duration, Exception> expire;
+
+    /**
+     * Builds a new cache.
+     *
+     * @param time
+     *         time service used to expire the results
+     * @param maxSize
+     *         maximum number of cached results
+     * @param ttl
+     *         time-to-live of the found entries
+     * @param negativeTtl
+     *         time-to-live of the lookups that did not find any entry ({@link Duration#ZERO} to disable negative
+     *         caching)
+     */
+    public LdapSearchCache(final TimeService time,
+                           final int maxSize,
+                           final Duration ttl,
+                           final Duration negativeTtl) {
+        this.cache = new BoundedCache<>(time);
+        this.cache.setMaximumSize(maxSize);
+        this.expire = new Function<Lookup, Duration, Exception>() {
+            @Override
+            public Duration apply(final Lookup lookup) {
+                return lookup.entry != null ? ttl : negativeTtl;
+            }
+        };
+    }
+
+    /**
+     * Searches for a single entry, using the cached result if any.
+     *
+     * @param connection
+     *         the connection to use if the result is not cached
+     * @param request
+     *         the search request
+     * @return a promise of a copy of the single entry (failed with an {@link EntryNotFoundException} if there is
+     * no matching entry)
+     */
+    Promise<SearchResultEntry, LdapException> searchSingleEntry(final Connection connection,
+                                                                final SearchRequest request) {
+        if (!isCacheable(request)) {
+            return connection.searchSingleEntryAsync(request);
+        }
+        final Key key = new Key(request);
+        return cache.getValue(key, new AsyncFunction<Key, Lookup, LdapException>() {
+            @Override
+            public Promise<Lookup, LdapException> apply(final Key ignored) {
+                return connection.searchSingleEntryAsync(request)
+                                 .then(new Function<SearchResultEntry, Lookup, LdapException>() {
+                                     @Override
+                                     public Lookup apply(final SearchResultEntry entry) {
+                                         return new Lookup(entry);
+                                     }
+                                 }, new Function<LdapException, Lookup, LdapException>() {
+                                     @Override
+                                     public Lookup apply(final LdapException e) throws LdapException {
+                                         if (e instanceof EntryNotFoundException) {
+                                             return new Lookup(null);
+                                         }
+                                         throw e;
+                                     }
+                                 });
+            }
+        }, expire).then(new Function<Lookup, SearchResultEntry, LdapException>() {
+            @Override
+            public SearchResultEntry apply(final Lookup lookup) throws LdapException {
+                if (lookup.entry == null) {
+                    throw newLdapException(ResultCode.CLIENT_SIDE_NO_RESULTS_RETURNED,
+                                           "No entry matches the search request " + key);
+                }
+                // Entries are mutable: callers get their own copy
+                return copyOfSearchResultEntry(lookup.entry);
+            }
+        });
+    }
+
+    /**
+     * Removes the cached results that may be affected by a change of the given entry (or subtree): results of
+     * searches based on the entry or one of its subordinates, and of searches based on one of its superiors.
+     *
+     * @param dn
+     *         the changed entry
+     */
+    public void invalidate(final DN dn) {
+        for (Key key : cache.keySet()) {
+            if (key.base.isSubordinateOrEqualTo(dn) || dn.isSubordinateOrEqualTo(key.base)) {
+                cache.evict(key);
+            }
+        }
+    }
+
+    /**
+     * Removes the cached results that may be affected by a change of the given entry (or subtree).
+     *
+     * @param dn
+     *         the changed entry
+     * @see #invalidate(DN)
+     */
+    public void invalidate(final String dn) {
+        invalidate(DN.valueOf(dn));
+    }
+
+    /**
+     * Removes all the cached results.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Periodically reclaims the expired results.
+     *
+     * @param executor
+     *         the executor to use
+     * @return the scheduled task, to be cancelled when the cache is no longer used
+     */
+    public ScheduledFuture<?> scheduleCleanUp(final ScheduledExecutorService executor) {
+        return cache.scheduleCleanUp(executor);
+    }
+
+    /**
+     * Returns the number of cached results.
+     *
+     * @return the number of cached results
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Returns the number of lookups served from the cache.
+     *
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+        return cache.getHitCount();
+    }
+
+    /**
+     * Returns the number of lookups sent to the LDAP server.
+     *
+     * @return the number of cache misses
+     */
+    public long getMissCount() {
+        return cache.getMissCount();
+    }
+
+    /**
+     * Returns the ratio of lookups served from the cache (between {@literal 0} and {@literal 1}).
+     *
+     * @return the cache hit ratio
+     */
+    public double getHitRatio() {
+        return cache.getHitRatio();
+    }
+
+    /**
+     * Returns the number of results evicted to make room for new ones.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictionCount() {
+        return cache.getEvictionCount();
+    }
+
+    private static boolean isCacheable(final SearchRequest request) {
+        for (Control control : request.getControls()) {
+            if (!TransactionIdControl.OID.equals(control.getOID())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Result of a lookup: the found entry, or {@code null} if no entry matched.
+     */
+    private static final class Lookup {
+        private final SearchResultEntry entry;
+
+        private Lookup(final SearchResultEntry entry) {
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * Identifies a search: base DN, scope, filter and requested attributes.
+     */
+    private static final class Key {
+        private final DN base;
+        private final SearchScope scope;
+        private final String filter;
+        private final List<String> attributes;
+
+        private Key(final SearchRequest request) {
+            this.base = request.getName();
+            this.scope = request.getScope();
+            this.filter = request.getFilter().toString();
+            List<String> names = new ArrayList<>(request.getAttributes().size());
+            for (String attribute : request.getAttributes()) {
+                names.add(attribute.toLowerCase());
+            }
+            this.attributes = names;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return base.equals(other.base)
+                    && scope.equals(other.scope)
+                    && filter.equals(other.filter)
+                    && attributes.equals(other.attributes);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = base.hashCode();
+            result = 31 * result + scope.hashCode();
+            result = 31 * result + filter.hashCode();
+            return 31 * result + attributes.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return base + " " + scope + " " + filter + " " + attributes;
+        }
+    }
+}
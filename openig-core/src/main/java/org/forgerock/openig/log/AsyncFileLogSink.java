@@ -0,0 +1,443 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.log;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.forgerock.util.Utils.closeSilently;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.forgerock.openig.heap.Name;
+import org.forgerock.util.time.Duration;
+import org.forgerock.util.time.TimeService;
+
+/**
+ * A sink that writes log entries to a file from a dedicated thread, so that the logging threads never wait for
+ * the file system.
+ * <p>
+ * Entries are appended to a bounded lock-free buffer, and written in batches by the writer thread. The format of
+ * the entries is the same as the one of {@link FileLogSink}. When the buffer is full, the {@link OverflowPolicy}
+ * decides if the logging thread waits for some room, or if the entry is dropped. The number of dropped entries is
+ * regularly written in the file, and is available with {@link #getDroppedCount()}.
+ * <p>
+ * The file can be rolled when it reaches a given size, or after a given interval: the current file is renamed with a
+ * timestamp suffix (such as {@literal openig.log.20160412-172540}), and a new one is created.
+ * <p>
+ * The writer thread is started with {@link #start()}, and has to be stopped with {@link #stop()}: the buffered
+ * entries are written before the thread ends.
+ */
+public class AsyncFileLogSink implements LogSink {
+
+    /**
+     * What to do with the entries that cannot be appended because the buffer is full.
+     */
+    public enum OverflowPolicy {
+        /** The logging thread waits until there is some room in the buffer. */
+        BLOCK,
+        /** The entry is dropped. */
+        DROP,
+        /** The entry is dropped if its level is lower than the overflow level, otherwise the logging thread waits. */
+        DROP_BELOW_LEVEL
+    }
+
+    /** Default number of entries that can be buffered. */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final long IDLE_PARK_NANOS = MILLISECONDS.toNanos(100L);
+    private static final long BLOCKED_PARK_NANOS = MICROSECONDS.toNanos(100L);
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+    private static final String HASH = "# ";
+    private static final Name SOURCE = Name.of(AsyncFileLogSink.class);
+
+    /** File where the entries will be written to. */
+    private final File file;
+
+    private final TimeService time;
+    private final LogEntryQueue queue;
+    private final OverflowPolicy overflowPolicy;
+    private final AtomicLong dropped = new AtomicLong();
+
+    /** The level of log entries to display in the file (default: {@link LogLevel#INFO INFO}). */
+    private volatile LogLevel level = LogLevel.INFO;
+
+    /** Entries lower than this level are dropped with {@link OverflowPolicy#DROP_BELOW_LEVEL}. */
+    private volatile LogLevel overflowLevel = LogLevel.WARNING;
+
+    /** Roll the file once it reached this size (in bytes), or {@literal 0} to disable. */
+    private volatile long rollingSize;
+
+    /** Roll the file after this interval (in milliseconds), or {@literal 0} to disable. */
+    private volatile long rollingInterval;
+
+    private volatile boolean running;
+    private volatile boolean sleeping;
+    private volatile Thread writer;
+
+    // The following fields are only accessed by the writer thread
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+    private final CharsetEncoder encoder;
+    private final StringBuilder line = new StringBuilder(256);
+    private final DateFormat dateFormat = new SimpleDateFormat("EEE MMM dd HH:mm:ss zzz yyyy");
+    private long formattedSecond = -1L;
+    private String formattedDate;
+    private FileChannel channel;
+    private long written;
+    private long rollAt;
+    private long reportedDrops;
+
+    /**
+     * Builds a new AsyncFileLogSink writing entries in the given log file, with UTF-8, and a buffer of
+     * {@link #DEFAULT_BUFFER_SIZE} entries blocking the logging threads when full.
+     *
+     * @param file
+     *         output where entries will be written
+     */
+    public AsyncFileLogSink(final File file) {
+        this(file, UTF_8, TimeService.SYSTEM, DEFAULT_BUFFER_SIZE, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * Builds a new AsyncFileLogSink writing entries in the given log file.
+     *
+     * @param file
+     *         output where entries will be written
+     * @param charset
+     *         Character set to encode log output with
+     * @param time
+     *         used to decide when the file has to be rolled
+     * @param bufferSize
+     *         number of entries that can be buffered (rounded up to the next power of two)
+     * @param overflowPolicy
+     *         what to do with the entries logged when the buffer is full
+     */
+    public AsyncFileLogSink(final File file,
+                            final Charset charset,
+                            final TimeService time,
+                            final int bufferSize,
+                            final OverflowPolicy overflowPolicy) {
+        this.file = file;
+        this.time = time;
+        this.queue = new LogEntryQueue(bufferSize);
+        this.overflowPolicy = overflowPolicy;
+        this.encoder = charset.newEncoder()
+                              .onMalformedInput(CodingErrorAction.REPLACE)
+                              .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Sets the level of log entries to display in the file.
+     * @param level level of log entries to display in the file
+     */
+    public void setLevel(final LogLevel level) {
+        this.level = level;
+    }
+
+    /**
+     * Sets the level under which entries are dropped when the buffer is full, with
+     * {@link OverflowPolicy#DROP_BELOW_LEVEL} (default: {@link LogLevel#WARNING WARNING}).
+     * @param overflowLevel level under which entries are dropped when the buffer is full
+     */
+    public void setOverflowLevel(final LogLevel overflowLevel) {
+        this.overflowLevel = overflowLevel;
+    }
+
+    /**
+     * Sets the size (in bytes) that the file has to reach before being rolled, {@literal 0} disables size-based
+     * rolling (the default).
+     * @param rollingSize size (in bytes) that the file has to reach before being rolled
+     */
+    public void setRollingSize(final long rollingSize) {
+        this.rollingSize = rollingSize;
+    }
+
+    /**
+     * Sets the interval after which the file is rolled, a zero or unlimited duration disables time-based rolling
+     * (the default). It has to be set before the sink is started.
+     * @param rollingInterval interval after which the file is rolled
+     */
+    public void setRollingInterval(final Duration rollingInterval) {
+        if (rollingInterval.isZero() || rollingInterval.isUnlimited()) {
+            this.rollingInterval = 0L;
+        } else {
+            this.rollingInterval = rollingInterval.to(MILLISECONDS);
+        }
+    }
+
+    /**
+     * Returns the number of entries dropped because the buffer was full.
+     *
+     * @return the number of entries dropped because the buffer was full
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Starts the writer thread.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeEntries();
+            }
+        }, format("Log writer (%s)", file));
+        thread.setDaemon(true);
+        writer = thread;
+        thread.start();
+    }
+
+    /**
+     * Stops the writer thread, once all the buffered entries have been written.
+     */
+    public synchronized void stop() {
+        Thread thread = writer;
+        if (!running || thread == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void log(final LogEntry entry) {
+        if (!isLoggable(entry.getSource(), entry.getLevel())) {
+            return;
+        }
+        if (queue.offer(entry)) {
+            if (sleeping) {
+                LockSupport.unpark(writer);
+            }
+            return;
+        }
+        if (overflowPolicy == OverflowPolicy.DROP
+                || (overflowPolicy == OverflowPolicy.DROP_BELOW_LEVEL
+                        && entry.getLevel().compareTo(overflowLevel) < 0)) {
+            dropped.incrementAndGet();
+            return;
+        }
+        do {
+            if (!running) {
+                // Nobody will ever make room in the buffer
+                dropped.incrementAndGet();
+                return;
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(this, BLOCKED_PARK_NANOS);
+        } while (!queue.offer(entry));
+    }
+
+    @Override
+    public boolean isLoggable(final Name source, final LogLevel level) {
+        return (level.compareTo(this.level) >= 0);
+    }
+
+    private void writeEntries() {
+        try {
+            while (true) {
+                // Read before draining, so that the entries logged before stop() are all written
+                boolean stopping = !running;
+                int count = 0;
+                LogEntry entry;
+                while (count < queue.capacity() && (entry = queue.poll()) != null) {
+                    append(entry);
+                    count++;
+                }
+                reportDrops();
+                try {
+                    write();
+                    rollIfNeeded();
+                } catch (IOException ioe) {
+                    // not much else we can do
+                    System.err.println(ioe.getMessage());
+                    closeSilently(channel);
+                    channel = null;
+                    buffer.clear();
+                }
+                if (count == 0) {
+                    if (stopping) {
+                        return;
+                    }
+                    sleeping = true;
+                    if (running && queue.isEmpty()) {
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    }
+                    sleeping = false;
+                }
+            }
+        } finally {
+            closeSilently(channel);
+            channel = null;
+        }
+    }
+
+    private void reportDrops() {
+        long total = dropped.get();
+        if (total != reportedDrops) {
+            append(new LogEntry(SOURCE, LogLevel.WARNING,
+                                format("%d log entries have been dropped (buffer full)", total - reportedDrops)));
+            reportedDrops = total;
+        }
+    }
+
+    private void append(final LogEntry entry) {
+        // Example: "Sun Jul 20 16:17:00 EDT 1969 (INFO) Source - Message"
+        line.setLength(0);
+        line.append(formatDate(entry.getTime()))
+            .append(' ')
+            .append(entry.getLevel().name())
+            .append(' ')
+            .append(entry.getSource().getLeaf())
+            .append(" --- ")
+            .append(entry.getMessage())
+            .append(LINE_SEPARATOR);
+
+        // Print the exception data (if any) as comments
+        if ("throwable".equals(entry.getType()) && (entry.getData() instanceof Throwable)) {
+            StringWriter trace = new StringWriter();
+            ((Throwable) entry.getData()).printStackTrace(new PrintWriter(trace));
+            for (String traceLine : trace.toString().split("\r?\n")) {
+                line.append(HASH).append(traceLine).append(LINE_SEPARATOR);
+            }
+        }
+
+        try {
+            encode(line);
+        } catch (IOException ioe) {
+            // not much else we can do
+            System.err.println(ioe.getMessage());
+            closeSilently(channel);
+            channel = null;
+            buffer.clear();
+            encoder.reset();
+        }
+    }
+
+    private String formatDate(final long millis) {
+        long second = millis / 1000L;
+        if (second != formattedSecond) {
+            formattedDate = dateFormat.format(new Date(millis));
+            formattedSecond = second;
+        }
+        return formattedDate;
+    }
+
+    private void encode(final CharSequence chars) throws IOException {
+        CharBuffer input = CharBuffer.wrap(chars);
+        CoderResult result;
+        while ((result = encoder.encode(input, buffer, true)).isOverflow()) {
+            write();
+        }
+        checkResult(result);
+        while ((result = encoder.flush(buffer)).isOverflow()) {
+            write();
+        }
+        checkResult(result);
+        encoder.reset();
+    }
+
+    private static void checkResult(final CoderResult result) throws CharacterCodingException {
+        if (result.isError()) {
+            result.throwException();
+        }
+    }
+
+    /**
+     * Writes the content of the buffer in the file, opening it if required.
+     */
+    private void write() throws IOException {
+        if (channel != null && !file.exists()) {
+            // The file has been removed (or moved) by an external process
+            closeSilently(channel);
+            channel = null;
+        }
+        if (buffer.position() == 0) {
+            return;
+        }
+        if (channel == null) {
+            open();
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(file.toPath(), CREATE, WRITE, APPEND);
+        written = channel.size();
+        long interval = rollingInterval;
+        rollAt = (interval > 0L) ? time.now() + interval : Long.MAX_VALUE;
+    }
+
+    private void rollIfNeeded() throws IOException {
+        if (channel == null || written == 0L) {
+            return;
+        }
+        long size = rollingSize;
+        if ((size > 0L && written >= size) || time.now() >= rollAt) {
+            channel.close();
+            channel = null;
+            File archive = archiveFile();
+            if (!file.renameTo(archive)) {
+                throw new IOException(format("Cannot roll the log file '%s' to '%s'", file, archive));
+            }
+        }
+    }
+
+    private File archiveFile() {
+        String base = file.getPath() + "." + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(time.now()));
+        File archive = new File(base);
+        for (int i = 1; archive.exists(); i++) {
+            archive = new File(base + "." + i);
+        }
+        return archive;
+    }
+}
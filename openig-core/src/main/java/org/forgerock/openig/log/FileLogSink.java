@@ -18,6 +18,7 @@
 package org.forgerock.openig.log;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.forgerock.json.JsonValueFunctions.duration;
 import static org.forgerock.json.JsonValueFunctions.enumConstant;
 import static org.forgerock.json.JsonValueFunctions.file;
 import static org.forgerock.openig.util.JsonValues.evaluated;
@@ -34,9 +35,13 @@ import org.forgerock.json.JsonValueException;
 import org.forgerock.openig.heap.GenericHeaplet;
 import org.forgerock.openig.heap.HeapException;
 import org.forgerock.openig.heap.Name;
+import org.forgerock.openig.log.AsyncFileLogSink.OverflowPolicy;
+import org.forgerock.util.time.TimeService;
 
 /**
  * A sink that writes log entries to a file.
+ *
+ * @see AsyncFileLogSink
  */
 public class FileLogSink implements LogSink {
 
@@ -121,8 +126,31 @@ public class FileLogSink implements LogSink {
         return (level.compareTo(this.level) >= 0);
     }
 
-    /** Creates and initializes a file log sink in a heap environment. */
+    /**
+     * Creates and initializes a file log sink in a heap environment.
+     * <p>
+     * When the optional {@literal asynchronous} attribute is present, an {@link AsyncFileLogSink} is created instead:
+     * <pre>
+     *     {@code
+     *     {
+     *         "file": expression,                        [REQUIRED]
+     *         "level": string,                           [OPTIONAL - default to INFO]
+     *         "asynchronous": {                          [OPTIONAL]
+     *             "bufferSize": integer,                 [OPTIONAL - default to 8192 entries]
+     *             "overflowPolicy": string,              [OPTIONAL - BLOCK (default), DROP or DROP_BELOW_LEVEL]
+     *             "overflowLevel": string,               [OPTIONAL - default to WARNING]
+     *             "rollingSize": long,                   [OPTIONAL - in bytes, default to no size-based rolling]
+     *             "rollingInterval": duration            [OPTIONAL - default to no time-based rolling]
+     *         }
+     *     }
+     *     }
+     * </pre>
+     */
     public static class Heaplet extends GenericHeaplet {
+
+        /** The asynchronous sink, started by {@link #start()}, or {@literal null}. */
+        private AsyncFileLogSink asyncSink;
+
         @Override
         public Object create() throws HeapException {
             JsonValue evaluated = config.as(evaluated());
@@ -134,10 +162,54 @@ public class FileLogSink implements LogSink {
             } catch (IOException ioe) {
                 throw new JsonValueException(config.get("file"), ioe);
             }
+            LogLevel level = evaluated.get("level").defaultTo(LogLevel.INFO.name()).as(enumConstant(LogLevel.class));
+            JsonValue asynchronous = evaluated.get("asynchronous");
+            if (asynchronous.isNotNull()) {
+                asyncSink = asyncSink(file, level, asynchronous);
+                return asyncSink;
+            }
             FileLogSink sink = new FileLogSink(file);
-            sink.setLevel(evaluated.get("level").defaultTo(sink.level.name()).as(enumConstant(LogLevel.class)));
+            sink.setLevel(level);
+            return sink;
+        }
+
+        private static AsyncFileLogSink asyncSink(final File file, final LogLevel level, final JsonValue config)
+                throws HeapException {
+            int bufferSize = config.get("bufferSize").defaultTo(AsyncFileLogSink.DEFAULT_BUFFER_SIZE).asInteger();
+            if (bufferSize <= 0) {
+                throw new HeapException("'bufferSize' can only be a positive (non-zero) value");
+            }
+            AsyncFileLogSink sink = new AsyncFileLogSink(file,
+                                                         UTF_8,
+                                                         TimeService.SYSTEM,
+                                                         bufferSize,
+                                                         config.get("overflowPolicy")
+                                                               .defaultTo(OverflowPolicy.BLOCK.name())
+                                                               .as(enumConstant(OverflowPolicy.class)));
+            sink.setLevel(level);
+            sink.setOverflowLevel(config.get("overflowLevel")
+                                        .defaultTo(LogLevel.WARNING.name())
+                                        .as(enumConstant(LogLevel.class)));
+            sink.setRollingSize(config.get("rollingSize").defaultTo(0L).asLong());
+            sink.setRollingInterval(config.get("rollingInterval").defaultTo("0 seconds").as(duration()));
             return sink;
         }
+
+        @Override
+        public void start() throws HeapException {
+            if (asyncSink != null) {
+                asyncSink.start();
+            }
+        }
+
+        @Override
+        public void destroy() {
+            super.destroy();
+            if (asyncSink != null) {
+                // Flushes the pending entries
+                asyncSink.stop();
+            }
+        }
     }
 
     private static class HashPrefixPrintStream extends PrintStream {
@@ -0,0 +1,125 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free, multiple producers / single consumer ring buffer of {@link LogEntry}.
+ * <p>
+ * Each slot carries a sequence number telling whether it can be written by the producer claiming the given
+ * position, or read by the consumer: producers only contend on the tail position (with a CAS), and never block.
+ * {@link #poll()} must only be called from a single thread.
+ */
+final class LogEntryQueue {
+
+    private final AtomicReferenceArray<LogEntry> entries;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+
+    /** Only accessed by the consumer thread. */
+    private long head;
+
+    /**
+     * Builds a new queue.
+     *
+     * @param capacity
+     *         the minimum number of entries that the queue can hold (rounded up to the next power of two, and at
+     *         least 2 so that the sequence of a published slot cannot be mistaken for the one of a free slot)
+     */
+    LogEntryQueue(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity must be strictly positive");
+        }
+        int size = Math.max(2, Integer.highestOneBit(capacity));
+        if (size < capacity) {
+            size <<= 1;
+        }
+        entries = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Appends the given entry, if the queue is not full.
+     *
+     * @param entry
+     *         the entry to append
+     * @return {@literal true} if the entry has been appended, {@literal false} if the queue was full
+     */
+    boolean offer(final LogEntry entry) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long available = sequences.get(index) - position;
+            if (available == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    entries.lazySet(index, entry);
+                    // Publishes the entry to the consumer
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (available < 0) {
+                // The slot has not been consumed yet: the queue is full
+                return false;
+            }
+            position = tail.get();
+        }
+    }
+
+    /**
+     * Removes and returns the oldest entry (consumer thread only).
+     *
+     * @return the oldest entry, or {@literal null} if the queue is empty
+     */
+    LogEntry poll() {
+        int index = (int) (head & mask);
+        if (sequences.get(index) != head + 1) {
+            return null;
+        }
+        LogEntry entry = entries.get(index);
+        entries.lazySet(index, null);
+        // Releases the slot for the producers of the next round
+        sequences.set(index, head + mask + 1);
+        head++;
+        return entry;
+    }
+
+    /**
+     * Returns {@literal true} if there is no entry to consume (consumer thread only).
+     *
+     * @return {@literal true} if there is no entry to consume
+     */
+    boolean isEmpty() {
+        return sequences.get((int) (head & mask)) != head + 1;
+    }
+
+    /**
+     * Returns the number of entries that the queue can hold.
+     *
+     * @return the number of entries that the queue can hold
+     */
+    int capacity() {
+        return mask + 1;
+    }
+}
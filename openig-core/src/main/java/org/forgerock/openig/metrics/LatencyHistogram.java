@@ -0,0 +1,239 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+
+package org.forgerock.openig.metrics;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.forgerock.util.Reject;
+
+/**
+ * A thread-safe histogram of latencies (expressed in microseconds) with a fixed relative precision, in the spirit
+ * of HdrHistogram.
+ * <p>
+ * Values are counted in log-linear buckets: values below {@literal 128} have their own bucket, then each power of
+ * two range is split into {@literal 64} buckets, which bounds the relative error of the reported values to
+ * {@literal 1/64} (about {@literal 1.6%}). Values greater than the highest trackable value are counted in the last
+ * bucket.
+ * <p>
+ * Recording a value only increments two atomic counters: it neither allocates nor locks, so that it can be used on
+ * the request processing path. Reading the histogram is done through immutable {@link Snapshot}s.
+ */
+public final class LatencyHistogram {
+
+    /** Default highest trackable value: one hour, expressed in microseconds. */
+    public static final long DEFAULT_HIGHEST_TRACKABLE_VALUE = HOURS.toMicros(1);
+
+    /** Number of buckets per power of two range. */
+    private static final int SUB_BUCKET_COUNT = 64;
+
+    /** Values below this threshold have their own bucket. */
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKET_COUNT;
+
+    private final long highestTrackableValue;
+    private final AtomicLongArray counts;
+    private final AtomicLong sum = new AtomicLong();
+
+    /**
+     * Builds a new histogram tracking values up to {@link #DEFAULT_HIGHEST_TRACKABLE_VALUE}.
+     */
+    public LatencyHistogram() {
+        this(DEFAULT_HIGHEST_TRACKABLE_VALUE);
+    }
+
+    /**
+     * Builds a new histogram tracking values up to the given value.
+     *
+     * @param highestTrackableValue
+     *         highest value that can be recorded precisely (must be strictly positive)
+     */
+    public LatencyHistogram(final long highestTrackableValue) {
+        Reject.ifTrue(highestTrackableValue <= 0, "highestTrackableValue must be strictly positive");
+        this.highestTrackableValue = highestTrackableValue;
+        this.counts = new AtomicLongArray(indexOf(highestTrackableValue) + 1);
+    }
+
+    /**
+     * Records the given value. Negative values are recorded as {@literal 0}.
+     *
+     * @param value
+     *         value to record (expressed in microseconds)
+     */
+    public void record(final long value) {
+        long bounded = Math.min(Math.max(value, 0L), highestTrackableValue);
+        counts.incrementAndGet(indexOf(bounded));
+        sum.addAndGet(bounded);
+    }
+
+    /**
+     * Returns a point in time copy of this histogram.
+     *
+     * @return a point in time copy of this histogram
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[counts.length()];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new Snapshot(copy, sum.get());
+    }
+
+    static int indexOf(final long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        // value >= 128, so shift >= 1 and (value >>> shift) is in [64, 128)
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - 6;
+        return SUB_BUCKET_COUNT * (shift + 1) + (int) ((value >>> shift) - SUB_BUCKET_COUNT);
+    }
+
+    static long lowestEquivalentValue(final int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return subBucket << shift;
+    }
+
+    static long highestEquivalentValue(final int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * An immutable copy of the content of a {@link LatencyHistogram}.
+     */
+    public static final class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+
+        Snapshot(final long[] counts, final long sum) {
+            this.counts = counts;
+            this.sum = sum;
+            long total = 0L;
+            for (long c : counts) {
+                total += c;
+            }
+            this.count = total;
+        }
+
+        /**
+         * Returns the number of recorded values.
+         *
+         * @return the number of recorded values
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the sum of the recorded values (expressed in microseconds).
+         *
+         * @return the sum of the recorded values
+         */
+        public long getSum() {
+            return sum;
+        }
+
+        /**
+         * Returns the mean of the recorded values, or {@literal 0} if no value has been recorded.
+         *
+         * @return the mean of the recorded values
+         */
+        public double getMean() {
+            return (count == 0) ? 0d : ((double) sum) / count;
+        }
+
+        /**
+         * Returns the (approximated) highest recorded value, or {@literal 0} if no value has been recorded.
+         *
+         * @return the highest recorded value
+         */
+        public long getMax() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] != 0) {
+                    return highestEquivalentValue(i);
+                }
+            }
+            return 0L;
+        }
+
+        /**
+         * Returns the (approximated) value below which the given ratio of the recorded values fall, or {@literal 0}
+         * if no value has been recorded.
+         *
+         * @param quantile
+         *         ratio of the recorded values, between {@literal 0} and {@literal 1} (for instance {@literal 0.99})
+         * @return the value at the given quantile
+         */
+        public long getValueAtQuantile(final double quantile) {
+            Reject.ifTrue(quantile < 0d || quantile > 1d, "quantile must be between 0 and 1");
+            if (count == 0) {
+                return 0L;
+            }
+            long rank = Math.max(1L, (long) Math.ceil(quantile * count));
+            long seen = 0L;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return highestEquivalentValue(i);
+                }
+            }
+            return getMax();
+        }
+
+        /**
+         * Returns the number of recorded values lower than, or equivalent to, the given value.
+         *
+         * @param value
+         *         upper bound (expressed in microseconds)
+         * @return the number of recorded values lower than, or equivalent to, the given value
+         */
+        public long getCountAtOrBelow(final long value) {
+            if (value < 0) {
+                return 0L;
+            }
+            int last = Math.min(indexOf(value), counts.length - 1);
+            long total = 0L;
+            for (int i = 0; i <= last; i++) {
+                total += counts[i];
+            }
+            return total;
+        }
+
+        /**
+         * Returns the values recorded since the given (older) snapshot of the same histogram.
+         */
+        Snapshot since(final Snapshot previous) {
+            long[] delta = new long[counts.length];
+            for (int i = 0; i < delta.length; i++) {
+                delta[i] = counts[i] - previous.counts[i];
+            }
+            return new Snapshot(delta, sum - previous.sum);
+        }
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+
+package org.forgerock.openig.metrics;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.forgerock.http.protocol.Response;
+import org.forgerock.http.protocol.Status;
+import org.forgerock.openig.metrics.LatencyHistogram.Snapshot;
+import org.forgerock.util.Reject;
+
+/**
+ * Gateway-wide registry of {@link LatencyRecorder}s, per route and response status family, and per upstream
+ * server.
+ * <p>
+ * The whole content of the registry can be written in the Prometheus text exposition format with
+ * {@link #expose(StringBuilder)}: each series is exposed as a cumulative histogram (with fixed buckets) and as a
+ * summary whose quantiles are computed on the latencies recorded since the previous exposition.
+ */
+public class LatencyMetrics {
+
+    /** Default maximum number of distinct upstream servers. */
+    public static final int DEFAULT_MAX_UPSTREAMS = 256;
+
+    /** Series that aggregates the upstream servers once the maximum number of upstream servers has been reached. */
+    static final String OTHER_UPSTREAM = "other";
+
+    /** Content type of the exposition format. */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /** Labels of the status families, the last one is used when there was no response. */
+    private static final String[] STATUS_LABELS = {"1xx", "2xx", "3xx", "4xx", "5xx", "unknown", "none"};
+    private static final int UNKNOWN_STATUS = 5;
+    private static final int NO_RESPONSE = 6;
+
+    /** Upper bounds of the exposed histogram buckets (expressed in microseconds). */
+    private static final long[] BUCKETS = {1000L, 2500L, 5000L, 10000L, 25000L, 50000L, 100000L, 250000L, 500000L,
+                                           1000000L, 2500000L, 5000000L, 10000000L};
+
+    /** Quantiles exposed for each interval. */
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final ConcurrentMap<String, RouteLatency> routes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LatencyRecorder> upstreams = new ConcurrentHashMap<>();
+    private final int maxUpstreams;
+
+    /**
+     * Builds a new registry tracking at most {@link #DEFAULT_MAX_UPSTREAMS} upstream servers.
+     */
+    public LatencyMetrics() {
+        this(DEFAULT_MAX_UPSTREAMS);
+    }
+
+    /**
+     * Builds a new registry tracking at most {@code maxUpstreams} upstream servers: the latencies of any other
+     * upstream server are aggregated in a single series.
+     *
+     * @param maxUpstreams
+     *         maximum number of distinct upstream servers (must be strictly positive)
+     */
+    public LatencyMetrics(final int maxUpstreams) {
+        Reject.ifTrue(maxUpstreams <= 0, "maxUpstreams must be strictly positive");
+        this.maxUpstreams = maxUpstreams;
+    }
+
+    /**
+     * Registers the given route latencies, replacing any previously registered ones for the same route of the same
+     * router. The replaced latencies keep recording in the same series, so that a route reload does not reset them.
+     *
+     * @param latency
+     *         route latencies to register
+     */
+    public void register(final RouteLatency latency) {
+        RouteLatency previous = routes.put(latency.getKey(), latency);
+        if (previous != null && previous != latency) {
+            latency.recorders = previous.recorders;
+        }
+    }
+
+    /**
+     * Unregisters the given route latencies (if they have not been replaced in the meantime).
+     *
+     * @param latency
+     *         route latencies to unregister
+     */
+    public void unregister(final RouteLatency latency) {
+        routes.remove(latency.getKey(), latency);
+    }
+
+    /**
+     * Records the latency of a request sent to the given upstream server.
+     *
+     * @param upstream
+     *         upstream server (usually its authority, such as {@literal host:port})
+     * @param micros
+     *         latency expressed in microseconds
+     */
+    public void recordUpstream(final String upstream, final long micros) {
+        LatencyRecorder recorder = upstreams.get(upstream);
+        if (recorder == null) {
+            recorder = newUpstreamRecorder(upstream);
+        }
+        recorder.record(micros);
+    }
+
+    private LatencyRecorder newUpstreamRecorder(final String upstream) {
+        String key = (upstreams.size() < maxUpstreams) ? upstream : OTHER_UPSTREAM;
+        LatencyRecorder recorder = new LatencyRecorder();
+        LatencyRecorder previous = upstreams.putIfAbsent(key, recorder);
+        return (previous != null) ? previous : recorder;
+    }
+
+    /**
+     * Writes all the series of this registry in the Prometheus text exposition format (version 0.0.4). Series
+     * without any recorded latency are omitted.
+     * <p>
+     * Note that the exposition starts a new interval for all the series.
+     *
+     * @param out
+     *         where the exposition is written
+     */
+    public void expose(final StringBuilder out) {
+        List<Series> routeSeries = new ArrayList<>();
+        for (RouteLatency route : new TreeMap<>(routes).values()) {
+            AtomicReferenceArray<LatencyRecorder> recorders = route.recorders;
+            for (int i = 0; i < STATUS_LABELS.length; i++) {
+                LatencyRecorder recorder = recorders.get(i);
+                if (recorder == null) {
+                    continue;
+                }
+                Series series = Series.of(recorder,
+                                          "router", route.getRouter(),
+                                          "route", route.getName(),
+                                          "status", STATUS_LABELS[i]);
+                if (series != null) {
+                    routeSeries.add(series);
+                }
+            }
+        }
+        List<Series> upstreamSeries = new ArrayList<>();
+        for (Map.Entry<String, LatencyRecorder> entry : new TreeMap<>(upstreams).entrySet()) {
+            Series series = Series.of(entry.getValue(), "upstream", entry.getKey());
+            if (series != null) {
+                upstreamSeries.add(series);
+            }
+        }
+        expose(out, "openig_route", "requests processed by the routes", routeSeries);
+        expose(out, "openig_upstream", "requests sent to the upstream servers", upstreamSeries);
+    }
+
+    private static void expose(final StringBuilder out,
+                               final String prefix,
+                               final String subject,
+                               final List<Series> all) {
+        if (all.isEmpty()) {
+            return;
+        }
+        String histogram = prefix + "_duration_seconds";
+        out.append("# HELP ").append(histogram).append(" Duration of the ").append(subject).append(".\n");
+        out.append("# TYPE ").append(histogram).append(" histogram\n");
+        for (Series series : all) {
+            for (long bucket : BUCKETS) {
+                sample(out, histogram + "_bucket", series.labels, "le", seconds(bucket))
+                        .append(series.cumulative.getCountAtOrBelow(bucket)).append('\n');
+            }
+            sample(out, histogram + "_bucket", series.labels, "le", "+Inf")
+                    .append(series.cumulative.getCount()).append('\n');
+            sample(out, histogram + "_sum", series.labels, null, null)
+                    .append(seconds(series.cumulative.getSum())).append('\n');
+            sample(out, histogram + "_count", series.labels, null, null)
+                    .append(series.cumulative.getCount()).append('\n');
+        }
+
+        String summary = prefix + "_interval_duration_seconds";
+        out.append("# HELP ").append(summary).append(" Duration of the ").append(subject)
+           .append(" since the previous scrape.\n");
+        out.append("# TYPE ").append(summary).append(" summary\n");
+        for (Series series : all) {
+            for (double quantile : QUANTILES) {
+                sample(out, summary, series.labels, "quantile", Double.toString(quantile));
+                if (series.interval.getCount() == 0) {
+                    out.append("NaN\n");
+                } else {
+                    out.append(seconds(series.interval.getValueAtQuantile(quantile))).append('\n');
+                }
+            }
+            sample(out, summary + "_sum", series.labels, null, null)
+                    .append(seconds(series.interval.getSum())).append('\n');
+            sample(out, summary + "_count", series.labels, null, null)
+                    .append(series.interval.getCount()).append('\n');
+        }
+    }
+
+    private static StringBuilder sample(final StringBuilder out,
+                                        final String name,
+                                        final String labels,
+                                        final String extraName,
+                                        final String extraValue) {
+        out.append(name).append('{').append(labels);
+        if (extraName != null) {
+            out.append(',').append(extraName).append("=\"").append(extraValue).append('"');
+        }
+        return out.append("} ");
+    }
+
+    private static String seconds(final long micros) {
+        return BigDecimal.valueOf(micros, 6).stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * Snapshots of a recorder, taken once per exposition.
+     */
+    private static final class Series {
+        private final String labels;
+        private final Snapshot cumulative;
+        private final Snapshot interval;
+
+        private Series(final String labels, final Snapshot cumulative, final Snapshot interval) {
+            this.labels = labels;
+            this.cumulative = cumulative;
+            this.interval = interval;
+        }
+
+        static Series of(final LatencyRecorder recorder, final String... labels) {
+            Snapshot cumulative = recorder.getCumulativeSnapshot();
+            if (cumulative.getCount() == 0) {
+                return null;
+            }
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < labels.length; i += 2) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(labels[i]).append("=\"");
+                escape(sb, labels[i + 1]);
+                sb.append('"');
+            }
+            return new Series(sb.toString(), cumulative, recorder.nextInterval(cumulative));
+        }
+
+        private static void escape(final StringBuilder sb, final String value) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                default:
+                    sb.append(c);
+                }
+            }
+        }
+    }
+
+    /**
+     * Latencies of a route, per response status family. The recorder of a status family is only allocated once a
+     * latency is recorded for it.
+     */
+    public static final class RouteLatency {
+
+        private final String router;
+        private final String name;
+        private volatile AtomicReferenceArray<LatencyRecorder> recorders =
+                new AtomicReferenceArray<>(STATUS_LABELS.length);
+
+        /**
+         * Builds new (unregistered) latencies for the given route.
+         *
+         * @param router
+         *         fully qualified name of the router handling the route (route names are only unique per router)
+         * @param name
+         *         route name
+         */
+        public RouteLatency(final String router, final String name) {
+            this.router = Reject.checkNotNull(router);
+            this.name = Reject.checkNotNull(name);
+        }
+
+        /**
+         * Returns the fully qualified name of the router handling the route.
+         *
+         * @return the fully qualified name of the router handling the route
+         */
+        public String getRouter() {
+            return router;
+        }
+
+        /**
+         * Returns the route name.
+         *
+         * @return the route name
+         */
+        public String getName() {
+            return name;
+        }
+
+        private String getKey() {
+            return router + "+" + name;
+        }
+
+        /**
+         * Records the latency of the given response, according to its status family.
+         *
+         * @param response
+         *         processed response (may be {@code null})
+         * @param micros
+         *         latency expressed in microseconds
+         */
+        public void record(final Response response, final long micros) {
+            AtomicReferenceArray<LatencyRecorder> recorders = this.recorders;
+            int index = indexOf(response);
+            LatencyRecorder recorder = recorders.get(index);
+            if (recorder == null) {
+                recorders.compareAndSet(index, null, new LatencyRecorder());
+                recorder = recorders.get(index);
+            }
+            recorder.record(micros);
+        }
+
+        /**
+         * Returns the recorder of the given status family.
+         *
+         * @param status
+         *         response status (may be {@code null} if there was no response)
+         * @return the recorder of the given status family, or {@code null} if no latency has been recorded for it
+         */
+        public LatencyRecorder getRecorder(final Status status) {
+            return recorders.get((status == null) ? NO_RESPONSE : familyOf(status));
+        }
+
+        private static int indexOf(final Response response) {
+            if (response == null) {
+                return NO_RESPONSE;
+            }
+            Status status = response.getStatus();
+            return (status == null) ? UNKNOWN_STATUS : familyOf(status);
+        }
+
+        private static int familyOf(final Status status) {
+            int code = status.getCode();
+            return (code >= 100 && code < 600) ? (code / 100) - 1 : UNKNOWN_STATUS;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+
+package org.forgerock.openig.metrics;
+
+import org.forgerock.http.Handler;
+import org.forgerock.http.protocol.Request;
+import org.forgerock.http.protocol.Response;
+import org.forgerock.http.protocol.Status;
+import org.forgerock.services.context.Context;
+import org.forgerock.util.promise.NeverThrowsException;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.Promises;
+
+/**
+ * Exposes the content of a {@link LatencyMetrics} registry in the Prometheus text exposition format, so that the
+ * latencies of all the routes can be collected with a single request. Only {@literal GET} requests are supported.
+ */
+public class LatencyMetricsHandler implements Handler {
+
+    private final LatencyMetrics metrics;
+
+    /**
+     * Builds a new handler exposing the given registry.
+     *
+     * @param metrics
+     *         exposed registry
+     */
+    public LatencyMetricsHandler(final LatencyMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Promise<Response, NeverThrowsException> handle(final Context context, final Request request) {
+        if (!"GET".equals(request.getMethod())) {
+            Response response = new Response(Status.METHOD_NOT_ALLOWED);
+            response.getHeaders().add("Allow", "GET");
+            return Promises.newResultPromise(response);
+        }
+        StringBuilder exposition = new StringBuilder();
+        metrics.expose(exposition);
+        Response response = new Response(Status.OK);
+        response.getHeaders().add("Content-Type", LatencyMetrics.CONTENT_TYPE);
+        response.setEntity(exposition.toString());
+        return Promises.newResultPromise(response);
+    }
+}
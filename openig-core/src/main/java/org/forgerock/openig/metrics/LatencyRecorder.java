@@ -0,0 +1,89 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+
+package org.forgerock.openig.metrics;
+
+import org.forgerock.openig.metrics.LatencyHistogram.Snapshot;
+
+/**
+ * Records latencies into a {@link LatencyHistogram} and provides both a cumulative view (all the values recorded
+ * since the creation of the recorder) and an interval view (the values recorded since the previous interval was
+ * read).
+ */
+public final class LatencyRecorder {
+
+    private final LatencyHistogram histogram;
+
+    /** Cumulative snapshot taken when the previous interval was read (guarded by this). */
+    private Snapshot previous;
+
+    /**
+     * Builds a new recorder with a default {@link LatencyHistogram}.
+     */
+    public LatencyRecorder() {
+        this(new LatencyHistogram());
+    }
+
+    /**
+     * Builds a new recorder with the given histogram.
+     *
+     * @param histogram
+     *         histogram in which the latencies are recorded
+     */
+    public LatencyRecorder(final LatencyHistogram histogram) {
+        this.histogram = histogram;
+    }
+
+    /**
+     * Records the given latency, without allocating nor locking.
+     *
+     * @param micros
+     *         latency expressed in microseconds
+     */
+    public void record(final long micros) {
+        histogram.record(micros);
+    }
+
+    /**
+     * Returns all the latencies recorded so far.
+     *
+     * @return all the latencies recorded so far
+     */
+    public Snapshot getCumulativeSnapshot() {
+        return histogram.snapshot();
+    }
+
+    /**
+     * Returns the latencies recorded since the previous call to this method (or since the creation of this recorder
+     * if it is the first call), and starts a new interval.
+     *
+     * @return the latencies recorded during the last interval
+     */
+    public Snapshot getIntervalSnapshot() {
+        return nextInterval(histogram.snapshot());
+    }
+
+    /**
+     * Starts a new interval ending with the given cumulative snapshot, and returns the values recorded during the
+     * interval that just ended.
+     */
+    synchronized Snapshot nextInterval(final Snapshot cumulative) {
+        Snapshot interval = (previous == null) ? cumulative : cumulative.since(previous);
+        previous = cumulative;
+        return interval;
+    }
+}
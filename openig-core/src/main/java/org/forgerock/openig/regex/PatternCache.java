@@ -0,0 +1,175 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.regex;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.forgerock.util.Reject;
+
+/**
+ * A bounded, thread-safe cache of compiled regular expression {@link Pattern}s, keyed by their source.
+ * <p>
+ * When the cache is full, an arbitrary entry is evicted to make room for the new one. Invalid patterns are never
+ * cached.
+ */
+public final class PatternCache {
+
+    /** Default maximum number of cached patterns. */
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    /** Cache shared by the expression functions. */
+    private static final PatternCache SHARED = new PatternCache(DEFAULT_MAX_SIZE);
+
+    private final ConcurrentMap<String, Pattern> patterns = new ConcurrentHashMap<>();
+    private final int maxSize;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Returns the cache shared by the expression functions.
+     *
+     * @return the cache shared by the expression functions
+     */
+    public static PatternCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Builds a new cache holding at most {@code maxSize} patterns.
+     *
+     * @param maxSize
+     *         maximum number of cached patterns (must be strictly positive)
+     */
+    public PatternCache(final int maxSize) {
+        Reject.ifTrue(maxSize <= 0, "maxSize must be strictly positive");
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the compiled version of the given regular expression, compiling it if it was not cached already.
+     *
+     * @param regex
+     *         regular expression to compile
+     * @return the compiled pattern
+     * @throws PatternSyntaxException
+     *         if the expression's syntax is invalid
+     */
+    public Pattern compile(final String regex) {
+        Pattern pattern = patterns.get(regex);
+        if (pattern != null) {
+            hits.incrementAndGet();
+            return pattern;
+        }
+        misses.incrementAndGet();
+        pattern = Pattern.compile(regex);
+        if (patterns.size() >= maxSize) {
+            evictOne();
+        }
+        Pattern previous = patterns.putIfAbsent(regex, pattern);
+        return (previous != null) ? previous : pattern;
+    }
+
+    /**
+     * Compiles and caches the given regular expression, ignoring invalid ones.
+     *
+     * @param regex
+     *         regular expression to compile
+     */
+    public void warmUp(final String regex) {
+        if (!patterns.containsKey(regex)) {
+            try {
+                Pattern pattern = Pattern.compile(regex);
+                if (patterns.size() < maxSize) {
+                    patterns.putIfAbsent(regex, pattern);
+                }
+            } catch (PatternSyntaxException e) {
+                // Will be reported (or ignored) when actually used
+            }
+        }
+    }
+
+    private void evictOne() {
+        Iterator<String> iterator = patterns.keySet().iterator();
+        if (iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the number of cached patterns.
+     *
+     * @return the number of cached patterns
+     */
+    public int getSize() {
+        return patterns.size();
+    }
+
+    /**
+     * Returns the maximum number of cached patterns.
+     *
+     * @return the maximum number of cached patterns
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of lookups served from the cache.
+     *
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups that required a compilation.
+     *
+     * @return the number of cache misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of patterns evicted to make room for new ones.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the ratio of lookups served from the cache (between {@literal 0} and {@literal 1}).
+     *
+     * @return the cache hit ratio, or {@literal 0} if there was no lookup yet
+     */
+    public double getHitRatio() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return (total == 0) ? 0d : ((double) hitCount) / total;
+    }
+}
@@ -16,6 +16,20 @@
 
 package org.forgerock.openig.resolver;
 
+import static java.lang.invoke.MethodType.methodType;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
 import javax.el.BeanELResolver;
 import javax.el.ELContext;
 import javax.el.ELResolver;
@@ -24,18 +38,28 @@ import javax.el.VariableMapper;
 
 /**
  * Resolves Java Beans objects.
+ * <p>
+ * Bean properties are introspected once per class: accessor methods are resolved into {@link MethodHandle}s that
+ * are directly invoked afterwards. Properties whose accessors can't be turned into handles are resolved by an EL
+ * {@link BeanELResolver}.
  */
 public class BeanResolver implements Resolver {
 
+    /** Bean properties, per class ({@code null} if the class cannot be introspected). */
+    private static final ClassValue<Map<String, Property>> PROPERTIES = new ClassValue<Map<String, Property>>() {
+        @Override
+        protected Map<String, Property> computeValue(final Class<?> type) {
+            return introspect(type);
+        }
+    };
+
     private final BeanELResolver delegate;
-    private final ELContext context;
 
     /**
      * Builds a new BeanResolver around an EL {@link BeanELResolver} instance.
      */
     public BeanResolver() {
         delegate = new BeanELResolver();
-        context = new BasicELContext();
     }
 
     @Override
@@ -45,7 +69,24 @@ public class BeanResolver implements Resolver {
 
     @Override
     public Object get(final Object object, final Object element) {
+        Map<String, Property> properties = PROPERTIES.get(object.getClass());
+        if (properties != null && element != null) {
+            Property property = properties.get(element.toString());
+            if (property == null) {
+                // Not a bean property
+                return UNRESOLVED;
+            }
+            if (property.getter != null) {
+                try {
+                    return property.getter.invokeExact(object);
+                } catch (Throwable e) {
+                    // Ignored, considered as un-resolved
+                    return UNRESOLVED;
+                }
+            }
+        }
         try {
+            final ELContext context = new BasicELContext();
             final Object value = delegate.getValue(context, object, element);
             if (context.isPropertyResolved()) {
                 return value;
@@ -58,14 +99,113 @@ public class BeanResolver implements Resolver {
 
     @Override
     public Object put(final Object object, final Object element, final Object value) {
+        Map<String, Property> properties = PROPERTIES.get(object.getClass());
+        if (properties != null && element != null) {
+            Property property = properties.get(element.toString());
+            if (property == null) {
+                // Not a bean property
+                return UNRESOLVED;
+            }
+            if (property.setter != null) {
+                try {
+                    property.setter.invokeExact(object, value);
+                } catch (Throwable e) {
+                    // Ignored, let other resolvers take over
+                }
+                return UNRESOLVED;
+            }
+        }
         try {
-            delegate.setValue(context, object, element, value);
+            delegate.setValue(new BasicELContext(), object, element, value);
         } catch (Exception e) {
             // Ignored, let other resolvers take over
         }
         return UNRESOLVED;
     }
 
+    private static Map<String, Property> introspect(final Class<?> type) {
+        try {
+            Map<String, Property> properties = new HashMap<>();
+            for (PropertyDescriptor descriptor : Introspector.getBeanInfo(type).getPropertyDescriptors()) {
+                MethodHandle getter = handle(descriptor.getReadMethod(), methodType(Object.class, Object.class));
+                MethodHandle setter = handle(descriptor.getWriteMethod(),
+                                             methodType(void.class, Object.class, Object.class));
+                properties.put(descriptor.getName(), new Property(getter, setter));
+            }
+            return Collections.unmodifiableMap(properties);
+        } catch (IntrospectionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns a handle of the given accessor adapted to the given type, or {@code null} if it cannot be accessed.
+     */
+    private static MethodHandle handle(final Method method, final MethodType type) {
+        Method accessible = findAccessibleMethod(method);
+        if (accessible == null) {
+            return null;
+        }
+        try {
+            return MethodHandles.publicLookup().unreflect(accessible).asType(type);
+        } catch (IllegalAccessException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Finds a version of the given method that can be invoked (the same method declared in a public class or
+     * interface), falling back on making it accessible, as does {@link BeanELResolver}.
+     */
+    private static Method findAccessibleMethod(final Method method) {
+        Method result = findPublicAccessibleMethod(method);
+        if (result == null && method != null && Modifier.isPublic(method.getModifiers())) {
+            try {
+                method.setAccessible(true);
+                result = method;
+            } catch (RuntimeException e) {
+                result = null;
+            }
+        }
+        return result;
+    }
+
+    private static Method findPublicAccessibleMethod(final Method method) {
+        if (method == null || !Modifier.isPublic(method.getModifiers())) {
+            return null;
+        }
+        if (Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+            return method;
+        }
+        for (Class<?> iface : method.getDeclaringClass().getInterfaces()) {
+            Method candidate = findPublicAccessibleMethod(method, iface);
+            if (candidate != null) {
+                return candidate;
+            }
+        }
+        Class<?> superclass = method.getDeclaringClass().getSuperclass();
+        return (superclass == null) ? null : findPublicAccessibleMethod(method, superclass);
+    }
+
+    private static Method findPublicAccessibleMethod(final Method method, final Class<?> type) {
+        try {
+            return findPublicAccessibleMethod(type.getMethod(method.getName(), method.getParameterTypes()));
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /** Pre-resolved accessors of a bean property. */
+    private static final class Property {
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+
+        Property(final MethodHandle getter, final MethodHandle setter) {
+            this.getter = getter;
+            this.setter = setter;
+        }
+    }
+
     private class BasicELContext extends ELContext {
         @Override
         public ELResolver getELResolver() {
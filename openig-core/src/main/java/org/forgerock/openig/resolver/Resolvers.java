@@ -20,9 +20,10 @@ package org.forgerock.openig.resolver;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.forgerock.http.util.Loader;
 
@@ -45,6 +46,14 @@ public final class Resolvers {
     public static final Map<Class, Resolver> SERVICES = Collections.unmodifiableMap(Loader.loadMap(
             Class.class, Resolver.class));
 
+    /** Ordered resolvers, per class. */
+    private static final ClassValue<Resolver[]> CHAINS = new ClassValue<Resolver[]>() {
+        @Override
+        protected Resolver[] computeValue(final Class<?> type) {
+            return chain(type);
+        }
+    };
+
     /** Static methods only. */
     private Resolvers() {
     }
@@ -52,66 +61,15 @@ public final class Resolvers {
     /**
      * Provides an iterable object over the resolvers that are appropriate for a
      * particular object. Resolvers are provided ordered from most specific to
-     * class/interface to least. Resolvers are provided through an iterator
-     * interface to avoid the overhead of determining all resolvers in advance.
+     * class/interface to least. The ordered resolvers are computed once per
+     * class, and then cached.
      *
      * @param object the object for which a set of resolvers is being sought.
      * @return an object that returns an iterator over the set of resolvers for
      * the object.
      */
     public static Iterable<Resolver> resolvers(final Object object) {
-        return new Iterable<Resolver>() {
-            public Iterator<Resolver> iterator() {
-                return (object.getClass().isArray() ? ARRAY_RESOLVER.iterator() : new Iterator<Resolver>() {
-                    Class<?> class1 = object.getClass();
-                    Class<?> class2 = class1;
-                    Iterator<Class<?>> interfaces = null;
-                    int n = 0;
-
-                    public boolean hasNext() {
-                        // interface hierarchy not yet exhausted
-                        return (class2 != null);
-                    }
-
-                    public Resolver next() {
-                        while (class1 != null) {
-                            // class hierarchy
-                            Resolver resolver = SERVICES.get(class1);
-                            class1 = class1.getSuperclass();
-                            if (resolver != null) {
-                                return resolver;
-                            }
-                        }
-                        // exhausted class hierarchy
-                        class1 = null;
-                        while (class2 != null && class2 != Object.class) {
-                            // interface hierarchy
-                            if (interfaces != null && interfaces.hasNext()) {
-                                Resolver resolver = SERVICES.get(interfaces.next());
-                                if (resolver != null) {
-                                    return resolver;
-                                }
-                            } else {
-                                List<Class<?>> list = getInterfaces(class2, n++);
-                                if (list.size() > 0) {
-                                    interfaces = list.iterator();
-                                } else {
-                                    class2 = class2.getSuperclass();
-                                    n = 0;
-                                }
-                            }
-                        }
-                        // exhausted interface hierarchy
-                        class2 = null;
-                        return new Unresolver();
-                    }
-
-                    public void remove() {
-                        throw new UnsupportedOperationException();
-                    }
-                });
-            }
-        };
+        return Collections.unmodifiableList(Arrays.asList(CHAINS.get(object.getClass())));
     }
 
     /**
@@ -124,7 +82,7 @@ public final class Resolvers {
      * @see Resolver#get(Object, Object)
      */
     public static Object get(Object object, Object element) {
-        for (Resolver resolver : resolvers(object)) {
+        for (Resolver resolver : CHAINS.get(object.getClass())) {
             Object value = resolver.get(object, element);
             if (value != Resolver.UNRESOLVED) {
                 // first hit wins
@@ -147,7 +105,7 @@ public final class Resolvers {
      * @see Resolver#put(Object, Object, Object)
      */
     public static Object put(Object object, Object element, Object value) {
-        for (Resolver resolver : resolvers(object)) {
+        for (Resolver resolver : CHAINS.get(object.getClass())) {
             Object resolved = resolver.put(object, element, value);
             if (resolved != Resolver.UNRESOLVED) {
                 // first hit wins
@@ -157,6 +115,41 @@ public final class Resolvers {
         return Resolver.UNRESOLVED;
     }
 
+    /**
+     * Computes the ordered resolvers of the given class: resolvers of the class hierarchy first, then resolvers of
+     * the interfaces (level by level) of each class of the hierarchy, and finally an {@link Unresolver}.
+     */
+    private static Resolver[] chain(final Class<?> type) {
+        if (type.isArray()) {
+            return ARRAY_RESOLVER.toArray(new Resolver[ARRAY_RESOLVER.size()]);
+        }
+        Set<Resolver> chain = new LinkedHashSet<>();
+        // class hierarchy
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            addIfPresent(chain, SERVICES.get(c));
+        }
+        // interface hierarchy
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (int level = 0;; level++) {
+                List<Class<?>> interfaces = getInterfaces(c, level);
+                if (interfaces.isEmpty()) {
+                    break;
+                }
+                for (Class<?> iface : interfaces) {
+                    addIfPresent(chain, SERVICES.get(iface));
+                }
+            }
+        }
+        chain.add(new Unresolver());
+        return chain.toArray(new Resolver[chain.size()]);
+    }
+
+    private static void addIfPresent(final Set<Resolver> chain, final Resolver resolver) {
+        if (resolver != null) {
+            chain.add(resolver);
+        }
+    }
+
     private static List<Class<?>> getInterfaces(Class<?> c, int level) {
         List<Class<?>> interfaces;
         if (level == 0) {
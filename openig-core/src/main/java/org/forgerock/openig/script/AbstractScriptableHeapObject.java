@@ -16,10 +16,13 @@
 package org.forgerock.openig.script;
 
 import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.forgerock.json.JsonValueFunctions.duration;
 import static org.forgerock.openig.el.Bindings.bindings;
 import static org.forgerock.openig.el.Expressions.evaluate;
 import static org.forgerock.openig.heap.Keys.CLIENT_HANDLER_HEAP_KEY;
 import static org.forgerock.openig.heap.Keys.ENVIRONMENT_HEAP_KEY;
+import static org.forgerock.openig.heap.Keys.SCHEDULED_EXECUTOR_SERVICE_HEAP_KEY;
 import static org.forgerock.openig.util.JsonValues.evaluated;
 import static org.forgerock.openig.util.JsonValues.requiredHeapObject;
 import static org.forgerock.util.promise.Promises.newExceptionPromise;
@@ -29,6 +32,8 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 
 import javax.script.ScriptException;
 
@@ -43,8 +48,10 @@ import org.forgerock.openig.heap.GenericHeaplet;
 import org.forgerock.openig.heap.Heap;
 import org.forgerock.openig.heap.HeapException;
 import org.forgerock.openig.ldap.LdapClient;
+import org.forgerock.openig.ldap.LdapConnectionPool;
 import org.forgerock.services.context.Context;
 import org.forgerock.util.promise.Promise;
+import org.forgerock.util.time.Duration;
 
 /**
  * An abstract scriptable heap object acts as a simple wrapper around the scripting engine. This class is a base class
@@ -57,11 +64,24 @@ import org.forgerock.util.promise.Promise;
  * <li>{@link Map contexts} - the visible contexts, keyed by context's name
  * <li>{@link Client http} - an HTTP client which may be used for performing outbound HTTP requests
  * <li>{@link LdapClient ldap} - an OpenIG LDAP client which may be used for
- * performing LDAP requests such as LDAP authentication
+ * performing LDAP requests such as LDAP authentication (bound to the {@link LdapConnectionPool} referenced by the
+ * optional {@code ldapConnectionPool} attribute)
  * <li>{@link org.forgerock.openig.log.Logger logger} - the OpenIG logger
  * <li>{@link Heap heap} - the heap.
  * </ul>
  * <p>
+ * Scripts are compiled once, when the heap object is created. The following optional attributes control the
+ * compilation:
+ * <ul>
+ * <li>{@code compileStatic} - {@literal true} to statically compile the script (see {@link Script}), defaults to
+ * {@literal false}
+ * <li>{@code reloadInterval} - for file based scripts only, the delay between two checks of the script file (and of
+ * the scripts it depends on): when a change is detected, the script is recompiled in the background and the
+ * following executions use the new version. Disabled by default.
+ * <li>{@code executor} - the {@link ScheduledExecutorService} used to check the script file, defaults to the heap's
+ * scheduled executor
+ * </ul>
+ * <p>
  * <b>NOTE :</b> at the moment only Groovy is supported.
  *
  * @param <V> The expected result type of the {@link Promise}. As a convenience, this class supports non-Promise type to
@@ -75,15 +95,25 @@ public abstract class AbstractScriptableHeapObject<V> extends GenericHeapObject
         private static final String CONFIG_OPTION_SOURCE = "source";
         private static final String CONFIG_OPTION_TYPE = "type";
         private static final String CONFIG_OPTION_ARGS = "args";
+        private static final String CONFIG_OPTION_COMPILE_STATIC = "compileStatic";
+        private static final String CONFIG_OPTION_RELOAD_INTERVAL = "reloadInterval";
+
+        private ScheduledFuture<?> reloading;
 
         @Override
         public Object create() throws HeapException {
             final Script script = compileScript();
+            scheduleReload(script);
             final AbstractScriptableHeapObject<?> component = newInstance(script, heap);
             Handler clientHandler = config.get("clientHandler")
                                           .defaultTo(CLIENT_HANDLER_HEAP_KEY)
                                           .as(requiredHeapObject(heap, Handler.class));
             component.setClientHandler(clientHandler);
+            if (config.isDefined("ldapConnectionPool")) {
+                LdapConnectionPool pool = config.get("ldapConnectionPool")
+                                                .as(requiredHeapObject(heap, LdapConnectionPool.class));
+                component.setLdapClient(new LdapClient(pool));
+            }
             if (config.isDefined(CONFIG_OPTION_ARGS)) {
                 component.setArgs(config.get(CONFIG_OPTION_ARGS).asMap());
             }
@@ -121,6 +151,10 @@ public abstract class AbstractScriptableHeapObject<V> extends GenericHeapObject
                         + "' is required and must specify the script mime-type");
             }
             final String mimeType = config.get(CONFIG_OPTION_TYPE).asString();
+            final boolean compileStatic = config.get(CONFIG_OPTION_COMPILE_STATIC)
+                                                .as(evaluated())
+                                                .defaultTo(false)
+                                                .asBoolean();
             if (config.isDefined(CONFIG_OPTION_SOURCE)) {
                 if (config.isDefined(CONFIG_OPTION_FILE)) {
                     throw new JsonValueException(config, "Both configuration options '"
@@ -129,7 +163,7 @@ public abstract class AbstractScriptableHeapObject<V> extends GenericHeapObject
                 }
                 final String source = config.get(CONFIG_OPTION_SOURCE).asString();
                 try {
-                    return Script.fromSource(environment, mimeType, source);
+                    return Script.fromSource(environment, mimeType, source, compileStatic);
                 } catch (final ScriptException e) {
                     throw new JsonValueException(config,
                             "Unable to compile the script defined in '" + CONFIG_OPTION_SOURCE
@@ -139,7 +173,7 @@ public abstract class AbstractScriptableHeapObject<V> extends GenericHeapObject
             } else if (config.isDefined(CONFIG_OPTION_FILE)) {
                 final String script = config.get(CONFIG_OPTION_FILE).as(evaluated()).asString();
                 try {
-                    return Script.fromFile(environment, mimeType, script);
+                    return Script.fromFile(environment, mimeType, script, compileStatic);
                 } catch (final ScriptException e) {
                     throw new JsonValueException(config, "Unable to compile the script in file '"
                             + script + "'", e);
@@ -151,15 +185,53 @@ public abstract class AbstractScriptableHeapObject<V> extends GenericHeapObject
             }
         }
 
+        private void scheduleReload(final Script script) throws HeapException {
+            if (!config.isDefined(CONFIG_OPTION_RELOAD_INTERVAL) || !config.isDefined(CONFIG_OPTION_FILE)) {
+                return;
+            }
+            final Duration interval = config.get(CONFIG_OPTION_RELOAD_INTERVAL).as(evaluated()).as(duration());
+            if (interval.isZero() || interval.isUnlimited()) {
+                return;
+            }
+            final ScheduledExecutorService executor = config.get("executor")
+                                                            .defaultTo(SCHEDULED_EXECUTOR_SERVICE_HEAP_KEY)
+                                                            .as(requiredHeapObject(heap,
+                                                                                   ScheduledExecutorService.class));
+            final String file = config.get(CONFIG_OPTION_FILE).as(evaluated()).asString();
+            final long delay = interval.to(MILLISECONDS);
+            reloading = executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (script.reload()) {
+                            logger.info(format("Script '%s' has been reloaded", file));
+                        }
+                    } catch (ScriptException e) {
+                        // Keep running the previous version of the script
+                        logger.warning(format("Unable to reload the script in file '%s'", file));
+                        logger.warning(e);
+                    } catch (RuntimeException e) {
+                        logger.error(e);
+                    }
+                }
+            }, delay, delay, MILLISECONDS);
+        }
+
+        @Override
+        public void destroy() {
+            if (reloading != null) {
+                reloading.cancel(false);
+            }
+            super.destroy();
+        }
     }
 
-    // TODO: add support for periodically refreshing the Groovy script file.
     // TODO: json/xml/sql/crest bindings.
 
     private final Script compiledScript;
     private final Heap heap;
     private Handler clientHandler;
-    private final LdapClient ldapClient = LdapClient.getInstance();
+    private LdapClient ldapClient = LdapClient.getInstance();
     private final Map<String, Object> scriptGlobals = new ConcurrentHashMap<>();
     private Map<String, Object> args;
 
@@ -183,6 +255,15 @@ public abstract class AbstractScriptableHeapObject<V> extends GenericHeapObject
         this.clientHandler = clientHandler;
     }
 
+    /**
+     * Sets the LDAP client which should be made available to scripts.
+     *
+     * @param ldapClient The LDAP client which should be made available to scripts.
+     */
+    public void setLdapClient(final LdapClient ldapClient) {
+        this.ldapClient = ldapClient;
+    }
+
     /**
      * Sets the parameters which should be made available to scripts.
      *
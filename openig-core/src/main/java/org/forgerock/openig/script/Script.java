@@ -17,23 +17,35 @@ package org.forgerock.openig.script;
 
 import static org.forgerock.util.Utils.joinAsString;
 
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
 import java.net.URL;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.script.ScriptException;
 
 import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.customizers.ASTTransformationCustomizer;
 import org.codehaus.groovy.control.customizers.ImportCustomizer;
+import org.codehaus.groovy.runtime.InvokerHelper;
 import org.forgerock.openig.config.Environment;
 
 import groovy.lang.Binding;
+import groovy.transform.CompileStatic;
 import groovy.util.GroovyScriptEngine;
 
 /**
  * A compiled script.
+ * <p>
+ * Scripts are compiled once, when they are loaded: running a script only instantiates the compiled class with the
+ * provided bindings. Changes of file based scripts (and of the scripts they depend on) are only taken into account
+ * when {@link #reload()} is called.
+ * <p>
+ * Scripts can optionally be statically compiled (as if they were annotated with {@link CompileStatic}): the
+ * bindings then have to be accessed through the {@code binding} property, with explicit types (e.g.
+ * {@code Request request = (Request) binding.getVariable('request')}).
  */
 public final class Script {
     /**
@@ -41,33 +53,82 @@ public final class Script {
      */
     private static final class GroovyImpl implements Impl {
         private final GroovyScriptEngine engine;
+        /** Script file name, or {@code null} for scripts compiled from their source. */
         private final String fileName;
+        private volatile CompiledClass compiled;
 
-        private GroovyImpl(final GroovyScriptEngine engine, final String fileName) throws ScriptException {
+        private GroovyImpl(final GroovyScriptEngine engine, final String fileName, final Class<?> type) {
             this.engine = engine;
             this.fileName = fileName;
-            // Compile a class for the script, that will trigger a first set of errors for invalid scripts
-            try {
-                engine.loadScriptByName(fileName);
-            } catch (Exception e) {
-                throw new ScriptException(e);
-            }
+            this.compiled = new CompiledClass(type);
         }
 
         @Override
         public Object run(final Map<String, Object> bindings) throws ScriptException {
             try {
-                return engine.run(fileName, new Binding(bindings));
+                return compiled.newInstance(new Binding(bindings)).run();
             } catch (final Exception e) {
                 throw new ScriptException(e);
             } catch (final Throwable e) {
                 throw new ScriptException(new Exception(e));
             }
         }
+
+        @Override
+        public boolean reload() throws ScriptException {
+            if (fileName == null) {
+                return false;
+            }
+            // The engine only recompiles the script if it (or one of its dependencies) changed
+            final Class<?> type = loadScriptByName(engine, fileName);
+            if (type == compiled.type) {
+                return false;
+            }
+            compiled = new CompiledClass(type);
+            return true;
+        }
+    }
+
+    /**
+     * A compiled script class, along with its {@link Binding} constructor.
+     */
+    private static final class CompiledClass {
+        private final Class<?> type;
+        private final Constructor<? extends groovy.lang.Script> constructor;
+
+        private CompiledClass(final Class<?> type) {
+            this.type = type;
+            this.constructor = bindingConstructor(type);
+        }
+
+        private groovy.lang.Script newInstance(final Binding binding) throws Exception {
+            if (constructor == null) {
+                // Not a regular script (e.g. a class with a main method)
+                return InvokerHelper.createScript(type, binding);
+            }
+            try {
+                return constructor.newInstance(binding);
+            } catch (InvocationTargetException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+
+        private static Constructor<? extends groovy.lang.Script> bindingConstructor(final Class<?> type) {
+            if (!groovy.lang.Script.class.isAssignableFrom(type)) {
+                return null;
+            }
+            try {
+                return type.asSubclass(groovy.lang.Script.class).getConstructor(Binding.class);
+            } catch (NoSuchMethodException e) {
+                return null;
+            }
+        }
     }
 
     private interface Impl {
         Object run(Map<String, Object> bindings) throws ScriptException;
+
+        boolean reload() throws ScriptException;
     }
 
     /**
@@ -82,19 +143,24 @@ public final class Script {
 
     private static final String EOL = System.getProperty("line.separator");
 
+    /**
+     * Used to give a unique name to the scripts compiled from their source.
+     */
+    private static final AtomicInteger SOURCE_COUNT = new AtomicInteger();
+
     private static final Object INIT_LOCK = new Object();
     /**
-     * The groovy script cache directory.
+     * The groovy script engine.
      *
      * @GuardedBy initializationLock
      */
-    private static volatile File groovyScriptCacheDir;
+    private static volatile GroovyScriptEngine groovyScriptEngine;
     /**
-     * The groovy script engine.
+     * The groovy script engine statically compiling the scripts.
      *
      * @GuardedBy initializationLock
      */
-    private static volatile GroovyScriptEngine groovyScriptEngine;
+    private static volatile GroovyScriptEngine staticGroovyScriptEngine;
 
     /**
      * Loads a script having the provided content type and file name.
@@ -108,9 +174,26 @@ public final class Script {
     public static Script fromFile(final Environment environment,
                                   final String mimeType,
                                   final String file) throws ScriptException {
+        return fromFile(environment, mimeType, file, false);
+    }
+
+    /**
+     * Loads a script having the provided content type and file name.
+     *
+     * @param environment The application environment.
+     * @param mimeType The script language mime-type.
+     * @param file The location of the script to be loaded.
+     * @param compileStatic {@literal true} if the script has to be statically compiled.
+     * @return The script.
+     * @throws ScriptException If the script could not be loaded.
+     */
+    public static Script fromFile(final Environment environment,
+                                  final String mimeType,
+                                  final String file,
+                                  final boolean compileStatic) throws ScriptException {
         if (GROOVY_MIME_TYPE.equals(mimeType)) {
-            final GroovyScriptEngine engine = getGroovyScriptEngine(environment);
-            final Impl impl = new GroovyImpl(engine, file);
+            final GroovyScriptEngine engine = getGroovyScriptEngine(environment, compileStatic);
+            final Impl impl = new GroovyImpl(engine, file, loadScriptByName(engine, file));
             return new Script(impl);
         } else {
             throw new ScriptException("Invalid script mime-type '" + mimeType + "': only '"
@@ -145,19 +228,31 @@ public final class Script {
     public static Script fromSource(final Environment environment,
                                     final String mimeType,
                                     final String source) throws ScriptException {
+        return fromSource(environment, mimeType, source, false);
+    }
+
+    /**
+     * Loads a script having the provided content type and content.
+     *
+     * @param environment The application environment.
+     * @param mimeType The script language mime-type.
+     * @param source The script content.
+     * @param compileStatic {@literal true} if the script has to be statically compiled.
+     * @return The script.
+     * @throws ScriptException If the script could not be loaded.
+     */
+    public static Script fromSource(final Environment environment,
+                                    final String mimeType,
+                                    final String source,
+                                    final boolean compileStatic) throws ScriptException {
         if (GROOVY_MIME_TYPE.equals(mimeType)) {
-            final GroovyScriptEngine engine = getGroovyScriptEngine(environment);
-            final File groovyScriptCacheDir = getGroovyScriptCacheDir();
+            final GroovyScriptEngine engine = getGroovyScriptEngine(environment, compileStatic);
+            // Compiled in memory, with the engine's class loader so that the script can use the other scripts
+            final String name = "script" + SOURCE_COUNT.incrementAndGet() + ".groovy";
             try {
-                final File cachedScript =
-                        File.createTempFile("script-", ".groovy", groovyScriptCacheDir);
-                cachedScript.deleteOnExit();
-                final FileWriter writer = new FileWriter(cachedScript);
-                writer.write(source);
-                writer.close();
-                final Impl impl = new GroovyImpl(engine, cachedScript.toURI().toURL().toString());
+                final Impl impl = new GroovyImpl(engine, null, engine.getGroovyClassLoader().parseClass(source, name));
                 return new Script(impl);
-            } catch (final IOException e) {
+            } catch (final Exception e) {
                 throw new ScriptException(e);
             }
         } else {
@@ -166,68 +261,42 @@ public final class Script {
         }
     }
 
-    private static File getGroovyScriptCacheDir() throws ScriptException {
-        File cacheDir = groovyScriptCacheDir;
-        if (cacheDir != null) {
-            return cacheDir;
-        }
-
-        synchronized (INIT_LOCK) {
-            cacheDir = groovyScriptCacheDir;
-            if (cacheDir != null) {
-                return cacheDir;
-            }
-
-            try {
-                cacheDir = File.createTempFile("openig-groovy-script-cache-", null);
-                cacheDir.delete();
-                cacheDir.mkdir();
-                cacheDir.deleteOnExit();
-            } catch (final IOException e) {
-                throw new ScriptException(e);
-            }
-
-            // Assign only after having fully initialized the cache directory.
-            groovyScriptCacheDir = cacheDir;
-            return cacheDir;
+    private static Class<?> loadScriptByName(final GroovyScriptEngine engine, final String fileName)
+            throws ScriptException {
+        // Compile a class for the script, that will trigger a first set of errors for invalid scripts
+        try {
+            return engine.loadScriptByName(fileName);
+        } catch (Exception e) {
+            throw new ScriptException(e);
         }
     }
 
-    private static GroovyScriptEngine getGroovyScriptEngine(final Environment environment)
+    private static GroovyScriptEngine getGroovyScriptEngine(final Environment environment,
+                                                            final boolean compileStatic)
             throws ScriptException {
-        GroovyScriptEngine engine = groovyScriptEngine;
+        GroovyScriptEngine engine = compileStatic ? staticGroovyScriptEngine : groovyScriptEngine;
         if (engine != null) {
             return engine;
         }
 
         synchronized (INIT_LOCK) {
-            engine = groovyScriptEngine;
+            engine = compileStatic ? staticGroovyScriptEngine : groovyScriptEngine;
             if (engine != null) {
                 return engine;
             }
 
-            final String classPath = environment.getScriptDirectory("groovy").getAbsolutePath();
-            try {
-                engine = new GroovyScriptEngine(classPath);
-            } catch (final IOException e) {
-                throw new ScriptException(e);
+            if (compileStatic) {
+                // The Groovy environment is bootstrapped by the default engine
+                getGroovyScriptEngine(environment, false);
+                engine = newGroovyScriptEngine(environment);
+                engine.getConfig().addCompilationCustomizers(new ASTTransformationCustomizer(CompileStatic.class));
+
+                // Assign only after having fully initialized the engine.
+                staticGroovyScriptEngine = engine;
+                return engine;
             }
 
-            CompilerConfiguration compilerConfiguration = engine.getConfig();
-            // Set some defaults imports
-            ImportCustomizer importCustomizer = new ImportCustomizer();
-            importCustomizer.addImports("org.forgerock.http.Client",
-                                        "org.forgerock.http.Filter",
-                                        "org.forgerock.http.Handler",
-                                        "org.forgerock.http.filter.throttling.ThrottlingRate",
-                                        "org.forgerock.http.util.Uris",
-                                        "org.forgerock.util.AsyncFunction",
-                                        "org.forgerock.util.Function",
-                                        "org.forgerock.util.promise.NeverThrowsException",
-                                        "org.forgerock.util.promise.Promise",
-                                        "org.forgerock.services.context.Context")
-                            .addStarImports("org.forgerock.http.protocol");
-            compilerConfiguration.addCompilationCustomizers(importCustomizer);
+            engine = newGroovyScriptEngine(environment);
 
             // Bootstrap the Groovy environment, e.g. add meta-classes.
             final URL bootstrap =
@@ -244,6 +313,33 @@ public final class Script {
         }
     }
 
+    private static GroovyScriptEngine newGroovyScriptEngine(final Environment environment) throws ScriptException {
+        final String classPath = environment.getScriptDirectory("groovy").getAbsolutePath();
+        final GroovyScriptEngine engine;
+        try {
+            engine = new GroovyScriptEngine(classPath);
+        } catch (final IOException e) {
+            throw new ScriptException(e);
+        }
+
+        CompilerConfiguration compilerConfiguration = engine.getConfig();
+        // Set some defaults imports
+        ImportCustomizer importCustomizer = new ImportCustomizer();
+        importCustomizer.addImports("org.forgerock.http.Client",
+                                    "org.forgerock.http.Filter",
+                                    "org.forgerock.http.Handler",
+                                    "org.forgerock.http.filter.throttling.ThrottlingRate",
+                                    "org.forgerock.http.util.Uris",
+                                    "org.forgerock.util.AsyncFunction",
+                                    "org.forgerock.util.Function",
+                                    "org.forgerock.util.promise.NeverThrowsException",
+                                    "org.forgerock.util.promise.Promise",
+                                    "org.forgerock.services.context.Context")
+                        .addStarImports("org.forgerock.http.protocol");
+        compilerConfiguration.addCompilationCustomizers(importCustomizer);
+        return engine;
+    }
+
     private final Impl impl;
 
     private Script(final Impl impl) {
@@ -262,4 +358,17 @@ public final class Script {
     public Object run(final Map<String, Object> bindings) throws ScriptException {
         return impl.run(bindings);
     }
+
+    /**
+     * Recompiles this script if it has been loaded from a file, and if that file (or one of the scripts it
+     * depends on) changed since it was compiled. If the recompilation fails, the script keeps running the
+     * previously compiled version.
+     *
+     * @return {@literal true} if the script has been recompiled
+     * @throws ScriptException
+     *             If the script could not be recompiled.
+     */
+    public boolean reload() throws ScriptException {
+        return impl.reload();
+    }
 }
@@ -12,7 +12,7 @@
  * information: "Portions Copyright [year] [name of copyright owner]".
  *
  * Copyright 2010-2011 ApexIdentity Inc.
- * Portions Copyright 2011-2015 ForgeRock AS.
+ * Portions Copyright 2011-2016 ForgeRock AS.
  */
 
 package org.forgerock.openig.text;
@@ -27,14 +27,23 @@ import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Allows records to be retrieved from a delimiter-separated file using key and value. Once
  * constructed, an instance of this class is thread-safe, meaning the object can be long-lived,
  * and multiple concurrent calls to {@link #getRecord(String, String) getRecord} is fully
  * supported.
+ * <p>
+ * By default, each lookup reads the file sequentially until a matching record is found. When the key fields used
+ * for the lookups are declared with {@link #getIndexedKeys()}, the file is memory-mapped and a hash index of the
+ * records is built on these fields on the first lookup: the matching records are then directly parsed at their
+ * offset. The index is refreshed when the file is modified: only the new records are indexed when the file has only
+ * been appended to. Indexing is only available for {@literal UTF-8}, {@literal US-ASCII} and {@literal ISO-8859-1}
+ * files that are not larger than 2GB, other files are always read sequentially.
  */
 public class SeparatedValuesFile {
 
@@ -56,6 +65,12 @@ public class SeparatedValuesFile {
      */
     private final List<String> fields = new ArrayList<>();
 
+    /** Fields on which an index has to be built to speed up the lookups. */
+    private final Set<String> indexedKeys = new LinkedHashSet<>();
+
+    /** Index of the records, built on the first indexed lookup. */
+    private volatile SeparatedValuesIndex index;
+
     /**
      * Builds a new SeparatedValuesFile reading the given {@code file} using a the {@link Separators#COMMA}
      * separator specification and {@code UTF-8} charset. This constructor consider the file has a header line.
@@ -138,6 +153,56 @@ public class SeparatedValuesFile {
         return fields;
     }
 
+    /**
+     * Returns the fields on which an index has to be built to speed up the lookups (empty by default). They have
+     * to be set before the first lookup.
+     * @return the fields on which an index has to be built
+     */
+    public Set<String> getIndexedKeys() {
+        return indexedKeys;
+    }
+
+    /**
+     * Builds (or refreshes) the index of the records, if some {@link #getIndexedKeys() indexed keys} are defined
+     * and the file can be indexed. Calling this method is optional, the index is otherwise built on the first
+     * indexed lookup.
+     *
+     * @return {@literal true} if the records are indexed
+     * @throws IOException if an I/O exception occurs.
+     */
+    public boolean buildIndex() throws IOException {
+        return index() != null;
+    }
+
+    /**
+     * Returns the number of indexed records, or {@literal -1} if the records are not indexed (yet).
+     * @return the number of indexed records, or {@literal -1} if the records are not indexed
+     */
+    public int getIndexedRecordCount() {
+        SeparatedValuesIndex current = index;
+        return (current != null) ? current.getRecordCount() : -1;
+    }
+
+    /**
+     * Returns the time (in milliseconds) spent by the last index build or refresh, or {@literal -1} if the records
+     * are not indexed (yet).
+     * @return the time (in milliseconds) spent by the last index build or refresh
+     */
+    public long getIndexBuildTime() {
+        SeparatedValuesIndex current = index;
+        return (current != null) ? current.getBuildTime() : -1L;
+    }
+
+    /**
+     * Returns the heap memory (in bytes) used by the index, excluding the memory-mapped file, or {@literal 0} if the
+     * records are not indexed (yet).
+     * @return the heap memory (in bytes) used by the index
+     */
+    public long getIndexMemorySize() {
+        SeparatedValuesIndex current = index;
+        return (current != null) ? current.getMemorySize() : 0L;
+    }
+
     /**
      * Returns a record from the file where the specified key is equal to the specified value.
      *
@@ -147,6 +212,47 @@ public class SeparatedValuesFile {
      * @throws IOException if an I/O exception occurs.
      */
     public Map<String, String> getRecord(String key, String value) throws IOException {
+        if (indexedKeys.contains(key)) {
+            SeparatedValuesIndex current = index();
+            if (current != null) {
+                return current.getRecord(key, value);
+            }
+        }
+        return scan(key, value);
+    }
+
+    private SeparatedValuesIndex index() throws IOException {
+        if (indexedKeys.isEmpty() || !SeparatedValuesIndex.supports(charset)) {
+            return null;
+        }
+        SeparatedValuesIndex current = index;
+        if (current == null || current.isStale()) {
+            synchronized (this) {
+                current = index;
+                if (current == null || current.isStale()) {
+                    if (!SeparatedValuesIndex.supports(file)) {
+                        // Fall back to sequential reads
+                        index = null;
+                        return null;
+                    }
+                    if (current == null) {
+                        current = SeparatedValuesIndex.build(file,
+                                                             charset,
+                                                             separator,
+                                                             header,
+                                                             new ArrayList<>(fields),
+                                                             new ArrayList<>(indexedKeys));
+                    } else {
+                        current = current.refresh();
+                    }
+                    index = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private Map<String, String> scan(String key, String value) throws IOException {
         Map<String, String> map = null;
         SeparatedValuesReader reader = new SeparatedValuesReader(
                 new InputStreamReader(new FileInputStream(file), charset),
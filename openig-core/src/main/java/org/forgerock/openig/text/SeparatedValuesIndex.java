@@ -0,0 +1,533 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.text;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * An immutable hash index of the records of a memory-mapped delimiter-separated file, built on one or more key
+ * fields.
+ * <p>
+ * For each indexed field, an open-addressing table associates the hash of the (unquoted and unescaped) field value
+ * bytes with the offset of the record in the file: a lookup parses the few candidate records only, and returns the
+ * first one (in file order) whose field is equal to the searched value, just like a sequential scan.
+ * <p>
+ * The records are parsed directly in the mapped bytes, so only charsets where the separator, quote, escape and line
+ * feed characters are always encoded as single bytes that cannot appear in any other character are supported (see
+ * {@link #supports(Charset)}), and the file must not be larger than 2GB.
+ */
+final class SeparatedValuesIndex {
+
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+
+    /** Size of the regions (at the beginning and at the end of the file) used to detect appends. */
+    private static final int CHECKED_REGION_SIZE = 4096;
+
+    private final File file;
+    private final Charset charset;
+    private final Separator separator;
+    private final boolean header;
+    private final List<String> explicitFields;
+    private final Collection<String> keys;
+
+    /** Snapshot of the file when it has been indexed. */
+    private final long lastModified;
+    private final int length;
+    private final long headChecksum;
+    private final long tailChecksum;
+    /** Is the last record terminated by an unquoted line feed (so that appended content starts a new record)? */
+    private final boolean terminated;
+
+    private final MappedByteBuffer buffer;
+    private final List<String> fields;
+    private final Map<String, Table> tables;
+    private final int recordCount;
+    private final long buildTime;
+
+    private SeparatedValuesIndex(final Builder builder, final long buildTime) {
+        this.file = builder.file;
+        this.charset = builder.charset;
+        this.separator = builder.separator;
+        this.header = builder.header;
+        this.explicitFields = builder.explicitFields;
+        this.keys = builder.keys;
+        this.lastModified = builder.lastModified;
+        this.length = builder.buffer.limit();
+        this.headChecksum = checksum(builder.buffer, 0, Math.min(length, CHECKED_REGION_SIZE));
+        this.tailChecksum = checksum(builder.buffer, Math.max(0, length - CHECKED_REGION_SIZE), length);
+        this.terminated = builder.terminated;
+        this.buffer = builder.buffer;
+        this.fields = builder.fields;
+        this.tables = builder.tables;
+        this.recordCount = builder.recordCount;
+        this.buildTime = buildTime;
+    }
+
+    /**
+     * Returns {@literal true} if the files encoded with the given charset can be indexed.
+     *
+     * @param charset
+     *         the charset of the file
+     * @return {@literal true} if the files encoded with the given charset can be indexed
+     */
+    static boolean supports(final Charset charset) {
+        return UTF_8.equals(charset) || US_ASCII.equals(charset) || ISO_8859_1.equals(charset);
+    }
+
+    /**
+     * Returns {@literal true} if the given file can be indexed (regarding its size).
+     *
+     * @param file
+     *         the file to index
+     * @return {@literal true} if the given file can be indexed
+     */
+    static boolean supports(final File file) {
+        return file.length() <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * Indexes the given file.
+     *
+     * @param file
+     *         the file to index
+     * @param charset
+     *         the charset of the file, that has to be {@link #supports(Charset) supported}
+     * @param separator
+     *         the separator specification
+     * @param header
+     *         does the file has a header first line ?
+     * @param explicitFields
+     *         explicit field keys, overriding the header (may be empty)
+     * @param keys
+     *         the fields to index
+     * @return the new index
+     * @throws IOException
+     *         if the file cannot be read
+     */
+    static SeparatedValuesIndex build(final File file,
+                                      final Charset charset,
+                                      final Separator separator,
+                                      final boolean header,
+                                      final List<String> explicitFields,
+                                      final Collection<String> keys) throws IOException {
+        long start = System.nanoTime();
+        Builder builder = new Builder(file, charset, separator, header, explicitFields, keys);
+        builder.map();
+        int offset = 0;
+        if (header) {
+            List<String> names = new ArrayList<>();
+            offset = builder.parser.parse(offset, names);
+            if (offset < 0) {
+                offset = builder.buffer.limit();
+            }
+            if (explicitFields.isEmpty()) {
+                builder.fields = names;
+            }
+        }
+        for (String key : keys) {
+            int column = builder.fields.indexOf(key);
+            if (column >= 0) {
+                builder.tables.put(key, new Table(column, 16));
+            }
+        }
+        builder.index(offset);
+        return new SeparatedValuesIndex(builder, NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Returns {@literal true} if the file has been modified since it has been indexed.
+     *
+     * @return {@literal true} if the file has been modified since it has been indexed
+     */
+    boolean isStale() {
+        return file.lastModified() != lastModified || file.length() != length;
+    }
+
+    /**
+     * Returns an index of the current content of the file: if records have only been appended to the file, only
+     * the new records are indexed, otherwise the whole file is indexed again.
+     *
+     * @return an index of the current content of the file
+     * @throws IOException
+     *         if the file cannot be read
+     */
+    SeparatedValuesIndex refresh() throws IOException {
+        long start = System.nanoTime();
+        Builder builder = new Builder(file, charset, separator, header, explicitFields, keys);
+        builder.map();
+        MappedByteBuffer mapped = builder.buffer;
+        if (!terminated
+                || mapped.limit() <= length
+                || checksum(mapped, 0, Math.min(length, CHECKED_REGION_SIZE)) != headChecksum
+                || checksum(mapped, Math.max(0, length - CHECKED_REGION_SIZE), length) != tailChecksum) {
+            return build(file, charset, separator, header, explicitFields, keys);
+        }
+        // Records have been appended: index the new ones only
+        builder.fields = fields;
+        for (Map.Entry<String, Table> entry : tables.entrySet()) {
+            builder.tables.put(entry.getKey(), entry.getValue().copy());
+        }
+        builder.recordCount = recordCount;
+        builder.index(length);
+        return new SeparatedValuesIndex(builder, NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Returns the first record where the indexed key field is equal to the specified value.
+     *
+     * @param key
+     *         the indexed key field
+     * @param value
+     *         the value that the key should have to find a matching record
+     * @return the record with the matching value, or {@code null} if no such record could be found
+     */
+    Map<String, String> getRecord(final String key, final String value) {
+        Table table = tables.get(key);
+        if (table == null) {
+            return null;
+        }
+        byte[] bytes = value.getBytes(charset);
+        int hash = hash(bytes, bytes.length);
+        Parser parser = new Parser(buffer, charset, separator);
+        List<String> record = new ArrayList<>(fields.size());
+        for (int slot = hash & table.mask; table.offsets[slot] != 0; slot = (slot + 1) & table.mask) {
+            if (table.hashes[slot] != hash) {
+                continue;
+            }
+            record.clear();
+            parser.parse(table.offsets[slot] - 1, record);
+            if (record.size() > table.column && record.get(table.column).equals(value)) {
+                Map<String, String> map = new HashMap<>(fields.size());
+                Iterator<String> fi = fields.iterator();
+                Iterator<String> ri = record.iterator();
+                while (fi.hasNext() && ri.hasNext()) {
+                    // assign field-value pairs in map
+                    map.put(fi.next(), ri.next());
+                }
+                return map;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of indexed records.
+     *
+     * @return the number of indexed records
+     */
+    int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Returns the time spent to build (or refresh) this index, in milliseconds.
+     *
+     * @return the time spent to build (or refresh) this index, in milliseconds
+     */
+    long getBuildTime() {
+        return buildTime;
+    }
+
+    /**
+     * Returns the heap memory used by the hash tables, in bytes (the mapped file is not included).
+     *
+     * @return the heap memory used by the hash tables, in bytes
+     */
+    long getMemorySize() {
+        long size = 0L;
+        for (Table table : tables.values()) {
+            // Two int arrays
+            size += 8L * table.offsets.length;
+        }
+        return size;
+    }
+
+    private static long checksum(final MappedByteBuffer buffer, final int from, final int to) {
+        CRC32 crc = new CRC32();
+        for (int i = from; i < to; i++) {
+            crc.update(buffer.get(i));
+        }
+        return crc.getValue();
+    }
+
+    private static int hash(final byte[] bytes, final int length) {
+        // FNV-1a
+        int hash = 0x811c9dc5;
+        for (int i = 0; i < length; i++) {
+            hash ^= bytes[i] & 0xff;
+            hash *= 0x01000193;
+        }
+        return hash;
+    }
+
+    /** Mutable state of an index being built. */
+    private static final class Builder {
+        private final File file;
+        private final Charset charset;
+        private final Separator separator;
+        private final boolean header;
+        private final List<String> explicitFields;
+        private final Collection<String> keys;
+        private final Map<String, Table> tables = new LinkedHashMap<>();
+        private List<String> fields;
+        private long lastModified;
+        private MappedByteBuffer buffer;
+        private Parser parser;
+        private int recordCount;
+        private boolean terminated = true;
+
+        Builder(final File file,
+                final Charset charset,
+                final Separator separator,
+                final boolean header,
+                final List<String> explicitFields,
+                final Collection<String> keys) {
+            this.file = file;
+            this.charset = charset;
+            this.separator = separator;
+            this.header = header;
+            this.explicitFields = explicitFields;
+            this.keys = keys;
+            this.fields = explicitFields;
+        }
+
+        void map() throws IOException {
+            // Read the modification date first: a concurrent change will be detected later
+            lastModified = file.lastModified();
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                FileChannel channel = raf.getChannel();
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("The file " + file + " is too large to be indexed");
+                }
+                // The mapping remains valid once the channel is closed
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+            }
+            parser = new Parser(buffer, charset, separator);
+        }
+
+        void index(final int from) {
+            Table[] columns = tables.values().toArray(new Table[tables.size()]);
+            int offset = from;
+            while (offset >= 0 && offset < buffer.limit()) {
+                int start = offset;
+                offset = parser.index(start);
+                if (parser.fieldCount > 0) {
+                    recordCount++;
+                    for (Table table : columns) {
+                        if (table.column < parser.fieldCount) {
+                            table.put(parser.hashes[table.column], start + 1);
+                        }
+                    }
+                }
+            }
+            terminated = parser.terminated;
+        }
+    }
+
+    /** Open-addressing table associating value hashes with record offsets (plus one, zero meaning empty). */
+    private static final class Table {
+        private final int column;
+        private int[] hashes;
+        private int[] offsets;
+        private int mask;
+        private int size;
+
+        Table(final int column, final int capacity) {
+            this.column = column;
+            this.hashes = new int[capacity];
+            this.offsets = new int[capacity];
+            this.mask = capacity - 1;
+        }
+
+        Table copy() {
+            Table copy = new Table(column, offsets.length);
+            copy.hashes = Arrays.copyOf(hashes, hashes.length);
+            copy.offsets = Arrays.copyOf(offsets, offsets.length);
+            copy.size = size;
+            return copy;
+        }
+
+        void put(final int hash, final int offset) {
+            if (2 * (size + 1) > offsets.length) {
+                resize();
+            }
+            insert(hash, offset);
+            size++;
+        }
+
+        private void insert(final int hash, final int offset) {
+            // Linear probing keeps the records with the same value in file order
+            int slot = hash & mask;
+            while (offsets[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            hashes[slot] = hash;
+            offsets[slot] = offset;
+        }
+
+        private void resize() {
+            int[] oldHashes = hashes;
+            int[] oldOffsets = offsets;
+            hashes = new int[oldOffsets.length * 2];
+            offsets = new int[oldOffsets.length * 2];
+            mask = offsets.length - 1;
+            // Re-inserting in offset order preserves the file order along the probe sequences
+            long[] entries = new long[size];
+            int count = 0;
+            for (int i = 0; i < oldOffsets.length; i++) {
+                if (oldOffsets[i] != 0) {
+                    entries[count++] = ((long) oldOffsets[i] << 32) | (oldHashes[i] & 0xffffffffL);
+                }
+            }
+            Arrays.sort(entries, 0, count);
+            for (int i = 0; i < count; i++) {
+                insert((int) entries[i], (int) (entries[i] >>> 32));
+            }
+        }
+    }
+
+    /**
+     * Parses records in the mapped bytes, with the same rules as {@link SeparatedValuesReader}. Not thread-safe.
+     */
+    private static final class Parser {
+        private final MappedByteBuffer buffer;
+        private final Charset charset;
+        private final int character;
+        private final int quote;
+        private final int escape;
+
+        private byte[] field = new byte[64];
+        private int fieldLength;
+
+        /** Hashes of the fields of the last record parsed by {@link #index(int)}. */
+        private int[] hashes = new int[8];
+        private int fieldCount;
+        private boolean terminated;
+
+        Parser(final MappedByteBuffer buffer, final Charset charset, final Separator separator) {
+            this.buffer = buffer;
+            this.charset = charset;
+            this.character = separator.getCharacter();
+            this.quote = separator.getQuote();
+            this.escape = separator.getEscape();
+        }
+
+        /**
+         * Parses the record starting at the given offset, and decodes its fields into the given list.
+         *
+         * @return the offset of the next record, or {@literal -1} if the end of the file has been reached
+         */
+        int parse(final int offset, final List<String> record) {
+            return parse(offset, record, false);
+        }
+
+        /**
+         * Parses the record starting at the given offset, and computes the hashes of its fields.
+         *
+         * @return the offset of the next record, or {@literal -1} if the end of the file has been reached
+         */
+        int index(final int offset) {
+            fieldCount = 0;
+            return parse(offset, null, true);
+        }
+
+        private int parse(final int offset, final List<String> record, final boolean hashing) {
+            int limit = buffer.limit();
+            int position = offset;
+            boolean quoted = false;
+            boolean escaped = false;
+            boolean empty = true;
+            fieldLength = 0;
+            terminated = false;
+            while (position < limit) {
+                int c = buffer.get(position++) & 0xff;
+                if (c == CR && !quoted && position < limit && buffer.get(position) == LF) {
+                    // translate unquoted CR+LF into LF
+                    c = LF;
+                    position++;
+                }
+                if (escaped) {
+                    append(c);
+                    escaped = false;
+                } else if (c == escape) {
+                    escaped = true;
+                } else if (c == quote && fieldLength == 0) {
+                    quoted = true;
+                } else if (c == quote && quoted) {
+                    if (position < limit && (buffer.get(position) & 0xff) == quote) {
+                        append(quote);
+                        position++;
+                    } else {
+                        quoted = false;
+                    }
+                } else if (c == character && !quoted) {
+                    endField(record, hashing);
+                    empty = false;
+                } else if (c == LF && !quoted) {
+                    terminated = true;
+                    break;
+                } else {
+                    append(c);
+                }
+            }
+            if (!empty || fieldLength > 0) {
+                endField(record, hashing);
+            }
+            return (position < limit) ? position : -1;
+        }
+
+        private void append(final int c) {
+            if (fieldLength == field.length) {
+                field = Arrays.copyOf(field, field.length * 2);
+            }
+            field[fieldLength++] = (byte) c;
+        }
+
+        private void endField(final List<String> record, final boolean hashing) {
+            if (hashing) {
+                if (fieldCount == hashes.length) {
+                    hashes = Arrays.copyOf(hashes, hashes.length * 2);
+                }
+                hashes[fieldCount++] = hash(field, fieldLength);
+            } else {
+                record.add(new String(field, 0, fieldLength, charset));
+            }
+            fieldLength = 0;
+        }
+    }
+}
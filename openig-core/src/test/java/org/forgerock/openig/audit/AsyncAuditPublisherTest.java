@@ -0,0 +1,132 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+
+package org.forgerock.openig.audit;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class AsyncAuditPublisherTest {
+
+    private AsyncAuditPublisher publisher;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        publisher = new AsyncAuditPublisher(2, 10);
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        publisher.stop();
+    }
+
+    @Test
+    public void shouldRunTasksInlineWhenNotStarted() throws Exception {
+        final AtomicReference<Thread> thread = new AtomicReference<>();
+        assertThat(publisher.publish(new Runnable() {
+            @Override
+            public void run() {
+                thread.set(Thread.currentThread());
+            }
+        })).isTrue();
+
+        assertThat(thread.get()).isSameAs(Thread.currentThread());
+        assertThat(publisher.getPublishedCount()).isEqualTo(1L);
+    }
+
+    @Test
+    public void shouldRunTasksOnThePublisherThread() throws Exception {
+        publisher.start();
+        final AtomicReference<Thread> thread = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        publisher.publish(new Runnable() {
+            @Override
+            public void run() {
+                thread.set(Thread.currentThread());
+                done.countDown();
+            }
+        });
+
+        assertThat(done.await(5, SECONDS)).isTrue();
+        assertThat(thread.get()).isNotSameAs(Thread.currentThread());
+    }
+
+    @Test
+    public void shouldDropTasksWhenTheQueueIsFull() throws Exception {
+        publisher.start();
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        publisher.publish(new Runnable() {
+            @Override
+            public void run() {
+                running.countDown();
+                try {
+                    release.await(5, SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertThat(running.await(5, SECONDS)).isTrue();
+
+        // The publisher thread is busy: the queue holds 2 tasks at most
+        final AtomicInteger counter = new AtomicInteger();
+        assertThat(publisher.publish(increment(counter))).isTrue();
+        assertThat(publisher.publish(increment(counter))).isTrue();
+        assertThat(publisher.publish(increment(counter))).isFalse();
+        assertThat(publisher.getQueueDepth()).isEqualTo(2);
+        assertThat(publisher.getDroppedCount()).isEqualTo(1L);
+
+        // Stopping publishes the pending tasks
+        release.countDown();
+        publisher.stop();
+        assertThat(counter.get()).isEqualTo(2);
+        assertThat(publisher.getQueueDepth()).isEqualTo(0);
+        assertThat(publisher.getPublishedCount()).isEqualTo(3L);
+    }
+
+    @Test
+    public void shouldCountFailedTasks() throws Exception {
+        publisher.publish(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("Boom");
+            }
+        });
+
+        assertThat(publisher.getFailedCount()).isEqualTo(1L);
+        assertThat(publisher.getPublishedCount()).isEqualTo(0L);
+    }
+
+    private static Runnable increment(final AtomicInteger counter) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                counter.incrementAndGet();
+            }
+        };
+    }
+}
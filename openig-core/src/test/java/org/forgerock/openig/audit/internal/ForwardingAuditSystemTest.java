@@ -11,13 +11,27 @@
  * Header, with the fields enclosed by brackets [] replaced by your own identifying
  * information: "Portions copyright [year] [name of copyright owner]".
  *
- * Copyright 2014 ForgeRock AS.
+ * Copyright 2014-2016 ForgeRock AS.
  */
 
 package org.forgerock.openig.audit.internal;
 
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.openig.el.Bindings.bindings;
 import static org.mockito.Mockito.*;
 
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.forgerock.http.protocol.Request;
+import org.forgerock.http.protocol.Response;
+import org.forgerock.http.protocol.Status;
+import org.forgerock.openig.audit.AsyncAuditPublisher;
+import org.forgerock.openig.heap.Name;
+import org.forgerock.services.context.RootContext;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.testng.annotations.BeforeMethod;
@@ -27,6 +41,9 @@ import org.testng.annotations.Test;
 @SuppressWarnings("javadoc")
 public class ForwardingAuditSystemTest {
 
+    private static final org.forgerock.openig.audit.AuditSource SOURCE =
+            new org.forgerock.openig.audit.AuditSource(Name.of("route"));
+
     @Mock
     private org.forgerock.openig.audit.AuditEventListener listener;
 
@@ -54,4 +71,86 @@ public class ForwardingAuditSystemTest {
         // Should only be called once
         verify(listener).onAuditEvent(null);
     }
+
+    @Test
+    public void shouldPublishSnapshotsOfTheEvents() throws Exception {
+        AsyncAuditPublisher publisher = new AsyncAuditPublisher().start();
+        ForwardingAuditSystem system = new ForwardingAuditSystem(publisher);
+        system.registerListener(listener);
+        Request request = new Request().setMethod("GET").setUri("http://www.example.com/");
+        request.getHeaders().put("X-Before", "yes");
+        try {
+            system.onAuditEvent(event(request, null, "request"));
+            request.getHeaders().put("X-After", "yes");
+        } finally {
+            publisher.stop();
+        }
+
+        ArgumentCaptor<org.forgerock.openig.audit.AuditEvent> captor =
+                ArgumentCaptor.forClass(org.forgerock.openig.audit.AuditEvent.class);
+        verify(listener).onAuditEvent(captor.capture());
+        Request snapshot = (Request) captor.getValue().getData().get("request");
+        assertThat(snapshot).isNotSameAs(request);
+        assertThat(snapshot.getUri().toString()).isEqualTo("http://www.example.com/");
+        assertThat(snapshot.getHeaders().getFirst("X-Before")).isEqualTo("yes");
+        assertThat(snapshot.getHeaders().containsKey("X-After")).isFalse();
+    }
+
+    @Test
+    public void shouldDropRequestAndResponseEventsTogether() throws Exception {
+        AsyncAuditPublisher publisher = new AsyncAuditPublisher(1, 1).start();
+        ForwardingAuditSystem system = new ForwardingAuditSystem(publisher);
+        system.registerListener(listener);
+
+        // Hold the publisher thread so that the queue fills up
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        publisher.publish(new Runnable() {
+            @Override
+            public void run() {
+                running.countDown();
+                try {
+                    release.await(10, SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertThat(running.await(10, SECONDS)).isTrue();
+
+        Request first = new Request().setMethod("GET").setUri("http://www.example.com/first");
+        Request second = new Request().setMethod("GET").setUri("http://www.example.com/second");
+        Response response = new Response(Status.OK);
+        try {
+            system.onAuditEvent(event(first, null, "request"));
+            // The queue is full
+            system.onAuditEvent(event(second, null, "request"));
+            system.onAuditEvent(event(second, response, "response", "completed"));
+            // Never dropped, even though the queue is still full
+            system.onAuditEvent(event(first, response, "response", "completed"));
+        } finally {
+            release.countDown();
+            publisher.stop();
+        }
+
+        ArgumentCaptor<org.forgerock.openig.audit.AuditEvent> captor =
+                ArgumentCaptor.forClass(org.forgerock.openig.audit.AuditEvent.class);
+        verify(listener, times(2)).onAuditEvent(captor.capture());
+        List<org.forgerock.openig.audit.AuditEvent> events = captor.getAllValues();
+        assertThat(events.get(0).getTags()).containsOnly("request");
+        assertThat(events.get(1).getTags()).containsOnly("response", "completed");
+        for (org.forgerock.openig.audit.AuditEvent event : events) {
+            assertThat(((Request) event.getData().get("request")).getUri().getPath()).isEqualTo("/first");
+        }
+        assertThat(publisher.getDroppedCount()).isEqualTo(2L);
+    }
+
+    private static org.forgerock.openig.audit.AuditEvent event(final Request request,
+                                                               final Response response,
+                                                               final String... tags) {
+        return new org.forgerock.openig.audit.AuditEvent(SOURCE,
+                                                         System.currentTimeMillis(),
+                                                         bindings(new RootContext(), request, response),
+                                                         asList(tags));
+    }
 }
@@ -11,7 +11,7 @@
  * Header, with the fields enclosed by brackets [] replaced by your own identifying
  * information: "Portions copyright [year] [name of copyright owner]".
  *
- * Copyright 2014-2015 ForgeRock AS.
+ * Copyright 2014-2016 ForgeRock AS.
  */
 
 package org.forgerock.openig.decoration.capture;
@@ -66,6 +66,7 @@ public class CaptureFilterTest {
     @BeforeMethod
     public void setUp() throws Exception {
         MockitoAnnotations.initMocks(this);
+        when(capture.accept(any(Context.class), any(Request.class))).thenReturn(true);
         response = new Response();
         when(terminal.handle(any(Context.class), any(Request.class)))
                 .thenReturn(Promises.<Response, NeverThrowsException>newResultPromise(response));
@@ -117,6 +118,19 @@ public class CaptureFilterTest {
             }
 
         }
+        verify(capture).accept(context, null);
+        verifyNoMoreInteractions(capture);
+    }
+
+    @Test
+    public void shouldNotCaptureUnsampledExchanges() throws Exception {
+        when(capture.accept(any(Context.class), any(Request.class))).thenReturn(false);
+        CaptureFilter filter = new CaptureFilter(delegate, capture, new TreeSet<>(asList(CapturePoint.values())));
+
+        Context context = new RootContext();
+        filter.filter(context, null, terminal).get();
+
+        verify(capture).accept(context, null);
         verifyNoMoreInteractions(capture);
     }
 
@@ -11,7 +11,7 @@
  * Header, with the fields enclosed by brackets [] replaced by your own identifying
  * information: "Portions copyright [year] [name of copyright owner]".
  *
- * Copyright 2014-2015 ForgeRock AS.
+ * Copyright 2014-2016 ForgeRock AS.
  */
 
 package org.forgerock.openig.decoration.capture;
@@ -55,6 +55,7 @@ public class CaptureHandlerTest {
     @BeforeMethod
     public void setUp() throws Exception {
         MockitoAnnotations.initMocks(this);
+        when(capture.accept(any(Context.class), any(Request.class))).thenReturn(true);
         response = new Response();
         when(delegate.handle(any(Context.class), any(Request.class)))
                 .thenReturn(Promises.<Response, NeverThrowsException>newResultPromise(response));
@@ -104,6 +105,19 @@ public class CaptureHandlerTest {
                 break;
             }
         }
+        verify(capture).accept(context, null);
+        verifyNoMoreInteractions(capture);
+    }
+
+    @Test
+    public void shouldNotCaptureUnsampledExchanges() throws Exception {
+        when(capture.accept(any(Context.class), any(Request.class))).thenReturn(false);
+        CaptureHandler handler = new CaptureHandler(delegate, capture, new TreeSet<>(asList(CapturePoint.values())));
+
+        Context context = new RootContext();
+        handler.handle(context, null).get();
+
+        verify(capture).accept(context, null);
         verifyNoMoreInteractions(capture);
     }
 
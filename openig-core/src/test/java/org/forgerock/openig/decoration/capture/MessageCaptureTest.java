@@ -23,6 +23,7 @@ import static org.mockito.Mockito.verify;
 import org.forgerock.http.header.ContentTypeHeader;
 import org.forgerock.http.protocol.Request;
 import org.forgerock.http.protocol.Response;
+import org.forgerock.openig.el.Expression;
 import org.forgerock.openig.heap.Name;
 import org.forgerock.openig.log.Logger;
 import org.forgerock.services.context.AttributesContext;
@@ -97,6 +98,50 @@ public class MessageCaptureTest {
         verify(logger).info(anyString());
     }
 
+    @Test
+    public void shouldTruncateEntity() throws Exception {
+        MessageCapture capture = new MessageCapture(logger, true);
+        capture.setMaxEntityLength(5);
+        Request request = new Request();
+        request.getHeaders().put("Content-Type", "text/plain; charset=UTF-8");
+        request.setEntity("Hello World");
+
+        capture.capture(new RootContext(), request, CapturePoint.REQUEST);
+
+        verify(logger).info(captor.capture());
+        assertThat(captor.getValue()).contains("Hello").doesNotContain("World").contains("[entity truncated");
+        // The whole entity is still available
+        assertThat(request.getEntity().getString()).isEqualTo("Hello World");
+    }
+
+    @Test
+    public void shouldNotTruncateShortEntity() throws Exception {
+        MessageCapture capture = new MessageCapture(logger, true);
+        capture.setMaxEntityLength(64);
+        Request request = new Request();
+        request.getHeaders().put("Content-Type", "text/plain; charset=UTF-8");
+        request.setEntity("Hello World");
+
+        capture.capture(new RootContext(), request, CapturePoint.REQUEST);
+
+        verify(logger).info(captor.capture());
+        assertThat(captor.getValue()).contains("Hello World").doesNotContain("[entity truncated");
+    }
+
+    @Test
+    public void shouldOnlyAcceptSampledRequests() throws Exception {
+        MessageCapture capture = new MessageCapture(logger, false);
+        Request request = new Request().setMethod("GET").setUri("http://www.example.com/api");
+        assertThat(capture.accept(new RootContext(), request)).isTrue();
+
+        capture.setCondition(Expression.valueOf("${request.method == 'POST'}", Boolean.class));
+        assertThat(capture.accept(new RootContext(), request)).isFalse();
+
+        capture.setCondition(null);
+        capture.setSampleRate(0d);
+        assertThat(capture.accept(new RootContext(), request)).isFalse();
+    }
+
     @DataProvider
     public static Object[][] textualContextType() {
         //@Checkstyle:off
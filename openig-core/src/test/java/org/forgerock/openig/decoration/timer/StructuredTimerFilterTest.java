@@ -0,0 +1,115 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+
+package org.forgerock.openig.decoration.timer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.http.protocol.Response.newResponsePromise;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Map;
+
+import org.forgerock.http.Filter;
+import org.forgerock.http.Handler;
+import org.forgerock.http.protocol.Request;
+import org.forgerock.http.protocol.Response;
+import org.forgerock.http.protocol.Status;
+import org.forgerock.openig.heap.Name;
+import org.forgerock.services.context.AttributesContext;
+import org.forgerock.services.context.Context;
+import org.forgerock.services.context.RootContext;
+import org.forgerock.util.promise.NeverThrowsException;
+import org.forgerock.util.promise.Promise;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class StructuredTimerFilterTest {
+
+    private static final Name ROUTE = Name.of("config.json", "routes/route.json");
+
+    @Test
+    public void shouldRecordPhasesIntoTheRequestAndTheStatistics() throws Exception {
+        TimerStatistics statistics = new TimerStatistics();
+        Handler client = mock(Handler.class);
+        when(client.handle(any(Context.class), any(Request.class)))
+                .thenReturn(newResponsePromise(new Response(Status.OK)));
+        Handler upstream = new StructuredTimerHandler(client, ROUTE.child("ClientHandler"), statistics);
+        Filter filter = new StructuredTimerFilter(new DelegateFilter(), ROUTE.child("MyFilter"), statistics);
+
+        AttributesContext context = new AttributesContext(new RootContext());
+        filter.filter(context, new Request(), upstream).get();
+
+        RequestTimings timings = RequestTimings.get(context);
+        assertThat(timings).isNotNull();
+        Map<String, Map<String, Long>> map = timings.asMap();
+        assertThat(map.get("routes/route.json+MyFilter")).containsOnlyKeys("pre", "next", "post");
+        assertThat(map.get("routes/route.json+ClientHandler")).containsOnlyKeys("elapsed");
+
+        Map<String, Object> stats = statistics.asMap(ROUTE);
+        assertThat(stats).containsOnlyKeys("MyFilter", "ClientHandler");
+        @SuppressWarnings("unchecked")
+        Map<String, Object> phases = (Map<String, Object>) stats.get("MyFilter");
+        assertThat(phases).containsOnlyKeys("next", "post", "pre");
+        assertThat(statistics.asMap(Name.of("other"))).isEmpty();
+    }
+
+    @Test
+    public void shouldRecordPreProcessingOnlyWhenNextIsNotCalled() throws Exception {
+        TimerStatistics statistics = new TimerStatistics();
+        Filter shortcut = new Filter() {
+            @Override
+            public Promise<Response, NeverThrowsException> filter(final Context context,
+                                                                  final Request request,
+                                                                  final Handler next) {
+                return newResponsePromise(new Response(Status.FORBIDDEN));
+            }
+        };
+        Filter filter = new StructuredTimerFilter(shortcut, ROUTE.child("Shortcut"), statistics);
+
+        // No attributes context: timings are only aggregated into the statistics
+        filter.filter(new RootContext(), new Request(), mock(Handler.class)).get();
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> phases = (Map<String, Object>) statistics.asMap().get("routes/route.json+Shortcut");
+        assertThat(phases).containsOnlyKeys("pre");
+    }
+
+    @Test
+    public void shouldRemoveTheStatisticsOfARoute() throws Exception {
+        TimerStatistics statistics = new TimerStatistics();
+        Name other = Name.of("config.json", "routes/other.json");
+        statistics.record(ROUTE.child("MyFilter"), "pre", 1000L);
+        statistics.record(ROUTE.child("Session"), "load", 1000L);
+        statistics.record(other.child("MyFilter"), "pre", 1000L);
+
+        statistics.remove(ROUTE);
+
+        assertThat(statistics.asMap(ROUTE)).isEmpty();
+        assertThat(statistics.asMap()).containsOnlyKeys("routes/other.json+MyFilter");
+    }
+
+    private static class DelegateFilter implements Filter {
+        @Override
+        public Promise<Response, NeverThrowsException> filter(final Context context,
+                                                              final Request request,
+                                                              final Handler next) {
+            return next.handle(context, request);
+        }
+    }
+}
@@ -11,7 +11,7 @@
  * Header, with the fields enclosed by brackets [] replaced by your own identifying
  * information: "Portions copyright [year] [name of copyright owner]".
  *
- * Copyright 2014-2015 ForgeRock AS.
+ * Copyright 2014-2016 ForgeRock AS.
  */
 
 package org.forgerock.openig.decoration.timer;
@@ -73,6 +73,14 @@ public class TimerDecoratorTest {
         assertThat(decorated).isInstanceOf(TimerHandler.class);
     }
 
+    @Test
+    public void shouldDecorateWithStructuredTimers() throws Exception {
+        TimerDecorator decorator = new TimerDecorator().setStructured(true);
+
+        assertThat(decorator.decorate(filter, json(true), context)).isInstanceOf(StructuredTimerFilter.class);
+        assertThat(decorator.decorate(handler, json(true), context)).isInstanceOf(StructuredTimerHandler.class);
+    }
+
     @Test
     public void shouldNotDecorateFilter() throws Exception {
         TimerDecorator decorator = new TimerDecorator();
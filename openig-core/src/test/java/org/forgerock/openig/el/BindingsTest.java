@@ -100,6 +100,15 @@ public class BindingsTest {
                 .hasSize(4);
     }
 
+    @Test
+    public void shouldExposeVisibleContexts() throws Exception {
+        final Context context = new AttributesContext(new SessionContext(new RootContext(), mock(Session.class)));
+        Map<?, ?> contexts = (Map<?, ?>) bindings(context).asMap().get("contexts");
+        assertThat(contexts.containsKey("session")).isTrue();
+        assertThat(contexts.get("unknown")).isNull();
+        assertThat(contexts).isEqualTo(Bindings.flatten(context));
+    }
+
     @Test(expectedExceptions = UnsupportedOperationException.class)
     public void shouldFailWhenModifyingBindingAsMap() throws Exception {
         bindings().bind("a", "b")
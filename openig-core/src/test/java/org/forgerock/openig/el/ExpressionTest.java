@@ -381,6 +381,27 @@ public class ExpressionTest {
         assertThat(expression.eval(bindings("heap", heap))).isNull();
     }
 
+    @Test
+    public void shouldShareParsedExpressionsWithDifferentExpectedTypes() throws Exception {
+        Expression<String> string = Expression.valueOf("${a}", String.class);
+        Expression<Integer> integer = Expression.valueOf("${a}", Integer.class);
+        assertThat(string.eval(bindings("a", "text"))).isEqualTo("text");
+        assertThat(integer.eval(bindings("a", "text"))).isNull();
+        assertThat(integer.eval(bindings("a", 42))).isEqualTo(42);
+    }
+
+    @Test
+    public void shouldSupportReentrantEvaluation() throws Exception {
+        Expression<String> expr = Expression.valueOf("${bean.evaluate('value')}-${value}", String.class);
+        assertThat(expr.eval(bindings("bean", new EvaluatingBean()).bind("value", "outer"))).isEqualTo("inner-outer");
+    }
+
+    public static class EvaluatingBean {
+        public String evaluate(final String name) throws ExpressionException {
+            return Expression.valueOf("${" + name + "}", String.class).eval(bindings("value", "inner"));
+        }
+    }
+
     public static class ExternalBean {
         private InternalBean internal;
 
@@ -28,6 +28,7 @@ import java.util.Map;
 
 import org.forgerock.http.protocol.Request;
 import org.forgerock.openig.handler.router.Files;
+import org.forgerock.openig.regex.PatternCache;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
@@ -84,6 +85,21 @@ public class FunctionsTest {
         assertThat(o).isEqualTo("c");
     }
 
+    @Test
+    public void splitWithRegularExpression() throws ExpressionException {
+        assertThat(Functions.split("a, b;c ,d", "\\s*[,;]\\s*")).containsExactly("a", "b", "c", "d");
+        assertThat(Functions.split("a.b.c", "\\.")).containsExactly("a", "b", "c");
+        assertThat(Functions.split(null, ",")).isNull();
+    }
+
+    @Test
+    public void shouldPrecompileLiteralPatterns() throws ExpressionException {
+        Expression.valueOf("${matches(request.uri.path, '^/precompiled/[a-z]+\\\\.html$')}", Boolean.class);
+        long misses = PatternCache.shared().getMissCount();
+        assertThat(Functions.matches("/precompiled/index.html", "^/precompiled/[a-z]+\\.html$")).isTrue();
+        assertThat(PatternCache.shared().getMissCount()).isEqualTo(misses);
+    }
+
     @Test
     public void join() throws ExpressionException {
         String[] s = {"a", "b", "c"};
@@ -16,6 +16,8 @@
 
 package org.forgerock.openig.filter;
 
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonMap;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.verify;
@@ -81,4 +83,20 @@ public class FileAttributesFilterTest {
         assertThat((Map) context.getAttributes().get("result")).isEmpty();
         verify(logger).debug(anyString());
     }
+
+    @Test
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void shouldLookupRecordOnSeveralKeys() throws Exception {
+        when(file.getRecord("username", "joe@example.com")).thenReturn(null);
+        when(file.getRecord("mail", "joe@example.com")).thenReturn(singletonMap("username", "joe"));
+
+        Expression<String> value = Expression.valueOf("joe@example.com", String.class);
+        Expression<Map> target = Expression.valueOf("${attributes.result}", Map.class);
+        FileAttributesFilter filter = new FileAttributesFilter(file, asList("username", "mail"), value, target);
+
+        AttributesContext context = new AttributesContext(new RootContext());
+        filter.filter(context, null, new ResponseHandler(Status.OK)).get();
+
+        assertThat((Map) context.getAttributes().get("result")).containsEntry("username", "joe");
+    }
 }
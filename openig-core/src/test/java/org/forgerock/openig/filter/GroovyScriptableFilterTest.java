@@ -41,6 +41,7 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URL;
+import java.nio.file.Files;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.Statement;
@@ -154,6 +155,49 @@ public class GroovyScriptableFilterTest {
         verifyZeroInteractions(handler);
     }
 
+    @Test
+    public void testStaticallyCompiledScript() throws Exception {
+        final Map<String, Object> config = new HashMap<>();
+        config.put("type", Script.GROOVY_MIME_TYPE);
+        config.put("source", "new Response(Status.OK)");
+        config.put("compileStatic", true);
+        final ScriptableFilter filter =
+                (ScriptableFilter) new Heaplet().create(Name.of("test"), new JsonValue(config), getHeap());
+
+        final Handler handler = mock(Handler.class);
+        Response response = filter.filter(new RootContext(), new Request(), handler).get();
+        assertThat(response.getStatus()).isEqualTo(Status.OK);
+        verifyZeroInteractions(handler);
+    }
+
+    @Test(expectedExceptions = ScriptException.class)
+    public void testStaticCompilationFailure() throws Exception {
+        // Bindings are not declared variables
+        Script.fromSource(getEnvironment(), Script.GROOVY_MIME_TYPE, "next.handle(context, request)", true);
+    }
+
+    @Test
+    public void testReloadScriptFile() throws Exception {
+        final Environment environment = getEnvironment();
+        final File file = File.createTempFile("Reloaded", ".groovy", environment.getScriptDirectory("groovy"));
+        try {
+            Files.write(file.toPath(), "'first'".getBytes());
+            final Script script = Script.fromFile(environment, Script.GROOVY_MIME_TYPE, file.getName());
+            assertThat(script.run(new HashMap<String, Object>())).isEqualTo("first");
+            assertThat(script.reload()).isFalse();
+
+            Files.write(file.toPath(), "'second'".getBytes());
+            // Make sure the change is visible, whatever the file system timestamps resolution
+            assertThat(file.setLastModified(System.currentTimeMillis() + 10000L)).isTrue();
+            // Changes are not checked more than once every 100 ms by the engine
+            Thread.sleep(200L);
+            assertThat(script.reload()).isTrue();
+            assertThat(script.run(new HashMap<String, Object>())).isEqualTo("second");
+        } finally {
+            file.delete();
+        }
+    }
+
     @DataProvider
     public static Object[][] invalidScripts() {
         // @Checkstyle:off
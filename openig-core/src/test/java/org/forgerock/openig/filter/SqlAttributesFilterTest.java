@@ -11,11 +11,12 @@
  * Header, with the fields enclosed by brackets [] replaced by your own identifying
  * information: "Portions copyright [year] [name of copyright owner]".
  *
- * Copyright 2014-2015 ForgeRock AS.
+ * Copyright 2014-2016 ForgeRock AS.
  */
 
 package org.forgerock.openig.filter;
 
+import static java.util.Arrays.asList;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.entry;
 import static org.mockito.Mockito.*;
@@ -26,7 +27,12 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.sql.DataSource;
 
@@ -38,7 +44,11 @@ import org.forgerock.services.context.AttributesContext;
 import org.forgerock.services.context.Context;
 import org.forgerock.services.context.RootContext;
 import org.forgerock.util.promise.NeverThrowsException;
+import org.forgerock.util.promise.Promise;
 import org.forgerock.util.promise.Promises;
+import org.forgerock.util.time.Duration;
+import org.forgerock.util.time.TimeService;
+import org.h2.jdbcx.JdbcDataSource;
 import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
@@ -175,6 +185,150 @@ public class SqlAttributesFilterTest {
         verify(filter.getLogger()).warning(matches(" Placeholder 3 has no provided value as parameter"));
     }
 
+    @Test
+    public void shouldReuseCachedStatements() throws Exception {
+        SqlAttributesFilter filter = new SqlAttributesFilter(source,
+                Expression.valueOf("${attributes.result}", Map.class), null);
+        filter.setStatementCacheSize(1);
+
+        mockDatabaseInteractions();
+
+        for (int i = 0; i < 3; i++) {
+            AttributesContext context = new AttributesContext(new RootContext());
+            filter.filter(context, null, terminalHandler);
+            assertThat(result(context)).containsKey("password");
+        }
+
+        verify(source, times(1)).getConnection();
+        verify(connection, times(1)).prepareStatement(null);
+        verify(statement, times(3)).executeQuery();
+        verify(connection, never()).close();
+    }
+
+    @Test
+    public void shouldRetryWithANewConnectionWhenCachedStatementFails() throws Exception {
+        SqlAttributesFilter filter = new SqlAttributesFilter(source,
+                Expression.valueOf("${attributes.result}", Map.class), null);
+        filter.setStatementCacheSize(1);
+
+        mockDatabaseInteractions();
+        AttributesContext context = new AttributesContext(new RootContext());
+        filter.filter(context, null, terminalHandler);
+        context.getAttributes().get("result").hashCode();
+
+        when(statement.executeQuery()).thenThrow(new SQLException("Connection reset"))
+                                       .thenReturn(resultSet);
+        context = new AttributesContext(new RootContext());
+        filter.filter(context, null, terminalHandler);
+
+        assertThat(result(context)).containsKey("password");
+        verify(source, times(2)).getConnection();
+        verify(connection, times(1)).close();
+    }
+
+    @Test
+    public void shouldCacheResults() throws Exception {
+        SqlAttributesFilter filter = new SqlAttributesFilter(source,
+                Expression.valueOf("${attributes.result}", Map.class), null);
+        filter.getParameters().add(Expression.valueOf("${attributes.user}", String.class));
+        filter.setResultCache(TimeService.SYSTEM, 10, Duration.duration("1 minute"));
+
+        mockDatabaseInteractions();
+        when(pmetadata.getParameterCount()).thenReturn(1);
+
+        for (String user : asList("bjensen", "bjensen", "scarter", "bjensen")) {
+            AttributesContext context = new AttributesContext(new RootContext());
+            context.getAttributes().put("user", user);
+            filter.filter(context, null, terminalHandler);
+            assertThat(result(context)).containsKey("password");
+        }
+
+        verify(statement, times(2)).executeQuery();
+        assertThat(filter.getResultCache().getHitCount()).isEqualTo(2);
+        assertThat(filter.getResultCache().getHitRatio()).isEqualTo(0.5);
+        assertThat(filter.getLatency().getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldExecuteQueryAsynchronously() throws Exception {
+        JdbcDataSource h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:mem:users;DB_CLOSE_DELAY=-1");
+        try (Connection c = h2.getConnection(); Statement s = c.createStatement()) {
+            s.execute("CREATE TABLE users (username VARCHAR(64), password VARCHAR(64))");
+            s.execute("INSERT INTO users VALUES ('bjensen', 'hifalutin')");
+        }
+
+        SqlAttributesFilter filter = new SqlAttributesFilter(h2,
+                Expression.valueOf("${attributes.result}", Map.class),
+                "SELECT password FROM users WHERE username = ?");
+        filter.getParameters().add(Expression.valueOf("bjensen", String.class));
+        filter.setStatementCacheSize(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        ExecutorService continuations = Executors.newSingleThreadExecutor();
+        filter.setExecutor(executor, continuations);
+        try {
+            final AttributesContext context = new AttributesContext(new RootContext());
+            final Thread continuation = continuations.submit(new Callable<Thread>() {
+                @Override
+                public Thread call() throws Exception {
+                    return Thread.currentThread();
+                }
+            }).get();
+            final AtomicReference<Thread> handling = new AtomicReference<>();
+            final AtomicReference<Object> seen = new AtomicReference<>();
+            Handler next = new Handler() {
+                @Override
+                public Promise<Response, NeverThrowsException> handle(final Context ignored, final Request request) {
+                    handling.set(Thread.currentThread());
+                    seen.set(context.getAttributes().get("result"));
+                    return Promises.newResultPromise(new Response());
+                }
+            };
+            filter.filter(context, null, next).get();
+
+            // The rest of the chain is executed by the continuation executor, once the target holds the result
+            assertThat(handling.get()).isSameAs(continuation);
+            assertThat(seen.get()).isNotNull();
+            assertThat(result(context)).containsEntry("PASSWORD", "hifalutin");
+        } finally {
+            filter.stop();
+            continuations.shutdown();
+            try (Connection c = h2.getConnection(); Statement s = c.createStatement()) {
+                s.execute("DROP TABLE users");
+            }
+        }
+        assertThat(executor.isShutdown()).isTrue();
+    }
+
+    @Test
+    public void shouldReleaseTheStatementWhenAsynchronousQueryFailsUnexpectedly() throws Exception {
+        SqlAttributesFilter filter = new SqlAttributesFilter(source,
+                Expression.valueOf("${attributes.result}", Map.class), null);
+        filter.setStatementCacheSize(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        ExecutorService continuations = Executors.newSingleThreadExecutor();
+        filter.setExecutor(executor, continuations);
+
+        mockDatabaseInteractions();
+        when(statement.executeQuery()).thenThrow(new IllegalStateException("Boom"));
+        try {
+            AttributesContext context = new AttributesContext(new RootContext());
+            filter.filter(context, null, terminalHandler).get();
+
+            assertThat(result(context)).isEmpty();
+            verify(statement).close();
+            verify(connection).close();
+        } finally {
+            filter.stop();
+            continuations.shutdown();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> result(final AttributesContext context) {
+        return (Map<String, Object>) context.getAttributes().get("result");
+    }
+
     private void mockDatabaseInteractions() throws Exception {
         // Mock the database interactions
         when(source.getConnection()).thenReturn(connection);
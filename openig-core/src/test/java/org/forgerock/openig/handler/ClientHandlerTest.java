@@ -11,7 +11,7 @@
  * Header, with the fields enclosed by brackets [] replaced by your own identifying
  * information: "Portions Copyright [year] [name of copyright owner]".
  *
- * Copyright 2014-2015 ForgeRock AS.
+ * Copyright 2014-2016 ForgeRock AS.
  */
 
 package org.forgerock.openig.handler;
@@ -30,6 +30,8 @@ import static java.lang.String.format;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.forgerock.util.Options.defaultOptions;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -43,6 +45,7 @@ import org.forgerock.http.protocol.Request;
 import org.forgerock.http.protocol.Response;
 import org.forgerock.http.protocol.Status;
 import org.forgerock.openig.log.Logger;
+import org.forgerock.openig.metrics.LatencyMetrics;
 import org.forgerock.services.context.Context;
 import org.forgerock.services.context.RootContext;
 import org.glassfish.grizzly.http.Method;
@@ -147,4 +150,16 @@ public class ClientHandlerTest {
 
         verify(logger).warning(cause);
     }
+
+    @Test
+    public void shouldRecordUpstreamLatency() throws Exception {
+        when(delegate.handle(any(Context.class), any(Request.class)))
+                .thenReturn(Response.newResponsePromise(new Response(Status.OK)));
+
+        LatencyMetrics metrics = mock(LatencyMetrics.class);
+        ClientHandler handler = new ClientHandler(delegate).setLatencyMetrics(metrics);
+        handler.handle(new RootContext(), new Request().setUri("http://backend.example.com:8080/path"));
+
+        verify(metrics).recordUpstream(eq("backend.example.com:8080"), anyLong());
+    }
 }
@@ -0,0 +1,236 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+
+package org.forgerock.openig.handler;
+
+import static com.xebialabs.restito.builder.stub.StubHttp.whenHttp;
+import static com.xebialabs.restito.builder.verify.VerifyHttp.verifyHttp;
+import static com.xebialabs.restito.semantics.Action.status;
+import static com.xebialabs.restito.semantics.Condition.alwaysTrue;
+import static com.xebialabs.restito.semantics.Condition.uri;
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.http.protocol.Response.newResponsePromise;
+import static org.forgerock.util.Options.defaultOptions;
+import static org.forgerock.util.time.Duration.duration;
+import static org.mockito.Mockito.when;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.forgerock.http.Handler;
+import org.forgerock.http.handler.HttpClientHandler;
+import org.forgerock.http.protocol.Request;
+import org.forgerock.http.protocol.Response;
+import org.forgerock.http.protocol.Status;
+import org.forgerock.services.context.Context;
+import org.forgerock.services.context.RootContext;
+import org.forgerock.util.promise.NeverThrowsException;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.PromiseImpl;
+import org.forgerock.util.time.TimeService;
+import org.glassfish.grizzly.http.util.HttpStatus;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.xebialabs.restito.server.StubServer;
+
+@SuppressWarnings("javadoc")
+public class LoadBalancingHandlerTest {
+
+    private static final URI A = URI.create("http://a.example.com:8080");
+    private static final URI B = URI.create("http://b.example.com:8080");
+
+    @Mock
+    private TimeService time;
+
+    private List<String> hosts;
+    private Handler recorder;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        hosts = new ArrayList<>();
+        recorder = new Handler() {
+            @Override
+            public Promise<Response, NeverThrowsException> handle(final Context context, final Request request) {
+                hosts.add(request.getUri().getHost());
+                Status status = "a.example.com".equals(request.getUri().getHost()) ? Status.BAD_GATEWAY : Status.OK;
+                return newResponsePromise(new Response(status));
+            }
+        };
+    }
+
+    @Test
+    public void shouldRoundRobinAndRebaseRequests() throws Exception {
+        LoadBalancingHandler handler = new LoadBalancingHandler(recorder,
+                                                                asList(A, B),
+                                                                LoadBalancingHandler.Strategy.ROUND_ROBIN,
+                                                                time);
+        Request request = new Request().setMethod("GET").setUri("http://gateway.example.com/path?q=1");
+        handler.handle(new RootContext(), request);
+        handler.handle(new RootContext(), new Request().setMethod("GET").setUri("http://gateway.example.com/"));
+        handler.handle(new RootContext(), new Request().setMethod("GET").setUri("http://gateway.example.com/"));
+
+        assertThat(hosts).containsExactly("a.example.com", "b.example.com", "a.example.com");
+        assertThat(request.getUri().toString()).isEqualTo("http://a.example.com:8080/path?q=1");
+    }
+
+    @Test
+    public void shouldEjectFailingBackendsForAWhile() throws Exception {
+        when(time.now()).thenReturn(0L);
+        LoadBalancingHandler handler = new LoadBalancingHandler(recorder,
+                                                                asList(A, B),
+                                                                LoadBalancingHandler.Strategy.ROUND_ROBIN,
+                                                                time)
+                .setEjection(1, duration("10 seconds"));
+
+        for (int i = 0; i < 4; i++) {
+            handler.handle(new RootContext(), new Request().setMethod("GET").setUri("http://gateway.example.com/"));
+        }
+        assertThat(hosts).containsExactly("a.example.com", "b.example.com", "b.example.com", "b.example.com");
+        LoadBalancingHandler.Backend a = handler.getBackends().get(0);
+        assertThat(a.isEjected()).isTrue();
+        assertThat(a.getFailures()).isEqualTo(1L);
+        assertThat(a.getEjections()).isEqualTo(1L);
+
+        // Ejection expired
+        when(time.now()).thenReturn(10000L);
+        hosts.clear();
+        handler.handle(new RootContext(), new Request().setMethod("GET").setUri("http://gateway.example.com/"));
+        handler.handle(new RootContext(), new Request().setMethod("GET").setUri("http://gateway.example.com/"));
+        assertThat(hosts).contains("a.example.com");
+    }
+
+    @Test
+    public void shouldPreferTheBackendWithFewerOutstandingRequests() throws Exception {
+        final List<PromiseImpl<Response, NeverThrowsException>> pending = new ArrayList<>();
+        Handler slow = new Handler() {
+            @Override
+            public Promise<Response, NeverThrowsException> handle(final Context context, final Request request) {
+                hosts.add(request.getUri().getHost());
+                if ("a.example.com".equals(request.getUri().getHost())) {
+                    PromiseImpl<Response, NeverThrowsException> promise = PromiseImpl.create();
+                    pending.add(promise);
+                    return promise;
+                }
+                return newResponsePromise(new Response(Status.OK));
+            }
+        };
+        LoadBalancingHandler handler = new LoadBalancingHandler(slow,
+                                                                asList(A, B),
+                                                                LoadBalancingHandler.Strategy.LEAST_REQUESTS,
+                                                                time);
+
+        for (int i = 0; i < 5; i++) {
+            handler.handle(new RootContext(), new Request().setMethod("GET").setUri("http://gateway.example.com/"));
+        }
+
+        // Only one request is stuck on 'a', all others went to 'b'
+        assertThat(pending).hasSize(1);
+        assertThat(handler.getBackends().get(0).getOutstanding()).isEqualTo(1);
+        pending.get(0).handleResult(new Response(Status.OK));
+        assertThat(handler.getBackends().get(0).getOutstanding()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldOnlySelectHealthyBackends() throws Exception {
+        Handler probed = new Handler() {
+            @Override
+            public Promise<Response, NeverThrowsException> handle(final Context context, final Request request) {
+                hosts.add(request.getUri().getHost() + request.getUri().getPath());
+                boolean healthy = !"a.example.com".equals(request.getUri().getHost());
+                return newResponsePromise(new Response(healthy ? Status.OK : Status.SERVICE_UNAVAILABLE));
+            }
+        };
+        LoadBalancingHandler handler = new LoadBalancingHandler(probed,
+                                                                asList(A, B),
+                                                                LoadBalancingHandler.Strategy.POWER_OF_TWO_CHOICES,
+                                                                time);
+
+        handler.checkHealth("/health");
+        assertThat(hosts).containsExactly("a.example.com/health", "b.example.com/health");
+        assertThat(handler.getBackends().get(0).isHealthy()).isFalse();
+        assertThat(handler.getBackends().get(1).isHealthy()).isTrue();
+
+        hosts.clear();
+        for (int i = 0; i < 10; i++) {
+            handler.handle(new RootContext(), new Request().setMethod("GET").setUri("http://gateway.example.com/"));
+        }
+        assertThat(hosts).containsOnly("b.example.com/");
+    }
+
+    @Test
+    public void shouldNotProbeABackendWhosePreviousProbeIsPending() throws Exception {
+        final List<PromiseImpl<Response, NeverThrowsException>> pending = new ArrayList<>();
+        Handler slow = new Handler() {
+            @Override
+            public Promise<Response, NeverThrowsException> handle(final Context context, final Request request) {
+                hosts.add(request.getUri().getHost());
+                if ("a.example.com".equals(request.getUri().getHost())) {
+                    PromiseImpl<Response, NeverThrowsException> promise = PromiseImpl.create();
+                    pending.add(promise);
+                    return promise;
+                }
+                return newResponsePromise(new Response(Status.OK));
+            }
+        };
+        LoadBalancingHandler handler = new LoadBalancingHandler(slow,
+                                                                asList(A, B),
+                                                                LoadBalancingHandler.Strategy.ROUND_ROBIN,
+                                                                time);
+
+        handler.checkHealth("/health");
+        handler.checkHealth("/health");
+        assertThat(hosts).containsExactly("a.example.com", "b.example.com", "b.example.com");
+
+        pending.get(0).handleResult(new Response(Status.OK));
+        hosts.clear();
+        handler.checkHealth("/health");
+        assertThat(hosts).containsExactly("a.example.com", "b.example.com");
+    }
+
+    @Test
+    public void shouldSpreadRequestsAcrossStubServers() throws Exception {
+        StubServer first = new StubServer().run();
+        StubServer second = new StubServer().run();
+        try (HttpClientHandler client = new HttpClientHandler(defaultOptions())) {
+            whenHttp(first).match(alwaysTrue()).then(status(HttpStatus.OK_200));
+            whenHttp(second).match(alwaysTrue()).then(status(HttpStatus.OK_200));
+            LoadBalancingHandler handler =
+                    new LoadBalancingHandler(new ClientHandler(client),
+                                             asList(URI.create("http://localhost:" + first.getPort()),
+                                                    URI.create("http://localhost:" + second.getPort())),
+                                             LoadBalancingHandler.Strategy.ROUND_ROBIN,
+                                             time);
+
+            for (int i = 0; i < 4; i++) {
+                Request request = new Request().setMethod("GET").setUri("http://gateway.example.com/test");
+                assertThat(handler.handle(new RootContext(), request).get().getStatus()).isEqualTo(Status.OK);
+            }
+
+            verifyHttp(first).times(2, uri("/test"));
+            verifyHttp(second).times(2, uri("/test"));
+        } finally {
+            first.stop();
+            second.stop();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+
+package org.forgerock.openig.handler;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.forgerock.http.Handler;
+import org.forgerock.http.protocol.Request;
+import org.forgerock.http.protocol.Response;
+import org.forgerock.http.protocol.Status;
+import org.forgerock.openig.heap.Name;
+import org.forgerock.openig.log.Logger;
+import org.forgerock.openig.log.NullLogSink;
+import org.forgerock.services.context.Context;
+import org.forgerock.services.context.RootContext;
+import org.forgerock.util.promise.NeverThrowsException;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.PromiseImpl;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class UpstreamLimiterTest {
+
+    private final Logger logger = new Logger(new NullLogSink(), Name.of("Test"));
+    private List<PromiseImpl<Response, NeverThrowsException>> sent;
+    private Handler upstream;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        sent = new ArrayList<>();
+        upstream = new Handler() {
+            @Override
+            public Promise<Response, NeverThrowsException> handle(final Context context, final Request request) {
+                PromiseImpl<Response, NeverThrowsException> promise = PromiseImpl.create();
+                sent.add(promise);
+                return promise;
+            }
+        };
+    }
+
+    @Test
+    public void shouldQueueRequestsExceedingTheHostLimit() throws Exception {
+        UpstreamLimiter limiter = new UpstreamLimiter(1, 10, logger);
+
+        Promise<Response, NeverThrowsException> first = limiter.filter(new RootContext(), request("a:80"), upstream);
+        Promise<Response, NeverThrowsException> second = limiter.filter(new RootContext(), request("a:80"), upstream);
+        assertThat(sent).hasSize(1);
+        UpstreamLimiter.Host host = limiter.getHosts().iterator().next();
+        assertThat(host.getLeased()).isEqualTo(1);
+        assertThat(host.getPending()).isEqualTo(1);
+
+        // Releasing the connection sends the pending request
+        sent.get(0).handleResult(new Response(Status.OK));
+        assertThat(first.get().getStatus()).isEqualTo(Status.OK);
+        assertThat(sent).hasSize(2);
+        assertThat(host.getPending()).isEqualTo(0);
+        assertThat(host.getWaits().getCumulativeSnapshot().getCount()).isEqualTo(1L);
+
+        sent.get(1).handleResult(new Response(Status.ACCEPTED));
+        assertThat(second.get().getStatus()).isEqualTo(Status.ACCEPTED);
+        assertThat(host.getLeased()).isEqualTo(0);
+        assertThat(host.getPeakLeased()).isEqualTo(1);
+        assertThat(host.getCompleted()).isEqualTo(2L);
+    }
+
+    @Test
+    public void shouldLimitEachHostIndependently() throws Exception {
+        UpstreamLimiter limiter = new UpstreamLimiter(1, 10, logger);
+
+        limiter.filter(new RootContext(), request("a:80"), upstream);
+        limiter.filter(new RootContext(), request("b:80"), upstream);
+
+        assertThat(sent).hasSize(2);
+        assertThat(limiter.getHosts()).hasSize(2);
+    }
+
+    @Test
+    public void shouldFailFastWhenTooManyRequestsArePending() throws Exception {
+        UpstreamLimiter limiter = new UpstreamLimiter(1, 1, logger);
+
+        limiter.filter(new RootContext(), request("a:80"), upstream);
+        limiter.filter(new RootContext(), request("a:80"), upstream);
+        Response response = limiter.filter(new RootContext(), request("a:80"), upstream).get();
+
+        assertThat(response.getStatus()).isEqualTo(Status.SERVICE_UNAVAILABLE);
+        assertThat(response.getCause()).isNotNull();
+        UpstreamLimiter.Host host = limiter.getHosts().iterator().next();
+        assertThat(host.getRejected()).isEqualTo(1L);
+        assertThat(host.getPending()).isEqualTo(1);
+        assertThat(sent).hasSize(1);
+    }
+
+    @Test
+    public void shouldCountTheRequestsNotLimitedWhenTooManyHostsAreTracked() throws Exception {
+        UpstreamLimiter limiter = new UpstreamLimiter(1, 10, logger);
+        for (int i = 0; i < UpstreamLimiter.DEFAULT_MAX_HOSTS; i++) {
+            limiter.filter(new RootContext(), request("host-" + i + ":80"), upstream);
+        }
+        assertThat(limiter.getBypassed()).isEqualTo(0L);
+
+        limiter.filter(new RootContext(), request("other:80"), upstream);
+        limiter.filter(new RootContext(), request("other:80"), upstream);
+        assertThat(limiter.getHosts()).hasSize(UpstreamLimiter.DEFAULT_MAX_HOSTS);
+        assertThat(limiter.getBypassed()).isEqualTo(2L);
+        assertThat(sent).hasSize(UpstreamLimiter.DEFAULT_MAX_HOSTS + 2);
+    }
+
+    private static Request request(final String authority) throws Exception {
+        return new Request().setMethod("GET").setUri("http://" + authority + "/path");
+    }
+}
@@ -21,6 +21,9 @@ import static org.forgerock.openig.handler.router.Files.*;
 import static org.mockito.Mockito.*;
 
 import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.HashMap;
 
 import org.hamcrest.BaseMatcher;
@@ -95,6 +98,36 @@ public class DirectoryMonitorTest {
         assertThat(snapshot).contains(entry(jsonFile, jsonFile.lastModified()));
     }
 
+    @Test
+    public void testTouchedFilesWithUnchangedContentAreIgnored() throws Exception {
+        final File directory = java.nio.file.Files.createTempDirectory("routes").toFile();
+        File jsonFile = new File(directory, "touched.json");
+        jsonFile.deleteOnExit();
+        directory.deleteOnExit();
+        write(jsonFile, "{}");
+
+        DirectoryMonitor observer = new DirectoryMonitor(directory);
+        observer.scan(listener);
+        verify(listener).onChanges(argThat(containsAddedFile(jsonFile)));
+
+        // Only the last modified time is changed
+        assertThat(jsonFile.setLastModified(jsonFile.lastModified() + 2000L)).isTrue();
+        observer.scan(listener);
+        verifyNoMoreInteractions(listener);
+
+        // Content is changed
+        write(jsonFile, "{ \"name\": \"touched\" }");
+        assertThat(jsonFile.setLastModified(jsonFile.lastModified() + 4000L)).isTrue();
+        observer.scan(listener);
+        verify(listener).onChanges(argThat(containsModifiedFile(jsonFile)));
+    }
+
+    private static void write(final File file, final String content) throws IOException {
+        try (Writer writer = new FileWriter(file)) {
+            writer.write(content);
+        }
+    }
+
     // Harmcrest matcher for fluent API usage
 
     static enum Within {
@@ -0,0 +1,135 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.handler.router;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.forgerock.http.Handler;
+import org.forgerock.http.protocol.Request;
+import org.forgerock.openig.el.Expression;
+import org.forgerock.openig.handler.router.RouteIndex.Constraint;
+import org.forgerock.openig.handler.router.RouteIndex.Kind;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class RouteIndexTest {
+
+    @DataProvider
+    public static Object[][] indexableConditions() {
+        // @Checkstyle:off
+        return new Object[][] {
+            { "${matches(request.uri.path, '^/api')}", Kind.PATH, "/api" },
+            { "${matches(request.uri.path, \"^/api/v[0-9]+/orders\")}", Kind.PATH, "/api/v" },
+            { "${matches(request.uri.path, '^/api\\\\.v1')}", Kind.PATH, "/api.v1" },
+            { "${matches(request.uri.path, '^/apis?')}", Kind.PATH, "/api" },
+            { "${request.uri.host == 'www.example.com'}", Kind.HOST, "www.example.com" },
+            { "${'www.example.com' eq request.uri.host}", Kind.HOST, "www.example.com" },
+            { "${request.method == 'POST'}", Kind.METHOD, "POST" },
+            { "${request.method == 'POST' and matches(request.uri.path, '^/api')}", Kind.PATH, "/api" },
+            { "${request.method == 'POST' && request.uri.host == 'h'}", Kind.HOST, "h" }
+        };
+        // @Checkstyle:on
+    }
+
+    @Test(dataProvider = "indexableConditions")
+    public void shouldAnalyseIndexableConditions(final String condition, final Kind kind, final String value)
+            throws Exception {
+        Constraint constraint = RouteIndex.analyse(Expression.valueOf(condition, Boolean.class));
+        assertThat(constraint.getKind()).isEqualTo(kind);
+        assertThat(constraint.getValue()).isEqualTo(value);
+    }
+
+    @DataProvider
+    public static Object[][] linearConditions() {
+        // @Checkstyle:off
+        return new Object[][] {
+            { "${true}" },
+            { "${matches(request.uri.path, '/api')}" },
+            { "${matches(request.uri.path, '^/a|/b')}" },
+            { "${request.method == 'POST' or matches(request.uri.path, '^/api')}" },
+            { "${request.method == 'POST' and request.headers['X'] != null}" },
+            { "${not (request.method == 'POST')}" },
+            { "prefix-${request.method == 'POST'}" }
+        };
+        // @Checkstyle:on
+    }
+
+    @Test(dataProvider = "linearConditions")
+    public void shouldNotIndexOtherConditions(final String condition) throws Exception {
+        assertThat(RouteIndex.analyse(Expression.valueOf(condition, Boolean.class))).isNull();
+    }
+
+    @Test
+    public void shouldNotIndexRoutesWithoutCondition() throws Exception {
+        assertThat(RouteIndex.analyse(null)).isNull();
+    }
+
+    @Test
+    public void shouldSelectCandidatesInOrder() throws Exception {
+        RouteIndex index = new RouteIndex(asList(route("a", "${matches(request.uri.path, '^/api/orders')}"),
+                                                 route("b", "${request.headers['X'] != null}"),
+                                                 route("c", "${matches(request.uri.path, '^/api')}"),
+                                                 route("d", "${request.uri.host == 'other.example.com'}"),
+                                                 route("e", "${request.method == 'DELETE'}"),
+                                                 route("f", "${matches(request.uri.path, '^/web')}")));
+
+        assertThat(names(index, new Request().setMethod("GET").setUri("http://www.example.com/api/orders/42")))
+                .containsExactly("a", "b", "c");
+        assertThat(names(index, new Request().setMethod("DELETE").setUri("http://other.example.com/web")))
+                .containsExactly("b", "d", "e", "f");
+        assertThat(names(index, new Request().setMethod("GET").setUri("http://www.example.com/")))
+                .containsExactly("b");
+
+        assertThat(index.getIndexedRouteCount()).isEqualTo(5);
+        assertThat(index.getLinearRouteNames()).containsExactly("b");
+        assertThat(index.isIndexed(0)).isTrue();
+        assertThat(index.isIndexed(1)).isFalse();
+    }
+
+    @Test
+    public void shouldSelectAllRoutesWithoutRequest() throws Exception {
+        RouteIndex index = new RouteIndex(asList(route("a", "${matches(request.uri.path, '^/api')}"),
+                                                 route("b", null)));
+        assertThat(names(index, null)).containsExactly("a", "b");
+    }
+
+    private static List<String> names(final RouteIndex index, final Request request) {
+        List<String> names = new ArrayList<>();
+        BitSet candidates = index.candidates(request);
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            names.add(index.getRoute(i).getName());
+        }
+        return names;
+    }
+
+    private static Route route(final String name, final String condition) throws Exception {
+        Expression<Boolean> expression = (condition == null) ? null : Expression.valueOf(condition, Boolean.class);
+        return new Route((Handler) null, name, expression) {
+            @Override
+            public void start() { }
+
+            @Override
+            public void destroy() { }
+        };
+    }
+}
@@ -27,6 +27,8 @@ import static org.forgerock.util.Utils.closeSilently;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.matches;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
@@ -41,6 +43,7 @@ import java.io.Reader;
 import java.io.Writer;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
 
 import org.forgerock.http.Handler;
 import org.forgerock.http.io.IO;
@@ -59,11 +62,14 @@ import org.forgerock.services.context.AttributesContext;
 import org.forgerock.services.context.Context;
 import org.forgerock.services.context.RootContext;
 import org.forgerock.util.promise.NeverThrowsException;
+import org.forgerock.util.promise.Promise;
 import org.forgerock.util.promise.PromiseImpl;
 import org.forgerock.util.time.TimeService;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.Spy;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -262,6 +268,88 @@ public class RouterHandlerTest {
         verify(logger).error(matches("The route defined in file '.*' cannot be added"));
     }
 
+    @Test(timeOut = 10000)
+    public void testRequestsAreNotBlockedWhileRoutesAreBuilt() throws Exception {
+        final CountDownLatch building = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        RouteBuilder builder = spy(newRouterBuilder());
+        doAnswer(new Answer<Route>() {
+            @Override
+            public Route answer(final InvocationOnMock invocation) throws Throwable {
+                building.countDown();
+                release.await();
+                return (Route) invocation.callRealMethod();
+            }
+        }).when(builder).build(any(File.class));
+
+        final RouterHandler router = new RouterHandler(builder, scanner);
+        final File file = Files.getRelativeFile(RouterHandlerTest.class, "clash/default.json");
+        Thread changes = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                router.onChanges(new FileChangeSet(null,
+                                                   Collections.singleton(file),
+                                                   Collections.<File>emptySet(),
+                                                   Collections.<File>emptySet()));
+            }
+        });
+        changes.start();
+        building.await();
+
+        // The route is being built: requests are still dispatched against the previous (empty) snapshot
+        assertThat(router.handle(new RootContext(), new Request()).getOrThrow().getStatus())
+                .isEqualTo(Status.NOT_FOUND);
+
+        release.countDown();
+        changes.join();
+
+        assertThat(router.handle(new RootContext(), new Request()).getOrThrow().getStatus())
+                .isEqualTo(Status.TEAPOT);
+    }
+
+    @Test(timeOut = 10000)
+    public void testReplacedRoutesAreDestroyedOnceTheirRequestsAreComplete() throws Exception {
+        final PromiseImpl<Response, NeverThrowsException> pending = PromiseImpl.create();
+        TestRoute first = new TestRoute(new Handler() {
+            @Override
+            public Promise<Response, NeverThrowsException> handle(final Context context, final Request request) {
+                return pending;
+            }
+        });
+        TestRoute second = new TestRoute(new Handler() {
+            @Override
+            public Promise<Response, NeverThrowsException> handle(final Context context, final Request request) {
+                return Response.newResponsePromise(new Response(Status.OK));
+            }
+        });
+        RouteBuilder builder = spy(newRouterBuilder());
+        doReturn(first).doReturn(second).when(builder).build(any(File.class));
+        RouterHandler router = new RouterHandler(builder, scanner);
+        File file = new File("route.json");
+
+        router.onChanges(new FileChangeSet(null,
+                                           Collections.singleton(file),
+                                           Collections.<File>emptySet(),
+                                           Collections.<File>emptySet()));
+        Promise<Response, NeverThrowsException> inFlight = router.handle(new RootContext(), new Request());
+        assertThat(inFlight.isDone()).isFalse();
+
+        // Reload the route while a request is being processed by the old one
+        router.onChanges(new FileChangeSet(null,
+                                           Collections.<File>emptySet(),
+                                           Collections.singleton(file),
+                                           Collections.<File>emptySet()));
+        assertThat(first.stopped).isTrue();
+        assertThat(first.destroyed).isFalse();
+        assertThat(router.handle(new RootContext(), new Request()).getOrThrow().getStatus()).isEqualTo(Status.OK);
+
+        // The old route is destroyed once its request is complete
+        pending.handleResult(new Response(Status.TEAPOT));
+        assertThat(inFlight.getOrThrow().getStatus()).isEqualTo(Status.TEAPOT);
+        assertThat(first.destroyed).isTrue();
+        assertThat(second.destroyed).isFalse();
+    }
+
     @Test
     public void testRouterEndpointIsBeingRegistered() throws Exception {
         Router router = new Router();
@@ -324,4 +412,40 @@ public class RouterHandlerTest {
         context.getAttributes().put("name", value);
         return handler.handle(context, new Request()).getOrThrow();
     }
+
+    /**
+     * Only serves requests once started.
+     */
+    private static final class TestRoute extends Route {
+        private volatile boolean started;
+        private volatile boolean stopped;
+        private volatile boolean destroyed;
+
+        TestRoute(final Handler handler) {
+            super(handler, "route", null);
+        }
+
+        @Override
+        public Promise<Response, NeverThrowsException> handle(final Context context, final Request request) {
+            if (!started || destroyed) {
+                return Response.newResponsePromise(new Response(Status.SERVICE_UNAVAILABLE));
+            }
+            return super.handle(context, request);
+        }
+
+        @Override
+        public void start() {
+            started = true;
+        }
+
+        @Override
+        public void stop() {
+            stopped = true;
+        }
+
+        @Override
+        public void destroy() {
+            destroyed = true;
+        }
+    }
 }
@@ -0,0 +1,168 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.handler.router;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.forgerock.openig.heap.Name;
+import org.forgerock.openig.log.Logger;
+import org.forgerock.openig.log.NullLogSink;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class WatchServiceDirectoryScannerTest {
+
+    @Mock
+    private FileChangeListener listener;
+
+    @Mock
+    private DirectoryScanner delegate;
+
+    private File directory;
+    private WatchServiceDirectoryScanner scanner;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        directory = java.nio.file.Files.createTempDirectory("routes").toFile();
+        directory.deleteOnExit();
+        scanner = new WatchServiceDirectoryScanner(directory,
+                                                   delegate,
+                                                   50L,
+                                                   new Logger(new NullLogSink(), Name.of("watcher")));
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        scanner.stop();
+    }
+
+    @Test
+    public void shouldOnlyScanSynchronouslyTheFirstTime() throws Exception {
+        scanner.scan(listener);
+        scanner.scan(listener);
+        scanner.scan(listener);
+
+        verify(delegate, times(1)).scan(listener);
+    }
+
+    @Test
+    public void shouldScanWhenDirectoryContentChanges() throws Exception {
+        scanner.scan(listener);
+
+        File file = new File(directory, "route.json");
+        file.deleteOnExit();
+        assertThat(file.createNewFile()).isTrue();
+
+        verify(delegate, timeout(5000).times(2)).scan(listener);
+    }
+
+    @Test
+    public void shouldDetectAddedRoutes() throws Exception {
+        scanner = new WatchServiceDirectoryScanner(directory,
+                                                   new DirectoryMonitor(directory),
+                                                   50L,
+                                                   new Logger(new NullLogSink(), Name.of("watcher")));
+        scanner.scan(listener);
+
+        File file = new File(directory, "route.json");
+        file.deleteOnExit();
+        assertThat(file.createNewFile()).isTrue();
+
+        verify(listener, timeout(5000)).onChanges(any(FileChangeSet.class));
+    }
+
+    @Test
+    public void shouldWatchADirectoryCreatedAfterTheInitialScan() throws Exception {
+        File missing = new File(directory, "routes");
+        scanner = new WatchServiceDirectoryScanner(missing,
+                                                   new DirectoryMonitor(missing),
+                                                   50L,
+                                                   50L,
+                                                   new Logger(new NullLogSink(), Name.of("watcher")));
+        scanner.scan(listener);
+
+        assertThat(missing.mkdir()).isTrue();
+        missing.deleteOnExit();
+        // Let the directory be watched before adding a route
+        Thread.sleep(200L);
+        File file = new File(missing, "route.json");
+        file.deleteOnExit();
+        assertThat(file.createNewFile()).isTrue();
+
+        verify(listener, timeout(5000)).onChanges(any(FileChangeSet.class));
+    }
+
+    @Test
+    public void shouldWaitForTheInProgressScanWhenStopping() throws Exception {
+        final CountDownLatch scanning = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean done = new AtomicBoolean();
+        scanner = new WatchServiceDirectoryScanner(directory, new DirectoryScanner() {
+            private boolean initial = true;
+
+            @Override
+            public void scan(final FileChangeListener listener) {
+                if (initial) {
+                    initial = false;
+                    return;
+                }
+                scanning.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.set(true);
+            }
+        }, 50L, new Logger(new NullLogSink(), Name.of("watcher")));
+        scanner.scan(listener);
+
+        File file = new File(directory, "route.json");
+        file.deleteOnExit();
+        assertThat(file.createNewFile()).isTrue();
+        assertThat(scanning.await(5, SECONDS)).isTrue();
+
+        Thread stopping = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                scanner.stop();
+            }
+        });
+        stopping.start();
+        stopping.join(200L);
+        assertThat(stopping.isAlive()).isTrue();
+
+        release.countDown();
+        stopping.join(5000L);
+        assertThat(stopping.isAlive()).isFalse();
+        assertThat(done.get()).isTrue();
+    }
+}
@@ -56,9 +56,9 @@ import org.testng.annotations.Test;
 public class JwtCookieSessionTest {
 
     // @Checkstyle:off
-    private static final BigInteger MODULUS = new BigInteger("8791241646273606363530743138466682857710006665746288923335499993647975314172150182688142208337957780959253668641058299308924577038067798942355217080985221");
-    private static final BigInteger PRV_EXP = new BigInteger("5285047066871138702057581959998914169261891032908708627042668481159292909395626068592006158226313005725007395275807957072135194469637529567961288974510261");
-    private static final BigInteger PUB_EXP = new BigInteger("65537");
+    static final BigInteger MODULUS = new BigInteger("8791241646273606363530743138466682857710006665746288923335499993647975314172150182688142208337957780959253668641058299308924577038067798942355217080985221");
+    static final BigInteger PRV_EXP = new BigInteger("5285047066871138702057581959998914169261891032908708627042668481159292909395626068592006158226313005725007395275807957072135194469637529567961288974510261");
+    static final BigInteger PUB_EXP = new BigInteger("65537");
     // @Checkstyle:on
 
     /**
@@ -68,7 +68,7 @@ public class JwtCookieSessionTest {
      * }
      */
     // @Checkstyle:off
-    private static final String ORIGINAL = "eyAidHlwIjogIkpXVCIsICJhbGciOiAiUlNBRVNfUEtDUzFfVjFfNSIsICJlbmMiOiAiQTEyOENCQ19IUzI1NiIgfQ."
+    static final String ORIGINAL = "eyAidHlwIjogIkpXVCIsICJhbGciOiAiUlNBRVNfUEtDUzFfVjFfNSIsICJlbmMiOiAiQTEyOENCQ19IUzI1NiIgfQ."
             + "VcBqC0hgiEdE2OqirUY9QGItTboPunTwlBaKOIQu81vwEYocaO20G0DecedPpiE99np5v1Rifw82kCfAd4Kvfg."
             + "InWrJbg39qUmMS11Hc54SA.xgatQtOnS-krnjq9hN_e3t4pPw_0yxJX1ByXOv0W0plRnAHoldtRFJLLOvS09TlC.14WSYyCegapzGCIU3fbGPw";
     // @Checkstyle:on
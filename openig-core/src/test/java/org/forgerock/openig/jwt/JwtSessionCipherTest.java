@@ -0,0 +1,124 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.jwt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.openig.jwt.JwtCookieSessionTest.MODULUS;
+import static org.forgerock.openig.jwt.JwtCookieSessionTest.ORIGINAL;
+import static org.forgerock.openig.jwt.JwtCookieSessionTest.PRV_EXP;
+import static org.forgerock.openig.jwt.JwtCookieSessionTest.PUB_EXP;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.spec.RSAPrivateKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+
+import org.forgerock.json.jose.jwt.JwtClaimsSet;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class JwtSessionCipherTest {
+
+    private static final byte[] SECRET = "0123456789abcdef".getBytes();
+
+    private KeyPair keyPair;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        KeyFactory factory = KeyFactory.getInstance("RSA");
+        keyPair = new KeyPair(factory.generatePublic(new RSAPublicKeySpec(MODULUS, PUB_EXP)),
+                              factory.generatePrivate(new RSAPrivateKeySpec(MODULUS, PRV_EXP)));
+    }
+
+    @Test
+    public void shouldDecryptCookiesOfDefaultCipher() throws Exception {
+        CachingRsaJwtSessionCipher cipher = new CachingRsaJwtSessionCipher(keyPair, 10);
+
+        assertThat(cipher.decrypt(ORIGINAL).get("a-value").asString()).isEqualTo("ForgeRock OpenIG");
+        assertThat(cipher.decrypt(ORIGINAL).get("a-value").asString()).isEqualTo("ForgeRock OpenIG");
+        assertThat(cipher.getCachedKeyCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldProduceCookiesReadableByDefaultCipher() throws Exception {
+        CachingRsaJwtSessionCipher caching = new CachingRsaJwtSessionCipher(keyPair, 10);
+        RsaJwtSessionCipher rsa = new RsaJwtSessionCipher(keyPair);
+
+        String value = caching.encrypt(claims("ForgeRock OpenIG"));
+        assertThat(rsa.decrypt(value).get("a-value").asString()).isEqualTo("ForgeRock OpenIG");
+        assertThat(caching.decrypt(rsa.encrypt(claims("OpenAM"))).get("a-value").asString()).isEqualTo("OpenAM");
+    }
+
+    @Test
+    public void shouldReuseContentEncryptionKey() throws Exception {
+        CachingRsaJwtSessionCipher cipher = new CachingRsaJwtSessionCipher(keyPair, 10);
+
+        String first = cipher.encrypt(claims("one"));
+        String second = cipher.encrypt(claims("two"));
+
+        assertThat(first).isNotEqualTo(second);
+        assertThat(first.split("\\.")[1]).isEqualTo(second.split("\\.")[1]);
+        assertThat(cipher.decrypt(first).get("a-value").asString()).isEqualTo("one");
+        assertThat(cipher.decrypt(second).get("a-value").asString()).isEqualTo("two");
+        assertThat(cipher.getCachedKeyCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedKeys() throws Exception {
+        CachingRsaJwtSessionCipher cipher = new CachingRsaJwtSessionCipher(keyPair, 1);
+        cipher.encrypt(claims("one"));
+
+        cipher.decrypt(ORIGINAL);
+        assertThat(cipher.getCachedKeyCount()).isEqualTo(1);
+    }
+
+    @Test(expectedExceptions = GeneralSecurityException.class)
+    public void shouldRejectTamperedCookies() throws Exception {
+        CachingRsaJwtSessionCipher cipher = new CachingRsaJwtSessionCipher(keyPair, 10);
+        String value = cipher.encrypt(claims("ForgeRock OpenIG"));
+        String tag = value.substring(value.lastIndexOf('.') + 1);
+        cipher.decrypt(value.substring(0, value.lastIndexOf('.') + 1) + (tag.startsWith("A") ? "B" : "A")
+                               + tag.substring(1));
+    }
+
+    @Test
+    public void shouldEncryptWithSharedSecret() throws Exception {
+        DirectJwtSessionCipher cipher = new DirectJwtSessionCipher(SECRET);
+
+        String value = cipher.encrypt(claims("ForgeRock OpenIG"));
+        assertThat(value.split("\\.", -1)[1]).isEmpty();
+        assertThat(cipher.decrypt(value).get("a-value").asString()).isEqualTo("ForgeRock OpenIG");
+    }
+
+    @Test(expectedExceptions = GeneralSecurityException.class)
+    public void shouldNotDecryptRsaCookiesWithSharedSecret() throws Exception {
+        new DirectJwtSessionCipher(SECRET).decrypt(ORIGINAL);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectInvalidSecretLength() throws Exception {
+        new DirectJwtSessionCipher("too-short".getBytes());
+    }
+
+    private static JwtClaimsSet claims(final String value) {
+        JwtClaimsSet claims = new JwtClaimsSet();
+        claims.setClaim("a-value", value);
+        return claims;
+    }
+}
@@ -11,23 +11,44 @@
  * Header, with the fields enclosed by brackets [] replaced by your own identifying
  * information: "Portions Copyright [year] [name of copyright owner]".
  *
- * Copyright 2015 ForgeRock AS.
+ * Copyright 2015-2016 ForgeRock AS.
  */
 
 package org.forgerock.openig.ldap;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.forgerock.opendj.ldap.requests.Requests.newModifyRequest;
+import static org.forgerock.util.time.Duration.duration;
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.List;
 
 import org.forgerock.opendj.ldap.AuthenticationException;
 import org.forgerock.opendj.ldap.Connections;
+import org.forgerock.opendj.ldap.EntryNotFoundException;
+import org.forgerock.opendj.ldap.IntermediateResponseHandler;
 import org.forgerock.opendj.ldap.LDAPClientContext;
 import org.forgerock.opendj.ldap.LDAPListener;
+import org.forgerock.opendj.ldap.LdapResultHandler;
 import org.forgerock.opendj.ldap.MemoryBackend;
+import org.forgerock.opendj.ldap.ModificationType;
+import org.forgerock.opendj.ldap.RequestContext;
+import org.forgerock.opendj.ldap.RequestHandler;
 import org.forgerock.opendj.ldap.ResultCode;
 import org.forgerock.opendj.ldap.SearchScope;
+import org.forgerock.opendj.ldap.requests.BindRequest;
 import org.forgerock.opendj.ldap.responses.BindResult;
 import org.forgerock.opendj.ldap.responses.SearchResultEntry;
 import org.forgerock.opendj.ldif.LDIFEntryReader;
+import org.forgerock.util.Options;
+import org.forgerock.util.time.TimeService;
+import org.mockito.ArgumentCaptor;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -37,8 +58,10 @@ public class LdapClientTest {
 
     private LDAPListener listener;
     private LdapClient client;
+    private RequestHandler<RequestContext> handler;
 
     @BeforeMethod
+    @SuppressWarnings("unchecked")
     public void setUp() throws Exception {
         // Create mock LDAP server with a single user.
         MemoryBackend backend = new MemoryBackend(new LDIFEntryReader(
@@ -72,7 +95,8 @@ public class LdapClientTest {
                 "description: test user",
                 "userPassword: password"));
 
-        listener = new LDAPListener(0, Connections.<LDAPClientContext>newServerConnectionFactory(backend));
+        handler = mock(RequestHandler.class, delegatesTo(backend));
+        listener = new LDAPListener(0, Connections.<LDAPClientContext>newServerConnectionFactory(handler));
         client = LdapClient.getInstance();
     }
 
@@ -113,4 +137,185 @@ public class LdapClientTest {
 
         connection.bind("uid=bjensen,ou=people,dc=example,dc=com", "wrong-value".toCharArray());
     }
+
+    @Test
+    public void shouldSearchAsynchronously() throws Exception {
+        LdapConnection connection = client.connectAsync(listener.getHostName(), listener.getPort()).getOrThrow();
+        try {
+            List<SearchResultEntry> entries = connection.searchAsync("ou=people,dc=example,dc=com",
+                                                                     SearchScope.WHOLE_SUBTREE,
+                                                                     "(objectClass=person)").getOrThrow();
+            assertThat(entries).hasSize(1);
+            assertThat(entries.get(0).getAttribute("uid").firstValueAsString()).isEqualTo("bjensen");
+
+            BindResult bindResult = connection.bindAsync("uid=bjensen,ou=people,dc=example,dc=com",
+                                                         "password".toCharArray()).getOrThrow();
+            assertThat(bindResult.getResultCode()).isEqualTo(ResultCode.SUCCESS);
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test(expectedExceptions = EntryNotFoundException.class)
+    public void shouldFailToFindAMissingEntryAsynchronously() throws Exception {
+        LdapConnection connection = client.connect(listener.getHostName(), listener.getPort());
+        try {
+            connection.searchSingleEntryAsync("ou=people,dc=example,dc=com",
+                                              SearchScope.WHOLE_SUBTREE,
+                                              client.filter("(uid=%s)", "nobody")).getOrThrow();
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void shouldUseConfiguredConnectionPool() throws Exception {
+        LdapConnectionPool pool = new LdapConnectionPool(listener.getHostName(),
+                                                         listener.getPort(),
+                                                         0,
+                                                         2,
+                                                         duration("1 minute"),
+                                                         Options.defaultOptions());
+        try {
+            LdapClient pooled = new LdapClient(pool);
+            LdapConnection first = pooled.connect(listener.getHostName(), listener.getPort());
+            LdapConnection second = pooled.connectAsync().getOrThrow();
+            assertThat(pool.getActiveCount()).isEqualTo(2);
+
+            SearchResultEntry entry = second.readEntryAsync("uid=bjensen,ou=people,dc=example,dc=com").getOrThrow();
+            assertThat(entry.getAttribute("sn").firstValueAsString()).isEqualTo("Jensen");
+
+            first.close();
+            first.close();
+            second.close();
+            assertThat(pool.getActiveCount()).isEqualTo(0);
+            assertThat(pool.getPeakActiveCount()).isEqualTo(2);
+            assertThat(pool.getAcquiredCount()).isEqualTo(2);
+            assertThat(pool.getFailureCount()).isEqualTo(0);
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void shouldCacheLookupsOfPooledConnections() throws Exception {
+        LdapConnectionPool pool = new LdapConnectionPool(listener.getHostName(),
+                                                         listener.getPort(),
+                                                         0,
+                                                         1,
+                                                         duration("1 minute"),
+                                                         Options.defaultOptions());
+        LdapSearchCache cache = new LdapSearchCache(TimeService.SYSTEM,
+                                                    10,
+                                                    duration("1 minute"),
+                                                    duration("1 minute"));
+        pool.setSearchCache(cache);
+        try {
+            String dn = "uid=bjensen,ou=people,dc=example,dc=com";
+            LdapConnection connection = pool.connect(null);
+            try {
+                assertThat(description(connection.readEntry(dn))).isEqualTo("test user");
+                assertThat(description(connection.readEntryAsync(dn).getOrThrow())).isEqualTo("test user");
+                assertThat(cache.getMissCount()).isEqualTo(1);
+                assertThat(cache.getHitCount()).isEqualTo(1);
+
+                connection.modify(newModifyRequest(dn).addModification(ModificationType.REPLACE,
+                                                                        "description",
+                                                                        "modified user"));
+                assertThat(cache.size()).isEqualTo(0);
+                assertThat(description(connection.readEntry(dn))).isEqualTo("modified user");
+            } finally {
+                connection.close();
+            }
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void shouldCacheMissingEntries() throws Exception {
+        LdapConnectionPool pool = new LdapConnectionPool(listener.getHostName(),
+                                                         listener.getPort(),
+                                                         0,
+                                                         1,
+                                                         duration("1 minute"),
+                                                         Options.defaultOptions());
+        LdapSearchCache cache = new LdapSearchCache(TimeService.SYSTEM,
+                                                    10,
+                                                    duration("1 minute"),
+                                                    duration("1 minute"));
+        pool.setSearchCache(cache);
+        try {
+            LdapConnection connection = pool.connect(null);
+            try {
+                for (int i = 0; i < 2; i++) {
+                    try {
+                        connection.searchSingleEntry("ou=people,dc=example,dc=com",
+                                                     SearchScope.WHOLE_SUBTREE,
+                                                     "(uid=nobody)");
+                        failBecauseExceptionWasNotThrown(EntryNotFoundException.class);
+                    } catch (EntryNotFoundException e) {
+                        // expected
+                    }
+                }
+                assertThat(cache.getMissCount()).isEqualTo(1);
+                assertThat(cache.getHitCount()).isEqualTo(1);
+            } finally {
+                connection.close();
+            }
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldNotShareTheResultsOfReboundConnections() throws Exception {
+        LdapConnectionPool pool = new LdapConnectionPool(listener.getHostName(),
+                                                         listener.getPort(),
+                                                         0,
+                                                         1,
+                                                         duration("1 minute"),
+                                                         Options.defaultOptions());
+        LdapSearchCache cache = new LdapSearchCache(TimeService.SYSTEM,
+                                                    10,
+                                                    duration("1 minute"),
+                                                    duration("1 minute"));
+        pool.setSearchCache(cache);
+        try {
+            String dn = "uid=bjensen,ou=people,dc=example,dc=com";
+            LdapConnection connection = pool.connect(null);
+            try {
+                connection.bind(dn, "password".toCharArray());
+                assertThat(description(connection.readEntry(dn))).isEqualTo("test user");
+                assertThat(cache.size()).isEqualTo(0);
+            } finally {
+                connection.close();
+            }
+
+            // Same physical connection (the pool holds a single one): it must be anonymous again
+            connection = pool.connect(null);
+            try {
+                assertThat(description(connection.readEntry(dn))).isEqualTo("test user");
+                assertThat(cache.getMissCount()).isEqualTo(1);
+            } finally {
+                connection.close();
+            }
+
+            ArgumentCaptor<BindRequest> binds = ArgumentCaptor.forClass(BindRequest.class);
+            verify(handler, times(2)).handleBind(any(RequestContext.class),
+                                                 anyInt(),
+                                                 binds.capture(),
+                                                 any(IntermediateResponseHandler.class),
+                                                 any(LdapResultHandler.class));
+            assertThat(binds.getAllValues().get(0).getName()).isEqualTo(dn);
+            assertThat(binds.getAllValues().get(1).getName()).isEmpty();
+        } finally {
+            pool.close();
+        }
+    }
+
+    private static String description(final SearchResultEntry entry) {
+        return entry.getAttribute("description").firstValueAsString();
+    }
 }
@@ -0,0 +1,150 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.log;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.forgerock.openig.heap.Name;
+import org.forgerock.openig.log.AsyncFileLogSink.OverflowPolicy;
+import org.forgerock.util.time.TimeService;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class AsyncFileLogSinkTest {
+
+    private File directory;
+    private File file;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("logs").toFile();
+        file = new File(directory, "openig.log");
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        for (File child : directory.listFiles()) {
+            child.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void shouldWriteAllEntriesFromConcurrentThreads() throws Exception {
+        final AsyncFileLogSink sink = new AsyncFileLogSink(file, UTF_8, TimeService.SYSTEM, 16, OverflowPolicy.BLOCK);
+        sink.start();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int n = 0; n < 1000; n++) {
+                        sink.log(new LogEntry(Name.of("Source"), LogLevel.INFO, "Hello OpenIG"));
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        sink.stop();
+
+        List<String> lines = Files.readAllLines(file.toPath(), UTF_8);
+        assertThat(lines).hasSize(4000);
+        assertThat(lines.get(0)).endsWith(" INFO Source --- Hello OpenIG");
+        assertThat(sink.getDroppedCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldWriteStackTracesAsComments() throws Exception {
+        AsyncFileLogSink sink = new AsyncFileLogSink(file);
+        sink.start();
+        sink.log(new LogEntry(Name.of("Source"), "throwable", LogLevel.ERROR, "Boom", new Exception("Failure")));
+        sink.stop();
+
+        List<String> lines = Files.readAllLines(file.toPath(), UTF_8);
+        assertThat(lines.get(0)).endsWith(" ERROR Source --- Boom");
+        assertThat(lines.get(1)).isEqualTo("# java.lang.Exception: Failure");
+    }
+
+    @Test
+    public void shouldIgnoreEntriesBelowLevel() throws Exception {
+        AsyncFileLogSink sink = new AsyncFileLogSink(file);
+        sink.setLevel(LogLevel.WARNING);
+        sink.start();
+        sink.log(new LogEntry(Name.of("Source"), LogLevel.INFO, "Ignored"));
+        sink.log(new LogEntry(Name.of("Source"), LogLevel.ERROR, "Logged"));
+        sink.stop();
+
+        assertThat(Files.readAllLines(file.toPath(), UTF_8)).hasSize(1);
+    }
+
+    @Test
+    public void shouldDropAndReportEntriesWhenBufferIsFull() throws Exception {
+        // Not started yet: nothing consumes the buffer
+        AsyncFileLogSink sink = new AsyncFileLogSink(file, UTF_8, TimeService.SYSTEM, 4, OverflowPolicy.DROP);
+        for (int n = 0; n < 10; n++) {
+            sink.log(new LogEntry(Name.of("Source"), LogLevel.INFO, "Hello OpenIG"));
+        }
+        assertThat(sink.getDroppedCount()).isEqualTo(6);
+
+        sink.start();
+        sink.stop();
+        List<String> lines = Files.readAllLines(file.toPath(), UTF_8);
+        assertThat(lines).hasSize(5);
+        assertThat(lines.get(4)).endsWith("WARNING AsyncFileLogSink --- 6 log entries have been dropped (buffer full)");
+    }
+
+    @Test
+    public void shouldOnlyDropEntriesBelowOverflowLevel() throws Exception {
+        AsyncFileLogSink sink =
+                new AsyncFileLogSink(file, UTF_8, TimeService.SYSTEM, 2, OverflowPolicy.DROP_BELOW_LEVEL);
+        sink.log(new LogEntry(Name.of("Source"), LogLevel.INFO, "Buffered"));
+        sink.log(new LogEntry(Name.of("Source"), LogLevel.INFO, "Buffered"));
+        sink.log(new LogEntry(Name.of("Source"), LogLevel.INFO, "Dropped"));
+        assertThat(sink.getDroppedCount()).isEqualTo(1);
+
+        // Not running: the entry cannot wait for some room
+        sink.log(new LogEntry(Name.of("Source"), LogLevel.ERROR, "Blocked"));
+        assertThat(sink.getDroppedCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldRollFileWhenSizeIsReached() throws Exception {
+        AsyncFileLogSink sink = new AsyncFileLogSink(file);
+        sink.setRollingSize(1L);
+        sink.start();
+        sink.log(new LogEntry(Name.of("Source"), LogLevel.INFO, "Hello OpenIG"));
+        sink.stop();
+
+        assertThat(file).doesNotExist();
+        File[] archives = directory.listFiles();
+        assertThat(archives).hasSize(1);
+        assertThat(archives[0].getName()).startsWith("openig.log.");
+        assertThat(Files.readAllLines(archives[0].toPath(), UTF_8)).hasSize(1);
+    }
+}
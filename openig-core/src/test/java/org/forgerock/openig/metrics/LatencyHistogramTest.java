@@ -0,0 +1,84 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+
+package org.forgerock.openig.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.forgerock.openig.metrics.LatencyHistogram.Snapshot;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class LatencyHistogramTest {
+
+    @Test
+    public void shouldMapValuesToContiguousBuckets() throws Exception {
+        for (long value = 0; value < 1000000L; value++) {
+            int index = LatencyHistogram.indexOf(value);
+            assertThat(LatencyHistogram.lowestEquivalentValue(index)).isLessThanOrEqualTo(value);
+            assertThat(LatencyHistogram.highestEquivalentValue(index)).isGreaterThanOrEqualTo(value);
+        }
+        assertThat(LatencyHistogram.indexOf(127)).isEqualTo(127);
+        assertThat(LatencyHistogram.indexOf(128)).isEqualTo(128);
+        assertThat(LatencyHistogram.indexOf(255)).isEqualTo(191);
+        assertThat(LatencyHistogram.indexOf(256)).isEqualTo(192);
+    }
+
+    @Test
+    public void shouldComputeQuantilesWithBoundedError() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 10000L; value++) {
+            histogram.record(value);
+        }
+        Snapshot snapshot = histogram.snapshot();
+
+        assertThat(snapshot.getCount()).isEqualTo(10000L);
+        assertThat(snapshot.getSum()).isEqualTo(50005000L);
+        // Reported values are never lower than the real ones, and at most 1/64 higher
+        assertThat(snapshot.getValueAtQuantile(0.5)).isGreaterThanOrEqualTo(5000L).isLessThanOrEqualTo(5078L);
+        assertThat(snapshot.getValueAtQuantile(0.99)).isGreaterThanOrEqualTo(9900L).isLessThanOrEqualTo(10054L);
+        assertThat(snapshot.getMax()).isGreaterThanOrEqualTo(10000L).isLessThanOrEqualTo(10156L);
+        assertThat(snapshot.getCountAtOrBelow(100L)).isEqualTo(100L);
+    }
+
+    @Test
+    public void shouldBoundRecordedValues() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram(1000L);
+        histogram.record(-5L);
+        histogram.record(1000000L);
+        Snapshot snapshot = histogram.snapshot();
+
+        assertThat(snapshot.getCount()).isEqualTo(2L);
+        assertThat(snapshot.getCountAtOrBelow(0L)).isEqualTo(1L);
+        assertThat(snapshot.getSum()).isEqualTo(1000L);
+    }
+
+    @Test
+    public void shouldProvideIntervalSnapshots() throws Exception {
+        LatencyRecorder recorder = new LatencyRecorder();
+        recorder.record(10L);
+        recorder.record(20L);
+        assertThat(recorder.getIntervalSnapshot().getCount()).isEqualTo(2L);
+
+        recorder.record(30L);
+        Snapshot interval = recorder.getIntervalSnapshot();
+        assertThat(interval.getCount()).isEqualTo(1L);
+        assertThat(interval.getSum()).isEqualTo(30L);
+        assertThat(recorder.getIntervalSnapshot().getCount()).isEqualTo(0L);
+        assertThat(recorder.getCumulativeSnapshot().getCount()).isEqualTo(3L);
+    }
+}
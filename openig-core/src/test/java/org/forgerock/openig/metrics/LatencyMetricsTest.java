@@ -0,0 +1,155 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+
+package org.forgerock.openig.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.forgerock.http.protocol.Request;
+import org.forgerock.http.protocol.Response;
+import org.forgerock.http.protocol.Status;
+import org.forgerock.openig.metrics.LatencyMetrics.RouteLatency;
+import org.forgerock.services.context.RootContext;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class LatencyMetricsTest {
+
+    @Test
+    public void shouldRecordPerStatusFamily() throws Exception {
+        RouteLatency latency = new RouteLatency("router", "my-route");
+        latency.record(new Response(Status.OK), 1000L);
+        latency.record(new Response(Status.CREATED), 2000L);
+        latency.record(new Response(Status.NOT_FOUND), 3000L);
+        latency.record(null, 4000L);
+
+        assertThat(latency.getRecorder(Status.OK).getCumulativeSnapshot().getCount()).isEqualTo(2L);
+        assertThat(latency.getRecorder(Status.BAD_REQUEST).getCumulativeSnapshot().getCount()).isEqualTo(1L);
+        assertThat(latency.getRecorder(Status.INTERNAL_SERVER_ERROR)).isNull();
+        assertThat(latency.getRecorder(null).getCumulativeSnapshot().getCount()).isEqualTo(1L);
+    }
+
+    @Test
+    public void shouldExposeAllRoutesAndUpstreams() throws Exception {
+        LatencyMetrics metrics = new LatencyMetrics();
+        RouteLatency route1 = new RouteLatency("router", "route-1");
+        RouteLatency route2 = new RouteLatency("router", "route \"2\"");
+        metrics.register(route1);
+        metrics.register(route2);
+        route1.record(new Response(Status.OK), 1500L);
+        route2.record(new Response(Status.BAD_GATEWAY), 2000000L);
+        metrics.recordUpstream("backend:8080", 1200L);
+
+        StringBuilder out = new StringBuilder();
+        metrics.expose(out);
+        String exposition = out.toString();
+
+        assertThat(exposition)
+                .contains("# TYPE openig_route_duration_seconds histogram\n")
+                .contains("openig_route_duration_seconds_bucket{router=\"router\",route=\"route-1\","
+                                  + "status=\"2xx\",le=\"0.001\"} 0\n")
+                .contains("openig_route_duration_seconds_bucket{router=\"router\",route=\"route-1\","
+                                  + "status=\"2xx\",le=\"0.0025\"} 1\n")
+                .contains("openig_route_duration_seconds_count{router=\"router\",route=\"route \\\"2\\\"\","
+                                  + "status=\"5xx\"} 1\n")
+                .contains("openig_route_duration_seconds_sum{router=\"router\",route=\"route \\\"2\\\"\","
+                                  + "status=\"5xx\"} 2\n")
+                .contains("# TYPE openig_route_interval_duration_seconds summary\n")
+                .contains("openig_upstream_duration_seconds_count{upstream=\"backend:8080\"} 1\n")
+                .doesNotContain("status=\"4xx\"");
+
+        // The next interval is empty
+        out = new StringBuilder();
+        metrics.expose(out);
+        assertThat(out.toString())
+                .contains("openig_route_interval_duration_seconds_count{router=\"router\",route=\"route-1\","
+                                  + "status=\"2xx\"} 0\n")
+                .contains("openig_route_interval_duration_seconds{router=\"router\",route=\"route-1\","
+                                  + "status=\"2xx\",quantile=\"0.5\"} "
+                                  + "NaN\n");
+
+        metrics.unregister(route1);
+        out = new StringBuilder();
+        metrics.expose(out);
+        assertThat(out.toString()).doesNotContain("route-1");
+    }
+
+    @Test
+    public void shouldKeepSameNamedRoutesOfDistinctRoutersApart() throws Exception {
+        LatencyMetrics metrics = new LatencyMetrics();
+        RouteLatency route1 = new RouteLatency("router-1", "route");
+        RouteLatency route2 = new RouteLatency("router-2", "route");
+        metrics.register(route1);
+        metrics.register(route2);
+        route1.record(new Response(Status.OK), 10L);
+        route2.record(new Response(Status.OK), 10L);
+
+        StringBuilder out = new StringBuilder();
+        metrics.expose(out);
+        assertThat(out.toString())
+                .contains("openig_route_duration_seconds_count{router=\"router-1\",route=\"route\",status=\"2xx\"} 1\n")
+                .contains("openig_route_duration_seconds_count{router=\"router-2\",route=\"route\","
+                                  + "status=\"2xx\"} 1\n");
+    }
+
+    @Test
+    public void shouldKeepTheSeriesOfAReloadedRoute() throws Exception {
+        LatencyMetrics metrics = new LatencyMetrics();
+        RouteLatency old = new RouteLatency("router", "route");
+        metrics.register(old);
+        old.record(new Response(Status.OK), 10L);
+
+        RouteLatency reloaded = new RouteLatency("router", "route");
+        metrics.register(reloaded);
+        metrics.unregister(old);
+        reloaded.record(new Response(Status.OK), 10L);
+
+        StringBuilder out = new StringBuilder();
+        metrics.expose(out);
+        assertThat(out.toString())
+                .contains("openig_route_duration_seconds_count{router=\"router\",route=\"route\",status=\"2xx\"} 2\n");
+    }
+
+    @Test
+    public void shouldBoundTheNumberOfUpstreams() throws Exception {
+        LatencyMetrics metrics = new LatencyMetrics(1);
+        metrics.recordUpstream("a:80", 10L);
+        metrics.recordUpstream("b:80", 10L);
+        metrics.recordUpstream("c:80", 10L);
+
+        StringBuilder out = new StringBuilder();
+        metrics.expose(out);
+        assertThat(out.toString())
+                .contains("openig_upstream_duration_seconds_count{upstream=\"a:80\"} 1\n")
+                .contains("openig_upstream_duration_seconds_count{upstream=\"other\"} 2\n");
+    }
+
+    @Test
+    public void shouldServeTheExposition() throws Exception {
+        LatencyMetrics metrics = new LatencyMetrics();
+        metrics.recordUpstream("backend:8080", 10L);
+        LatencyMetricsHandler handler = new LatencyMetricsHandler(metrics);
+
+        Response response = handler.handle(new RootContext(), new Request().setMethod("GET")).get();
+        assertThat(response.getStatus()).isEqualTo(Status.OK);
+        assertThat(response.getHeaders().getFirst("Content-Type")).isEqualTo(LatencyMetrics.CONTENT_TYPE);
+        assertThat(response.getEntity().getString()).contains("upstream=\"backend:8080\"");
+
+        response = handler.handle(new RootContext(), new Request().setMethod("POST")).get();
+        assertThat(response.getStatus()).isEqualTo(Status.METHOD_NOT_ALLOWED);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.regex;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class PatternCacheTest {
+
+    @Test
+    public void shouldReuseCompiledPatterns() throws Exception {
+        PatternCache cache = new PatternCache(10);
+        Pattern pattern = cache.compile("^/api");
+
+        assertThat(cache.compile("^/api")).isSameAs(pattern);
+        assertThat(cache.getSize()).isEqualTo(1);
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+        assertThat(cache.getHitRatio()).isEqualTo(0.5d);
+    }
+
+    @Test
+    public void shouldNotGrowBeyondMaxSize() throws Exception {
+        PatternCache cache = new PatternCache(2);
+        cache.compile("a");
+        cache.compile("b");
+        cache.compile("c");
+
+        assertThat(cache.getSize()).isEqualTo(2);
+        assertThat(cache.getEvictionCount()).isEqualTo(1);
+    }
+
+    @Test(expectedExceptions = PatternSyntaxException.class)
+    public void shouldNotCacheInvalidPatterns() throws Exception {
+        PatternCache cache = new PatternCache(10);
+        try {
+            cache.compile("[a-");
+        } finally {
+            assertThat(cache.getSize()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void shouldWarmUpWithoutAffectingStatistics() throws Exception {
+        PatternCache cache = new PatternCache(10);
+        cache.warmUp("^/api");
+        cache.warmUp("[a-");
+
+        assertThat(cache.getSize()).isEqualTo(1);
+        assertThat(cache.getMissCount()).isEqualTo(0);
+        cache.compile("^/api");
+        assertThat(cache.getHitCount()).isEqualTo(1);
+    }
+}
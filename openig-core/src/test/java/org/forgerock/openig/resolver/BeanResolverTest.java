@@ -63,6 +63,46 @@ public class BeanResolverTest {
         assertThat(bean.getNumber()).isEqualTo(42);
     }
 
+    @Test
+    public void shouldResolvePropertiesDeclaredByPublicInterface() throws Exception {
+        BeanResolver resolver = new BeanResolver();
+        final Named bean = new HiddenNamed();
+
+        assertThat(resolver.get(bean, "name")).isEqualTo("hidden");
+        resolver.put(bean, "name", "visible");
+        assertThat(bean.getName()).isEqualTo("visible");
+    }
+
+    @Test
+    public void shouldReturnUnresolvedWhenGetterFails() throws Exception {
+        assertThat(new BeanResolver().get(new HiddenNamed(), "failing")).isEqualTo(Resolver.UNRESOLVED);
+    }
+
+    public interface Named {
+        String getName();
+
+        void setName(String name);
+    }
+
+    private static class HiddenNamed implements Named {
+        private String name = "hidden";
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void setName(final String name) {
+            this.name = name;
+        }
+
+        @SuppressWarnings("unused")
+        public String getFailing() {
+            throw new IllegalStateException();
+        }
+    }
+
     private static class JavaBean {
         private String name;
         private boolean bool;
@@ -0,0 +1,65 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.resolver;
+
+import static java.util.Collections.singletonMap;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.forgerock.http.protocol.Headers;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class ResolversTest {
+
+    @Test
+    public void shouldOrderResolversFromMostSpecificToLeast() throws Exception {
+        List<Class<?>> types = new ArrayList<>();
+        for (Resolver resolver : Resolvers.resolvers(new HashMap<String, Object>())) {
+            types.add(resolver.getClass());
+        }
+        assertThat(types).contains(MapResolver.class);
+        assertThat(types.get(types.size() - 1)).isEqualTo(Unresolver.class);
+    }
+
+    @Test
+    public void shouldUseArrayResolverForArrays() throws Exception {
+        assertThat(Resolvers.resolvers(new String[0])).hasSize(1);
+        assertThat(Resolvers.resolvers(new String[0]).iterator().next()).isInstanceOf(ArrayResolver.class);
+        assertThat(Resolvers.get(new String[] { "a", "b" }, 1)).isEqualTo("b");
+    }
+
+    @Test
+    public void shouldResolveThroughCachedChains() throws Exception {
+        Headers headers = new Headers();
+        headers.put("X-Header", "value");
+        for (int i = 0; i < 3; i++) {
+            assertThat(Resolvers.get(headers, "X-Header")).isNotSameAs(Resolver.UNRESOLVED);
+            assertThat(Resolvers.get(singletonMap("a", "b"), "a")).isEqualTo("b");
+            assertThat(Resolvers.get(new Object(), "missing")).isSameAs(Resolver.UNRESOLVED);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void shouldNotExposeMutableChains() throws Exception {
+        ((List<Resolver>) Resolvers.resolvers(new Object())).set(0, null);
+    }
+}
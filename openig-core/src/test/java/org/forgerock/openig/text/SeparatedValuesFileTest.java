@@ -0,0 +1,116 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.text;
+
+import static java.nio.charset.StandardCharsets.UTF_16;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class SeparatedValuesFileTest {
+
+    private static final String CONTENT = "username,mail,password\r\n"
+            + "bjensen,bjensen@example.com,hifalutin\n"
+            + "\"jdoe, jr\",jdoe@example.com,\"p\"\"ss\"\n"
+            + "bjensen,duplicate@example.com,secret\n";
+
+    private File file;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        file = File.createTempFile("users", ".csv");
+        Files.write(file.toPath(), CONTENT.getBytes(UTF_8));
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+    @Test
+    public void shouldFindRecordsSequentially() throws Exception {
+        SeparatedValuesFile values = new SeparatedValuesFile(file);
+
+        assertThat(values.getRecord("username", "jdoe, jr")).containsEntry("password", "p\"ss");
+        assertThat(values.getRecord("username", "bjensen")).containsEntry("mail", "bjensen@example.com");
+        assertThat(values.getRecord("username", "unknown")).isNull();
+        assertThat(values.getIndexedRecordCount()).isEqualTo(-1);
+    }
+
+    @Test
+    public void shouldFindRecordsWithIndex() throws Exception {
+        SeparatedValuesFile values = new SeparatedValuesFile(file);
+        values.getIndexedKeys().add("username");
+        values.getIndexedKeys().add("mail");
+
+        assertThat(values.buildIndex()).isTrue();
+        assertThat(values.getIndexedRecordCount()).isEqualTo(3);
+        assertThat(values.getIndexMemorySize()).isGreaterThan(0L);
+
+        assertThat(values.getRecord("username", "jdoe, jr")).containsEntry("password", "p\"ss")
+                                                             .hasSize(3);
+        // The first matching record is returned, as with a sequential read
+        assertThat(values.getRecord("username", "bjensen")).containsEntry("mail", "bjensen@example.com");
+        assertThat(values.getRecord("mail", "duplicate@example.com")).containsEntry("password", "secret");
+        assertThat(values.getRecord("username", "unknown")).isNull();
+        // Not indexed: read sequentially
+        assertThat(values.getRecord("password", "secret")).containsEntry("mail", "duplicate@example.com");
+    }
+
+    @Test
+    public void shouldIndexAppendedRecords() throws Exception {
+        SeparatedValuesFile values = new SeparatedValuesFile(file);
+        values.getIndexedKeys().add("username");
+        values.buildIndex();
+
+        Files.write(file.toPath(), "scarter,scarter@example.com,sprain\n".getBytes(UTF_8), StandardOpenOption.APPEND);
+        file.setLastModified(file.lastModified() + 1000L);
+
+        assertThat(values.getRecord("username", "scarter")).containsEntry("password", "sprain");
+        assertThat(values.getIndexedRecordCount()).isEqualTo(4);
+    }
+
+    @Test
+    public void shouldRebuildIndexWhenFileIsRewritten() throws Exception {
+        SeparatedValuesFile values = new SeparatedValuesFile(file);
+        values.getIndexedKeys().add("username");
+        values.buildIndex();
+
+        Files.write(file.toPath(), "password,username\nsprain,scarter\n".getBytes(UTF_8));
+        file.setLastModified(file.lastModified() + 1000L);
+
+        assertThat(values.getRecord("username", "bjensen")).isNull();
+        assertThat(values.getRecord("username", "scarter")).containsEntry("password", "sprain");
+        assertThat(values.getIndexedRecordCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNotIndexUnsupportedCharsets() throws Exception {
+        SeparatedValuesFile values = new SeparatedValuesFile(file, UTF_16);
+        values.getIndexedKeys().add("username");
+
+        assertThat(values.buildIndex()).isFalse();
+    }
+}
@@ -16,11 +16,8 @@
 
 package org.forgerock.authz.modules.oauth2.cache;
 
-import static org.forgerock.util.promise.Promises.newExceptionPromise;
 import static org.forgerock.util.time.Duration.duration;
 
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import org.forgerock.authz.modules.oauth2.AccessTokenException;
@@ -28,8 +25,8 @@ import org.forgerock.authz.modules.oauth2.AccessTokenInfo;
 import org.forgerock.authz.modules.oauth2.AccessTokenResolver;
 import org.forgerock.services.context.Context;
 import org.forgerock.util.AsyncFunction;
+import org.forgerock.util.BoundedCache;
 import org.forgerock.util.Function;
-import org.forgerock.util.ThreadSafeCache;
 import org.forgerock.util.promise.Promise;
 import org.forgerock.util.time.Duration;
 import org.forgerock.util.time.TimeService;
@@ -37,12 +34,15 @@ import org.forgerock.util.time.TimeService;
 /**
  * A {@link CachingAccessTokenResolver} is a delegating {@link AccessTokenResolver} that uses a write-through cache
  * to enable fast {@link AccessTokenInfo} resolution.
+ * <p>
+ * Concurrent resolutions of the same token share a single call to the delegate resolver, and failed resolutions are
+ * not cached.
  */
 public class CachingAccessTokenResolver implements AccessTokenResolver {
 
     private final AccessTokenResolver resolver;
-    private final ThreadSafeCache<String, Promise<AccessTokenInfo, AccessTokenException>> cache;
-    private final AsyncFunction<Promise<AccessTokenInfo, AccessTokenException>, Duration, Exception> expires;
+    private final BoundedCache<String, AccessTokenInfo, AccessTokenException> cache;
+    private final Function<AccessTokenInfo, Duration, Exception> expires;
 
     /**
      * Builds a {@link CachingAccessTokenResolver} delegating to the given {@link AccessTokenResolver} using the given
@@ -57,8 +57,7 @@ public class CachingAccessTokenResolver implements AccessTokenResolver {
      */
     public CachingAccessTokenResolver(final TimeService time,
                                       final AccessTokenResolver resolver,
-                                      final ThreadSafeCache
-                                              <String, Promise<AccessTokenInfo, AccessTokenException>> cache) {
+                                      final BoundedCache<String, AccessTokenInfo, AccessTokenException> cache) {
         this.resolver = resolver;
         this.cache = cache;
         this.expires = new AccessTokenExpirationFunction(time);
@@ -66,22 +65,13 @@ public class CachingAccessTokenResolver implements AccessTokenResolver {
 
     @Override
     public Promise<AccessTokenInfo, AccessTokenException> resolve(final Context context, final String token) {
-        try {
-            return cache.getValue(token, resolveToken(context, token), expires);
-        } catch (InterruptedException e) {
-            return newExceptionPromise(
-                    new AccessTokenException("Timed out retrieving OAuth2 access token information", e));
-        } catch (ExecutionException e) {
-            return newExceptionPromise(
-                    new AccessTokenException("Initial token resolution has failed", e));
-        }
+        return cache.getValue(token, resolveToken(context), expires);
     }
 
-    private Callable<Promise<AccessTokenInfo, AccessTokenException>> resolveToken(final Context context,
-                                                                                  final String token) {
-        return new Callable<Promise<AccessTokenInfo, AccessTokenException>>() {
+    private AsyncFunction<String, AccessTokenInfo, AccessTokenException> resolveToken(final Context context) {
+        return new AsyncFunction<String, AccessTokenInfo, AccessTokenException>() {
             @Override
-            public Promise<AccessTokenInfo, AccessTokenException> call() throws Exception {
+            public Promise<AccessTokenInfo, AccessTokenException> apply(final String token) {
                 return resolver.resolve(context, token);
             }
         };
@@ -90,45 +80,27 @@ public class CachingAccessTokenResolver implements AccessTokenResolver {
     /**
      * A function that will compute the access token's timeout.
      */
-    private static class AccessTokenExpirationFunction
-            implements AsyncFunction<Promise<AccessTokenInfo, AccessTokenException>, Duration, Exception> {
-
-        private static final Function<AccessTokenException, Duration, AccessTokenException> TIMEOUT_ZERO =
-                new Function<AccessTokenException, Duration, AccessTokenException>() {
-                    @Override
-                    public Duration apply(AccessTokenException e) {
-                        // Do not cache the AccessToken if there was a problem while
-                        // resolving it
-                        return Duration.ZERO;
-                    }
-                };
+    private static class AccessTokenExpirationFunction implements Function<AccessTokenInfo, Duration, Exception> {
 
-        private final Function<AccessTokenInfo, Duration, AccessTokenException> computeTtl;
+        private final TimeService time;
 
         public AccessTokenExpirationFunction(final TimeService time) {
-            this.computeTtl = new Function<AccessTokenInfo, Duration, AccessTokenException>() {
-                @Override
-                public Duration apply(AccessTokenInfo accessToken) {
-                    if (accessToken.getExpiresAt() == AccessTokenInfo.NEVER_EXPIRES) {
-                        return Duration.UNLIMITED;
-                    }
-                    long expires = accessToken.getExpiresAt() - time.now();
-                    if (expires <= 0) {
-                        // The token is already expired
-                        return Duration.ZERO;
-                    }
-
-                    return duration(expires, TimeUnit.MILLISECONDS);
-                }
-            };
+            this.time = time;
         }
 
         @Override
-        public Promise<? extends Duration, ? extends Exception> apply(
-                Promise<AccessTokenInfo, AccessTokenException> accessTokenPromise) throws Exception {
-            return accessTokenPromise.then(computeTtl, TIMEOUT_ZERO);
-        }
+        public Duration apply(final AccessTokenInfo accessToken) {
+            if (accessToken.getExpiresAt() == AccessTokenInfo.NEVER_EXPIRES) {
+                return Duration.UNLIMITED;
+            }
+            long expires = accessToken.getExpiresAt() - time.now();
+            if (expires <= 0) {
+                // The token is already expired
+                return Duration.ZERO;
+            }
 
+            return duration(expires, TimeUnit.MILLISECONDS);
+        }
     }
 
 }
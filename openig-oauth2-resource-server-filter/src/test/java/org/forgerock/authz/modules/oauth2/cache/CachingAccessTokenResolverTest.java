@@ -21,23 +21,18 @@ import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
-import java.util.concurrent.Callable;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
-
 import org.forgerock.authz.modules.oauth2.AccessTokenException;
 import org.forgerock.authz.modules.oauth2.AccessTokenInfo;
 import org.forgerock.authz.modules.oauth2.AccessTokenResolver;
 import org.forgerock.services.context.Context;
 import org.forgerock.services.context.RootContext;
-import org.forgerock.util.AsyncFunction;
-import org.forgerock.util.ThreadSafeCache;
+import org.forgerock.util.BoundedCache;
 import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.PromiseImpl;
 import org.forgerock.util.promise.Promises;
 import org.forgerock.util.time.TimeService;
 import org.mockito.Mock;
@@ -56,34 +51,49 @@ public class CachingAccessTokenResolverTest {
     @Mock
     private TimeService time;
 
-    @Mock
-    private ScheduledExecutorService executorService;
-
-    // Don't know why but if I @Spy this field, Mockito does not re-creates the cache instance, leading to errors
-    private ThreadSafeCache<String, Promise<AccessTokenInfo, AccessTokenException>> cache;
+    private BoundedCache<String, AccessTokenInfo, AccessTokenException> cache;
 
     @BeforeMethod
     public void setUp() throws Exception {
         MockitoAnnotations.initMocks(this);
         when(resolver.resolve(any(Context.class), anyString()))
                 .thenReturn(Promises.<AccessTokenInfo, AccessTokenException>newResultPromise(null));
-        cache = spy(new ThreadSafeCache<String, Promise<AccessTokenInfo, AccessTokenException>>(executorService));
+        cache = new BoundedCache<>(time);
     }
 
     @Test
-    @SuppressWarnings("unchecked")
     public void shouldUseCache() throws Exception {
+        AccessTokenInfo token = mock(AccessTokenInfo.class);
+        when(token.getExpiresAt()).thenReturn(AccessTokenInfo.NEVER_EXPIRES);
+        when(resolver.resolve(any(Context.class), eq(TOKEN)))
+                .thenReturn(Promises.<AccessTokenInfo, AccessTokenException>newResultPromise(token));
+
         CachingAccessTokenResolver caching = new CachingAccessTokenResolver(time, resolver, cache);
 
         Promise<AccessTokenInfo, AccessTokenException> p1 = caching.resolve(new RootContext(), TOKEN);
         Promise<AccessTokenInfo, AccessTokenException> p2 = caching.resolve(new RootContext(), TOKEN);
 
         assertThat(p1.get()).isSameAs(p2.get());
-        verify(cache, times(2)).getValue(eq(TOKEN), any(Callable.class), any(AsyncFunction.class));
+        verify(resolver).resolve(any(Context.class), eq(TOKEN));
+        assertThat(cache.getHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldShareInFlightResolution() throws Exception {
+        PromiseImpl<AccessTokenInfo, AccessTokenException> pending = PromiseImpl.create();
+        when(resolver.resolve(any(Context.class), eq(TOKEN))).thenReturn(pending);
+
+        CachingAccessTokenResolver caching = new CachingAccessTokenResolver(time, resolver, cache);
+
+        Promise<AccessTokenInfo, AccessTokenException> p1 = caching.resolve(new RootContext(), TOKEN);
+        Promise<AccessTokenInfo, AccessTokenException> p2 = caching.resolve(new RootContext(), TOKEN);
+
+        assertThat(p1.isDone()).isFalse();
+        assertThat(p2).isSameAs(p1);
+        verify(resolver).resolve(any(Context.class), eq(TOKEN));
     }
 
     @Test
-    @SuppressWarnings("unchecked")
     public void shouldUseExpiresAttribute() throws Exception {
         AccessTokenInfo token = mock(AccessTokenInfo.class);
         when(time.now()).thenReturn(20L);
@@ -93,13 +103,18 @@ public class CachingAccessTokenResolverTest {
 
         CachingAccessTokenResolver caching = new CachingAccessTokenResolver(time, resolver, cache);
 
-        AccessTokenInfo accessToken = caching.resolve(new RootContext(), TOKEN).get();
+        caching.resolve(new RootContext(), TOKEN);
+        when(time.now()).thenReturn(41L);
+        caching.resolve(new RootContext(), TOKEN);
+        verify(resolver).resolve(any(Context.class), eq(TOKEN));
 
-        verify(executorService).schedule(any(Runnable.class), eq(22L), eq(TimeUnit.MILLISECONDS));
+        // The token is cached for 22 ms
+        when(time.now()).thenReturn(42L);
+        caching.resolve(new RootContext(), TOKEN);
+        verify(resolver, times(2)).resolve(any(Context.class), eq(TOKEN));
     }
 
     @Test
-    @SuppressWarnings("unchecked")
     public void shouldNotCacheWhenExpiresAtIsOver() throws Exception {
         // The expiresAt will be over every time,
         // so the token will never be cached,
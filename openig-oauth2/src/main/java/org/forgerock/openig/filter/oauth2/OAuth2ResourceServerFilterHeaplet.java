@@ -32,6 +32,7 @@ import static org.forgerock.openig.util.JsonValues.requiredHeapObject;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 
 import org.forgerock.authz.modules.oauth2.AccessTokenInfo;
 import org.forgerock.authz.modules.oauth2.AccessTokenException;
@@ -50,8 +51,7 @@ import org.forgerock.authz.modules.oauth2.resolver.OpenAmAccessTokenResolver;
 import org.forgerock.openig.heap.GenericHeaplet;
 import org.forgerock.openig.heap.HeapException;
 import org.forgerock.services.context.Context;
-import org.forgerock.util.ThreadSafeCache;
-import org.forgerock.util.promise.Promise;
+import org.forgerock.util.BoundedCache;
 import org.forgerock.util.time.Duration;
 import org.forgerock.util.time.TimeService;
 
@@ -73,6 +73,8 @@ import org.forgerock.util.time.TimeService;
  *           "scopes": [ "email", "profile" ],
  *           "tokenInfoEndpoint": "https://openam.example.com:8443/openam/oauth2/tokeninfo",
  *           "cacheExpiration": "2 minutes",
+ *           "cacheMaximumSize": 10000,
+ *           "cacheRefreshAheadRatio": 0.8,
  *           "requireHttps": false,
  *           "providerHandler": "ClientHandler",
  *           "realm": "Informative realm name",
@@ -97,6 +99,11 @@ import org.forgerock.util.time.TimeService;
  *     "cacheExpiration": "0 s" // no cache
  *     }
  * </pre>
+ * An {@link AccessTokenInfo} is never cached beyond its own expiration time. The optional
+ * {@literal cacheMaximumSize} attribute bounds the number of cached tokens (defaults to
+ * {@value BoundedCache#DEFAULT_MAXIMUM_SIZE}); the least recently used ones are evicted first. With the optional
+ * {@literal cacheRefreshAheadRatio} attribute (between 0 and 1, disabled by default), a token read once that fraction
+ * of its time-to-live has elapsed is re-validated in the background, while the cached information keeps being used.
  * <p>
  * {@literal providerHandler} is a name reference to another handler available in the heap. It will be used to perform
  * access token validation against the {@literal tokenInfoEndpoint} URL.
@@ -118,7 +125,8 @@ public class OAuth2ResourceServerFilterHeaplet extends GenericHeaplet {
      */
     public static final String DEFAULT_REALM_NAME = "OpenIG";
 
-    private ThreadSafeCache<String, Promise<AccessTokenInfo, AccessTokenException>> cache;
+    private BoundedCache<String, AccessTokenInfo, AccessTokenException> cache;
+    private ScheduledFuture<?> cleanUp;
 
     @Override
     public Object create() throws HeapException {
@@ -141,8 +149,17 @@ public class OAuth2ResourceServerFilterHeaplet extends GenericHeaplet {
                                                              .defaultTo(SCHEDULED_EXECUTOR_SERVICE_HEAP_KEY)
                                                              .as(requiredHeapObject(heap,
                                                                                     ScheduledExecutorService.class));
-            cache = new ThreadSafeCache<>(executorService);
-            cache.setDefaultTimeout(expiration);
+            cache = new BoundedCache<>(time);
+            cache.setMaxTimeout(expiration);
+            cache.setMaximumSize(config.get("cacheMaximumSize")
+                                       .as(evaluated())
+                                       .defaultTo(BoundedCache.DEFAULT_MAXIMUM_SIZE)
+                                       .asInteger());
+            cache.setRefreshAheadRatio(config.get("cacheRefreshAheadRatio")
+                                             .as(evaluated())
+                                             .defaultTo(0)
+                                             .asDouble());
+            cleanUp = cache.scheduleCleanUp(executorService);
             resolver = new CachingAccessTokenResolver(time, resolver, cache);
         }
 
@@ -171,6 +188,9 @@ public class OAuth2ResourceServerFilterHeaplet extends GenericHeaplet {
 
     @Override
     public void destroy() {
+        if (cleanUp != null) {
+            cleanUp.cancel(false);
+        }
         if (cache != null) {
             cache.clear();
         }
@@ -54,8 +54,8 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 
 import org.forgerock.authz.modules.oauth2.OAuth2Error;
 import org.forgerock.http.Filter;
@@ -72,10 +72,10 @@ import org.forgerock.openig.heap.GenericHeaplet;
 import org.forgerock.openig.heap.HeapException;
 import org.forgerock.services.context.Context;
 import org.forgerock.util.AsyncFunction;
+import org.forgerock.util.BoundedCache;
 import org.forgerock.util.Factory;
 import org.forgerock.util.Function;
 import org.forgerock.util.LazyMap;
-import org.forgerock.util.ThreadSafeCache;
 import org.forgerock.util.promise.NeverThrowsException;
 import org.forgerock.util.promise.Promise;
 import org.forgerock.util.time.Duration;
@@ -118,6 +118,7 @@ import org.forgerock.util.time.TimeService;
  * "requireLogin"                 : boolean                 [OPTIONAL - default require login]
  * "requireHttps"                 : boolean                 [OPTIONAL - default require SSL]
  * "cacheExpiration"              : duration                [OPTIONAL - default to 20 seconds]
+ * "cacheMaximumSize"             : integer                 [OPTIONAL - default to 10000 cached user info]
  * "executor"                     : executor                [OPTIONAL - by default uses 'ScheduledThreadPool'
  *                                                                      heap object]
  * "metadata"                     : {                       [OPTIONAL - contains metadata dedicated for dynamic
@@ -256,7 +257,7 @@ public final class OAuth2ClientFilter extends GenericHeapObject implements Filte
     private boolean requireLogin = true;
     private Expression<?> target;
     private final TimeService time;
-    private ThreadSafeCache<String, Map<String, Object>> userInfoCache;
+    private BoundedCache<String, Map<String, Object>, Exception> userInfoCache;
     private final Handler discoveryAndDynamicRegistrationChain;
     private final ClientRegistrationRepository registrations;
 
@@ -801,19 +802,22 @@ public final class OAuth2ClientFilter extends GenericHeapObject implements Filte
 
     /**
      * Set the cache of user info resources. The cache is keyed by the OAuth 2.0 Access Token. It should be configured
-     * with a small expiration duration (something between 5 and 30 seconds).
+     * with a small expiration duration (something between 5 and 30 seconds). Refresh-ahead is not supported: the
+     * user info is loaded by the request thread, and loading it may refresh the access token of the caller's
+     * session, so the cache must not reload entries on behalf of another request.
      *
      * @param userInfoCache
      *         the cache of user info resources.
      */
-    public void setUserInfoCache(final ThreadSafeCache<String, Map<String, Object>> userInfoCache) {
+    public void setUserInfoCache(final BoundedCache<String, Map<String, Object>, Exception> userInfoCache) {
         this.userInfoCache = userInfoCache;
     }
 
     /** Creates and initializes the filter in a heap environment. */
     public static class Heaplet extends GenericHeaplet {
 
-        private ThreadSafeCache<String, Map<String, Object>> cache;
+        private BoundedCache<String, Map<String, Object>, Exception> cache;
+        private ScheduledFuture<?> cleanUp;
 
         @Override
         public Object create() throws HeapException {
@@ -872,8 +876,13 @@ public final class OAuth2ClientFilter extends GenericHeapObject implements Filte
                 ScheduledExecutorService executor = config.get("executor")
                                                           .defaultTo(SCHEDULED_EXECUTOR_SERVICE_HEAP_KEY)
                                                           .as(requiredHeapObject(heap, ScheduledExecutorService.class));
-                cache = new ThreadSafeCache<>(executor);
+                cache = new BoundedCache<>(time);
                 cache.setDefaultTimeout(expiration);
+                cache.setMaximumSize(config.get("cacheMaximumSize")
+                                           .as(evaluated())
+                                           .defaultTo(BoundedCache.DEFAULT_MAXIMUM_SIZE)
+                                           .asInteger());
+                cleanUp = cache.scheduleCleanUp(executor);
                 filter.setUserInfoCache(cache);
             }
 
@@ -882,6 +891,9 @@ public final class OAuth2ClientFilter extends GenericHeapObject implements Filte
 
         @Override
         public void destroy() {
+            if (cleanUp != null) {
+                cleanUp.cancel(false);
+            }
             if (cache != null) {
                 cache.clear();
             }
@@ -925,13 +937,13 @@ public final class OAuth2ClientFilter extends GenericHeapObject implements Filte
             } else {
                 // A cache is configured, extract the value from the cache
                 try {
-                    return userInfoCache.getValue(callable.getSession().getAccessToken(),
-                                                  callable);
+                    return userInfoCache.getValue(callable.getSession().getAccessToken(), callable)
+                                        .getOrThrow();
                 } catch (InterruptedException e) {
                     logger.warning(format("Interrupted when calling UserInfo Endpoint from client registration '%s'",
                                           callable.getClientRegistration().getName()));
                     logger.warning(e);
-                } catch (ExecutionException e) {
+                } catch (Exception e) {
                     logger.warning(format("Unable to call UserInfo Endpoint from client registration '%s'",
                                           callable.getClientRegistration().getName()));
                     logger.warning(e);
@@ -944,9 +956,11 @@ public final class OAuth2ClientFilter extends GenericHeapObject implements Filte
     }
 
     /**
-     * LoadUserInfoCallable simply encapsulate the logic required to load the user_info resources.
+     * LoadUserInfoCallable simply encapsulate the logic required to load the user_info resources. As a cache loader,
+     * it ignores the given access token (the one of its session).
      */
-    private class LoadUserInfoCallable implements Callable<Map<String, Object>> {
+    private class LoadUserInfoCallable implements Callable<Map<String, Object>>,
+                                                  AsyncFunction<String, Map<String, Object>, Exception> {
         private OAuth2Session session;
         private final ClientRegistration clientRegistration;
         private final Context context;
@@ -976,6 +990,11 @@ public final class OAuth2ClientFilter extends GenericHeapObject implements Filte
             }
         }
 
+        @Override
+        public Promise<Map<String, Object>, Exception> apply(final String accessToken) throws Exception {
+            return newResultPromise(call());
+        }
+
         private Map<String, Object> updateSessionStateWithRefreshTokenOrFailWithNewSession() throws ResponseException,
                                                                                              OAuth2ErrorException {
             try {
@@ -17,6 +17,7 @@
 package org.forgerock.openig.openam;
 
 import static java.lang.String.format;
+import static java.util.Collections.emptyList;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.forgerock.http.handler.Handlers.chainOf;
 import static org.forgerock.http.protocol.Response.newResponsePromise;
@@ -29,9 +30,13 @@ import static org.forgerock.json.JsonValue.fieldIfNotNull;
 import static org.forgerock.json.JsonValue.json;
 import static org.forgerock.json.JsonValue.object;
 import static org.forgerock.json.JsonValueFunctions.duration;
+import static org.forgerock.json.JsonValueFunctions.listOf;
+import static org.forgerock.json.resource.Resources.newSingleton;
+import static org.forgerock.json.resource.http.CrestHttp.newHttpHandler;
 import static org.forgerock.openig.el.Bindings.bindings;
 import static org.forgerock.openig.heap.Keys.CLIENT_HANDLER_HEAP_KEY;
 import static org.forgerock.openig.heap.Keys.SCHEDULED_EXECUTOR_SERVICE_HEAP_KEY;
+import static org.forgerock.openig.heap.Keys.TIME_SERVICE_HEAP_KEY;
 import static org.forgerock.openig.util.JsonValues.evaluated;
 import static org.forgerock.openig.util.JsonValues.expression;
 import static org.forgerock.openig.util.JsonValues.requiredHeapObject;
@@ -41,16 +46,17 @@ import static org.forgerock.util.time.Duration.duration;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import org.forgerock.http.Filter;
 import org.forgerock.http.Handler;
-import org.forgerock.http.MutableUri;
 import org.forgerock.http.header.AcceptApiVersionHeader;
 import org.forgerock.http.protocol.Request;
 import org.forgerock.http.protocol.Response;
@@ -72,14 +78,16 @@ import org.forgerock.openig.el.Expressions;
 import org.forgerock.openig.heap.GenericHeapObject;
 import org.forgerock.openig.heap.GenericHeaplet;
 import org.forgerock.openig.heap.HeapException;
+import org.forgerock.openig.http.EndpointRegistry;
 import org.forgerock.services.context.Context;
 import org.forgerock.util.AsyncFunction;
+import org.forgerock.util.BoundedCache;
 import org.forgerock.util.Function;
-import org.forgerock.util.ThreadSafeCache;
 import org.forgerock.util.annotations.VisibleForTesting;
 import org.forgerock.util.promise.NeverThrowsException;
 import org.forgerock.util.promise.Promise;
 import org.forgerock.util.time.Duration;
+import org.forgerock.util.time.TimeService;
 
 /**
  * This filter requests policy decisions from OpenAM which evaluates the
@@ -92,7 +100,17 @@ import org.forgerock.util.time.Duration;
  * Policy decisions are cached for each filter and eviction is based on the
  * "time-to-live" given in the policy decision returned by AM, if this one
  * exceed the duration expressed in the cacheMaxExpiration, then the value of
- * cacheMaxExpiration is used to cache the policy.
+ * cacheMaxExpiration is used to cache the policy. Concurrent requests needing the
+ * same decision share a single policy evaluation, and the cache statistics are
+ * exposed by the {@literal cache} endpoint of the filter.
+ * <p>
+ * By default, the evaluated resource is the original URI. The optional
+ * "resourceNormalization" attribute normalises it, so that requests differing
+ * only by their query string or by some identifiers in their path share the
+ * same policy decision (see below). The optional "prefetchResources" attribute
+ * lists additional resources (usually the other resources protected by the
+ * route) whose decisions are requested in the same evaluation call whenever a
+ * decision is missing for a subject, and cached as well.
  *
  * <pre>
  * {@code {
@@ -116,6 +134,12 @@ import org.forgerock.util.time.Duration;
  *                                                                        ssoTokenSubject - instance of
  *                                                                        Map<String, Object> JWT claims ]
  *          "cacheMaxExpiration"     :    duration,           [OPTIONAL - default to 1 minute ]
+ *          "cacheMaximumSize"       :    integer,            [OPTIONAL - default to 10000 cached decisions ]
+ *          "cacheRefreshAheadRatio" :    number,             [OPTIONAL - default to 0 (disabled), fraction of the
+ *                                                                        time-to-live after which a read reloads
+ *                                                                        the decision in the background ]
+ *          "resourceNormalization"  :    object,             [OPTIONAL - see below ]
+ *          "prefetchResources"      :    [ expression ],     [OPTIONAL - normalised as well ]
  *          "target"                 :    mapExpression,      [OPTIONAL - default is ${attributes.policy} ]
  *          "environment"            :    map/expression,     [OPTIONAL - instance of Map<String, List<Object>>]
  *          "executor"               :    executor            [OPTIONAL - by default uses 'ScheduledThreadPool'
@@ -128,6 +152,28 @@ import org.forgerock.util.time.Duration;
  * (*) "pepUsername" and "pepPassword" are the credentials, and "pepRealm" is the
  * realm of the user who has access to perform the operation.
  * <p>
+ * The resource normalisation applies to the path of the URI, its scheme and
+ * authority are left untouched. The path is first matched against the templates
+ * (in order): the first matching template replaces the whole path. Otherwise,
+ * each path segment fully matching one of the segment patterns is replaced by
+ * the segment replacement ({@literal *} by default, a wildcard in OpenAM
+ * policies):
+ *
+ * <pre>
+ * {@code {
+ *      "resourceNormalization": {
+ *          "stripQuery"         : boolean,               [OPTIONAL - default is false]
+ *          "segmentPatterns"    : [ pattern ],           [OPTIONAL]
+ *          "segmentReplacement" : String,                [OPTIONAL - default is '*']
+ *          "templates"          : [ {
+ *              "pattern"        : pattern,               [REQUIRED - matched against the whole path]
+ *              "resource"       : String                 [REQUIRED - may refer to the pattern's groups]
+ *          } ]
+ *      }
+ *  }
+ *  }
+ * </pre>
+ * <p>
  * This heaplet adds an SsoTokenFilter to the policiesHandler's chain and its
  * role is to retrieve and set the SSO token header of this given user (REST API
  * calls must present the session token, aka SSO Token, in an HTTP header as
@@ -175,7 +221,7 @@ public class PolicyEnforcementFilter extends GenericHeapObject implements Filter
     private static final String SUBJECT_ERROR =
             "The attribute 'ssoTokenSubject' or 'jwtSubject' or 'claimsSubject' must be specified";
 
-    private ThreadSafeCache<String, Promise<JsonValue, ResourceException>> policyDecisionCache;
+    private BoundedCache<String, JsonValue, ResourceException> policyDecisionCache;
     private final RequestHandler requestHandler;
     private String application;
     private Expression<String> ssoTokenSubject;
@@ -184,6 +230,8 @@ public class PolicyEnforcementFilter extends GenericHeapObject implements Filter
     @SuppressWarnings("rawtypes")
     private final Expression<Map> target;
     private Function<Bindings, Map<String, List<Object>>, ExpressionException> environment;
+    private Function<String, String, NeverThrowsException> resourceNormalizer;
+    private List<Expression<String>> prefetchResources = emptyList();
 
     /**
      * Creates a new OpenAM enforcement filter.
@@ -210,21 +258,46 @@ public class PolicyEnforcementFilter extends GenericHeapObject implements Filter
      * @param cache
      *            The cache for policy decisions to set.
      */
-    public void setCache(final ThreadSafeCache<String, Promise<JsonValue, ResourceException>> cache) {
+    public void setCache(final BoundedCache<String, JsonValue, ResourceException> cache) {
         this.policyDecisionCache = cache;
     }
 
+    /**
+     * Sets the function normalising the resource URIs submitted for evaluation (and used as cache keys).
+     *
+     * @param resourceNormalizer
+     *            The function normalising the resource URIs, or {@code null} to evaluate the original URIs.
+     */
+    public void setResourceNormalizer(final Function<String, String, NeverThrowsException> resourceNormalizer) {
+        this.resourceNormalizer = resourceNormalizer;
+    }
+
+    /**
+     * Sets the additional resources whose decisions are requested (and cached) along with a missing decision.
+     *
+     * @param prefetchResources
+     *            The resource URIs to prefetch, not {@code null}.
+     */
+    public void setPrefetchResources(final List<Expression<String>> prefetchResources) {
+        this.prefetchResources = checkNotNull(prefetchResources);
+    }
+
     @Override
     public Promise<Response, NeverThrowsException> filter(final Context context,
                                                           final Request request,
                                                           final Handler next) {
 
-        return askForPolicyDecision(context, request)
-                    .then(evaluatePolicyDecision(context, request))
+        final String resource = normalize(request.getUri().toASCIIString());
+        return askForPolicyDecision(context, request, resource)
+                    .then(evaluatePolicyDecision(context, request, resource))
                     .thenAsync(allowOrDenyAccessToResource(context, request, next),
                                errorResponse);
     }
 
+    private String normalize(final String resource) {
+        return (resourceNormalizer != null) ? resourceNormalizer.apply(resource) : resource;
+    }
+
     /**
      * Sets the application where the policies are defined. If none, OpenAM will
      * use the iPlanetAMWebAgentService.
@@ -307,40 +380,118 @@ public class PolicyEnforcementFilter extends GenericHeapObject implements Filter
     }
 
     private Promise<JsonValue, ResourceException> askForPolicyDecision(final Context context,
-                                                                       final Request request) {
-        final ActionRequest actionRequest = Requests.newActionRequest(ResourcePath.valueOf(POLICY_ENDPOINT),
-                                                                      EVALUATE_ACTION);
-
-        JsonValue resources = null;
+                                                                       final Request request,
+                                                                       final String resource) {
+        final JsonValue content;
         try {
-            resources = buildResources(context, request);
+            content = buildResources(context, request, resource);
         } catch (NotSupportedException | ExpressionException ex) {
             logger.error("Unable to build the resources content");
             logger.error(ex);
             return new InternalServerErrorException(ex).asPromise();
         }
-        actionRequest.setContent(resources);
+
+        final JsonValue subject = content.get("subject");
+        final String key = createKeyCache(resource, subject);
+        return policyDecisionCache.getValue(key,
+                                            getPolicyDecisionLoader(context, request, resource, content),
+                                            EXTRACT_DURATION_FROM_TTL);
+    }
+
+    private AsyncFunction<String, JsonValue, ResourceException> getPolicyDecisionLoader(final Context context,
+                                                                                       final Request request,
+                                                                                       final String resource,
+                                                                                       final JsonValue content) {
+        return new AsyncFunction<String, JsonValue, ResourceException>() {
+
+            @Override
+            public Promise<JsonValue, ResourceException> apply(final String key) {
+                return evaluate(context, request, resource, key, content);
+            }
+        };
+    }
+
+    /**
+     * Requests the decision for the given resource, along with the decisions of the prefetched resources that are
+     * not cached yet for the same subject.
+     */
+    private Promise<JsonValue, ResourceException> evaluate(final Context context,
+                                                           final Request request,
+                                                           final String resource,
+                                                           final String key,
+                                                           final JsonValue content) {
+        final JsonValue subject = content.get("subject");
+        final Map<String, String> batch = new LinkedHashMap<>();
+        batch.put(resource, key);
+        if (!prefetchResources.isEmpty()) {
+            final Bindings bindings = bindings(context, request);
+            for (Expression<String> expression : prefetchResources) {
+                final String prefetched = expression.eval(bindings);
+                if (prefetched == null) {
+                    continue;
+                }
+                final String other = normalize(prefetched);
+                final String otherKey = createKeyCache(other, subject);
+                if (!batch.containsKey(other) && !policyDecisionCache.containsKey(otherKey)) {
+                    batch.put(other, otherKey);
+                }
+            }
+        }
+
+        content.put("resources", new ArrayList<>(batch.keySet()));
+        final ActionRequest actionRequest = Requests.newActionRequest(ResourcePath.valueOf(POLICY_ENDPOINT),
+                                                                      EVALUATE_ACTION);
+        actionRequest.setContent(content);
         actionRequest.setResourceVersion(version(2, 0));
+        return requestHandler.handleAction(context, actionRequest)
+                             .then(new Function<ActionResponse, JsonValue, ResourceException>() {
+                                 @Override
+                                 public JsonValue apply(final ActionResponse policyResponse) {
+                                     return extractPolicyDecision(policyResponse.getJsonContent(), resource, batch);
+                                 }
+                             });
+    }
 
-        final JsonValue subject = resources.get("subject");
-        final String key = createKeyCache(request.getUri().toASCIIString(),
-                                          subject.get("ssoToken").asString(),
-                                          subject.get("jwt").asString(),
-                                          subject.get("claims").asMap() != null
-                                                      ? subject.get("claims").asMap().hashCode()
-                                                      : 0);
-        try {
-            return policyDecisionCache.getValue(key,
-                                                getPolicyDecisionCallable(context, requestHandler, actionRequest),
-                                                extractDurationFromTtl());
-        } catch (InterruptedException | ExecutionException e) {
-            return new InternalServerErrorException(e).asPromise();
+    /**
+     * Returns the decision of the given resource, and caches the decisions of the other resources of the batch.
+     */
+    private JsonValue extractPolicyDecision(final JsonValue decisions,
+                                            final String resource,
+                                            final Map<String, String> batch) {
+        // The policy response is an array
+        JsonValue decision = null;
+        for (JsonValue candidate : decisions) {
+            final String decided = candidate.get("resource").asString();
+            if (decision == null && resource.equals(decided)) {
+                decision = candidate;
+            } else if (!resource.equals(decided) && batch.containsKey(decided)) {
+                policyDecisionCache.putIfAbsent(batch.get(decided), candidate, EXTRACT_DURATION_FROM_TTL);
+            }
         }
+        return (decision != null) ? decision : noDecision(resource);
+    }
+
+    /**
+     * Without a decision for the resource, the access is denied: this "decision" grants no action, and is not cached
+     * (zero time-to-live) as it is not OpenAM's.
+     */
+    private static JsonValue noDecision(final String resource) {
+        return json(object(field("advices", object()),
+                           field("ttl", 0L),
+                           field("resource", resource),
+                           field("actions", object()),
+                           field("attributes", object())));
     }
 
     @VisibleForTesting
     JsonValue buildResources(final Context context, final Request request) throws ExpressionException,
                                                                                   NotSupportedException {
+        return buildResources(context, request, normalize(request.getUri().toASCIIString()));
+    }
+
+    private JsonValue buildResources(final Context context,
+                                     final Request request,
+                                     final String resource) throws ExpressionException, NotSupportedException {
         final Bindings bindings = bindings(context, request);
         final JsonValue subject =
                  json(object(
@@ -353,47 +504,26 @@ public class PolicyEnforcementFilter extends GenericHeapObject implements Filter
             throw new NotSupportedException(SUBJECT_ERROR);
         }
 
-        return json(object(field("resources", array(request.getUri().toASCIIString())),
+        return json(object(field("resources", array(resource)),
                            field("subject", subject.getObject()),
                            fieldIfNotNull("application", application),
                            fieldIfNotNull("environment", environment != null ? environment.apply(bindings) : null)));
     }
 
-    private AsyncFunction<Promise<JsonValue, ResourceException>, Duration, Exception> extractDurationFromTtl() {
-        //@Checkstyle:off
-        return new AsyncFunction<Promise<JsonValue, ResourceException>, Duration, Exception>() {
-            @Override
-            public Promise<Duration, Exception> apply(Promise<JsonValue, ResourceException> promise) throws Exception {
-                return promise.then(new Function<JsonValue, Duration, Exception>() {
-                    @Override
-                    public Duration apply(JsonValue node) throws Exception {
-                        return duration(node.get("ttl").asLong(), MILLISECONDS);
-                    }
-                },
-                                  new Function<ResourceException, Duration, Exception>() {
-                    @Override
-                    public Duration apply(ResourceException e) throws Exception {
-                        // Do not cache if case of Exception
-                        return Duration.ZERO;
-                    }
-                });
-            }
-        };
-        //@Checkstyle:on
-    }
+    private static final Function<JsonValue, Duration, Exception> EXTRACT_DURATION_FROM_TTL =
+            new Function<JsonValue, Duration, Exception>() {
 
-    private static Callable<Promise<JsonValue, ResourceException>> getPolicyDecisionCallable(
-                                                                                  final Context context,
-                                                                                  final RequestHandler requestHandler,
-                                                                                  final ActionRequest actionRequest) {
-        return new Callable<Promise<JsonValue, ResourceException>>() {
+                @Override
+                public Duration apply(final JsonValue node) {
+                    return duration(node.get("ttl").asLong(), MILLISECONDS);
+                }
+            };
 
-            @Override
-            public Promise<JsonValue, ResourceException> call() throws Exception {
-                return requestHandler.handleAction(context, actionRequest)
-                                     .then(EXTRACT_POLICY_DECISION_AS_JSON);
-            }
-        };
+    private static String createKeyCache(final String resource, final JsonValue subject) {
+        return createKeyCache(resource,
+                              subject.get("ssoToken").asString(),
+                              subject.get("jwt").asString(),
+                              subject.get("claims").asMap() != null ? subject.get("claims").asMap().hashCode() : 0);
     }
 
     @VisibleForTesting
@@ -413,24 +543,14 @@ public class PolicyEnforcementFilter extends GenericHeapObject implements Filter
         return "";
     }
 
-    private static final Function<ActionResponse, JsonValue, ResourceException> EXTRACT_POLICY_DECISION_AS_JSON =
-            new Function<ActionResponse, JsonValue, ResourceException>() {
-
-                @Override
-                public JsonValue apply(final ActionResponse policyResponse) {
-                    // The policy response is an array
-                    return policyResponse.getJsonContent().get(0);
-                }
-            };
-
     private Function<JsonValue, Boolean, ResourceException> evaluatePolicyDecision(final Context context,
-                                                                                   final Request request) {
+                                                                                   final Request request,
+                                                                                   final String resource) {
         return new Function<JsonValue, Boolean, ResourceException>() {
 
             @Override
             public Boolean apply(final JsonValue policyDecision) {
-                final MutableUri original = request.getUri();
-                if (policyDecision.get("resource").asString().equals(original.toASCIIString())) {
+                if (policyDecision.get("resource").asString().equals(resource)) {
                     final Map<String, Object> extra = new LinkedHashMap<>();
                     extra.put("attributes", policyDecision.get("attributes").asMap());
                     extra.put("advices", policyDecision.get("advices").asMap());
@@ -449,7 +569,9 @@ public class PolicyEnforcementFilter extends GenericHeapObject implements Filter
     /** Creates and initializes a policy enforcement filter in a heap environment. */
     public static class Heaplet extends GenericHeaplet {
 
-        private ThreadSafeCache<String, Promise<JsonValue, ResourceException>> cache;
+        private BoundedCache<String, JsonValue, ResourceException> cache;
+        private ScheduledFuture<?> cleanUp;
+        private EndpointRegistry.Registration registration;
 
         @Override
         public Object create() throws HeapException {
@@ -497,12 +619,16 @@ public class PolicyEnforcementFilter extends GenericHeapObject implements Filter
                 }
 
                 filter.setEnvironment(environment());
+                filter.setResourceNormalizer(resourceNormalizer(config.get("resourceNormalization")));
+                if (config.isDefined("prefetchResources")) {
+                    filter.setPrefetchResources(config.get("prefetchResources").as(listOf(expression(String.class))));
+                }
 
                 // Sets the cache
                 ScheduledExecutorService executor = config.get("executor")
                                                           .defaultTo(SCHEDULED_EXECUTOR_SERVICE_HEAP_KEY)
                                                           .as(requiredHeapObject(heap, ScheduledExecutorService.class));
-                cache = new ThreadSafeCache<>(executor);
+                cache = new BoundedCache<>(heap.get(TIME_SERVICE_HEAP_KEY, TimeService.class));
                 final Duration cacheMaxExpiration = config.get("cacheMaxExpiration")
                                                           .as(evaluated())
                                                           .defaultTo("1 minute")
@@ -511,7 +637,19 @@ public class PolicyEnforcementFilter extends GenericHeapObject implements Filter
                     throw new HeapException("The max expiration value cannot be set to 0 or to 'unlimited'");
                 }
                 cache.setMaxTimeout(cacheMaxExpiration);
+                cache.setMaximumSize(config.get("cacheMaximumSize")
+                                           .as(evaluated())
+                                           .defaultTo(BoundedCache.DEFAULT_MAXIMUM_SIZE)
+                                           .asInteger());
+                cache.setRefreshAheadRatio(config.get("cacheRefreshAheadRatio")
+                                                 .as(evaluated())
+                                                 .defaultTo(0)
+                                                 .asDouble());
+                cleanUp = cache.scheduleCleanUp(executor);
                 filter.setCache(cache);
+                registration = endpointRegistry().register("cache",
+                                                           newHttpHandler(newSingleton(
+                                                                   new PolicyDecisionCacheResourceProvider(cache))));
 
                 return filter;
             } catch (URISyntaxException e) {
@@ -519,6 +657,32 @@ public class PolicyEnforcementFilter extends GenericHeapObject implements Filter
             }
         }
 
+        private static ResourceNormalizer resourceNormalizer(final JsonValue node) throws HeapException {
+            if (node.isNull()) {
+                return null;
+            }
+            try {
+                final List<Pattern> segmentPatterns = new ArrayList<>();
+                for (JsonValue pattern : node.get("segmentPatterns").defaultTo(emptyList())) {
+                    segmentPatterns.add(Pattern.compile(pattern.as(evaluated()).asString()));
+                }
+                final Map<Pattern, String> templates = new LinkedHashMap<>();
+                for (JsonValue template : node.get("templates").defaultTo(emptyList())) {
+                    templates.put(Pattern.compile(template.get("pattern").as(evaluated()).required().asString()),
+                                  template.get("resource").as(evaluated()).required().asString());
+                }
+                return new ResourceNormalizer(node.get("stripQuery").as(evaluated()).defaultTo(false).asBoolean(),
+                                              segmentPatterns,
+                                              node.get("segmentReplacement")
+                                                  .as(evaluated())
+                                                  .defaultTo(ResourceNormalizer.DEFAULT_SEGMENT_REPLACEMENT)
+                                                  .asString(),
+                                              templates);
+            } catch (PatternSyntaxException e) {
+                throw new HeapException("Invalid pattern in 'resourceNormalization'", e);
+            }
+        }
+
         @SuppressWarnings({ "unchecked", "rawtypes" })
         private Function<Bindings, Map<String, List<Object>>, ExpressionException> environment() {
             // Double cast to satisfy compiler error due to type erasure
@@ -570,9 +734,16 @@ public class PolicyEnforcementFilter extends GenericHeapObject implements Filter
 
         @Override
         public void destroy() {
+            if (registration != null) {
+                registration.unregister();
+            }
+            if (cleanUp != null) {
+                cleanUp.cancel(false);
+            }
             if (cache != null) {
                 cache.clear();
             }
+            super.destroy();
         }
 
         private class ApiVersionProtocolHeaderFilter implements Filter {
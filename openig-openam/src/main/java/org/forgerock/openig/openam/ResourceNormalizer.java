@@ -0,0 +1,135 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+
+package org.forgerock.openig.openam;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.forgerock.util.Function;
+import org.forgerock.util.promise.NeverThrowsException;
+
+/**
+ * Normalises the resource URIs submitted to OpenAM for policy evaluation, so that requests differing only by
+ * their query string or by some identifiers in their path share the same policy decision (and cache entry).
+ * <p>
+ * The path is first matched against the resource templates (in order): the first matching template replaces the
+ * whole path. Otherwise, each path segment fully matching one of the segment patterns is replaced by the segment
+ * replacement (by default {@literal *}, which OpenAM policies treat as a wildcard). Patterns are matched against
+ * the raw (encoded) path.
+ */
+final class ResourceNormalizer implements Function<String, String, NeverThrowsException> {
+
+    /** Default replacement of the collapsed path segments. */
+    static final String DEFAULT_SEGMENT_REPLACEMENT = "*";
+
+    private final boolean stripQuery;
+    private final List<Pattern> segmentPatterns;
+    private final String segmentReplacement;
+    private final Map<Pattern, String> templates;
+
+    /**
+     * Builds a new normalizer.
+     *
+     * @param stripQuery
+     *         {@literal true} if the query string has to be removed
+     * @param segmentPatterns
+     *         patterns of the path segments to collapse
+     * @param segmentReplacement
+     *         replacement of the collapsed path segments
+     * @param templates
+     *         ordered map of path patterns to their replacement (which may refer to the pattern's groups)
+     */
+    ResourceNormalizer(final boolean stripQuery,
+                       final List<Pattern> segmentPatterns,
+                       final String segmentReplacement,
+                       final Map<Pattern, String> templates) {
+        this.stripQuery = stripQuery;
+        this.segmentPatterns = segmentPatterns;
+        this.segmentReplacement = segmentReplacement;
+        this.templates = Collections.unmodifiableMap(new LinkedHashMap<>(templates));
+    }
+
+    @Override
+    public String apply(final String uri) {
+        String base = uri;
+        String query = null;
+        int questionMark = uri.indexOf('?');
+        if (questionMark >= 0) {
+            base = uri.substring(0, questionMark);
+            query = uri.substring(questionMark);
+        }
+
+        // Only the path is normalised, not the scheme and authority
+        int authority = base.indexOf("://");
+        int pathStart = base.indexOf('/', (authority < 0) ? 0 : authority + 3);
+        StringBuilder builder = new StringBuilder(uri.length());
+        if (pathStart < 0) {
+            builder.append(base);
+        } else {
+            builder.append(base, 0, pathStart);
+            builder.append(normalizePath(base.substring(pathStart)));
+        }
+        if (query != null && !stripQuery) {
+            builder.append(query);
+        }
+        return builder.toString();
+    }
+
+    private String normalizePath(final String path) {
+        for (Map.Entry<Pattern, String> template : templates.entrySet()) {
+            Matcher matcher = template.getKey().matcher(path);
+            if (matcher.matches()) {
+                return matcher.replaceFirst(template.getValue());
+            }
+        }
+        if (segmentPatterns.isEmpty()) {
+            return path;
+        }
+        StringBuilder builder = new StringBuilder(path.length());
+        int start = 0;
+        while (start <= path.length()) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            if (start > 0) {
+                builder.append('/');
+            }
+            String segment = path.substring(start, end);
+            builder.append(collapses(segment) ? segmentReplacement : segment);
+            start = end + 1;
+        }
+        return builder.toString();
+    }
+
+    private boolean collapses(final String segment) {
+        if (segment.isEmpty()) {
+            return false;
+        }
+        for (Pattern pattern : segmentPatterns) {
+            if (pattern.matcher(segment).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -31,35 +31,37 @@ import static org.forgerock.json.JsonValue.json;
 import static org.forgerock.json.JsonValue.object;
 import static org.forgerock.openig.el.Bindings.bindings;
 import static org.forgerock.openig.heap.Keys.CLIENT_HANDLER_HEAP_KEY;
+import static org.forgerock.openig.heap.Keys.ENDPOINT_REGISTRY_HEAP_KEY;
 import static org.forgerock.openig.heap.Keys.LOGSINK_HEAP_KEY;
 import static org.forgerock.openig.heap.Keys.SCHEDULED_EXECUTOR_SERVICE_HEAP_KEY;
 import static org.forgerock.openig.heap.Keys.TEMPORARY_STORAGE_HEAP_KEY;
+import static org.forgerock.openig.heap.Keys.TIME_SERVICE_HEAP_KEY;
 import static org.forgerock.openig.openam.PolicyEnforcementFilter.DEFAULT_POLICY_KEY;
 import static org.forgerock.openig.openam.PolicyEnforcementFilter.createKeyCache;
 import static org.forgerock.openig.openam.PolicyEnforcementFilter.Heaplet.normalizeToJsonEndpoint;
 import static org.forgerock.util.Options.defaultOptions;
 import static org.mockito.Matchers.any;
-import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
-import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 import org.forgerock.http.Handler;
 import org.forgerock.http.handler.HttpClientHandler;
 import org.forgerock.http.protocol.Request;
 import org.forgerock.http.protocol.Response;
 import org.forgerock.http.protocol.Status;
+import org.forgerock.http.routing.Router;
 import org.forgerock.http.session.Session;
 import org.forgerock.http.session.SessionContext;
 import org.forgerock.json.JsonValue;
@@ -73,16 +75,16 @@ import org.forgerock.openig.handler.Handlers;
 import org.forgerock.openig.heap.HeapException;
 import org.forgerock.openig.heap.HeapImpl;
 import org.forgerock.openig.heap.Name;
+import org.forgerock.openig.http.EndpointRegistry;
 import org.forgerock.openig.io.TemporaryStorage;
 import org.forgerock.openig.log.ConsoleLogSink;
 import org.forgerock.openig.log.Logger;
 import org.forgerock.services.context.AttributesContext;
 import org.forgerock.services.context.Context;
 import org.forgerock.services.context.RootContext;
-import org.forgerock.util.ThreadSafeCache;
-import org.forgerock.util.promise.Promise;
-import org.mockito.ArgumentCaptor;
-import org.mockito.Captor;
+import org.forgerock.util.BoundedCache;
+import org.forgerock.util.time.Duration;
+import org.forgerock.util.time.TimeService;
 import org.mockito.Mock;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.DataProvider;
@@ -107,7 +109,7 @@ public class PolicyEnforcementFilterTest {
     private AttributesContext attributesContext;
     private Bindings bindings;
     private SessionContext sessionContext;
-    private ThreadSafeCache<String, Promise<JsonValue, ResourceException>> cache;
+    private BoundedCache<String, JsonValue, ResourceException> cache;
     private Request resourceRequest;
     @SuppressWarnings("rawtypes")
     private Expression<Map> target;
@@ -121,8 +123,8 @@ public class PolicyEnforcementFilterTest {
     @Mock
     private Logger logger;
 
-    @Captor
-    private ArgumentCaptor<Runnable> captor;
+    @Mock
+    private TimeService time;
 
     @BeforeMethod
     public void setUp() throws Exception {
@@ -139,7 +141,7 @@ public class PolicyEnforcementFilterTest {
         @SuppressWarnings("rawtypes")
         final Expression<Map> environmentMap = Expression.valueOf("${attributes.environmentMap}", Map.class);
         environmentMap.set(bindings, singletonMap("IP", IP_LIST));
-        cache = new ThreadSafeCache<>(newSingleThreadScheduledExecutor());
+        cache = new BoundedCache<>(time);
         target = Expression.valueOf("${attributes.policy}", Map.class);
 
         when(policiesHandler.handle(any(Context.class), any(Request.class)))
@@ -170,6 +172,12 @@ public class PolicyEnforcementFilterTest {
                     field("pepPassword", "password"),
                     field("jwtSubject", "${attributes.jwtSubject}"),
                     field("target", "${attributes.myPolicy}"))) },
+            { json(object(
+                    field("openamUrl", OPENAM_URI),
+                    field("pepUsername", "jackson"),
+                    field("pepPassword", "password"),
+                    field("ssoTokenSubject", "${attributes.ssoTokenSubject}"),
+                    field("cacheRefreshAheadRatio", 0.8))) },
             { json(object(
                     field("openamUrl", OPENAM_URI),
                     field("pepUsername", "jackson"),
@@ -415,8 +423,8 @@ public class PolicyEnforcementFilterTest {
                                                                      policiesHandler);
         filter.setSsoTokenSubject(Expression.valueOf("${attributes.ssoTokenSubject}", String.class));
 
-        ScheduledExecutorService executorService = mock(ScheduledExecutorService.class);
-        filter.setCache(new ThreadSafeCache<String, Promise<JsonValue, ResourceException>>(executorService));
+        cache.setMaxTimeout(Duration.duration("1 minute"));
+        filter.setCache(cache);
 
         when(next.handle(any(Context.class), eq(resourceRequest)))
             .thenReturn(newResponsePromise(displayResourceResponse()));
@@ -428,7 +436,6 @@ public class PolicyEnforcementFilterTest {
         // Then
         verify(policiesHandler).handle(any(Context.class), any(Request.class));
         verify(next).handle(attributesContext, resourceRequest);
-        verify(executorService).schedule(captor.capture(), anyLong(), any(TimeUnit.class));
 
         // When second call
         // The policies handler, which provides the policy response, is not called
@@ -439,8 +446,8 @@ public class PolicyEnforcementFilterTest {
 
         verify(next, times(2)).handle(attributesContext, resourceRequest);
 
-        // Mimic cache expiration
-        captor.getValue().run();
+        // Cache expiration
+        when(time.now()).thenReturn(60000L);
 
         // When third call: the policiesHandler must do another call to get the policy decision result.
         filter.filter(attributesContext,
@@ -451,6 +458,101 @@ public class PolicyEnforcementFilterTest {
         verify(next, times(3)).handle(attributesContext, resourceRequest);
     }
 
+    @Test
+    public void shouldShareTheDecisionOfNormalizedResources() throws Exception {
+        // Given
+        final PolicyEnforcementFilter filter = buildPolicyEnforcementFilter();
+        filter.setResourceNormalizer(new ResourceNormalizer(true,
+                                                            Collections.<Pattern>emptyList(),
+                                                            ResourceNormalizer.DEFAULT_SEGMENT_REPLACEMENT,
+                                                            Collections.<Pattern, String>emptyMap()));
+        cache.setMaxTimeout(Duration.duration("1 minute"));
+
+        when(next.handle(any(Context.class), any(Request.class)))
+            .thenReturn(newResponsePromise(displayResourceResponse()));
+
+        // When
+        final Response first = filter.filter(attributesContext,
+                                             new Request().setMethod("GET").setUri(RESOURCE_URI + "?size=small"),
+                                             next).get();
+        final Response second = filter.filter(attributesContext,
+                                              new Request().setMethod("GET").setUri(RESOURCE_URI + "?size=large"),
+                                              next).get();
+
+        // Then
+        verify(policiesHandler).handle(any(Context.class), any(Request.class));
+        verify(next, times(2)).handle(any(Context.class), any(Request.class));
+        assertThat(first.getStatus()).isEqualTo(OK);
+        assertThat(second.getStatus()).isEqualTo(OK);
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldCachePrefetchedPolicyDecisions() throws Exception {
+        // Given
+        final String other = "http://example.com/other.jpg";
+        final PolicyEnforcementFilter filter = buildPolicyEnforcementFilter();
+        filter.setPrefetchResources(singletonList(Expression.valueOf(other, String.class)));
+        cache.setMaxTimeout(Duration.duration("1 minute"));
+
+        final Response batchResponse = new Response();
+        batchResponse.setStatus(OK)
+                     .setEntity(array(((List<?>) policyDecision()).get(0),
+                                      object(field("advices", object()),
+                                             field("ttl", Long.MAX_VALUE),
+                                             field("resource", other),
+                                             field("actions", object(field("GET", true))),
+                                             field("attributes", object()))));
+        when(policiesHandler.handle(any(Context.class), any(Request.class)))
+            .thenReturn(newResponsePromise(batchResponse));
+        when(next.handle(any(Context.class), any(Request.class)))
+            .thenReturn(newResponsePromise(displayResourceResponse()));
+
+        // When
+        filter.filter(attributesContext, resourceRequest, next).get();
+        final Response prefetched = filter.filter(attributesContext,
+                                                  new Request().setMethod("GET").setUri(other),
+                                                  next).get();
+
+        // Then
+        verify(policiesHandler).handle(any(Context.class), any(Request.class));
+        assertThat(prefetched.getStatus()).isEqualTo(OK);
+        assertThat(cache.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldNotCacheDecisionsOfOtherResourcesWhenRequestedResourceIsMissing() throws Exception {
+        // Given
+        final PolicyEnforcementFilter filter = buildPolicyEnforcementFilter();
+        cache.setMaxTimeout(Duration.duration("1 minute"));
+
+        when(policiesHandler.handle(any(Context.class), any(Request.class)))
+            .thenReturn(newResponsePromise(otherResourcePolicyDecisionResponse()),
+                        newResponsePromise(otherResourcePolicyDecisionResponse()));
+
+        // When
+        final Response first = filter.filter(attributesContext, resourceRequest, next).get();
+        final Response second = filter.filter(attributesContext, resourceRequest, next).get();
+
+        // Then
+        verify(policiesHandler, times(2)).handle(any(Context.class), any(Request.class));
+        verifyZeroInteractions(next);
+        assertThat(first.getStatus()).isEqualTo(FORBIDDEN);
+        assertThat(second.getStatus()).isEqualTo(FORBIDDEN);
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    private static Response otherResourcePolicyDecisionResponse() {
+        final Response response = new Response();
+        response.setStatus(OK);
+        response.setEntity(array(object(field("advices", object()),
+                                        field("ttl", Long.MAX_VALUE),
+                                        field("resource", "http://example.com/other.jpg"),
+                                        field("actions", object(field("GET", true))),
+                                        field("attributes", object()))));
+        return response;
+    }
+
     @DataProvider
     private static Object[][] givenAndExpectedKey() {
         return new Object[][] {
@@ -707,7 +809,9 @@ public class PolicyEnforcementFilterTest {
         heap.put(TEMPORARY_STORAGE_HEAP_KEY, new TemporaryStorage());
         heap.put(LOGSINK_HEAP_KEY, new ConsoleLogSink());
         heap.put(SCHEDULED_EXECUTOR_SERVICE_HEAP_KEY, newSingleThreadScheduledExecutor());
+        heap.put(TIME_SERVICE_HEAP_KEY, TimeService.SYSTEM);
         heap.put(CLIENT_HANDLER_HEAP_KEY, new ClientHandler(new HttpClientHandler(defaultOptions())));
+        heap.put(ENDPOINT_REGISTRY_HEAP_KEY, new EndpointRegistry(new Router(), ""));
         heap.put("policiesHandler", policiesHandler);
         return heap;
     }
@@ -0,0 +1,89 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+
+package org.forgerock.openig.openam;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonMap;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.openig.openam.ResourceNormalizer.DEFAULT_SEGMENT_REPLACEMENT;
+
+import java.util.Collections;
+import java.util.regex.Pattern;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class ResourceNormalizerTest {
+
+    @DataProvider
+    public static Object[][] queries() {
+        // @Checkstyle:off
+        return new Object[][] {
+            { "http://example.com/a/b?c=d", "http://example.com/a/b" },
+            { "http://example.com/?c=d", "http://example.com/" },
+            { "http://example.com?c=d", "http://example.com" }
+        };
+        // @Checkstyle:on
+    }
+
+    @Test(dataProvider = "queries")
+    public void shouldStripQuery(final String uri, final String expected) throws Exception {
+        ResourceNormalizer normalizer = new ResourceNormalizer(true,
+                                                               Collections.<Pattern>emptyList(),
+                                                               DEFAULT_SEGMENT_REPLACEMENT,
+                                                               Collections.<Pattern, String>emptyMap());
+        assertThat(normalizer.apply(uri)).isEqualTo(expected);
+    }
+
+    @DataProvider
+    public static Object[][] segments() {
+        // @Checkstyle:off
+        return new Object[][] {
+            { "http://example.com/users/42/edit?x=1", "http://example.com/users/*/edit?x=1" },
+            { "http://example.com/users/42/orders/7", "http://example.com/users/*/orders/*" },
+            { "http://example.com/users/4a2/", "http://example.com/users/4a2/" },
+            { "http://example.com:8080/42", "http://example.com:8080/*" },
+            { "http://example.com/d0b5a5f6-3b53-4c4c-9ef3-a58b7ab1e4d0", "http://example.com/*" }
+        };
+        // @Checkstyle:on
+    }
+
+    @Test(dataProvider = "segments")
+    public void shouldCollapseSegments(final String uri, final String expected) throws Exception {
+        ResourceNormalizer normalizer = new ResourceNormalizer(false,
+                                                               asList(Pattern.compile("[0-9]+"),
+                                                                      Pattern.compile("[0-9a-f-]{36}")),
+                                                               DEFAULT_SEGMENT_REPLACEMENT,
+                                                               Collections.<Pattern, String>emptyMap());
+        assertThat(normalizer.apply(uri)).isEqualTo(expected);
+    }
+
+    @Test
+    public void shouldPreferTemplatesOverSegmentPatterns() throws Exception {
+        ResourceNormalizer normalizer = new ResourceNormalizer(true,
+                                                               asList(Pattern.compile("[0-9]+")),
+                                                               "-",
+                                                               singletonMap(Pattern.compile("/api/(v[0-9]+)/.*"),
+                                                                            "/api/$1/*"));
+        assertThat(normalizer.apply("http://example.com/api/v2/orders/42?q=1"))
+                .isEqualTo("http://example.com/api/v2/*");
+        assertThat(normalizer.apply("http://example.com/web/orders/42"))
+                .isEqualTo("http://example.com/web/orders/-");
+    }
+}
@@ -11,7 +11,7 @@
  * Header, with the fields enclosed by brackets [] replaced by your own identifying
  * information: "Portions copyright [year] [name of copyright owner]".
  *
- * Copyright 2015 ForgeRock AS.
+ * Copyright 2015-2016 ForgeRock AS.
  */
 
 package org.forgerock.openig.uma;
@@ -41,7 +41,15 @@ class Share {
           final JsonValue resourceSet,
           final Pattern pattern,
           final String accessToken) {
-        this.id = UUID.randomUUID().toString();
+        this(UUID.randomUUID().toString(), template, resourceSet, pattern, accessToken);
+    }
+
+    Share(final String id,
+          final ShareTemplate template,
+          final JsonValue resourceSet,
+          final Pattern pattern,
+          final String accessToken) {
+        this.id = id;
         this.template = template;
         this.resourceSet = resourceSet;
         this.pattern = pattern;
@@ -56,6 +64,10 @@ class Share {
         return template;
     }
 
+    JsonValue getResourceSet() {
+        return resourceSet;
+    }
+
     public String getResourceSetId() {
         return resourceSet.get("_id").asString();
     }
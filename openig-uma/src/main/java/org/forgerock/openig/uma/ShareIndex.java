@@ -0,0 +1,255 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+
+package org.forgerock.openig.uma;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Thread-safe registry of the {@link Share}s of an {@link UmaSharingService}, indexed by path.
+ * <p>
+ * Shares whose path is a plain literal (no regular expression construct) only match that exact path: they are found
+ * with a single hash lookup. The other shares are stored in a trie of path segments, under the literal segments
+ * their pattern starts with: only the shares stored along the requested path are evaluated.
+ * <p>
+ * When several shares match a path, the exact (literal) one is preferred, then the one with the longest literal
+ * prefix, then the one that was registered first.
+ */
+class ShareIndex {
+
+    /** Characters having a special meaning in regular expressions. */
+    private static final String META_CHARACTERS = "\\.[]{}()*+?^$|";
+
+    /** Quantifiers apply to the preceding character, which is therefore not part of the literal prefix. */
+    private static final String QUANTIFIERS = "?*+{";
+
+    private final Map<String, Share> byId = new ConcurrentHashMap<>();
+    private final Map<String, Share> byPath = new HashMap<>();
+    private final Node root = new Node();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Registers the given share, unless its path is already shared.
+     *
+     * @param share
+     *         the share to register
+     * @return {@literal true} if the share has been registered, {@literal false} if its path was already shared
+     */
+    boolean add(final Share share) {
+        String path = share.getPattern().pattern();
+        lock.writeLock().lock();
+        try {
+            if (byPath.containsKey(path)) {
+                return false;
+            }
+            byPath.put(path, share);
+            byId.put(share.getId(), share);
+            if (!isLiteral(path)) {
+                Node node = root;
+                for (String segment : literalSegments(path)) {
+                    Node child = node.children.get(segment);
+                    if (child == null) {
+                        child = new Node();
+                        node.children.put(segment, child);
+                    }
+                    node = child;
+                }
+                node.shares.add(share);
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Unregisters the share with the given identifier.
+     *
+     * @param id
+     *         share identifier
+     * @return the removed share, or {@code null} if it was unknown
+     */
+    Share remove(final String id) {
+        lock.writeLock().lock();
+        try {
+            Share share = byId.remove(id);
+            if (share == null) {
+                return null;
+            }
+            String path = share.getPattern().pattern();
+            byPath.remove(path);
+            if (!isLiteral(path)) {
+                remove(root, literalSegments(path), 0, share);
+            }
+            return share;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static boolean remove(final Node node, final List<String> segments, final int depth, final Share share) {
+        if (depth == segments.size()) {
+            node.shares.remove(share);
+        } else {
+            String segment = segments.get(depth);
+            Node child = node.children.get(segment);
+            if (child != null && remove(child, segments, depth + 1, share)) {
+                // Prune the branches without shares
+                node.children.remove(segment);
+            }
+        }
+        return node.shares.isEmpty() && node.children.isEmpty();
+    }
+
+    /**
+     * Returns the share with the given identifier.
+     *
+     * @param id
+     *         share identifier
+     * @return the share with the given identifier, or {@code null} if it is unknown
+     */
+    Share get(final String id) {
+        return byId.get(id);
+    }
+
+    /**
+     * Returns {@literal true} if the given path is already shared.
+     *
+     * @param path
+     *         the shared path (as given when the share was created)
+     * @return {@literal true} if the given path is already shared
+     */
+    boolean isShared(final String path) {
+        lock.readLock().lock();
+        try {
+            return byPath.containsKey(path);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the share that best matches the given request path.
+     *
+     * @param path
+     *         the request path
+     * @return the best matching share, or {@code null} if none matches
+     */
+    Share find(final String path) {
+        lock.readLock().lock();
+        try {
+            Share exact = byPath.get(path);
+            if (exact != null && (isLiteral(path) || exact.getPattern().matcher(path).matches())) {
+                return exact;
+            }
+
+            // Collect the nodes along the path, then evaluate the deepest ones first
+            List<Node> nodes = new ArrayList<>();
+            Node node = root;
+            nodes.add(node);
+            for (String segment : segments(path, path.length())) {
+                node = node.children.get(segment);
+                if (node == null) {
+                    break;
+                }
+                nodes.add(node);
+            }
+            for (int i = nodes.size() - 1; i >= 0; i--) {
+                for (Share share : nodes.get(i).shares) {
+                    if (share.getPattern().matcher(path).matches()) {
+                        return share;
+                    }
+                }
+            }
+            return null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the registered shares.
+     *
+     * @return a snapshot of the registered shares
+     */
+    List<Share> values() {
+        return new ArrayList<>(byId.values());
+    }
+
+    /**
+     * Returns the number of registered shares.
+     *
+     * @return the number of registered shares
+     */
+    int size() {
+        return byId.size();
+    }
+
+    private static boolean isLiteral(final String path) {
+        return literalLength(path) == path.length();
+    }
+
+    private static int literalLength(final String regex) {
+        int length = 0;
+        while (length < regex.length() && META_CHARACTERS.indexOf(regex.charAt(length)) == -1) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Returns the complete path segments the given regular expression starts with: every path matching the
+     * expression starts with these segments.
+     */
+    static List<String> literalSegments(final String regex) {
+        if (regex.indexOf('|') != -1) {
+            // Alternatives may start with anything
+            return new ArrayList<>();
+        }
+        int length = literalLength(regex);
+        if (length < regex.length() && length > 0 && QUANTIFIERS.indexOf(regex.charAt(length)) != -1) {
+            length--;
+        }
+        // Only keep the segments followed by a literal '/'
+        return segments(regex, regex.lastIndexOf('/', length - 1));
+    }
+
+    private static List<String> segments(final String path, final int length) {
+        List<String> segments = new ArrayList<>();
+        int start = 0;
+        while (start <= length && length > 0) {
+            int end = path.indexOf('/', start);
+            if (end == -1 || end > length) {
+                end = length;
+            }
+            segments.add(path.substring(start, end));
+            start = end + 1;
+        }
+        return segments;
+    }
+
+    private static final class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        private final List<Share> shares = new ArrayList<>(1);
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+
+package org.forgerock.openig.uma;
+
+import static java.lang.String.format;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static org.forgerock.http.util.Json.readJson;
+import static org.forgerock.http.util.Json.writeJson;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.object;
+import static org.forgerock.util.Utils.closeSilently;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.forgerock.json.JsonValue;
+import org.forgerock.openig.log.Logger;
+
+/**
+ * Persists the {@link Share}s of an {@link UmaSharingService} in a local JSON file, so that they survive restarts.
+ * <p>
+ * The whole file is re-written (atomically, through a temporary file) after shares have been created or removed.
+ * The writes are performed by an executor, out of the request processing threads, and coalesced: the changes made
+ * while a write is pending are all persisted by that write. Persistence failures are logged, they do not prevent
+ * the shares from being used.
+ * <p>
+ * The file contains the PAT (Protection API Token) of each share, in clear: whoever can read it can act as the
+ * resource owners on the authorization server's protection API. It is therefore created readable and writable by
+ * its owner only (on file systems supporting POSIX permissions), and should be kept on a protected location.
+ */
+class ShareStore {
+
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rw-------");
+
+    private final File file;
+    private final Executor executor;
+    private final Logger logger;
+
+    /** {@literal true} when a write has been requested, but not started yet. */
+    private final AtomicBoolean pending = new AtomicBoolean();
+
+    /** The shares to persist, as given by the last save request. */
+    private volatile ShareIndex index;
+
+    /**
+     * Builds a new store persisting the shares in the given file.
+     *
+     * @param file
+     *         the file storing the shares
+     * @param executor
+     *         executes the (coalesced) writes of the file
+     * @param logger
+     *         used to report persistence failures
+     */
+    ShareStore(final File file, final Executor executor, final Logger logger) {
+        this.file = file;
+        this.executor = executor;
+        this.logger = logger;
+    }
+
+    /**
+     * Loads the persisted shares.
+     *
+     * @return the JSON representation of the persisted shares (empty if the file does not exist yet, or is empty)
+     * @throws IOException
+     *         if the file cannot be read or parsed
+     */
+    List<JsonValue> load() throws IOException {
+        List<JsonValue> shares = new ArrayList<>();
+        if (!file.exists() || file.length() == 0L) {
+            return shares;
+        }
+        Reader reader = null;
+        try {
+            reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8);
+            for (JsonValue share : new JsonValue(readJson(reader)).get("shares").expect(List.class)) {
+                shares.add(share);
+            }
+            return shares;
+        } finally {
+            closeSilently(reader);
+        }
+    }
+
+    /**
+     * Schedules the persistence of the shares of the given index, replacing the previously persisted ones. Does
+     * nothing if a write is already pending: it will persist the current shares.
+     *
+     * @param index
+     *         the shares to persist
+     */
+    void save(final ShareIndex index) {
+        this.index = index;
+        if (!pending.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The executor is shutting down: write synchronously
+            flush();
+        }
+    }
+
+    /**
+     * Performs the pending write, if any.
+     */
+    void flush() {
+        if (pending.compareAndSet(true, false)) {
+            write(index);
+        }
+    }
+
+    private synchronized void write(final ShareIndex index) {
+        // The snapshot is taken while holding the lock, so that the last write always reflects the last change
+        List<Share> shares = index.values();
+        List<Object> values = new ArrayList<>(shares.size());
+        for (Share share : shares) {
+            values.add(object(field("id", share.getId()),
+                              field("path", share.getPattern().pattern()),
+                              field("pat", share.getPAT()),
+                              field("resource_set", share.getResourceSet().getObject())));
+        }
+        Path temporary = new File(file.getPath() + ".tmp").toPath();
+        try {
+            createOwnerOnly(temporary);
+            Files.write(temporary, writeJson(object(field("shares", values))));
+            Files.move(temporary, file.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.error(format("Cannot persist the UMA shares in '%s'", file));
+            logger.error(e);
+        }
+    }
+
+    /**
+     * Creates an empty file that only its owner can read and write (the PATs must not be disclosed).
+     */
+    private static void createOwnerOnly(final Path path) throws IOException {
+        Files.deleteIfExists(path);
+        try {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system: restrict the access as much as possible
+            File file = Files.createFile(path).toFile();
+            file.setReadable(false, false);
+            file.setWritable(false, false);
+            file.setReadable(true, true);
+            file.setWritable(true, true);
+        }
+    }
+}
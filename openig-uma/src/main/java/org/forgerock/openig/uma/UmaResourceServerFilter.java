@@ -17,6 +17,8 @@
 package org.forgerock.openig.uma;
 
 import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.forgerock.http.Responses.newInternalServerError;
 import static org.forgerock.http.header.WarningHeader.MISCELLANEOUS_WARNING;
 import static org.forgerock.http.protocol.Response.newResponsePromise;
@@ -24,14 +26,23 @@ import static org.forgerock.json.JsonValue.array;
 import static org.forgerock.json.JsonValue.field;
 import static org.forgerock.json.JsonValue.json;
 import static org.forgerock.json.JsonValue.object;
+import static org.forgerock.json.JsonValueFunctions.duration;
+import static org.forgerock.json.resource.Resources.newSingleton;
+import static org.forgerock.json.resource.http.CrestHttp.newHttpHandler;
+import static org.forgerock.openig.heap.Keys.SCHEDULED_EXECUTOR_SERVICE_HEAP_KEY;
+import static org.forgerock.openig.heap.Keys.TIME_SERVICE_HEAP_KEY;
 import static org.forgerock.openig.util.JsonValues.evaluated;
 import static org.forgerock.openig.util.JsonValues.requiredHeapObject;
 import static org.forgerock.util.Utils.closeSilently;
 
 import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 
 import org.forgerock.authz.modules.oauth2.OAuth2;
 import org.forgerock.http.Filter;
@@ -45,12 +56,17 @@ import org.forgerock.json.JsonValue;
 import org.forgerock.openig.heap.GenericHeapObject;
 import org.forgerock.openig.heap.GenericHeaplet;
 import org.forgerock.openig.heap.HeapException;
+import org.forgerock.openig.http.EndpointRegistry;
 import org.forgerock.services.context.Context;
 import org.forgerock.util.AsyncFunction;
+import org.forgerock.util.BoundedCache;
 import org.forgerock.util.Function;
+import org.forgerock.util.encode.Base64;
 import org.forgerock.util.promise.NeverThrowsException;
 import org.forgerock.util.promise.Promise;
 import org.forgerock.util.promise.ResultHandler;
+import org.forgerock.util.time.Duration;
+import org.forgerock.util.time.TimeService;
 
 /**
  * An {@link UmaResourceServerFilter} implements a PEP (Policy Enforcement Point) and is responsible to ensure the
@@ -62,17 +78,33 @@ import org.forgerock.util.promise.ResultHandler;
  *         "type": "UmaFilter",
  *         "config": {
  *           "protectionApiHandler": "HttpsClient",
- *           "umaService": "UmaService"
+ *           "umaService": "UmaService",
+ *           "realm": "uma",
+ *           "cacheExpiration": "1 minute",
+ *           "cacheMaximumSize": 10000,
+ *           "cacheRefreshAheadRatio": 0.8
  *         }
  *       }
  *     }
  * </pre>
+ *
+ * The results of the RPT introspections are cached, keyed by a hash of the token and of the PAT of the requested
+ * share (so that results are never shared between resource owners), for at most {@literal cacheExpiration}
+ * (defaults to 1 minute, use {@literal zero} to disable the cache) and never beyond the token's own expiration time
+ * ({@literal exp} claim). Concurrent requests bearing the same RPT for the same share owner share a single
+ * introspection, and inactive tokens are never cached. The optional {@literal cacheMaximumSize} attribute bounds the
+ * number of cached introspection results (defaults to {@value BoundedCache#DEFAULT_MAXIMUM_SIZE}). With the optional
+ * {@literal cacheRefreshAheadRatio} attribute (between 0 and 1, disabled by default), a result read once that fraction
+ * of its time-to-live has elapsed is refreshed in the background, while the cached result keeps being used. The cache
+ * statistics are exposed (read-only) on the {@literal cache} endpoint of the heap object.
  */
 public class UmaResourceServerFilter extends GenericHeapObject implements Filter {
 
     private final UmaSharingService umaService;
     private final Handler protectionApiHandler;
     private final String realm;
+    private final BoundedCache<String, JsonValue, UmaException> introspectionCache;
+    private final Function<JsonValue, Duration, Exception> expires;
 
     /**
      * Constructs a new UmaResourceServerFilter.
@@ -87,9 +119,34 @@ public class UmaResourceServerFilter extends GenericHeapObject implements Filter
     public UmaResourceServerFilter(final UmaSharingService umaService,
                                    final Handler protectionApiHandler,
                                    final String realm) {
+        this(umaService, protectionApiHandler, realm, null, null);
+    }
+
+    /**
+     * Constructs a new UmaResourceServerFilter caching the RPT introspection results.
+     *
+     * @param umaService
+     *         core service to use
+     * @param protectionApiHandler
+     *         protectionApiHandler to use when interacting with introspection and permission request endpoints
+     * @param realm
+     *         UMA realm name (can be {@code null})
+     * @param time
+     *         time service used to compute the time-to-live of the introspection results
+     * @param introspectionCache
+     *         cache of the introspection results, keyed by PAT and token hash (can be {@code null} to disable
+     *         caching)
+     */
+    public UmaResourceServerFilter(final UmaSharingService umaService,
+                                   final Handler protectionApiHandler,
+                                   final String realm,
+                                   final TimeService time,
+                                   final BoundedCache<String, JsonValue, UmaException> introspectionCache) {
         this.umaService = umaService;
         this.protectionApiHandler = protectionApiHandler;
         this.realm = realm;
+        this.introspectionCache = introspectionCache;
+        this.expires = (introspectionCache != null) ? new IntrospectionExpirationFunction(time) : null;
     }
 
     @Override
@@ -105,8 +162,9 @@ public class UmaResourceServerFilter extends GenericHeapObject implements Filter
             // Is there an RPT ?
             if (rpt != null) {
                 // Validate the token
-                return introspectToken(context, rpt, share.getPAT())
-                        .thenAsync(new VerifyScopesAsyncFunction(share, context, request, next));
+                VerifyScopesAsyncFunction verifyScopes = new VerifyScopesAsyncFunction(share, context, request, next);
+                return introspect(context, rpt, share.getPAT())
+                        .thenAsync(verifyScopes, verifyScopes.onIntrospectionFailure());
             }
 
             // Error case: ask for a ticket
@@ -178,9 +236,42 @@ public class UmaResourceServerFilter extends GenericHeapObject implements Filter
                            field("scopes", array(scopes.toArray(new Object[scopes.size()])))));
     }
 
-    private Promise<Response, NeverThrowsException> introspectToken(final Context context,
-                                                                    final String token,
-                                                                    final String pat) {
+    private Promise<JsonValue, UmaException> introspect(final Context context,
+                                                        final String token,
+                                                        final String pat) {
+        if (introspectionCache == null) {
+            return introspectToken(context, token, pat);
+        }
+        return introspectionCache.getValue(hash(pat, token), new AsyncFunction<String, JsonValue, UmaException>() {
+            @Override
+            public Promise<JsonValue, UmaException> apply(final String ignored) {
+                return introspectToken(context, token, pat);
+            }
+        }, expires);
+    }
+
+    /**
+     * Tokens are not kept in memory in clear: they are only referenced by their SHA-256 hash. The token is
+     * introspected on behalf of the share's resource owner (with its PAT), which is thus part of the key.
+     */
+    private static String hash(final String pat, final String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            if (pat != null) {
+                digest.update(pat.getBytes(UTF_8));
+            }
+            // Separator: neither tokens nor PATs contain NUL characters
+            digest.update((byte) 0);
+            return Base64.encode(digest.digest(token.getBytes(UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Promise<JsonValue, UmaException> introspectToken(final Context context,
+                                                             final String token,
+                                                             final String pat) {
         Request request = new Request();
         request.setUri(umaService.getIntrospectionEndpoint());
         // Should accept a PAT as per the spec (See OPENAM-6320 / OPENAM-5928)
@@ -193,10 +284,34 @@ public class UmaResourceServerFilter extends GenericHeapObject implements Filter
         query.putSingle("client_secret", umaService.getClientSecret());
         query.toRequestEntity(request);
 
-        return protectionApiHandler.handle(context, request);
+        return protectionApiHandler.handle(context, request)
+                                   .then(new Function<Response, JsonValue, UmaException>() {
+                                       @Override
+                                       public JsonValue apply(final Response response) throws UmaException {
+                                           try {
+                                               return introspectionResult(response);
+                                           } finally {
+                                               closeSilently(response);
+                                           }
+                                       }
+                                   });
+    }
+
+    private JsonValue introspectionResult(final Response response) throws UmaException {
+        if (Status.OK != response.getStatus()) {
+            throw new UmaException(format("Got a %s Response from '%s', was expecting a 200 OK.",
+                                          response.getStatus(),
+                                          umaService.getIntrospectionEndpoint()));
+        }
+        try {
+            return json(response.getEntity().getJson());
+        } catch (IOException e) {
+            throw new UmaException("Cannot extract JSON from token introspection response, possibly malformed JSON",
+                                   e);
+        }
     }
 
-    private class VerifyScopesAsyncFunction implements AsyncFunction<Response, Response, NeverThrowsException> {
+    private class VerifyScopesAsyncFunction implements AsyncFunction<JsonValue, Response, NeverThrowsException> {
         private final Share share;
         private final Context context;
         private final Request request;
@@ -212,45 +327,49 @@ public class UmaResourceServerFilter extends GenericHeapObject implements Filter
             this.next = next;
         }
 
+        AsyncFunction<UmaException, Response, NeverThrowsException> onIntrospectionFailure() {
+            return new AsyncFunction<UmaException, Response, NeverThrowsException>() {
+                @Override
+                public Promise<Response, NeverThrowsException> apply(final UmaException exception) {
+                    logger.debug(exception.getMessage());
+                    if (exception.getCause() instanceof IOException) {
+                        return newResponsePromise(newInternalServerError((IOException) exception.getCause()));
+                    }
+                    // Error case: ask for a ticket
+                    return ticket(context, share, request);
+                }
+            };
+        }
+
         @Override
-        public Promise<Response, NeverThrowsException> apply(final Response token) {
-
-            if (Status.OK == token.getStatus()) {
-                JsonValue value = null;
-                try {
-                    value = json(token.getEntity().getJson());
-                } catch (IOException e) {
-                    logger.debug("Cannot extract JSON from token introspection response, possibly malformed JSON");
-                    return newResponsePromise(newInternalServerError(e));
+        public Promise<Response, NeverThrowsException> apply(final JsonValue value) {
+            if (value.get("active").asBoolean()) {
+                // Got a valid token
+                // Need to verify embed scopes against required scopes
+                ShareTemplate template = share.getTemplate();
+                Set<String> required = template.getScopes(request);
+                if (getScopes(value, share.getResourceSetId()).containsAll(required)) {
+                    // All required scopes are present, continue the request processing
+                    return next.handle(context, request);
                 }
-                if (value.get("active").asBoolean()) {
-                    // Got a valid token
-                    // Need to verify embed scopes against required scopes
-                    ShareTemplate template = share.getTemplate();
-                    Set<String> required = template.getScopes(request);
-                    if (getScopes(value, share.getResourceSetId()).containsAll(required)) {
-                        // All required scopes are present, continue the request processing
-                        return next.handle(context, request);
-                    }
 
-                    logger.trace("Insufficient scopes encoded in RPT, asking for a new ticket");
-                    // Not all of the required scopes are in the token
-                    // Error case: ask for a ticket, append an error code
-                    return ticket(context, share, request)
-                            .thenOnResult(new ResultHandler<Response>() {
-                                @Override
-                                public void handleResult(final Response response) {
-
-                                    // Update the Authorization header with a proper error code
-                                    String authorization = response.getHeaders()
-                                                                   .getFirst("WWW-Authenticate");
-                                    if (authorization != null) {
-                                        authorization = authorization.concat(", error=\"insufficient_scope\"");
-                                        response.getHeaders().put("WWW-Authenticate", authorization);
-                                    }
+                logger.trace("Insufficient scopes encoded in RPT, asking for a new ticket");
+                // Not all of the required scopes are in the token
+                // Error case: ask for a ticket, append an error code
+                return ticket(context, share, request)
+                        .thenOnResult(new ResultHandler<Response>() {
+                            @Override
+                            public void handleResult(final Response response) {
+
+                                // Update the Authorization header with a proper error code
+                                String authorization = response.getHeaders()
+                                                               .getFirst("WWW-Authenticate");
+                                if (authorization != null) {
+                                    authorization = authorization.concat(", error=\"insufficient_scope\"");
+                                    response.getHeaders().put("WWW-Authenticate", authorization);
                                 }
-                            });
-                }
+                            }
+                        });
             }
 
             // Error case: ask for a ticket
@@ -309,11 +428,47 @@ public class UmaResourceServerFilter extends GenericHeapObject implements Filter
         }
     }
 
+    /**
+     * A function that computes the time-to-live of an introspection result.
+     */
+    private static class IntrospectionExpirationFunction implements Function<JsonValue, Duration, Exception> {
+
+        private final TimeService time;
+
+        IntrospectionExpirationFunction(final TimeService time) {
+            this.time = time;
+        }
+
+        @Override
+        public Duration apply(final JsonValue value) {
+            if (!value.get("active").defaultTo(false).asBoolean()) {
+                // Inactive tokens are not cached
+                return Duration.ZERO;
+            }
+            JsonValue exp = value.get("exp");
+            if (exp.isNull()) {
+                // Capped by the cache's maximum timeout
+                return Duration.UNLIMITED;
+            }
+            // 'exp' is expressed in seconds since epoch
+            long expires = exp.asLong() * 1000L - time.now();
+            if (expires <= 0) {
+                // The token is already expired
+                return Duration.ZERO;
+            }
+            return Duration.duration(expires, MILLISECONDS);
+        }
+    }
+
     /**
      * Creates and initializes an UMA resource server filter in a heap environment.
      */
     public static class Heaplet extends GenericHeaplet {
 
+        private BoundedCache<String, JsonValue, UmaException> cache;
+        private ScheduledFuture<?> cleanUp;
+        private EndpointRegistry.Registration registration;
+
         @Override
         public Object create() throws HeapException {
             UmaSharingService service = config.get("umaService")
@@ -321,7 +476,45 @@ public class UmaResourceServerFilter extends GenericHeapObject implements Filter
                                               .as(requiredHeapObject(heap, UmaSharingService.class));
             Handler handler = config.get("protectionApiHandler").required().as(requiredHeapObject(heap, Handler.class));
             String realm = config.get("realm").as(evaluated()).defaultTo("uma").asString();
-            return new UmaResourceServerFilter(service, handler, realm);
+
+            // Build the cache
+            TimeService time = heap.get(TIME_SERVICE_HEAP_KEY, TimeService.class);
+            Duration expiration = config.get("cacheExpiration").as(evaluated()).defaultTo("1 minute").as(duration());
+            if (!expiration.isZero()) {
+                ScheduledExecutorService executorService =
+                        config.get("executor")
+                              .defaultTo(SCHEDULED_EXECUTOR_SERVICE_HEAP_KEY)
+                              .as(requiredHeapObject(heap, ScheduledExecutorService.class));
+                cache = new BoundedCache<>(time);
+                cache.setMaxTimeout(expiration);
+                cache.setMaximumSize(config.get("cacheMaximumSize")
+                                           .as(evaluated())
+                                           .defaultTo(BoundedCache.DEFAULT_MAXIMUM_SIZE)
+                                           .asInteger());
+                cache.setRefreshAheadRatio(config.get("cacheRefreshAheadRatio")
+                                                 .as(evaluated())
+                                                 .defaultTo(0)
+                                                 .asDouble());
+                cleanUp = cache.scheduleCleanUp(executorService);
+                registration = endpointRegistry().register("cache",
+                                                           newHttpHandler(newSingleton(
+                                                                   new IntrospectionCacheResourceProvider(cache))));
+            }
+            return new UmaResourceServerFilter(service, handler, realm, time, cache);
+        }
+
+        @Override
+        public void destroy() {
+            if (registration != null) {
+                registration.unregister();
+            }
+            if (cleanUp != null) {
+                cleanUp.cancel(false);
+            }
+            if (cache != null) {
+                cache.clear();
+            }
+            super.destroy();
         }
     }
 }
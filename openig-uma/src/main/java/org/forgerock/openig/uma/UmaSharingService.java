@@ -20,25 +20,27 @@ import static java.lang.String.format;
 import static org.forgerock.json.JsonValue.field;
 import static org.forgerock.json.JsonValue.json;
 import static org.forgerock.json.JsonValue.object;
+import static org.forgerock.json.JsonValueFunctions.file;
 import static org.forgerock.json.JsonValueFunctions.listOf;
 import static org.forgerock.json.JsonValueFunctions.pattern;
 import static org.forgerock.json.JsonValueFunctions.uri;
 import static org.forgerock.json.resource.Resources.newCollection;
 import static org.forgerock.json.resource.http.CrestHttp.newHttpHandler;
+import static org.forgerock.openig.heap.Keys.SCHEDULED_EXECUTOR_SERVICE_HEAP_KEY;
 import static org.forgerock.openig.util.JsonValues.evaluated;
 import static org.forgerock.openig.util.JsonValues.expression;
 import static org.forgerock.openig.util.JsonValues.requiredHeapObject;
 import static org.forgerock.util.promise.Promises.newExceptionPromise;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -80,6 +82,7 @@ import org.forgerock.util.promise.Promise;
  *           "authorizationServerUri": "https://openam.example.com:8443/openam",
  *           "clientId": "uma",
  *           "clientSecret": "welcome",
+ *           "sharesFile": "${system['openig.base']}/uma/shares.json",
  *           "resources": [
  *             {
  *               "pattern": "/guillaume/.*",
@@ -100,6 +103,12 @@ import org.forgerock.util.promise.Promise;
  *     }
  * </pre>
  *
+ * <p>The shares are kept in memory, indexed by path. When the optional {@code sharesFile} attribute is set, they are
+ * also persisted in that (JSON) file and restored when the service is created: shares whose path does not match
+ * any of the configured resources anymore are discarded. The file is written in the background (by the heap's
+ * scheduled executor, or by the one referenced by the optional {@code executor} attribute). It contains the PATs
+ * of the shares in clear, so it is only readable and writable by its owner: keep it in a protected directory.
+ *
  * Along with the {@code UmaService}, a REST endpoint is deployed in OpenIG's API namespace:
  * {@literal /openig/api/system/objects/../objects/[name-of-the-uma-service-object]/share}.
  * The dotted segment depends on your deployment (like which RouterHandler hosts the route that
@@ -108,7 +117,8 @@ import org.forgerock.util.promise.Promise;
 public class UmaSharingService {
 
     private final List<ShareTemplate> templates = new ArrayList<>();
-    private final Map<String, Share> shares = new TreeMap<>();
+    private final ShareIndex shares = new ShareIndex();
+    private volatile ShareStore store;
 
     private final Handler protectionApiHandler;
     private final URI authorizationServer;
@@ -186,7 +196,7 @@ public class UmaSharingService {
                                                     final String resourcePath,
                                                     final String pat) {
 
-        if (isShared(resourcePath)) {
+        if (shares.isShared(resourcePath)) {
             // We do not accept re-sharing or post-creation resource_set configuration
             return newExceptionPromise(new UmaException(format("Resource %s is already shared", resourcePath)));
         }
@@ -206,7 +216,11 @@ public class UmaSharingService {
                             try {
                                 JsonValue value = json(response.getEntity().getJson());
                                 Share share = new Share(matching, value, Pattern.compile(resourcePath), pat);
-                                shares.put(share.getId(), share);
+                                if (!shares.add(share)) {
+                                    // Concurrently shared
+                                    throw new UmaException(format("Resource %s is already shared", resourcePath));
+                                }
+                                persist();
                                 return share;
                             } catch (IOException e) {
                                 throw new UmaException("Can't read the CREATE resource_set response", e);
@@ -237,15 +251,6 @@ public class UmaSharingService {
         return matching;
     }
 
-    private boolean isShared(final String path) {
-        for (Share share : shares.values()) {
-            if (path.equals(share.getPattern().toString())) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     private Promise<Response, NeverThrowsException> createResourceSet(final Context context,
                                                                       final ShareTemplate template,
                                                                       final String path,
@@ -283,20 +288,12 @@ public class UmaSharingService {
     public Share findShare(Request request) throws UmaException {
 
         // Need to find which Share to use
-        // The logic here is that the longest matching segment denotes the best share
+        // The logic here is that the most specific share denotes the best share
         //   request: /alice/allergies/pollen
         //   shares: [ /alice.*, /alice/allergies, /alice/allergies/pollen ]
         // expects the last share to be returned
-        Share matching = null;
         String path = request.getUri().getPath();
-        int longest = -1;
-        for (Share share : shares.values()) {
-            Matcher matcher = share.getPattern().matcher(path);
-            if (matcher.matches() && matcher.end() > longest) {
-                matching = share;
-                longest = matcher.end();
-            }
-        }
+        Share matching = shares.find(path);
 
         // Fail-fast if no shares matched
         if (matching == null) {
@@ -315,7 +312,53 @@ public class UmaSharingService {
      * @return the removed Share instance if found, {@code null} otherwise.
      */
     public Share removeShare(String shareId) {
-        return shares.remove(shareId);
+        Share share = shares.remove(shareId);
+        if (share != null) {
+            persist();
+        }
+        return share;
+    }
+
+    private void persist() {
+        ShareStore current = store;
+        if (current != null) {
+            current.save(shares);
+        }
+    }
+
+    /**
+     * Restores previously persisted shares.
+     *
+     * @param persisted
+     *         the JSON representation of the shares to restore
+     * @return the paths of the shares that have been discarded because no template matches them
+     */
+    List<String> restoreShares(final List<JsonValue> persisted) {
+        List<String> discarded = new ArrayList<>();
+        for (JsonValue value : persisted) {
+            String path = value.get("path").required().asString();
+            ShareTemplate template = findShareTemplate(path);
+            if (template == null) {
+                discarded.add(path);
+                continue;
+            }
+            shares.add(new Share(value.get("id").required().asString(),
+                                 template,
+                                 value.get("resource_set").required(),
+                                 Pattern.compile(path),
+                                 value.get("pat").asString()));
+        }
+        return discarded;
+    }
+
+    /**
+     * Sets the store where the shares are persisted when they are created or removed.
+     *
+     * @param store
+     *         the share store (may be {@code null} to disable persistence)
+     */
+    void setShareStore(final ShareStore store) {
+        this.store = store;
     }
 
     /**
@@ -380,6 +423,8 @@ public class UmaSharingService {
      */
     public static class Heaplet extends GenericHeaplet {
 
+        private ShareStore store;
+
         @Override
         public Object create() throws HeapException {
             Handler handler = config.get("protectionApiHandler").required().as(requiredHeapObject(heap, Handler.class));
@@ -392,6 +437,23 @@ public class UmaSharingService {
                                                                   uri,
                                                                   clientId,
                                                                   clientSecret);
+                if (config.isDefined("sharesFile")) {
+                    File sharesFile = config.get("sharesFile").as(evaluated()).as(file());
+                    ScheduledExecutorService executor =
+                            config.get("executor")
+                                  .defaultTo(SCHEDULED_EXECUTOR_SERVICE_HEAP_KEY)
+                                  .as(requiredHeapObject(heap, ScheduledExecutorService.class));
+                    store = new ShareStore(sharesFile, executor, logger);
+                    try {
+                        for (String path : service.restoreShares(store.load())) {
+                            logger.warning(format("Share of '%s' discarded: no resource matches it anymore", path));
+                        }
+                    } catch (IOException e) {
+                        throw new HeapException(format("Cannot restore the UMA shares from '%s'", sharesFile), e);
+                    }
+                    service.setShareStore(store);
+                }
+
                 // register admin endpoint
                 Handler httpHandler = newHttpHandler(newCollection(new ShareCollectionProvider(service)));
                 EndpointRegistry.Registration share = endpointRegistry().register("share", httpHandler);
@@ -424,5 +486,14 @@ public class UmaSharingService {
                 }
             }));
         }
+
+        @Override
+        public void destroy() {
+            if (store != null) {
+                // Do not lose the last changes
+                store.flush();
+            }
+            super.destroy();
+        }
     }
 }
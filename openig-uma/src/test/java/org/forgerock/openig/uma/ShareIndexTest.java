@@ -0,0 +1,117 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+
+package org.forgerock.openig.uma;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+
+import java.util.regex.Pattern;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class ShareIndexTest {
+
+    private ShareIndex index;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        index = new ShareIndex();
+        for (String path : new String[] {"/alice.*",
+                                         "/alice/allergies",
+                                         "/alice/allergies/pollen",
+                                         "/alice/allergies/.*",
+                                         "/a/?x",
+                                         "/bob/[0-9]+",
+                                         "(?i)/CARL/.*",
+                                         "/dave|/eve"}) {
+            assertThat(index.add(share(path))).isTrue();
+        }
+    }
+
+    @DataProvider
+    public static Object[][] literalSegments() {
+        // @Checkstyle:off
+        return new Object[][] {
+            { "/alice/allergies/.*", new String[] { "", "alice", "allergies" } },
+            { "/alice/allergies.*", new String[] { "", "alice" } },
+            { "/alice/b?", new String[] { "", "alice" } },
+            { "/a/?x", new String[0] },
+            { "^/alice/.*", new String[0] },
+            { "/alice/.*|/bob/.*", new String[0] }
+        };
+        // @Checkstyle:on
+    }
+
+    @Test(dataProvider = "literalSegments")
+    public void shouldExtractLiteralSegments(final String regex, final String[] segments) throws Exception {
+        assertThat(ShareIndex.literalSegments(regex)).containsExactly(segments);
+    }
+
+    @DataProvider
+    public static Object[][] paths() {
+        // @Checkstyle:off
+        return new Object[][] {
+            { "/alice/allergies/pollen", "/alice/allergies/pollen" },
+            { "/alice/allergies", "/alice/allergies" },
+            { "/alice/allergies/dust", "/alice/allergies/.*" },
+            { "/alice/diet", "/alice.*" },
+            { "/ax", "/a/?x" },
+            { "/bob/42", "/bob/[0-9]+" },
+            { "/carl/x", "(?i)/CARL/.*" },
+            { "/eve", "/dave|/eve" },
+            { "/bob/", null },
+            { "/zoe", null }
+        };
+        // @Checkstyle:on
+    }
+
+    @Test(dataProvider = "paths")
+    public void shouldFindTheMostSpecificShare(final String path, final String expected) throws Exception {
+        Share share = index.find(path);
+        if (expected == null) {
+            assertThat(share).isNull();
+        } else {
+            assertThat(share.getPattern().pattern()).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void shouldNotRegisterTheSamePathTwice() throws Exception {
+        assertThat(index.add(share("/alice.*"))).isFalse();
+        assertThat(index.isShared("/alice.*")).isTrue();
+        assertThat(index.size()).isEqualTo(8);
+    }
+
+    @Test
+    public void shouldRemoveShare() throws Exception {
+        Share share = index.find("/alice/allergies/dust");
+        assertThat(index.remove(share.getId())).isSameAs(share);
+        assertThat(index.remove(share.getId())).isNull();
+        assertThat(index.get(share.getId())).isNull();
+        assertThat(index.isShared("/alice/allergies/.*")).isFalse();
+        assertThat(index.find("/alice/allergies/dust").getPattern().pattern()).isEqualTo("/alice.*");
+    }
+
+    private static Share share(final String path) {
+        return new Share(null, json(object()), Pattern.compile(path), "pat");
+    }
+}
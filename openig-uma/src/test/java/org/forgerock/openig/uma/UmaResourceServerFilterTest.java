@@ -27,6 +27,7 @@ import static org.forgerock.json.JsonValue.object;
 import static org.hamcrest.CoreMatchers.allOf;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.argThat;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
@@ -43,6 +44,8 @@ import org.forgerock.json.JsonValue;
 import org.forgerock.openig.el.Expression;
 import org.forgerock.openig.el.ExpressionException;
 import org.forgerock.services.context.Context;
+import org.forgerock.util.BoundedCache;
+import org.forgerock.util.time.TimeService;
 import org.hamcrest.BaseMatcher;
 import org.hamcrest.Description;
 import org.hamcrest.Matcher;
@@ -55,6 +58,7 @@ import org.testng.annotations.Test;
 public class UmaResourceServerFilterTest {
 
     private static final String PAT = "1/fFAGRNJru1FTz70BzhT3Zg";
+    private static final String OTHER_PAT = "1/bVrKlX3Yc0Oj9kDHqPB2xw";
     private static final String RPT = "MzJmNDc3M2VjMmQzN";
     private static final String TICKET = "304f79ea-3e88-48ce-809b-ae57e3eb2f581";
     private static final String RS_ID = "dd645214-a720-4639-a644-ebf3161b69f91";
@@ -115,6 +119,58 @@ public class UmaResourceServerFilterTest {
         verify(terminal).handle(null, request);
     }
 
+    @Test
+    public void shouldCacheIntrospectionResults() throws Exception {
+        request.getHeaders().put("Authorization", format("Bearer %s", RPT));
+        mockTokenIntrospection(new Response(Status.OK).setEntity(validToken()));
+        BoundedCache<String, JsonValue, UmaException> cache = new BoundedCache<>(TimeService.SYSTEM);
+        UmaResourceServerFilter filter = new UmaResourceServerFilter(service, handler, null, TimeService.SYSTEM, cache);
+
+        filter.filter(null, request, terminal);
+        filter.filter(null, request, terminal);
+
+        verify(terminal, times(2)).handle(null, request);
+        verify(handler, times(1)).handle(any(Context.class), any(Request.class));
+        assertThat(cache.getHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNotShareCachedIntrospectionResultsBetweenResourceOwners() throws Exception {
+        request.getHeaders().put("Authorization", format("Bearer %s", RPT));
+        Request other = new Request();
+        other.getHeaders().put("Authorization", format("Bearer %s", RPT));
+        when(service.findShare(other)).thenReturn(new Share(SHARE_TEMPLATE,
+                                                            resourceSet(),
+                                                            Pattern.compile(""),
+                                                            OTHER_PAT));
+        mockTokenIntrospection(new Response(Status.OK).setEntity(validToken()),
+                               new Response(Status.OK).setEntity(validToken()));
+        BoundedCache<String, JsonValue, UmaException> cache = new BoundedCache<>(TimeService.SYSTEM);
+        UmaResourceServerFilter filter = new UmaResourceServerFilter(service, handler, null, TimeService.SYSTEM, cache);
+
+        filter.filter(null, request, terminal);
+        filter.filter(null, other, terminal);
+
+        verify(handler, times(2)).handle(any(Context.class), any(Request.class));
+        assertThat(cache.getHitCount()).isEqualTo(0);
+        assertThat(cache.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldNotCacheExpiredTokens() throws Exception {
+        request.getHeaders().put("Authorization", format("Bearer %s", RPT));
+        JsonValue expired = json(validToken()).put("exp", TimeService.SYSTEM.now() / 1000L - 60L);
+        mockTokenIntrospection(new Response(Status.OK).setEntity(expired.getObject()));
+        BoundedCache<String, JsonValue, UmaException> cache = new BoundedCache<>(TimeService.SYSTEM);
+        UmaResourceServerFilter filter = new UmaResourceServerFilter(service, handler, null, TimeService.SYSTEM, cache);
+
+        filter.filter(null, request, terminal);
+        filter.filter(null, request, terminal);
+
+        verify(handler, times(2)).handle(any(Context.class), any(Request.class));
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
     private static Object validToken() {
         return object(field("active", true),
                       field("permissions", array(object(field("resource_set_id", RS_ID),
@@ -186,6 +242,14 @@ public class UmaResourceServerFilterTest {
                 .thenReturn(Response.newResponsePromise(response));
     }
 
+    @SuppressWarnings("unchecked")
+    private void mockTokenIntrospection(final Response first, final Response second) throws URISyntaxException {
+        URI introspectionUri = new URI("http://as.example.com/oauth2/introspect");
+        when(service.getIntrospectionEndpoint()).thenReturn(introspectionUri);
+        when(handler.handle(any(Context.class), argThat(hasUri(introspectionUri))))
+                .thenReturn(Response.newResponsePromise(first), Response.newResponsePromise(second));
+    }
+
     private void mockTicketCreation() throws URISyntaxException {
         mockTicketCreation(new Response(Status.CREATED).setEntity(object(field("ticket", TICKET))));
     }
@@ -11,7 +11,7 @@
  * Header, with the fields enclosed by brackets [] replaced by your own identifying
  * information: "Portions copyright [year] [name of copyright owner]".
  *
- * Copyright 2015 ForgeRock AS.
+ * Copyright 2015-2016 ForgeRock AS.
  */
 
 package org.forgerock.openig.uma;
@@ -28,8 +28,14 @@ import static org.forgerock.json.JsonValue.set;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.when;
 
+import java.io.File;
 import java.net.URI;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.regex.Pattern;
 
 import org.forgerock.http.Handler;
@@ -44,6 +50,7 @@ import org.forgerock.openig.heap.Keys;
 import org.forgerock.openig.heap.Name;
 import org.forgerock.openig.http.EndpointRegistry;
 import org.forgerock.openig.io.TemporaryStorage;
+import org.forgerock.openig.log.Logger;
 import org.forgerock.openig.log.NullLogSink;
 import org.forgerock.services.context.AttributesContext;
 import org.forgerock.services.context.Context;
@@ -187,6 +194,97 @@ public class UmaSharingServiceTest {
         assertThat(service.getShare(share.getId())).isNotNull();
     }
 
+    @Test
+    public void shouldPersistShares() throws Exception {
+        Response response = new Response(Status.CREATED);
+        response.setEntity(RESOURCE_SET_CREATED);
+        when(handler.handle(any(Context.class), any(Request.class)))
+                .thenReturn(newResponsePromise(response));
+
+        ShareTemplate template = new ShareTemplate(Pattern.compile("/alice/allergies.*"),
+                                                   singletonList(
+                                                           createAction("http://uma.example.com/allergies#read")));
+        File file = File.createTempFile("shares", ".json");
+        file.deleteOnExit();
+        ShareStore store = new ShareStore(file,
+                                          new Executor() {
+                                              @Override
+                                              public void execute(final Runnable command) {
+                                                  command.run();
+                                              }
+                                          },
+                                          new Logger(new NullLogSink(), Name.of("Test")));
+
+        UmaSharingService first = new UmaSharingService(handler,
+                                                        singletonList(template),
+                                                        new URI("http://localhost"),
+                                                        "uma",
+                                                        "uma");
+        first.setShareStore(store);
+        Share share = first.createShare(new RootContext(), "/alice/allergies", PAT).getOrThrow();
+
+        UmaSharingService second = new UmaSharingService(handler,
+                                                         singletonList(template),
+                                                         new URI("http://localhost"),
+                                                         "uma",
+                                                         "uma");
+        assertThat(second.restoreShares(store.load())).isEmpty();
+        Share restored = second.getShare(share.getId());
+        assertThat(restored.getPAT()).isEqualTo(PAT);
+        assertThat(restored.getTemplate()).isSameAs(template);
+        assertThat(restored.getResourceSetId()).isEqualTo("e99016bb-b8f1-4e42-b83c-b0be67baf0fd0");
+
+        second.setShareStore(store);
+        second.removeShare(share.getId());
+        assertThat(store.load()).isEmpty();
+    }
+
+    @Test
+    public void shouldCoalesceShareWritesInAnOwnerOnlyFile() throws Exception {
+        Response response1 = new Response(Status.CREATED);
+        response1.setEntity(RESOURCE_SET_CREATED);
+        Response response2 = new Response(Status.CREATED);
+        response2.setEntity(RESOURCE_SET_CREATED_2);
+        when(handler.handle(any(Context.class), any(Request.class)))
+                .thenReturn(newResponsePromise(response1))
+                .thenReturn(newResponsePromise(response2));
+
+        ShareTemplate template = new ShareTemplate(Pattern.compile("/alice/.*"),
+                                                   singletonList(
+                                                           createAction("http://uma.example.com/allergies#read")));
+        File file = File.createTempFile("shares", ".json");
+        file.deleteOnExit();
+        final List<Runnable> writes = new ArrayList<>();
+        ShareStore store = new ShareStore(file,
+                                          new Executor() {
+                                              @Override
+                                              public void execute(final Runnable command) {
+                                                  writes.add(command);
+                                              }
+                                          },
+                                          new Logger(new NullLogSink(), Name.of("Test")));
+
+        UmaSharingService service = new UmaSharingService(handler,
+                                                          singletonList(template),
+                                                          new URI("http://localhost"),
+                                                          "uma",
+                                                          "uma");
+        service.setShareStore(store);
+        service.createShare(new RootContext(), "/alice/allergies", PAT).getOrThrow();
+        service.createShare(new RootContext(), "/alice/calendar", PAT).getOrThrow();
+
+        // Nothing written on the calling thread, a single write for both changes
+        assertThat(store.load()).isEmpty();
+        assertThat(writes).hasSize(1);
+        writes.get(0).run();
+        assertThat(store.load()).hasSize(2);
+
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(file.toPath())))
+                    .isEqualTo("rw-------");
+        }
+    }
+
     @Test
     public void shouldRegisterUmaShareEndpoint() throws Exception {
         Router router = new Router();